@@ -0,0 +1,155 @@
+package entities;
+
+import utils.MapaInteiros;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Busca em largura do menor caminho de amizades entre dois usuários, feita dos dois lados ao
+ * mesmo tempo. A cada passo avança o lado com a fronteira menor, um nível inteiro, e a busca
+ * termina quando um lado alcança um usuário já visitado pelo outro. Assim cada lado percorre só
+ * metade da distância, o que, num grafo em que cada usuário tem muitos amigos, visita uma fração
+ * dos usuários que uma busca a partir de uma só ponta visitaria.
+ *
+ * Tudo é feito com ids: as fronteiras são vetores de int, e o pai de cada usuário visitado fica
+ * num {@link MapaInteiros}. A memória é limitada pelo número máximo de usuários visitados.
+ */
+final class BuscaBidirecional {
+    /**
+     * Leitura dos amigos de um usuário, com as travas necessárias.
+     */
+    interface Vizinhos {
+        /**
+         * Visita os ids dos amigos de um usuário; um usuário que não existe mais não tem amigos.
+         * @param usuario Id do usuário
+         * @param visitante Ação chamada para cada amigo
+         */
+        void paraCadaAmigo(int usuario, IntConsumer visitante);
+    }
+
+    /**
+     * Um dos lados da busca: os usuários já visitados, com o pai de cada um, e a fronteira do
+     * nível atual. O pai da ponta é ela mesma.
+     */
+    private static final class Lado {
+        private final MapaInteiros pais = new MapaInteiros();
+        private int[] fronteira = new int[16];
+        private int tamanhoFronteira;
+
+        private Lado(int ponta) {
+            pais.putSeAusente(ponta, ponta);
+            fronteira[tamanhoFronteira++] = ponta;
+        }
+    }
+
+    private final Vizinhos vizinhos;
+    private final int limiteVisitados;
+    private int[] proxima = new int[16];
+    private int tamanhoProxima;
+    private int encontro;
+
+    /**
+     * Construtor da classe BuscaBidirecional.
+     * @param vizinhos Leitura dos amigos de cada usuário
+     * @param limiteVisitados Número máximo de usuários visitados pelos dois lados juntos
+     */
+    BuscaBidirecional(Vizinhos vizinhos, int limiteVisitados) {
+        this.vizinhos = vizinhos;
+        this.limiteVisitados = limiteVisitados;
+    }
+
+    /**
+     * Procura o menor caminho entre dois usuários.
+     * @param origem Id do primeiro usuário
+     * @param destino Id do segundo usuário
+     * @param profundidadeMaxima Número máximo de amizades no caminho
+     * @return Ids do caminho, da origem ao destino, ou null se não houver caminho dentro da
+     *         profundidade máxima ou se o limite de usuários visitados for atingido antes
+     */
+    int[] buscar(int origem, int destino, int profundidadeMaxima) {
+        if (origem == destino) {
+            return new int[]{origem};
+        }
+        Lado inicio = new Lado(origem);
+        Lado fim = new Lado(destino);
+        encontro = -1;
+        for (int profundidade = 0; profundidade < profundidadeMaxima; profundidade++) {
+            if (inicio.tamanhoFronteira == 0 || fim.tamanhoFronteira == 0) {
+                return null;
+            }
+            if (inicio.tamanhoFronteira <= fim.tamanhoFronteira) {
+                avancar(inicio, fim);
+            } else {
+                avancar(fim, inicio);
+            }
+            if (encontro >= 0) {
+                return caminho(inicio, fim);
+            }
+            if (inicio.pais.size() + fim.pais.size() > limiteVisitados) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Avança um lado em um nível. O primeiro usuário alcançado que o outro lado já visitou fecha
+     * um menor caminho: sem encontro até aqui, a distância passa da soma das profundidades dos
+     * dois lados, e esse usuário fica a exatamente um nível a mais.
+     */
+    private void avancar(Lado lado, Lado outro) {
+        tamanhoProxima = 0;
+        for (int i = 0; i < lado.tamanhoFronteira && encontro < 0; i++) {
+            int atual = lado.fronteira[i];
+            vizinhos.paraCadaAmigo(atual, amigo -> {
+                if (encontro >= 0 || !lado.pais.putSeAusente(amigo, atual)) {
+                    return;
+                }
+                if (outro.pais.contains(amigo)) {
+                    encontro = amigo;
+                    return;
+                }
+                if (tamanhoProxima == proxima.length) {
+                    proxima = Arrays.copyOf(proxima, proxima.length * 2);
+                }
+                proxima[tamanhoProxima++] = amigo;
+            });
+        }
+        // a fronteira atual vira o vetor da próxima rodada
+        int[] anterior = lado.fronteira;
+        lado.fronteira = proxima;
+        lado.tamanhoFronteira = tamanhoProxima;
+        proxima = anterior;
+    }
+
+    private int[] caminho(Lado inicio, Lado fim) {
+        int[] ate = ramo(inicio, encontro);
+        int[] depois = ramo(fim, encontro);
+        int[] caminho = new int[ate.length + depois.length - 1];
+        for (int i = 0; i < ate.length; i++) {
+            caminho[i] = ate[ate.length - 1 - i];
+        }
+        System.arraycopy(depois, 1, caminho, ate.length, depois.length - 1);
+        return caminho;
+    }
+
+    /**
+     * Retorna os ids de um usuário até a ponta de um lado, seguindo os pais.
+     */
+    private static int[] ramo(Lado lado, int usuario) {
+        int[] ramo = new int[8];
+        int tamanho = 0;
+        while (true) {
+            if (tamanho == ramo.length) {
+                ramo = Arrays.copyOf(ramo, tamanho * 2);
+            }
+            ramo[tamanho++] = usuario;
+            int pai = lado.pais.get(usuario);
+            if (pai == usuario) {
+                return Arrays.copyOf(ramo, tamanho);
+            }
+            usuario = pai;
+        }
+    }
+}
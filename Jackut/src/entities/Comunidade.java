@@ -1,22 +1,52 @@
 package entities;
 
-import java.io.Serializable;
-import java.util.LinkedHashSet;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Set;
+import java.util.function.IntConsumer;
 import exceptionsJackut.UsuarioJaFazParteDaComunidadeException;
+import utils.ConjuntoInteiros;
+import utils.EntradaBinaria;
+import utils.SaidaBinaria;
 
-public class Comunidade implements Serializable {
+/**
+ * Comunidade do Jackut. O dono e os membros são guardados pelos ids do {@link RegistroLogins} do
+ * sistema, guardado pela comunidade.
+ *
+ * As mensagens enviadas à comunidade ficam num histórico só de acréscimos, guardado uma única
+ * vez, e cada membro lê a partir do seu cursor em {@link Users}. Cada mensagem tem uma chave
+ * crescente na ordem de entrega do sistema todo, o que permite intercalar as mensagens de várias
+ * comunidades. Uma cópia compartilha os vetores do histórico com a original: como a original
+ * pertence a uma versão capturada e não recebe mais mensagens, a cópia pode escrever depois do
+ * fim dela sem afetá-la.
+ */
+public class Comunidade {
+    private static final long[] SEM_CHAVES = new long[0];
+    private static final String[] SEM_MENSAGENS = new String[0];
+
+    private final RegistroLogins registroLogins;
     private String nome;
     private String descricao;
-    private String dono;
-    private Set<String> membros;
+    private int dono;
+    private ConjuntoInteiros membros;
+    private long[] chaves = SEM_CHAVES;
+    private String[] mensagens = SEM_MENSAGENS;
+    private int quantidadeMensagens;
 
-    public Comunidade(String nome, String descricao, String dono) {
+    /**
+     * Construtor da classe Comunidade, com o dono como primeiro membro.
+     * @param nome Nome da comunidade
+     * @param descricao Descrição da comunidade
+     * @param dono Login do dono
+     * @param registroLogins Registro do sistema, em que valem os ids do dono e dos membros
+     */
+    public Comunidade(String nome, String descricao, String dono, RegistroLogins registroLogins) {
+        this.registroLogins = registroLogins;
         this.nome = nome;
         this.descricao = descricao;
-        this.dono = dono;
-        this.membros = new LinkedHashSet<>();
-        this.membros.add(dono);
+        this.dono = registroLogins.id(dono);
+        this.membros = new ConjuntoInteiros();
+        this.membros.add(this.dono);
     }
 
     public String getDescricao() {
@@ -24,29 +54,182 @@ public class Comunidade implements Serializable {
     }
 
     public String getDono() {
+        return registroLogins.login(dono);
+    }
+
+    public int getIdDono() {
         return dono;
     }
 
     public Set<String> getMembros() {
-        return new LinkedHashSet<>(membros);
+        return registroLogins.logins(membros);
+    }
+
+    /**
+     * Retorna os membros formatados como {@code {membro1,membro2}}, na ordem em que entraram.
+     * @return Lista formatada dos membros
+     */
+    public String getMembrosFormatado() {
+        return registroLogins.formatar(membros);
+    }
+
+    /**
+     * Visita os ids dos membros, na ordem em que entraram.
+     * @param visitante Ação chamada com o id de cada membro
+     */
+    public void paraCadaMembro(IntConsumer visitante) {
+        membros.paraCada(visitante);
+    }
+
+    public int getNumeroDeMembros() {
+        return membros.size();
+    }
+
+    /**
+     * Copia os logins de um trecho dos membros, na ordem em que entraram.
+     * @param inicio Posição do primeiro membro copiado
+     * @param destino Vetor que recebe os logins
+     * @return Número de logins copiados
+     */
+    public int copiarMembros(int inicio, String[] destino) {
+        return registroLogins.logins(membros, inicio, destino);
     }
 
     public String getNome() {
         return nome;
     }
 
-    public void adicionarMembro(String login) throws UsuarioJaFazParteDaComunidadeException {
-        if (membros.contains(login)) {
+    public void adicionarMembro(int usuario) throws UsuarioJaFazParteDaComunidadeException {
+        if (membros.contains(usuario)) {
             throw new UsuarioJaFazParteDaComunidadeException();
         }
-        membros.add(login);
+        membros.add(usuario);
     }
 
     /**
      * Remove um membro da comunidade.
-     * @param login Login do membro a ser removido
+     * @param usuario Id do membro a ser removido
+     */
+    public void removerMembro(int usuario) {
+        membros.remove(usuario);
+    }
+
+    /**
+     * Anexa uma mensagem ao fim do histórico.
+     * @param chave Chave da mensagem na ordem de entrega, maior que a de todas as anteriores
+     * @param mensagem Texto da mensagem
+     */
+    public void publicar(long chave, String mensagem) {
+        if (quantidadeMensagens == chaves.length) {
+            int capacidade = Math.max(4, quantidadeMensagens + (quantidadeMensagens >> 1));
+            chaves = Arrays.copyOf(chaves, capacidade);
+            mensagens = Arrays.copyOf(mensagens, capacidade);
+        }
+        chaves[quantidadeMensagens] = chave;
+        mensagens[quantidadeMensagens] = mensagem;
+        quantidadeMensagens++;
+    }
+
+    /**
+     * Retorna a chave da última mensagem do histórico, que é o cursor de quem entra agora.
+     * @return Chave da última mensagem, ou 0 se não houver nenhuma
+     */
+    public long getUltimaChave() {
+        return quantidadeMensagens == 0 ? 0 : chaves[quantidadeMensagens - 1];
+    }
+
+    /**
+     * Procura a primeira mensagem ainda não lida por um membro, por busca binária nas chaves.
+     * @param cursor Chave da última mensagem lida
+     * @return Posição da primeira mensagem com chave maior que o cursor, ou
+     *         {@link #getQuantidadeMensagens()} se não houver nenhuma
+     */
+    public int proximaMensagem(long cursor) {
+        int inicio = 0;
+        int fim = quantidadeMensagens;
+        while (inicio < fim) {
+            int meio = (inicio + fim) >>> 1;
+            if (chaves[meio] <= cursor) {
+                inicio = meio + 1;
+            } else {
+                fim = meio;
+            }
+        }
+        return inicio;
+    }
+
+    public int getQuantidadeMensagens() {
+        return quantidadeMensagens;
+    }
+
+    public long getChave(int posicao) {
+        return chaves[posicao];
+    }
+
+    public String getMensagem(int posicao) {
+        return mensagens[posicao];
+    }
+
+    /**
+     * Cria uma cópia da comunidade, que pode ser alterada sem afetar a original.
+     * O histórico de mensagens é compartilhado, e não copiado.
+     * @return Cópia da comunidade
+     */
+    public Comunidade copiar() {
+        Comunidade copia = new Comunidade(nome, descricao, getDono(), registroLogins);
+        copia.membros = membros.copiar();
+        copia.chaves = chaves;
+        copia.mensagens = mensagens;
+        copia.quantidadeMensagens = quantidadeMensagens;
+        return copia;
+    }
+
+    /**
+     * Grava a comunidade no formato binário de snapshot. O nome é gravado primeiro,
+     * pois é a chave do registro.
+     * @param saida Saída binária do snapshot
+     */
+    public void gravar(SaidaBinaria saida) throws IOException {
+        saida.escreverLogin(nome);
+        saida.escreverTexto(descricao);
+        saida.escreverLogin(getDono());
+        registroLogins.gravar(saida, membros);
+        saida.escreverVarint(quantidadeMensagens);
+        for (int i = 0; i < quantidadeMensagens; i++) {
+            saida.escreverVarint(chaves[i]);
+            saida.escreverTexto(mensagens[i]);
+        }
+    }
+
+    /**
+     * Reconstrói uma comunidade gravada por {@link #gravar(SaidaBinaria)}. A entrada deve conter
+     * só o registro: se ele terminar antes do histórico, gravado por uma versão anterior, o
+     * histórico fica vazio.
+     * @param entrada Entrada binária do registro
+     * @param registroLogins Registro do sistema em que a comunidade é lida
+     * @return Comunidade lida
+     */
+    public static Comunidade ler(EntradaBinaria entrada, RegistroLogins registroLogins) throws IOException {
+        Comunidade comunidade = lerSemMensagens(entrada, registroLogins);
+        if (entrada.temMais()) {
+            int quantidade = entrada.lerQuantidade();
+            for (int i = 0; i < quantidade; i++) {
+                comunidade.publicar(entrada.lerVarint(), entrada.lerTexto());
+            }
+        }
+        return comunidade;
+    }
+
+    /**
+     * Reconstrói uma comunidade gravada antes do histórico de mensagens, num fluxo em que
+     * outros dados vêm logo depois do registro.
+     * @param entrada Entrada binária do snapshot
+     * @param registroLogins Registro do sistema em que a comunidade é lida
+     * @return Comunidade lida, com o histórico vazio
      */
-    public void removerMembro(String login) {
-        membros.remove(login);
+    public static Comunidade lerSemMensagens(EntradaBinaria entrada, RegistroLogins registroLogins) throws IOException {
+        Comunidade comunidade = new Comunidade(entrada.lerLogin(), entrada.lerTexto(), entrada.lerLogin(), registroLogins);
+        comunidade.membros = registroLogins.ler(entrada);
+        return comunidade;
     }
 } 
\ No newline at end of file
@@ -1,32 +1,215 @@
 package entities;
 
 import exceptionsJackut.*;
-import utils.Persistencia;
+import utils.Armazenamento;
+import utils.Durabilidade;
+import utils.FilaComandos;
+import utils.Journal;
 
+import java.io.UncheckedIOException;
+import java.util.Iterator;
 import java.util.Set;
 
 /**
  * Classe que implementa a interface para os testes de aceitação do EasyAccept.
  * Encapsula as operações do sistema e gerencia a persistência dos dados.
+ * As operações podem ser chamadas por várias threads ao mesmo tempo.
  *
  */
 public class Facade {
+    private static final int LIMITE_JOURNAL = 10000;
+    private final Armazenamento armazenamento;
     private Systems sistema;
+    private Journal journal;
+    private final boolean usarFila;
+    private volatile FilaComandos fila;
+    private Thread checkpointEmAndamento;
+    /** Falha do checkpoint em andamento, escrita pela sua thread antes de terminar. */
+    private UncheckedIOException falhaCheckpoint;
 
     /**
      * Construtor da classe Facade.
-     * Carrega o sistema a partir do arquivo de persistência.
+     * Carrega o último snapshot do sistema e reaplica sobre ele as operações do journal,
+     * usando o armazenamento configurado em {@link Armazenamento#padrao()} e a política de
+     * durabilidade configurada em {@link Durabilidade#padrao()}.
      */
     public Facade() {
-        sistema = Persistencia.carregarSistema();
+        this(Durabilidade.padrao());
     }
 
     /**
-     * Limpa todos os dados do sistema e do arquivo de persistência.
+     * Construtor da classe Facade com uma política de durabilidade explícita.
+     * @param durabilidade Política de gravação das operações no disco
      */
-    public void zerarSistema() {
+    public Facade(Durabilidade durabilidade) {
+        this(Armazenamento.padrao(), durabilidade);
+    }
+
+    /**
+     * Construtor da classe Facade com um armazenamento próprio. Facades com armazenamentos
+     * diferentes, como diretórios diferentes do disco, são sistemas independentes.
+     * As alterações passam pela fila de comandos se ela estiver configurada em
+     * {@link FilaComandos#configurada()}.
+     * @param armazenamento Armazenamento do snapshot, dos checkpoints e do journal
+     * @param durabilidade Política de gravação das operações no disco
+     */
+    public Facade(Armazenamento armazenamento, Durabilidade durabilidade) {
+        this(armazenamento, durabilidade, FilaComandos.configurada());
+    }
+
+    /**
+     * Construtor da classe Facade que escolhe o modo de execução das alterações.
+     * Com a fila, as alterações viram comandos aplicados por uma única thread, em lotes que
+     * esperam o disco uma só vez; as consultas continuam sendo feitas direto no sistema.
+     * @param armazenamento Armazenamento do snapshot, dos checkpoints e do journal
+     * @param durabilidade Política de gravação das operações no disco
+     * @param usarFila true para aplicar as alterações pela {@link FilaComandos}
+     */
+    public Facade(Armazenamento armazenamento, Durabilidade durabilidade, boolean usarFila) {
+        this.armazenamento = armazenamento;
+        try {
+            sistema = armazenamento.carregarSistema();
+            journal = armazenamento.abrirJournal(sistema, durabilidade);
+        } catch (RuntimeException e) {
+            try {
+                armazenamento.fechar();
+            } catch (RuntimeException liberacao) {
+                e.addSuppressed(liberacao);
+            }
+            throw e;
+        }
+        sistema.setJournal(journal);
+        this.usarFila = usarFila;
+        journal.setConfirmacaoEmLote(usarFila);
+    }
+
+    /**
+     * Alteração do sistema sem resultado.
+     */
+    private interface Alteracao {
+        void executar() throws JackutException;
+    }
+
+    /**
+     * Aplica uma alteração no sistema, pela fila de comandos quando ela estiver em uso.
+     */
+    private void alterar(Alteracao alteracao) throws JackutException {
+        alterarComResultado(() -> {
+            alteracao.executar();
+            return null;
+        });
+    }
+
+    /**
+     * Aplica uma alteração no sistema que produz um resultado, como a leitura de um recado.
+     * Se o journal parou por uma falha de gravação, a alteração é recusada antes de mudar o
+     * sistema, e um checkpoint grava o estado atual e passa o journal para um arquivo novo.
+     */
+    private <T> T alterarComResultado(FilaComandos.Comando<T> comando) throws JackutException {
+        try {
+            journal.verificarGravacao();
+        } catch (UncheckedIOException e) {
+            checkpoint();
+            throw e;
+        }
+        T resultado = usarFila ? fila().executar(comando) : comando.executar();
+        verificarJournal();
+        return resultado;
+    }
+
+    /**
+     * Retorna a fila de comandos, iniciando uma nova na primeira alteração depois da criação da
+     * Facade ou de {@link #encerrarSistema()}.
+     */
+    private FilaComandos fila() {
+        FilaComandos atual = fila;
+        if (atual == null) {
+            synchronized (this) {
+                atual = fila;
+                if (atual == null) {
+                    atual = new FilaComandos(journal::confirmarLote);
+                    atual.iniciar();
+                    fila = atual;
+                }
+            }
+        }
+        return atual;
+    }
+
+    /**
+     * Limpa todos os dados do sistema e do arquivo de persistência. Só retorna depois que o
+     * sistema vazio foi gravado no lugar do snapshot, dos segmentos e dos journals anteriores,
+     * para que uma queda logo depois não traga de volta os dados apagados.
+     * @throws java.io.UncheckedIOException Se o sistema vazio não puder ser gravado; os dados
+     *         apagados da memória continuam no disco até o próximo checkpoint
+     */
+    public synchronized void zerarSistema() {
         sistema.zerarSistema();
-        Persistencia.limparDados();
+        checkpoint();
+        UncheckedIOException falha = aguardarCheckpoint();
+        if (falha != null) {
+            throw falha;
+        }
+    }
+
+    /**
+     * Gera um novo snapshot quando o journal fica grande demais. As operações são registradas no
+     * journal pelo próprio sistema, dentro das travas de cada uma.
+     */
+    private void verificarJournal() {
+        if (journal.getRegistros() >= LIMITE_JOURNAL) {
+            synchronized (this) {
+                if (journal.getRegistros() >= LIMITE_JOURNAL) {
+                    checkpoint();
+                }
+            }
+        }
+    }
+
+    /**
+     * Inicia um checkpoint do sistema em segundo plano. Uma versão imutável do sistema é capturada
+     * junto com a rotação do journal; a versão é gravada por outra thread enquanto as operações seguem,
+     * e o journal rotacionado só é apagado quando a gravação termina. Se ela falhar, o journal é
+     * mantido e o próximo checkpoint grava o snapshot completo; a falha é devolvida por
+     * {@link #aguardarCheckpoint()}.
+     * Só há um checkpoint por vez: um novo espera o anterior terminar.
+     */
+    private synchronized void checkpoint() {
+        aguardarCheckpoint();
+        Systems versao = sistema.capturarVersao();
+        Thread gravacao = new Thread(() -> {
+            try {
+                armazenamento.salvarAlteracoes(versao);
+                journal.descartarRotacionados(versao.getSequenciaJournal());
+            } catch (UncheckedIOException e) {
+                sistema.forcarSnapshotCompleto();
+                falhaCheckpoint = e;
+                System.err.println("Erro ao gravar o checkpoint: " + e.getMessage());
+            }
+        }, "jackut-checkpoint");
+        gravacao.setDaemon(true);
+        gravacao.start();
+        checkpointEmAndamento = gravacao;
+    }
+
+    /**
+     * Bloqueia até que o checkpoint em andamento, se houver, termine.
+     * @return Falha do checkpoint aguardado, ou null se ele foi gravado ou se não havia nenhum
+     */
+    private synchronized UncheckedIOException aguardarCheckpoint() {
+        if (checkpointEmAndamento == null) {
+            return null;
+        }
+        try {
+            checkpointEmAndamento.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrompido esperando o checkpoint");
+        }
+        checkpointEmAndamento = null;
+        UncheckedIOException falha = falhaCheckpoint;
+        falhaCheckpoint = null;
+        return falha;
     }
 
     /**
@@ -38,8 +221,7 @@ public class Facade {
      */
     public void criarUsuario(String login, String senha, String nome) throws Exception {
         try {
-            sistema.criarUsuario(login, senha, nome);
-            Persistencia.salvarSistema(sistema);
+            alterar(() -> sistema.criarUsuario(login, senha, nome));
         } catch (ContaJaExisteException | LoginInvalidoException | SenhaInvalidaException e) {
             throw new Exception(e.getMessage());
         }
@@ -68,10 +250,12 @@ public class Facade {
      */
     public void adicionarIdolo(String idSessao, String idolo) throws UsuarioNaoCadastradoException, UsuarioJaAdicionadoComoIdoloException, UsuarioNaoPodeSerFaDeSiMesmoException, UsuarioInimigoException {
         try {
-            sistema.adicionarIdolo(idSessao, idolo);
-            Persistencia.salvarSistema(sistema);
+            alterar(() -> sistema.adicionarIdolo(idSessao, idolo));
         } catch (UsuarioNaoCadastradoException | UsuarioJaAdicionadoComoIdoloException | UsuarioNaoPodeSerFaDeSiMesmoException | UsuarioInimigoException e) {
             throw e;
+        } catch (JackutException e) {
+            // o sistema só lança as exceções acima
+            throw new IllegalStateException(e);
         }
     }
 
@@ -127,10 +311,12 @@ public class Facade {
      */
     public void adicionarPaquera(String idSessao, String paquera) throws UsuarioNaoCadastradoException, UsuarioJaAdicionadoComoPaqueraException, UsuarioNaoPodeSerPaqueraDeSiMesmoException, UsuarioInimigoException {
         try {
-            sistema.adicionarPaquera(idSessao, paquera);
-            Persistencia.salvarSistema(sistema);
+            alterar(() -> sistema.adicionarPaquera(idSessao, paquera));
         } catch (UsuarioNaoCadastradoException | UsuarioJaAdicionadoComoPaqueraException | UsuarioNaoPodeSerPaqueraDeSiMesmoException | UsuarioInimigoException e) {
             throw e;
+        } catch (JackutException e) {
+            // o sistema só lança as exceções acima
+            throw new IllegalStateException(e);
         }
     }
 
@@ -156,8 +342,7 @@ public class Facade {
      */
     public void adicionarInimigo(String idSessao, String inimigo) throws Exception {
         try {
-            sistema.adicionarInimigo(idSessao, inimigo);
-            Persistencia.salvarSistema(sistema);
+            alterar(() -> sistema.adicionarInimigo(idSessao, inimigo));
         } catch (UsuarioNaoCadastradoException e) {
             throw new Exception("Usuário não cadastrado.");
         } catch (UsuarioJaAdicionadoComoInimigoException e) {
@@ -193,8 +378,7 @@ public class Facade {
      */
     public void editarPerfil(String id, String atributo, String valor) throws Exception {
         try {
-            sistema.editarPerfil(id, atributo, valor);
-            Persistencia.salvarSistema(sistema);
+            alterar(() -> sistema.editarPerfil(id, atributo, valor));
         } catch (UsuarioNaoCadastradoException e) {
             throw new Exception("Usuário não cadastrado.");
         }
@@ -208,9 +392,12 @@ public class Facade {
      */
     public void adicionarAmigo(String idSessao, String amigo) throws UsuarioNaoCadastradoException, UsuarioJaAdicionadoException, UsuarioJaAdicionadoComConvitePendenteException, UsuarioNaoPodeAdicionarASiMesmoException, UsuarioInimigoException {
         try {
-            sistema.adicionarAmigo(idSessao, amigo);
+            alterar(() -> sistema.adicionarAmigo(idSessao, amigo));
         } catch (UsuarioNaoCadastradoException | UsuarioJaAdicionadoException | UsuarioJaAdicionadoComConvitePendenteException | UsuarioNaoPodeAdicionarASiMesmoException | UsuarioInimigoException e) {
             throw e;
+        } catch (JackutException e) {
+            // o sistema só lança as exceções acima
+            throw new IllegalStateException(e);
         }
     }
 
@@ -252,10 +439,12 @@ public class Facade {
      */
     public void enviarRecado(String idSessao, String destinatario, String mensagem) throws UsuarioNaoCadastradoException, UsuarioNaoPodeEnviarRecadoParaSiMesmoException, UsuarioInimigoException {
         try {
-            sistema.enviarRecado(idSessao, destinatario, mensagem);
-            Persistencia.salvarSistema(sistema);
+            alterar(() -> sistema.enviarRecado(idSessao, destinatario, mensagem));
         } catch (UsuarioNaoCadastradoException | UsuarioNaoPodeEnviarRecadoParaSiMesmoException | UsuarioInimigoException e) {
             throw e;
+        } catch (JackutException e) {
+            // o sistema só lança as exceções acima
+            throw new IllegalStateException(e);
         }
     }
 
@@ -267,8 +456,7 @@ public class Facade {
      */
     public String lerRecado(String id) throws Exception {
         try {
-            String recado = sistema.lerRecado(id);
-            Persistencia.salvarSistema(sistema);
+            String recado = alterarComResultado(() -> sistema.lerRecado(id));
             return recado;
         } catch (UsuarioNaoCadastradoException e) {
             throw new Exception("Usuário não cadastrado.");
@@ -278,10 +466,28 @@ public class Facade {
     }
 
     /**
-     * Salva o estado atual do sistema no arquivo de persistência.
+     * Salva o estado atual do sistema no arquivo de persistência e libera o armazenamento, depois
+     * de terminadas as gravações em segundo plano, para que outra Facade possa abri-lo. A fila de
+     * comandos, se estiver em uso, aplica o que já foi publicado e tem a sua thread encerrada;
+     * uma alteração posterior inicia outra, assim como o journal é reaberto no próximo registro.
+     * @throws java.io.UncheckedIOException Se o estado não puder ser gravado; o armazenamento é
+     *         liberado mesmo assim, e o journal mantido no disco é reaplicado na próxima abertura
      */
-    public void encerrarSistema() {
-        Persistencia.salvarSistema(sistema);
+    public synchronized void encerrarSistema() {
+        if (fila != null) {
+            fila.fechar();
+            fila = null;
+        }
+        checkpoint();
+        UncheckedIOException falha = aguardarCheckpoint();
+        try {
+            journal.fechar();
+        } finally {
+            armazenamento.fechar();
+        }
+        if (falha != null) {
+            throw falha;
+        }
     }
 
     /**
@@ -291,8 +497,7 @@ public class Facade {
      */
     public void removerUsuario(String idSessao) throws Exception {
         try {
-            sistema.removerUsuario(idSessao);
-            Persistencia.salvarSistema(sistema);
+            alterar(() -> sistema.removerUsuario(idSessao));
         } catch (UsuarioNaoCadastradoException e) {
             throw new Exception("Usuário não cadastrado.");
         }
@@ -301,8 +506,7 @@ public class Facade {
 
     public void criarComunidade(String sessao, String nome, String descricao) throws Exception {
         try {
-            sistema.criarComunidade(sessao, nome, descricao);
-            Persistencia.salvarSistema(sistema);
+            alterar(() -> sistema.criarComunidade(sessao, nome, descricao));
         } catch (ComunidadeComEsseNomeJaExisteException e) {
             throw new Exception("Comunidade com esse nome já existe.");
         } catch (UsuarioNaoCadastradoException e) {
@@ -338,8 +542,7 @@ public class Facade {
 
     public void adicionarComunidade(String sessao, String nome) throws Exception {
         try {
-            sistema.adicionarMembroComunidade(sessao, nome);
-            Persistencia.salvarSistema(sistema);
+            alterar(() -> sistema.adicionarMembroComunidade(sessao, nome));
         } catch (ComunidadeNaoExisteException e) {
             throw new Exception("Comunidade não existe.");
         } catch (UsuarioNaoCadastradoException e) {
@@ -357,10 +560,256 @@ public class Facade {
         }
     }
 
+    /**
+     * Retorna o número de amigos de um usuário, sem formatar a lista.
+     * @param login Login do usuário
+     * @return Tamanho da lista
+     * @throws Exception Se o usuário não existir
+     */
+    public int getNumeroDeAmigos(String login) throws Exception {
+        try {
+            return sistema.getNumeroDeAmigos(login);
+        } catch (UsuarioNaoCadastradoException e) {
+            throw new Exception("Usuário não cadastrado.");
+        }
+    }
+
+    /**
+     * Retorna o número de fãs de um usuário, sem formatar a lista.
+     * @param login Login do usuário
+     * @return Tamanho da lista
+     * @throws Exception Se o usuário não existir
+     */
+    public int getNumeroDeFas(String login) throws Exception {
+        try {
+            return sistema.getNumeroDeFas(login);
+        } catch (UsuarioNaoCadastradoException e) {
+            throw new Exception("Usuário não cadastrado.");
+        }
+    }
+
+    /**
+     * Retorna o número de comunidades de que um usuário participa, sem formatar a lista.
+     * @param login Login do usuário
+     * @return Tamanho da lista
+     * @throws Exception Se o usuário não existir
+     */
+    public int getNumeroDeComunidades(String login) throws Exception {
+        try {
+            return sistema.getNumeroDeComunidades(login);
+        } catch (UsuarioNaoCadastradoException e) {
+            throw new Exception("Usuário não cadastrado.");
+        }
+    }
+
+    /**
+     * Retorna o número de membros de uma comunidade, sem formatar a lista.
+     * @param nome Nome da comunidade
+     * @return Tamanho da lista
+     * @throws Exception Se a comunidade não existir
+     */
+    public int getNumeroDeMembros(String nome) throws Exception {
+        try {
+            return sistema.getNumeroDeMembros(nome);
+        } catch (ComunidadeNaoExisteException e) {
+            throw new Exception("Comunidade não existe.");
+        }
+    }
+
+    /**
+     * Retorna uma página dos amigos de um usuário, formatada como {amigo1,amigo2}, na ordem em
+     * que as amizades foram feitas. A página seguinte começa em inicio + limite; uma página vazia,
+     * inclusive a de um início além do fim da lista, indica o fim. Uma página tem no máximo
+     * 10000 itens, mesmo que o limite pedido seja maior.
+     * @param login Login do usuário
+     * @param inicio Posição do primeiro amigo da página, a partir de 0
+     * @param limite Número máximo de amigos na página, maior que 0
+     * @return Página formatada
+     * @throws Exception Se o usuário não existir ou a página for inválida
+     */
+    public String getAmigosPaginados(String login, int inicio, int limite) throws Exception {
+        try {
+            return sistema.getAmigos(login, inicio, limite).getFormatado();
+        } catch (UsuarioNaoCadastradoException e) {
+            throw new Exception("Usuário não cadastrado.");
+        }
+    }
+
+    /**
+     * Retorna uma página dos fãs de um usuário, formatada como {fa1,fa2}, nas mesmas condições de
+     * {@link #getAmigosPaginados(String, int, int)}.
+     * @param login Login do usuário
+     * @param inicio Posição do primeiro fã da página
+     * @param limite Número máximo de fãs na página
+     * @return Página formatada
+     * @throws Exception Se o usuário não existir ou a página for inválida
+     */
+    public String getFasPaginados(String login, int inicio, int limite) throws Exception {
+        try {
+            return sistema.getFas(login, inicio, limite).getFormatado();
+        } catch (UsuarioNaoCadastradoException e) {
+            throw new Exception("Usuário não cadastrado.");
+        }
+    }
+
+    /**
+     * Retorna uma página das comunidades de um usuário, formatada como {comunidade1,comunidade2},
+     * nas mesmas condições de {@link #getAmigosPaginados(String, int, int)}.
+     * @param login Login do usuário
+     * @param inicio Posição da primeira comunidade da página
+     * @param limite Número máximo de comunidades na página
+     * @return Página formatada
+     * @throws Exception Se o usuário não existir ou a página for inválida
+     */
+    public String getComunidadesPaginadas(String login, int inicio, int limite) throws Exception {
+        try {
+            return sistema.getComunidades(login, inicio, limite).getFormatado();
+        } catch (UsuarioNaoCadastradoException e) {
+            throw new Exception("Usuário não cadastrado.");
+        }
+    }
+
+    /**
+     * Retorna uma página dos membros de uma comunidade, formatada como {membro1,membro2}, nas
+     * mesmas condições de {@link #getAmigosPaginados(String, int, int)}.
+     * @param nome Nome da comunidade
+     * @param inicio Posição do primeiro membro da página
+     * @param limite Número máximo de membros na página
+     * @return Página formatada
+     * @throws Exception Se a comunidade não existir ou a página for inválida
+     */
+    public String getMembrosComunidadePaginados(String nome, int inicio, int limite) throws Exception {
+        try {
+            return sistema.getMembrosComunidade(nome, inicio, limite).getFormatado();
+        } catch (ComunidadeNaoExisteException e) {
+            throw new Exception("Comunidade não existe.");
+        }
+    }
+
+    /**
+     * Retorna os amigos que dois usuários têm em comum, formatados como {amigo1,amigo2}, na ordem
+     * em que estão na lista de amigos menor, ou na do primeiro usuário se as listas tiverem o mesmo
+     * tamanho. Dois usuários sem amigos em comum resultam em {}.
+     * @param login Login do primeiro usuário
+     * @param outro Login do segundo usuário
+     * @return Lista formatada
+     * @throws Exception Se algum dos usuários não existir
+     */
+    public String getAmigosEmComum(String login, String outro) throws Exception {
+        try {
+            return sistema.getAmigosEmComum(login, outro);
+        } catch (UsuarioNaoCadastradoException e) {
+            throw new Exception("Usuário não cadastrado.");
+        }
+    }
+
+    /**
+     * Sugere amizades pelos amigos em comum: os amigos dos amigos do usuário, da sugestão com mais
+     * amigos em comum para a com menos. Entre sugestões com o mesmo número, vem antes a que aparece
+     * primeiro percorrendo os amigos do usuário, na ordem em que as amizades foram feitas, e os
+     * amigos de cada um, na mesma ordem. Ficam de fora o próprio usuário, os seus amigos, quem tem
+     * um convite de amizade pendente com ele, em qualquer sentido, e quem é inimigo dele ou o tem
+     * como inimigo.
+     * @param login Login do usuário
+     * @param quantidade Número máximo de sugestões, positivo; são devolvidas no máximo 10000
+     * @return Lista formatada como {login1,login2}
+     * @throws Exception Se o usuário não existir ou a quantidade for inválida
+     */
+    public String getSugestoesDeAmizade(String login, int quantidade) throws Exception {
+        try {
+            return sistema.getSugestoesDeAmizade(login, quantidade);
+        } catch (UsuarioNaoCadastradoException e) {
+            throw new Exception("Usuário não cadastrado.");
+        }
+    }
+
+    /**
+     * Retorna o menor caminho de amizades entre dois usuários, formatado como {origem,amigo,destino}.
+     * O caminho segue as amizades como {@link #getAmigos(String)} as lista: convites pendentes não
+     * ligam ninguém, e uma inimizade declarada depois da amizade não a desfaz. O caminho de um
+     * usuário para ele mesmo é {origem}. Entre caminhos do mesmo tamanho, qualquer um pode ser
+     * retornado.
+     *
+     * A busca para depois de visitar 2000000 usuários, somando os dois lados, para que uma
+     * consulta num grafo muito grande não ocupe a memória nem o tempo sem limite. Nesse caso o
+     * resultado é {}, como quando não há caminho, mesmo que um caminho mais longo exista.
+     * @param login Login do usuário de origem
+     * @param destino Login do usuário de destino
+     * @param profundidadeMaxima Número máximo de amizades no caminho, positivo
+     * @return Caminho formatado, ou {} se não houver caminho até a profundidade máxima ou se o
+     *         limite de usuários visitados for atingido
+     * @throws Exception Se algum dos usuários não existir ou a profundidade for inválida
+     */
+    public String getCaminhoDeAmizade(String login, String destino, int profundidadeMaxima) throws Exception {
+        try {
+            return sistema.getCaminhoDeAmizade(login, destino, profundidadeMaxima);
+        } catch (UsuarioNaoCadastradoException e) {
+            throw new Exception("Usuário não cadastrado.");
+        }
+    }
+
+    /**
+     * Percorre os amigos de um usuário sem copiar a lista inteira. Os amigos são lidos em lotes,
+     * cada um com uma consulta curta ao sistema; amizades feitas durante o percurso também são
+     * visitadas, e o percurso termina se o usuário for removido.
+     * @param login Login do usuário
+     * @return Iterador dos logins dos amigos
+     * @throws Exception Se o usuário não existir
+     */
+    public Iterator<String> percorrerAmigos(String login) throws Exception {
+        try {
+            return sistema.percorrerAmigos(login);
+        } catch (UsuarioNaoCadastradoException e) {
+            throw new Exception("Usuário não cadastrado.");
+        }
+    }
+
+    /**
+     * Percorre os fãs de um usuário em lotes, como {@link #percorrerAmigos(String)}.
+     * @param login Login do usuário
+     * @return Iterador dos logins dos fãs
+     * @throws Exception Se o usuário não existir
+     */
+    public Iterator<String> percorrerFas(String login) throws Exception {
+        try {
+            return sistema.percorrerFas(login);
+        } catch (UsuarioNaoCadastradoException e) {
+            throw new Exception("Usuário não cadastrado.");
+        }
+    }
+
+    /**
+     * Percorre as comunidades de um usuário em lotes, como {@link #percorrerAmigos(String)}.
+     * @param login Login do usuário
+     * @return Iterador dos nomes das comunidades
+     * @throws Exception Se o usuário não existir
+     */
+    public Iterator<String> percorrerComunidades(String login) throws Exception {
+        try {
+            return sistema.percorrerComunidades(login);
+        } catch (UsuarioNaoCadastradoException e) {
+            throw new Exception("Usuário não cadastrado.");
+        }
+    }
+
+    /**
+     * Percorre os membros de uma comunidade em lotes, como {@link #percorrerAmigos(String)}; o
+     * percurso termina se a comunidade for removida.
+     * @param nome Nome da comunidade
+     * @return Iterador dos logins dos membros
+     * @throws Exception Se a comunidade não existir
+     */
+    public Iterator<String> percorrerMembros(String nome) throws Exception {
+        try {
+            return sistema.percorrerMembros(nome);
+        } catch (ComunidadeNaoExisteException e) {
+            throw new Exception("Comunidade não existe.");
+        }
+    }
+
     public void enviarMensagem(String id, String comunidade, String mensagem) throws Exception {
         try {
-            sistema.enviarMensagem(id, comunidade, mensagem);
-            Persistencia.salvarSistema(sistema);
+            alterar(() -> sistema.enviarMensagem(id, comunidade, mensagem));
         } catch (ComunidadeNaoExisteException e) {
             throw new Exception("Comunidade não existe.");
         } catch (UsuarioNaoCadastradoException e) {
@@ -370,8 +819,7 @@ public class Facade {
 
     public String lerMensagem(String id) throws Exception {
         try {
-            String mensagem = sistema.lerMensagem(id);
-            Persistencia.salvarSistema(sistema);
+            String mensagem = alterarComResultado(() -> sistema.lerMensagem(id));
             return mensagem;
         } catch (UsuarioNaoCadastradoException e) {
             throw new Exception("Usuário não cadastrado.");
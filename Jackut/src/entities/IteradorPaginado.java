@@ -0,0 +1,65 @@
+package entities;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterador que percorre uma lista grande em lotes, lendo cada lote com uma chamada curta, para
+ * que as travas do sistema não fiquem presas durante todo o percurso. O vetor do lote é
+ * reaproveitado, e os itens são as instâncias guardadas no sistema, então nada é alocado por item.
+ *
+ * Itens adicionados ao fim da lista antes de o percurso chegar lá também são visitados. Se a
+ * lista deixar de existir, o percurso termina.
+ */
+final class IteradorPaginado implements Iterator<String> {
+    static final int TAMANHO_LOTE = 1024;
+
+    /**
+     * Leitura de um lote da lista, com as travas necessárias.
+     */
+    interface Leitor {
+        /**
+         * Copia itens da lista para o lote.
+         * @param inicio Posição do primeiro item
+         * @param destino Lote a ser preenchido
+         * @return Número de itens copiados, 0 no fim da lista
+         */
+        int ler(int inicio, String[] destino);
+    }
+
+    private final Leitor leitor;
+    private final String[] lote = new String[TAMANHO_LOTE];
+    private int quantidade;
+    private int posicaoNoLote;
+    private int proximoInicio;
+    private boolean fim;
+
+    IteradorPaginado(Leitor leitor) {
+        this.leitor = leitor;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (posicaoNoLote < quantidade) {
+            return true;
+        }
+        if (fim) {
+            return false;
+        }
+        quantidade = leitor.ler(proximoInicio, lote);
+        posicaoNoLote = 0;
+        proximoInicio += quantidade;
+        fim = quantidade < lote.length;
+        return quantidade > 0;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String item = lote[posicaoNoLote];
+        lote[posicaoNoLote++] = null;
+        return item;
+    }
+}
@@ -0,0 +1,61 @@
+package entities;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Trecho de uma lista de logins ou de comunidades, lido por posição. A posição da próxima
+ * página é o token de continuação: como os relacionamentos e os membros só crescem no fim,
+ * ler página por página não repete nem pula ninguém enquanto outros são adicionados.
+ */
+public final class Pagina {
+    private final List<String> itens;
+    private final int proximo;
+    private final int total;
+
+    /**
+     * Construtor da classe Pagina.
+     * @param itens Vetor com os itens da página no início
+     * @param quantidade Número de itens preenchidos no vetor
+     * @param inicio Posição do primeiro item na lista completa
+     * @param total Tamanho da lista completa no momento da leitura
+     */
+    Pagina(String[] itens, int quantidade, int inicio, int total) {
+        this.itens = Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(itens, quantidade)));
+        this.proximo = inicio + quantidade < total ? inicio + quantidade : -1;
+        this.total = total;
+    }
+
+    public List<String> getItens() {
+        return itens;
+    }
+
+    /**
+     * Retorna a posição em que começa a próxima página.
+     * @return Posição da próxima página, ou -1 se esta for a última
+     */
+    public int getProximo() {
+        return proximo;
+    }
+
+    /**
+     * Retorna o tamanho da lista completa quando a página foi lida.
+     * @return Número total de itens
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    public boolean temMais() {
+        return proximo >= 0;
+    }
+
+    /**
+     * Retorna os itens da página formatados como {@code {item1,item2}}.
+     * @return Página formatada
+     */
+    public String getFormatado() {
+        return "{" + String.join(",", itens) + "}";
+    }
+}
@@ -0,0 +1,177 @@
+package entities;
+
+import utils.ConjuntoInteiros;
+import utils.EntradaBinaria;
+import utils.SaidaBinaria;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro que dá a cada login um id inteiro denso, usado para guardar o grafo de
+ * relacionamentos. Cada login é guardado uma só vez, numa instância canônica de String, e os
+ * conjuntos de amigos, fãs, convites, paqueras e membros guardam apenas os ids.
+ *
+ * Cada {@link Systems} tem o seu registro, e {@link Users} e {@link Comunidade} guardam o registro
+ * em que os seus ids valem. Snapshots e journal gravam os logins, que são traduzidos de volta
+ * para ids na leitura, então cada carga começa um registro novo, só com os logins que aparecem
+ * nos dados. Zerar o sistema também troca o registro. Dentro de um registro um id não é
+ * reaproveitado, nem depois que o usuário é removido, porque uma versão capturada do sistema
+ * ainda pode referenciá-lo; ele deixa de ocupar memória na próxima carga.
+ *
+ * A consulta de um login conhecido não trava; só a atribuição de um id novo é sincronizada.
+ */
+public final class RegistroLogins {
+    /** Id de um login que nunca foi registrado; não pertence a nenhum conjunto. */
+    public static final int DESCONHECIDO = -1;
+
+    private final Map<String, Integer> idsPorLogin = new ConcurrentHashMap<>();
+    private volatile String[] logins = new String[64];
+    private int proximo;
+
+    /**
+     * Retorna o id de um login, registrando-o se for a primeira vez que ele aparece.
+     * @param login Login do usuário
+     * @return Id do login
+     */
+    public int id(String login) {
+        Integer id = idsPorLogin.get(login);
+        if (id != null) {
+            return id;
+        }
+        return registrar(login);
+    }
+
+    private synchronized int registrar(String login) {
+        Integer existente = idsPorLogin.get(login);
+        if (existente != null) {
+            return existente;
+        }
+        int id = proximo++;
+        String[] atuais = logins;
+        if (id == atuais.length) {
+            atuais = Arrays.copyOf(atuais, atuais.length * 2);
+        }
+        atuais[id] = login;
+        logins = atuais;
+        // o id só fica visível depois que o login está no vetor publicado
+        idsPorLogin.put(login, id);
+        return id;
+    }
+
+    /**
+     * Retorna o id de um login sem registrá-lo. Usado em consultas, para que logins
+     * inexistentes não ocupem o registro.
+     * @param login Login do usuário, possivelmente nulo
+     * @return Id do login, ou {@link #DESCONHECIDO} se ele nunca foi registrado
+     */
+    public int buscar(String login) {
+        if (login == null) {
+            return DESCONHECIDO;
+        }
+        Integer id = idsPorLogin.get(login);
+        return id == null ? DESCONHECIDO : id;
+    }
+
+    /**
+     * Retorna a instância canônica do login de um id.
+     * @param id Id obtido deste registro
+     * @return Login do id
+     */
+    public String login(int id) {
+        return logins[id];
+    }
+
+    /**
+     * Traduz ids para os seus logins, mantendo a ordem.
+     * @param ids Ids obtidos deste registro
+     * @return Conjunto novo com os logins
+     */
+    public Set<String> logins(ConjuntoInteiros ids) {
+        String[] atuais = logins;
+        Set<String> resultado = new LinkedHashSet<>();
+        for (int i = 0; i < ids.size(); i++) {
+            resultado.add(atuais[ids.get(i)]);
+        }
+        return resultado;
+    }
+
+    /**
+     * Copia para um vetor os logins de um trecho de um conjunto de ids, na ordem do conjunto.
+     * Os logins copiados são as instâncias canônicas, então nada é alocado por elemento.
+     * @param ids Ids obtidos deste registro
+     * @param inicio Posição do primeiro id copiado
+     * @param destino Vetor que recebe os logins, a partir da posição 0
+     * @return Número de logins copiados, 0 se o início passar do fim do conjunto
+     */
+    public int logins(ConjuntoInteiros ids, int inicio, String[] destino) {
+        String[] atuais = logins;
+        int quantidade = Math.max(0, Math.min(destino.length, ids.size() - inicio));
+        for (int i = 0; i < quantidade; i++) {
+            destino[i] = atuais[ids.get(inicio + i)];
+        }
+        return quantidade;
+    }
+
+    /**
+     * Formata os logins de um conjunto de ids como {@code {login1,login2}}, na ordem do conjunto.
+     * Como o login de um id nunca muda, o texto fica guardado no conjunto até a próxima alteração,
+     * e leituras repetidas retornam a mesma instância.
+     * @param ids Ids obtidos deste registro
+     * @return Lista formatada, ou {@code {}} se o conjunto estiver vazio
+     */
+    public String formatar(ConjuntoInteiros ids) {
+        if (ids.isEmpty()) {
+            return "{}";
+        }
+        String formatado = ids.getFormatado();
+        if (formatado != null) {
+            return formatado;
+        }
+        String[] atuais = logins;
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < ids.size(); i++) {
+            sb.append(atuais[ids.get(i)]).append(',');
+        }
+        sb.setCharAt(sb.length() - 1, '}');
+        formatado = sb.toString();
+        ids.setFormatado(formatado);
+        return formatado;
+    }
+
+    /**
+     * Grava um conjunto de ids pelos seus logins, no formato de
+     * {@link SaidaBinaria#escreverLogins(Collection)}.
+     * @param saida Saída binária do snapshot
+     * @param ids Ids a serem gravados
+     */
+    public void gravar(SaidaBinaria saida, ConjuntoInteiros ids) throws IOException {
+        String[] atuais = logins;
+        saida.escreverVarint(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            saida.escreverLogin(atuais[ids.get(i)]);
+        }
+    }
+
+    /**
+     * Lê logins gravados por {@link #gravar(SaidaBinaria, ConjuntoInteiros)}.
+     * @param entrada Entrada binária do snapshot
+     * @return Conjunto com os ids lidos, ou {@link ConjuntoInteiros#VAZIO} se não houver nenhum
+     */
+    public ConjuntoInteiros ler(EntradaBinaria entrada) throws IOException {
+        int quantidade = entrada.lerQuantidade();
+        if (quantidade == 0) {
+            return ConjuntoInteiros.VAZIO;
+        }
+        ConjuntoInteiros ids = new ConjuntoInteiros();
+        for (int i = 0; i < quantidade; i++) {
+            ids.add(id(entrada.lerLogin()));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,361 @@
+package entities;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gerencia as sessões abertas do sistema. As sessões só existem na memória: não fazem parte dos
+ * snapshots e são perdidas quando o sistema é encerrado.
+ *
+ * Cada sessão ocupa uma posição de uma tabela de tamanho limitado, e o seu id, em hexadecimal,
+ * tem {@value #BITS_ALEATORIOS} bits aleatórios seguidos da posição. Encontrar a sessão de um id é
+ * só ler a posição e conferir os bits aleatórios, sem hash de strings. Os bits aleatórios vêm de um
+ * {@link SecureRandom} de cada thread, que não é previsível a partir de ids anteriores e não é
+ * disputado por threads que abrem sessões ao mesmo tempo. A tabela é dividida em blocos alocados
+ * à medida que são usados.
+ *
+ * Sessões sem uso por mais que o tempo de inatividade expiram. Elas ficam numa roda de tempo
+ * (timing wheel) com uma faixa por intervalo de tempo; a cada intervalo vencido, a faixa
+ * correspondente é percorrida uma vez, e as sessões usadas nesse meio tempo voltam para a faixa
+ * do seu novo vencimento. A roda é avançada por quem abre sessões, sem uma thread própria, e o
+ * acesso a uma sessão só atualiza o instante do seu último uso. Se a tabela encher, as sessões
+ * mais próximas de expirar são encerradas antes do tempo.
+ *
+ * O tempo de inatividade, em segundos, pode ser definido pela propriedade
+ * {@value #PROPRIEDADE_INATIVIDADE}, e o número máximo de sessões pela propriedade
+ * {@value #PROPRIEDADE_LIMITE}.
+ */
+public class SessionManager {
+    public static final String PROPRIEDADE_INATIVIDADE = "jackut.sessoes.inatividade";
+    public static final String PROPRIEDADE_LIMITE = "jackut.sessoes.limite";
+    private static final long INATIVIDADE_PADRAO = TimeUnit.MINUTES.toSeconds(30);
+    private static final int LIMITE_PADRAO = 1 << 20;
+    private static final int BITS_POSICAO = 24;
+    private static final int BITS_ALEATORIOS = 128;
+    /** Dígitos hexadecimais de cada metade aleatória e da posição no id. */
+    private static final int DIGITOS_METADE = 16;
+    private static final int DIGITOS_POSICAO = BITS_POSICAO / 4;
+    private static final int TAMANHO_ID = 2 * DIGITOS_METADE + DIGITOS_POSICAO;
+    private static final int BITS_BLOCO = 12;
+    private static final int TAMANHO_BLOCO = 1 << BITS_BLOCO;
+    private static final int FAIXAS = 64;
+    private static final ThreadLocal<SecureRandom> ALEATORIOS = ThreadLocal.withInitial(SecureRandom::new);
+
+    /**
+     * Sessão aberta. Os dois tokens são os bits aleatórios do id, e o usuário é o seu id no
+     * {@link RegistroLogins}.
+     */
+    private static final class Sessao {
+        final long tokenAlto;
+        final long tokenBaixo;
+        final int posicao;
+        final int usuario;
+        volatile long ultimoUso;
+
+        Sessao(long tokenAlto, long tokenBaixo, int posicao, int usuario, long agora) {
+            this.tokenAlto = tokenAlto;
+            this.tokenBaixo = tokenBaixo;
+            this.posicao = posicao;
+            this.usuario = usuario;
+            this.ultimoUso = agora;
+        }
+    }
+
+    private final long inatividade;
+    private final long intervalo;
+    private final int limite;
+    private final AtomicReferenceArray<AtomicReferenceArray<Sessao>> blocos;
+    private final AtomicInteger usadas = new AtomicInteger();
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final List<ConcurrentLinkedQueue<Sessao>> faixas;
+    private final ReentrantLock roda = new ReentrantLock();
+    private volatile long intervaloAtual;
+
+    /**
+     * Construtor da classe SessionManager, com o tempo de inatividade e o limite de sessões
+     * definidos pelas propriedades {@value #PROPRIEDADE_INATIVIDADE} e {@value #PROPRIEDADE_LIMITE}.
+     */
+    public SessionManager() {
+        this(TimeUnit.SECONDS.toNanos(Long.getLong(PROPRIEDADE_INATIVIDADE, INATIVIDADE_PADRAO)),
+                Integer.getInteger(PROPRIEDADE_LIMITE, LIMITE_PADRAO));
+    }
+
+    /**
+     * Construtor da classe SessionManager.
+     * @param inatividade Tempo sem uso, em nanossegundos, após o qual uma sessão expira
+     * @param limite Número máximo de sessões abertas, arredondado para um múltiplo do tamanho
+     *               de um bloco e limitado a 2^24
+     */
+    public SessionManager(long inatividade, int limite) {
+        if (inatividade <= 0 || limite <= 0) {
+            throw new IllegalArgumentException("Tempo de inatividade e limite de sessões devem ser positivos");
+        }
+        int quantidadeBlocos = (int) Math.min(1L << (BITS_POSICAO - BITS_BLOCO),
+                ((long) limite + TAMANHO_BLOCO - 1) >>> BITS_BLOCO);
+        this.inatividade = inatividade;
+        // a roda cobre o tempo de inatividade inteiro, de modo que nenhum vencimento dá a volta nela
+        this.intervalo = Math.max(1, (inatividade + FAIXAS - 2) / (FAIXAS - 1));
+        this.limite = quantidadeBlocos << BITS_BLOCO;
+        this.blocos = new AtomicReferenceArray<>(quantidadeBlocos);
+        this.faixas = new ArrayList<>(FAIXAS);
+        for (int i = 0; i < FAIXAS; i++) {
+            faixas.add(new ConcurrentLinkedQueue<>());
+        }
+        this.intervaloAtual = System.nanoTime() / intervalo;
+    }
+
+    /**
+     * Abre uma sessão para um usuário.
+     * @param usuario Id do usuário
+     * @return ID da nova sessão
+     */
+    public String abrir(int usuario) {
+        long agora = System.nanoTime();
+        avancar(agora);
+        while (true) {
+            int posicao = reservarPosicao();
+            SecureRandom aleatorio = ALEATORIOS.get();
+            Sessao sessao = new Sessao(aleatorio.nextLong(), aleatorio.nextLong(), posicao, usuario, agora);
+            if (bloco(posicao, true).compareAndSet(posicao & (TAMANHO_BLOCO - 1), null, sessao)) {
+                faixas.get(faixa(vencimento(sessao))).add(sessao);
+                return id(sessao);
+            }
+            usadas.decrementAndGet();
+        }
+    }
+
+    /**
+     * Retorna o usuário de uma sessão aberta, marcando a sessão como usada agora.
+     * @param idSessao ID da sessão
+     * @return Id do usuário da sessão, ou {@link RegistroLogins#DESCONHECIDO} se a sessão não
+     *         existir ou tiver expirado
+     */
+    public int getUsuario(String idSessao) {
+        Sessao sessao = buscar(idSessao);
+        if (sessao == null) {
+            return RegistroLogins.DESCONHECIDO;
+        }
+        long agora = System.nanoTime();
+        if (agora - sessao.ultimoUso >= inatividade) {
+            return RegistroLogins.DESCONHECIDO;
+        }
+        // só escreve quando o intervalo muda, para não disputar a linha de cache a cada acesso
+        if (agora - sessao.ultimoUso >= intervalo) {
+            sessao.ultimoUso = agora;
+        }
+        return sessao.usuario;
+    }
+
+    /**
+     * Encerra uma sessão.
+     * @param idSessao ID da sessão
+     * @return true se a sessão estava aberta
+     */
+    public boolean encerrar(String idSessao) {
+        Sessao sessao = buscar(idSessao);
+        return sessao != null && liberar(sessao);
+    }
+
+    /**
+     * Encerra todas as sessões.
+     */
+    public void limpar() {
+        for (int i = 0; i < blocos.length(); i++) {
+            AtomicReferenceArray<Sessao> bloco = blocos.get(i);
+            if (bloco == null) {
+                continue;
+            }
+            for (int j = 0; j < TAMANHO_BLOCO; j++) {
+                Sessao sessao = bloco.get(j);
+                if (sessao != null) {
+                    liberar(sessao);
+                }
+            }
+        }
+    }
+
+    /**
+     * Retorna o número de sessões abertas, inclusive as que já expiraram mas ainda não foram
+     * retiradas da roda.
+     * @return Número de sessões
+     */
+    public int getSessoesAbertas() {
+        return usadas.get();
+    }
+
+    /**
+     * Percorre as faixas da roda vencidas até o instante informado. Só uma thread avança a roda
+     * por vez; as outras seguem sem esperar.
+     */
+    private void avancar(long agora) {
+        long alvo = agora / intervalo;
+        if (alvo <= intervaloAtual || !roda.tryLock()) {
+            return;
+        }
+        try {
+            // depois de uma volta inteira todas as faixas já foram vistas
+            long inicio = Math.max(intervaloAtual + 1, alvo - FAIXAS + 1);
+            for (long i = inicio; i <= alvo; i++) {
+                varrer(faixas.get(faixa(i)), agora, alvo);
+            }
+            intervaloAtual = alvo;
+        } finally {
+            roda.unlock();
+        }
+    }
+
+    /**
+     * Expira as sessões vencidas de uma faixa e devolve as demais à faixa do seu vencimento.
+     */
+    private void varrer(ConcurrentLinkedQueue<Sessao> faixa, long agora, long alvo) {
+        // a faixa é esvaziada antes, porque uma sessão pode voltar para ela mesma
+        List<Sessao> vencidas = new ArrayList<>();
+        Sessao retirada;
+        while ((retirada = faixa.poll()) != null) {
+            vencidas.add(retirada);
+        }
+        for (Sessao sessao : vencidas) {
+            if (!estaNaTabela(sessao)) {
+                continue;
+            }
+            if (agora - sessao.ultimoUso >= inatividade) {
+                liberar(sessao);
+            } else {
+                faixas.get(faixa(Math.max(vencimento(sessao), alvo + 1))).add(sessao);
+            }
+        }
+    }
+
+    /**
+     * Reserva uma posição livre da tabela, procurada a partir de um cursor circular entre as
+     * primeiras posições: o alcance da busca é o dobro das sessões abertas, de modo que pelo menos
+     * metade dele está livre e a tabela só ocupa os blocos de que precisa. Com a tabela cheia,
+     * as sessões mais próximas de expirar são encerradas.
+     */
+    private int reservarPosicao() {
+        int ocupadas;
+        while (true) {
+            ocupadas = usadas.get();
+            if (ocupadas >= limite) {
+                expirarMaisAntigas();
+                continue;
+            }
+            if (usadas.compareAndSet(ocupadas, ocupadas + 1)) {
+                break;
+            }
+        }
+        int alcance = (int) Math.min(limite, Math.max(TAMANHO_BLOCO, 2L * (ocupadas + 1)));
+        while (true) {
+            int posicao = Math.floorMod(cursor.getAndIncrement(), alcance);
+            if (bloco(posicao, true).get(posicao & (TAMANHO_BLOCO - 1)) == null) {
+                return posicao;
+            }
+        }
+    }
+
+    /**
+     * Encerra as sessões da próxima faixa não vazia da roda, que são as mais próximas de expirar.
+     */
+    private void expirarMaisAntigas() {
+        roda.lock();
+        try {
+            if (usadas.get() < limite) {
+                return;
+            }
+            for (long i = intervaloAtual + 1; i <= intervaloAtual + FAIXAS; i++) {
+                ConcurrentLinkedQueue<Sessao> faixa = faixas.get(faixa(i));
+                boolean liberou = false;
+                Sessao sessao;
+                while ((sessao = faixa.poll()) != null) {
+                    liberou |= liberar(sessao);
+                }
+                if (liberou) {
+                    return;
+                }
+            }
+        } finally {
+            roda.unlock();
+        }
+    }
+
+    /**
+     * Escreve o id de uma sessão: as duas metades aleatórias e a posição, em hexadecimal e com
+     * largura fixa.
+     */
+    private static String id(Sessao sessao) {
+        StringBuilder id = new StringBuilder(TAMANHO_ID);
+        hexadecimal(id, sessao.tokenAlto, DIGITOS_METADE);
+        hexadecimal(id, sessao.tokenBaixo, DIGITOS_METADE);
+        hexadecimal(id, sessao.posicao, DIGITOS_POSICAO);
+        return id.toString();
+    }
+
+    private static void hexadecimal(StringBuilder id, long valor, int digitos) {
+        for (int deslocamento = (digitos - 1) * 4; deslocamento >= 0; deslocamento -= 4) {
+            id.append(Character.forDigit((int) (valor >>> deslocamento) & 0xF, 16));
+        }
+    }
+
+    private Sessao buscar(String idSessao) {
+        if (idSessao == null || idSessao.length() != TAMANHO_ID) {
+            return null;
+        }
+        long tokenAlto;
+        long tokenBaixo;
+        int posicao;
+        try {
+            tokenAlto = Long.parseUnsignedLong(idSessao, 0, DIGITOS_METADE, 16);
+            tokenBaixo = Long.parseUnsignedLong(idSessao, DIGITOS_METADE, 2 * DIGITOS_METADE, 16);
+            posicao = Integer.parseInt(idSessao, 2 * DIGITOS_METADE, TAMANHO_ID, 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (posicao < 0 || posicao >= limite) {
+            return null;
+        }
+        AtomicReferenceArray<Sessao> bloco = bloco(posicao, false);
+        if (bloco == null) {
+            return null;
+        }
+        Sessao sessao = bloco.get(posicao & (TAMANHO_BLOCO - 1));
+        return sessao != null && sessao.tokenAlto == tokenAlto && sessao.tokenBaixo == tokenBaixo ? sessao : null;
+    }
+
+    private boolean estaNaTabela(Sessao sessao) {
+        int posicao = sessao.posicao;
+        return bloco(posicao, false).get(posicao & (TAMANHO_BLOCO - 1)) == sessao;
+    }
+
+    private boolean liberar(Sessao sessao) {
+        int posicao = sessao.posicao;
+        if (bloco(posicao, false).compareAndSet(posicao & (TAMANHO_BLOCO - 1), sessao, null)) {
+            usadas.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private AtomicReferenceArray<Sessao> bloco(int posicao, boolean criar) {
+        int indice = posicao >>> BITS_BLOCO;
+        AtomicReferenceArray<Sessao> bloco = blocos.get(indice);
+        if (bloco == null && criar) {
+            blocos.compareAndSet(indice, null, new AtomicReferenceArray<>(TAMANHO_BLOCO));
+            bloco = blocos.get(indice);
+        }
+        return bloco;
+    }
+
+    private long vencimento(Sessao sessao) {
+        return (sessao.ultimoUso + inatividade) / intervalo;
+    }
+
+    private static int faixa(long intervalo) {
+        return (int) Math.floorMod(intervalo, (long) FAIXAS);
+    }
+}
@@ -3,23 +3,48 @@ package entities;
 import exceptionsJackut.ComunidadeComEsseNomeJaExisteException;
 import exceptionsJackut.ComunidadeNaoExisteException;
 
-import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
+import utils.EscritorSnapshot;
+import utils.MapaSobDemanda;
+import utils.FonteRegistros;
+
+import java.io.IOException;
+import java.util.List;
 import java.util.Set;
 
-public class SocialManager implements Serializable {
-    private Map<String, Comunidade> comunidades;
+public class SocialManager {
+    private final RegistroLogins registroLogins;
+    private MapaSobDemanda<Comunidade> comunidades;
+
+    /**
+     * Construtor da classe SocialManager, sem comunidades.
+     * @param registroLogins Registro do sistema, em que valem os ids dos membros
+     */
+    public SocialManager(RegistroLogins registroLogins) {
+        this.registroLogins = registroLogins;
+        comunidades = new MapaSobDemanda<>(entrada -> Comunidade.ler(entrada, registroLogins),
+                Comunidade::gravar, Comunidade::copiar);
+    }
 
-    public SocialManager() {
-        comunidades = new HashMap<>();
+    private SocialManager(MapaSobDemanda<Comunidade> comunidades, RegistroLogins registroLogins) {
+        this.registroLogins = registroLogins;
+        this.comunidades = comunidades;
+    }
+
+    /**
+     * Construtor que materializa as comunidades sob demanda a partir de um snapshot mapeado.
+     * @param origens Seções de comunidades do snapshot, do segmento mais novo para o base
+     * @param registroLogins Registro do sistema, em que valem os ids dos membros
+     */
+    public SocialManager(List<FonteRegistros> origens, RegistroLogins registroLogins) {
+        this(registroLogins);
+        comunidades.setOrigens(origens);
     }
 
     public void criarComunidade(String nome, String descricao, String dono) throws ComunidadeComEsseNomeJaExisteException {
         if (comunidades.containsKey(nome)) {
             throw new ComunidadeComEsseNomeJaExisteException();
         }
-        comunidades.put(nome, new Comunidade(nome, descricao, dono));
+        comunidades.put(nome, new Comunidade(nome, descricao, dono, registroLogins));
     }
 
     public String getDescricaoComunidade(String nome) throws ComunidadeNaoExisteException {
@@ -52,4 +77,58 @@ public class SocialManager implements Serializable {
     public void removerComunidade(String nome) {
         comunidades.remove(nome);
     }
-} 
\ No newline at end of file
+
+    /**
+     * Retorna uma comunidade pronta para ser alterada, registrando-a para o próximo checkpoint.
+     * Se ela estiver compartilhada com uma versão capturada, é retornada uma cópia própria.
+     * @param nome Nome da comunidade
+     * @return Comunidade a ser alterada
+     * @throws ComunidadeNaoExisteException Se a comunidade não existir
+     */
+    public Comunidade alterarComunidade(String nome) throws ComunidadeNaoExisteException {
+        Comunidade comunidade = comunidades.paraAlterar(nome);
+        if (comunidade == null) throw new ComunidadeNaoExisteException();
+        return comunidade;
+    }
+
+    /**
+     * Captura uma versão imutável das comunidades em O(1).
+     * @return Versão capturada, que leva as alterações registradas até agora
+     * @see MapaSobDemanda#capturar()
+     */
+    public SocialManager capturar() {
+        return new SocialManager(comunidades.capturar(), registroLogins);
+    }
+
+    /**
+     * Adiciona uma comunidade já construída, lida de um snapshot em formato antigo.
+     * @param comunidade Comunidade restaurada
+     */
+    public void restaurarComunidade(Comunidade comunidade) {
+        comunidades.put(comunidade.getNome(), comunidade);
+    }
+
+    /**
+     * Grava todas as comunidades numa seção de um novo snapshot.
+     * @param destino Seção de comunidades do snapshot
+     */
+    public void gravar(EscritorSnapshot.Secao destino) throws IOException {
+        comunidades.gravar(destino);
+    }
+
+    /**
+     * Grava as comunidades alteradas desde o último checkpoint num segmento incremental.
+     * @param destino Seção de comunidades do segmento
+     */
+    public void gravarAlteracoes(EscritorSnapshot.Secao destino) throws IOException {
+        comunidades.gravarAlteracoes(destino);
+    }
+
+    public boolean temAlteracoes() {
+        return comunidades.temAlteracoes();
+    }
+
+    public void concluirCheckpoint() {
+        comunidades.concluirCheckpoint();
+    }
+}
@@ -1,38 +1,129 @@
 package entities;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
 
+import exceptionsJackut.*;
+import utils.ConjuntoInteiros;
+import utils.ContagemInteiros;
+import utils.EscritorSnapshot;
+import utils.FonteRegistros;
+import utils.Journal;
+import utils.Journal.Operacao;
+import utils.MapaSobDemanda;
+import utils.Paralelo;
+import utils.SnapshotMapeado;
+import utils.TravasParticionadas;
+import utils.TravasParticionadas.Liberacao;
 
-import java.io.FileNotFoundException;
-import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
-import exceptionsJackut.*;
-import java.util.LinkedHashSet;
+import java.util.concurrent.Callable;
+import java.util.function.IntConsumer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Classe que gerencia o sistema Jackut.
  * Responsável por controlar usuários, sessões, amizades e mensagens.
- * Implementa Serializable para permitir persistência dos dados.
+ * Os usuários de um snapshot carregado só são materializados quando acessados pela primeira vez.
+ * Cada operação registra os usuários e comunidades que alterou, para que o checkpoint
+ * grave apenas eles num segmento incremental. As sessões ficam num {@link SessionManager}
+ * e não são persistidas. Os relacionamentos guardam os ids do {@link RegistroLogins}, e os
+ * logins recebidos são traduzidos para ids no início de cada operação.
+ *
+ * Usuários e comunidades ficam em mapas persistentes e são copiados na escrita, de modo
+ * que {@link #capturarVersao()} obtém em O(1) uma versão imutável do sistema, que um checkpoint
+ * ou um leitor pode usar em outra thread sem bloquear as operações seguintes.
+ *
+ * As operações podem ser chamadas por várias threads. Cada uma trava apenas os usuários e as
+ * comunidades que lê ou altera, em travas repartidas por login e por nome, sempre na mesma ordem:
+ * primeiro as comunidades, depois os usuários, cada grupo em ordem crescente de índice. Assim
+ * operações sobre usuários diferentes andam em paralelo e nenhuma espera circular é possível.
+ * Operações que alteram todos os usuários, a captura de versões e o esvaziamento do sistema
+ * rodam sozinhos. Uma operação que altera o estado é registrada no journal antes de liberar as
+ * suas travas, para que a ordem do journal seja a ordem em que as alterações aconteceram, mas a
+ * espera pelo disco, quando a durabilidade a exige, só acontece depois de liberá-las, para que
+ * ninguém espere pelas travas de uma operação que espera o disco.
+ *
+ * A remoção de um usuário só visita quem o referencia, encontrado pelos índices reversos de
+ * {@link Users} e pelos membros das suas comunidades. Os índices estão completos em todo sistema
+ * carregado: snapshots a partir da versão 5 e os seus segmentos gravam os índices de cada usuário,
+ * e o journal reaplica as operações, que os atualizam como da primeira vez. Snapshots anteriores,
+ * lidos por {@link #restaurarUsuario(Users)} ou por camadas mapeadas sem os índices, marcam os
+ * índices como incompletos; nesse caso a primeira remoção percorre todos os usuários uma vez
+ * para reconstruí-los.
  *
  */
-public class Systems implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private Map<String, Users> usuarios;
-    private Map<String, String> sessoes;
-    private SocialManager socialManager;
+public class Systems {
+    private static final int TRAVAS = 256;
+    private static final int LIMITE_PAGINA = 10_000;
+    private static final int AMIGOS_POR_TAREFA = 64;
+    private static final int LIMITE_VISITADOS_CAMINHO = 2_000_000;
+
+    private volatile RegistroLogins registroLogins;
+    private final MapaSobDemanda<Users> usuarios;
+    private final SessionManager sessoes = new SessionManager();
+    private volatile SocialManager socialManager;
+    private volatile long sequenciaJournal;
+    private volatile boolean snapshotCompletoPendente = true;
+    private volatile boolean indicesReversosCompletos = true;
+    private volatile Journal journal;
+    private final ReentrantReadWriteLock estado = new ReentrantReadWriteLock();
+    private final TravasParticionadas travasUsuarios = new TravasParticionadas(TRAVAS);
+    private final TravasParticionadas travasComunidades = new TravasParticionadas(TRAVAS);
 
     /**
      * Construtor da classe Systems.
      * Inicializa as estruturas de dados necessárias.
      */
     public Systems() {
-        usuarios = new HashMap<>();
-        sessoes = new HashMap<>();
-        socialManager = new SocialManager();
+        RegistroLogins registro = new RegistroLogins();
+        registroLogins = registro;
+        usuarios = new MapaSobDemanda<>(entrada -> Users.ler(entrada, registro), Users::gravar, Users::copiar);
+        socialManager = new SocialManager(registro);
+    }
+
+    /**
+     * Construtor de uma versão capturada, que compartilha o estado informado. As sessões não
+     * fazem parte das versões.
+     */
+    private Systems(MapaSobDemanda<Users> usuarios, SocialManager socialManager, long sequenciaJournal,
+                    RegistroLogins registroLogins) {
+        this.registroLogins = registroLogins;
+        this.usuarios = usuarios;
+        this.socialManager = socialManager;
+        this.sequenciaJournal = sequenciaJournal;
+    }
+
+    /**
+     * Construtor que abre o sistema sobre um snapshot base e os seus segmentos incrementais.
+     * Custa apenas a leitura dos cabeçalhos: usuários e comunidades são lidos das camadas sob demanda.
+     * Sessões gravadas por versões antigas do snapshot são ignoradas.
+     * @param camadas Segmentos, do mais novo para o snapshot base, que devem permanecer mapeados
+     *                enquanto o sistema existir
+     */
+    public Systems(List<SnapshotMapeado> camadas) throws IOException {
+        this();
+        List<FonteRegistros> origensUsuarios = new ArrayList<>();
+        List<FonteRegistros> origensComunidades = new ArrayList<>();
+        for (SnapshotMapeado camada : camadas) {
+            origensUsuarios.add(camada.getUsuarios());
+            origensComunidades.add(camada.getComunidades());
+        }
+        usuarios.setOrigens(origensUsuarios);
+        socialManager = new SocialManager(origensComunidades, registroLogins);
+        if (!camadas.isEmpty()) {
+            sequenciaJournal = camadas.get(0).getSequenciaJournal();
+        }
+        for (SnapshotMapeado camada : camadas) {
+            indicesReversosCompletos &= camada.temIndicesReversos();
+        }
+        snapshotCompletoPendente = false;
     }
 
     /**
@@ -51,10 +142,124 @@ public class Systems implements Serializable {
         if (senha == null || senha.trim().isEmpty()) {
             throw new SenhaInvalidaException();
         }
-        if (usuarios.containsKey(login)) {
-            throw new ContaJaExisteException();
+        Liberacao trava = travar(login);
+        try (trava) {
+            if (usuarios.containsKey(login)) {
+                throw new ContaJaExisteException();
+            }
+            Users usuario = new Users(login, senha, nome, registroLogins);
+            usuarios.put(usuario.getLogin(), usuario);
+            registrar(Operacao.CRIAR_USUARIO, login, senha, nome);
+        }
+    }
+
+    /**
+     * Define o journal em que as operações passam a ser registradas, dentro das travas de cada uma.
+     * Deve ser chamado depois que o journal existente foi reaplicado, para que as operações
+     * reaplicadas não sejam registradas de novo.
+     * @param journal Journal do sistema
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    private void registrar(Operacao operacao, String... argumentos) {
+        Journal atual = journal;
+        if (atual != null) {
+            atual.registrar(operacao, argumentos);
+        }
+    }
+
+    /**
+     * Registra uma operação e retorna a sua sequência no journal, que ordena as entregas de
+     * mensagens entre comunidades. Sem journal, como durante a reaplicação, a operação recebe a
+     * sequência seguinte à do estado, que é a mesma que ela tinha no journal reaplicado.
+     */
+    private long registrarComSequencia(Operacao operacao, String... argumentos) {
+        Journal atual = journal;
+        if (atual != null) {
+            return atual.registrar(operacao, argumentos);
+        }
+        synchronized (this) {
+            return ++sequenciaJournal;
+        }
+    }
+
+    /**
+     * Adquire as travas de uma operação sobre os usuários informados.
+     */
+    private Liberacao travar(String... logins) {
+        return travar(List.of(), Arrays.asList(logins));
+    }
+
+    /**
+     * Adquire as travas de uma operação sobre as comunidades e os usuários informados, nessa ordem.
+     * A trava compartilhada do estado impede que a operação se misture a uma captura de versão.
+     */
+    private Liberacao travar(Collection<String> comunidades, Collection<String> logins) {
+        Lock compartilhada = estado.readLock();
+        compartilhada.lock();
+        Liberacao travaComunidades = null;
+        try {
+            travaComunidades = travasComunidades.travar(comunidades);
+            Liberacao travaUsuarios = travasUsuarios.travar(logins);
+            Liberacao adquiridas = travaComunidades;
+            return () -> {
+                travaUsuarios.close();
+                adquiridas.close();
+                compartilhada.unlock();
+                confirmarJournal();
+            };
+        } catch (RuntimeException | Error e) {
+            if (travaComunidades != null) {
+                travaComunidades.close();
+            }
+            compartilhada.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Adquire a trava exclusiva do estado, para operações que alteram todo o sistema.
+     */
+    private Liberacao travarTudo() {
+        Lock exclusiva = estado.writeLock();
+        exclusiva.lock();
+        return () -> {
+            exclusiva.unlock();
+            confirmarJournal();
+        };
+    }
+
+    /**
+     * Espera que as operações registradas pela thread estejam no disco, se a durabilidade exigir.
+     * Chamado ao liberar as travas, nunca com elas adquiridas.
+     */
+    private void confirmarJournal() {
+        Journal atual = journal;
+        if (atual != null) {
+            atual.confirmar();
         }
-        usuarios.put(login, new Users(login, senha, nome));
+    }
+
+    /**
+     * Retorna o login de uma sessão aberta.
+     */
+    private String loginDaSessao(String idSessao) throws UsuarioNaoCadastradoException {
+        int usuario = sessoes.getUsuario(idSessao);
+        if (usuario == RegistroLogins.DESCONHECIDO) {
+            throw new UsuarioNaoCadastradoException();
+        }
+        return registroLogins.login(usuario);
+    }
+
+    /**
+     * Retorna o usuário pronto para ser alterado e o registra para o próximo checkpoint.
+     * Se ele estiver compartilhado com uma versão capturada, é retornada uma cópia própria, que
+     * deve substituir a referência obtida por {@link #getUsuario(String)}.
+     */
+    private Users alterar(Users usuario) {
+        return usuarios.paraAlterar(usuario.getLogin());
     }
 
     /**
@@ -80,24 +285,51 @@ public class Systems implements Serializable {
      */
     public String abrirSessao(String login, String senha) throws LoginOuSenhaInvalidoException {
         try {
-            Users usuario = getUsuario(login);
-            if (!usuario.getSenha().equals(senha)) {
-                throw new LoginOuSenhaInvalidoException();
+            Liberacao trava = travar(login);
+            try (trava) {
+                Users usuario = getUsuario(login);
+                if (!usuario.getSenha().equals(senha)) {
+                    throw new LoginOuSenhaInvalidoException();
+                }
+                return sessoes.abrir(usuario.getId());
             }
-            String idSessao = gerarIdSessao();
-            sessoes.put(idSessao, login);
-            return idSessao;
         } catch (UsuarioNaoCadastradoException e) {
             throw new LoginOuSenhaInvalidoException();
         }
     }
 
     /**
-     * Gera um ID único para uma nova sessão.
-     * @return ID da sessão gerado
+     * Encerra uma sessão aberta. Ids desconhecidos são ignorados.
+     * @param idSessao ID da sessão
      */
-    private String gerarIdSessao() {
-        return java.util.UUID.randomUUID().toString();
+    public void encerrarSessao(String idSessao) {
+        sessoes.encerrar(idSessao);
+    }
+
+    /**
+     * Retorna o registro em que valem os ids dos usuários e comunidades deste estado, para quem
+     * os constrói fora do sistema, como a leitura de snapshots antigos.
+     * @return Registro de logins do sistema
+     */
+    public RegistroLogins getRegistroLogins() {
+        return registroLogins;
+    }
+
+    /**
+     * Retorna a sequência da última operação do journal refletida neste estado.
+     * Gravada junto com o snapshot para que a recuperação não reaplique operações já incluídas nele.
+     * @return Sequência da última operação aplicada
+     */
+    public long getSequenciaJournal() {
+        return sequenciaJournal;
+    }
+
+    /**
+     * Define a sequência da última operação do journal refletida neste estado.
+     * @param sequenciaJournal Sequência da última operação aplicada
+     */
+    public void setSequenciaJournal(long sequenciaJournal) {
+        this.sequenciaJournal = sequenciaJournal;
     }
 
     /**
@@ -107,11 +339,7 @@ public class Systems implements Serializable {
      * @throws UsuarioNaoCadastradoException Se a sessão não existir
      */
     public Users getUsuarioPorSessao(String idSessao) throws UsuarioNaoCadastradoException {
-        String login = sessoes.get(idSessao);
-        if (login == null) {
-            throw new UsuarioNaoCadastradoException();
-        }
-        return getUsuario(login);
+        return getUsuario(loginDaSessao(idSessao));
     }
 
     /**
@@ -122,8 +350,12 @@ public class Systems implements Serializable {
      * @throws UsuarioNaoCadastradoException Se a sessão não existir
      */
     public void editarPerfil(String idSessao, String atributo, String valor) throws UsuarioNaoCadastradoException {
-        Users usuario = getUsuarioPorSessao(idSessao);
-        usuario.setAtributo(atributo, valor);
+        String login = loginDaSessao(idSessao);
+        Liberacao trava = travar(login);
+        try (trava) {
+            alterar(getUsuario(login)).setAtributo(atributo, valor);
+            registrar(Operacao.EDITAR_PERFIL, login, atributo, valor);
+        }
     }
 
     /**
@@ -135,12 +367,15 @@ public class Systems implements Serializable {
      * @throws AtributoNaoPreenchidoException Se o atributo não estiver preenchido
      */
     public String getAtributoUsuario(String login, String atributo) throws UsuarioNaoCadastradoException, AtributoNaoPreenchidoException {
-        Users usuario = getUsuario(login);
-        String valor = usuario.getAtributo(atributo);
-        if (valor == null) {
-            throw new AtributoNaoPreenchidoException();
+        Liberacao trava = travar(login);
+        try (trava) {
+            Users usuario = getUsuario(login);
+            String valor = usuario.getAtributo(atributo);
+            if (valor == null) {
+                throw new AtributoNaoPreenchidoException();
+            }
+            return valor;
         }
-        return valor;
     }
 
     /**
@@ -156,30 +391,38 @@ public class Systems implements Serializable {
      * @throws UsuarioInimigoException Se o usuário é inimigo
      */
     public void adicionarAmigo(String idSessao, String amigo) throws UsuarioNaoCadastradoException, UsuarioJaAdicionadoException, UsuarioJaAdicionadoComConvitePendenteException, UsuarioNaoPodeAdicionarASiMesmoException, UsuarioInimigoException {
-        Users usuario = getUsuarioPorSessao(idSessao);
-        Users usuarioAmigo = getUsuario(amigo);
+        String login = loginDaSessao(idSessao);
+        Liberacao trava = travar(login, amigo);
+        try (trava) {
+            Users usuario = getUsuario(login);
+            Users usuarioAmigo = getUsuario(amigo);
 
-        verificarInteracao(idSessao, amigo);
+            verificarInteracao(usuario, usuarioAmigo);
 
-        if (usuario.getLogin().equals(amigo)) {
-            throw new UsuarioNaoPodeAdicionarASiMesmoException();
-        }
+            if (usuario.getLogin().equals(amigo)) {
+                throw new UsuarioNaoPodeAdicionarASiMesmoException();
+            }
 
-        if (usuario.ehAmigo(amigo)) {
-            throw new UsuarioJaAdicionadoException();
-        }
+            if (usuario.ehAmigo(usuarioAmigo.getId())) {
+                throw new UsuarioJaAdicionadoException();
+            }
 
-        if (usuario.temConvitePendente(amigo)) {
-            usuario.aceitarConvite(amigo);
-            usuarioAmigo.aceitarConvite(usuario.getLogin());
-            return;
-        }
+            if (usuario.temConvitePendente(usuarioAmigo.getId())) {
+                usuario = alterar(usuario);
+                usuarioAmigo = alterar(usuarioAmigo);
+                usuario.aceitarConvite(usuarioAmigo.getId());
+                usuarioAmigo.aceitarConvite(usuario.getId());
+                registrar(Operacao.ADICIONAR_AMIGO, login, amigo);
+                return;
+            }
 
-        if (usuarioAmigo.temConvitePendente(usuario.getLogin())) {
-            throw new UsuarioJaAdicionadoComConvitePendenteException();
-        }
+            if (usuarioAmigo.temConvitePendente(usuario.getId())) {
+                throw new UsuarioJaAdicionadoComConvitePendenteException();
+            }
 
-        usuarioAmigo.adicionarConvite(usuario.getLogin());
+            alterar(usuarioAmigo).adicionarConvite(usuario.getId());
+            registrar(Operacao.ADICIONAR_AMIGO, login, amigo);
+        }
     }
 
     /**
@@ -190,8 +433,10 @@ public class Systems implements Serializable {
      * @throws UsuarioNaoCadastradoException Se algum dos usuários não existe
      */
     public boolean ehAmigo(String login, String amigo) throws UsuarioNaoCadastradoException {
-        Users usuario = getUsuario(login);
-        return usuario.ehAmigo(amigo);
+        Liberacao trava = travar(login);
+        try (trava) {
+            return getUsuario(login).ehAmigo(registroLogins.buscar(amigo));
+        }
     }
 
     /**
@@ -201,8 +446,10 @@ public class Systems implements Serializable {
      * @throws UsuarioNaoCadastradoException Se o usuário não existe
      */
     public String getAmigos(String login) throws UsuarioNaoCadastradoException {
-        Users usuario = getUsuario(login);
-        return usuario.getAmigosFormatado();
+        Liberacao trava = travar(login);
+        try (trava) {
+            return getUsuario(login).getAmigosFormatado();
+        }
     }
 
     /**
@@ -215,16 +462,24 @@ public class Systems implements Serializable {
      * @throws UsuarioInimigoException Se o usuário é inimigo
      */
     public void enviarRecado(String idSessao, String destinatario, String mensagem) throws UsuarioNaoCadastradoException, UsuarioNaoPodeEnviarRecadoParaSiMesmoException, UsuarioInimigoException {
-        Users remetente = getUsuarioPorSessao(idSessao);
-        Users usuarioDestinatario = getUsuario(destinatario);
+        String login = loginDaSessao(idSessao);
+        Liberacao trava = travar(login, destinatario);
+        try (trava) {
+            Users remetente = getUsuario(login);
+            Users usuarioDestinatario = getUsuario(destinatario);
 
-        verificarInteracao(idSessao, destinatario);
+            verificarInteracao(remetente, usuarioDestinatario);
 
-        if (remetente.getLogin().equals(destinatario)) {
-            throw new UsuarioNaoPodeEnviarRecadoParaSiMesmoException();
-        }
+            if (remetente.getLogin().equals(destinatario)) {
+                throw new UsuarioNaoPodeEnviarRecadoParaSiMesmoException();
+            }
 
-        usuarioDestinatario.receberRecado(mensagem);
+            alterar(usuarioDestinatario).receberRecado(mensagem);
+            if (!remetente.ehDestinatario(usuarioDestinatario.getId())) {
+                alterar(remetente).adicionarDestinatario(usuarioDestinatario.getId());
+            }
+            registrar(Operacao.ENVIAR_RECADO, login, destinatario, mensagem);
+        }
     }
 
     /**
@@ -235,20 +490,35 @@ public class Systems implements Serializable {
      * @throws RecadoNaoEncontradoException Se não houver recados
      */
     public String lerRecado(String idSessao) throws UsuarioNaoCadastradoException, RecadoNaoEncontradoException {
-        Users usuario = getUsuarioPorSessao(idSessao);
-        if (!usuario.temRecados()) {
-            throw new RecadoNaoEncontradoException("Não há recados.");
+        String login = loginDaSessao(idSessao);
+        Liberacao trava = travar(login);
+        try (trava) {
+            Users usuario = getUsuario(login);
+            if (!usuario.temRecados()) {
+                throw new RecadoNaoEncontradoException("Não há recados.");
+            }
+            String recado = alterar(usuario).lerRecado();
+            registrar(Operacao.LER_RECADO, login);
+            return recado;
         }
-        return usuario.lerRecado();
     }
 
     /**
      * Limpa todos os dados do sistema.
+     * O próximo checkpoint grava um snapshot completo no lugar dos segmentos existentes.
      */
     public void zerarSistema() {
-        usuarios.clear();
-        sessoes.clear();
-        socialManager = new SocialManager();
+        Liberacao trava = travarTudo();
+        try (trava) {
+            usuarios.clear();
+            sessoes.limpar();
+            // as versões já capturadas continuam com o registro antigo; o mapa vazio não tem
+            // mais origens, então o seu leitor, ligado ao registro antigo, não é mais usado
+            registroLogins = new RegistroLogins();
+            socialManager = new SocialManager(registroLogins);
+            snapshotCompletoPendente = true;
+            indicesReversosCompletos = true;
+        }
     }
 
     /**
@@ -261,17 +531,22 @@ public class Systems implements Serializable {
      * @throws UsuarioInimigoException Se o usuário é inimigo
      */
     public void adicionarIdolo(String idSessao, String idolo) throws UsuarioNaoCadastradoException, UsuarioJaAdicionadoComoIdoloException, UsuarioNaoPodeSerFaDeSiMesmoException, UsuarioInimigoException {
-        Users usuario = getUsuarioPorSessao(idSessao);
-        Users usuarioIdolo = getUsuario(idolo);
-        
-        verificarInteracao(idSessao, idolo);
-        
-        if (usuario.getLogin().equals(idolo)) {
-            throw new UsuarioNaoPodeSerFaDeSiMesmoException();
+        String login = loginDaSessao(idSessao);
+        Liberacao trava = travar(login, idolo);
+        try (trava) {
+            Users usuario = getUsuario(login);
+            Users usuarioIdolo = getUsuario(idolo);
+
+            verificarInteracao(usuario, usuarioIdolo);
+
+            if (usuario.getLogin().equals(idolo)) {
+                throw new UsuarioNaoPodeSerFaDeSiMesmoException();
+            }
+
+            alterar(usuario).adicionarIdolo(usuarioIdolo.getId());
+            alterar(usuarioIdolo).adicionarFa(usuario.getId());
+            registrar(Operacao.ADICIONAR_IDOLO, login, idolo);
         }
-        
-        usuario.adicionarIdolo(idolo);
-        usuarioIdolo.adicionarFa(usuario.getLogin());
     }
 
     /**
@@ -282,8 +557,10 @@ public class Systems implements Serializable {
      * @throws UsuarioNaoCadastradoException Se algum dos usuários não existe
      */
     public boolean ehFa(String login, String idolo) throws UsuarioNaoCadastradoException {
-        Users usuario = getUsuario(login);
-        return usuario.ehFa(idolo);
+        Liberacao trava = travar(login);
+        try (trava) {
+            return getUsuario(login).ehFa(registroLogins.buscar(idolo));
+        }
     }
 
     /**
@@ -293,12 +570,10 @@ public class Systems implements Serializable {
      * @throws UsuarioNaoCadastradoException Se o usuário não existe
      */
     public String getFas(String login) throws UsuarioNaoCadastradoException {
-        Users usuario = getUsuario(login);
-        Set<String> fas = usuario.getFas();
-        if (fas.isEmpty()) {
-            return "{}";
+        Liberacao trava = travar(login);
+        try (trava) {
+            return getUsuario(login).getFasFormatado();
         }
-        return "{" + String.join(",", fas) + "}";
     }
 
     /**
@@ -309,8 +584,11 @@ public class Systems implements Serializable {
      * @throws UsuarioNaoCadastradoException Se algum dos usuários não existe
      */
     public boolean ehPaquera(String idSessao, String paquera) throws UsuarioNaoCadastradoException {
-        Users usuario = getUsuarioPorSessao(idSessao);
-        return usuario.ehPaquera(paquera);
+        String login = loginDaSessao(idSessao);
+        Liberacao trava = travar(login);
+        try (trava) {
+            return getUsuario(login).ehPaquera(registroLogins.buscar(paquera));
+        }
     }
 
     /**
@@ -323,19 +601,28 @@ public class Systems implements Serializable {
      * @throws UsuarioInimigoException Se o usuário é inimigo
      */
     public void adicionarPaquera(String idSessao, String paquera) throws UsuarioNaoCadastradoException, UsuarioJaAdicionadoComoPaqueraException, UsuarioNaoPodeSerPaqueraDeSiMesmoException, UsuarioInimigoException {
-        Users usuario = getUsuarioPorSessao(idSessao);
-        Users usuarioPaquera = getUsuario(paquera);
-        
-        verificarInteracao(idSessao, paquera);
-        
-        usuario.adicionarPaquera(paquera);
-        
+        String login = loginDaSessao(idSessao);
+        Liberacao trava = travar(login, paquera);
+        try (trava) {
+            Users usuario = getUsuario(login);
+            Users usuarioPaquera = getUsuario(paquera);
+
+            verificarInteracao(usuario, usuarioPaquera);
+
+            usuario = alterar(usuario);
+            usuario.adicionarPaquera(usuarioPaquera.getId());
+            usuarioPaquera = alterar(usuarioPaquera);
+            usuarioPaquera.adicionarPaqueradoPor(usuario.getId());
 
-        if (usuarioPaquera.ehPaquera(usuario.getLogin())) {
+            if (usuarioPaquera.ehPaquera(usuario.getId())) {
 
-            usuario.receberRecado(usuarioPaquera.getNome() + " é seu paquera - Recado do Jackut.");
+                usuario.receberRecado(usuarioPaquera.getNome() + " é seu paquera - Recado do Jackut.");
 
-            usuarioPaquera.receberRecado(usuario.getNome() + " é seu paquera - Recado do Jackut.");
+                usuarioPaquera.receberRecado(usuario.getNome() + " é seu paquera - Recado do Jackut.");
+                usuario.adicionarDestinatario(usuarioPaquera.getId());
+                usuarioPaquera.adicionarDestinatario(usuario.getId());
+            }
+            registrar(Operacao.ADICIONAR_PAQUERA, login, paquera);
         }
     }
 
@@ -346,12 +633,11 @@ public class Systems implements Serializable {
      * @throws UsuarioNaoCadastradoException Se o usuário não existe
      */
     public String getPaqueras(String idSessao) throws UsuarioNaoCadastradoException {
-        Users usuario = getUsuarioPorSessao(idSessao);
-        Set<String> paqueras = usuario.getPaqueras();
-        if (paqueras.isEmpty()) {
-            return "{}";
+        String login = loginDaSessao(idSessao);
+        Liberacao trava = travar(login);
+        try (trava) {
+            return getUsuario(login).getPaquerasFormatado();
         }
-        return "{" + String.join(",", paqueras) + "}";
     }
 
     /**
@@ -363,9 +649,15 @@ public class Systems implements Serializable {
      * @throws UsuarioNaoPodeSerInimigoDeSiMesmoException Se tentar adicionar a si mesmo como inimigo
      */
     public void adicionarInimigo(String idSessao, String inimigo) throws UsuarioNaoCadastradoException, UsuarioJaAdicionadoComoInimigoException, UsuarioNaoPodeSerInimigoDeSiMesmoException {
-        Users usuario = getUsuarioPorSessao(idSessao);
-        getUsuario(inimigo);
-        usuario.adicionarInimigo(inimigo);
+        String login = loginDaSessao(idSessao);
+        Liberacao trava = travar(login, inimigo);
+        try (trava) {
+            Users usuario = getUsuario(login);
+            Users usuarioInimigo = getUsuario(inimigo);
+            alterar(usuario).adicionarInimigo(usuarioInimigo.getId());
+            alterar(usuarioInimigo).adicionarInimigoDe(usuario.getId());
+            registrar(Operacao.ADICIONAR_INIMIGO, login, inimigo);
+        }
     }
 
     /**
@@ -376,8 +668,11 @@ public class Systems implements Serializable {
      * @throws UsuarioNaoCadastradoException Se algum dos usuários não existe
      */
     public boolean ehInimigo(String idSessao, String inimigo) throws UsuarioNaoCadastradoException {
-        Users usuario = getUsuarioPorSessao(idSessao);
-        return usuario.ehInimigo(inimigo);
+        String login = loginDaSessao(idSessao);
+        Liberacao trava = travar(login);
+        try (trava) {
+            return getUsuario(login).ehInimigo(registroLogins.buscar(inimigo));
+        }
     }
 
     /**
@@ -388,14 +683,18 @@ public class Systems implements Serializable {
      * @throws UsuarioInimigoException Se o outro usuário é inimigo
      */
     public void verificarInteracao(String idSessao, String outro) throws UsuarioNaoCadastradoException, UsuarioInimigoException {
-        Users usuario = getUsuarioPorSessao(idSessao);
-        Users outroUsuario = getUsuario(outro);
-        
-        if (usuario.ehInimigo(outro) || outroUsuario.ehInimigo(usuario.getLogin())) {
-            throw new UsuarioInimigoException(outroUsuario.getNome() + " é seu inimigo.");
+        String login = loginDaSessao(idSessao);
+        Liberacao trava = travar(login, outro);
+        try (trava) {
+            verificarInteracao(getUsuario(login), getUsuario(outro));
         }
     }
 
+    private void verificarInteracao(Users usuario, Users outroUsuario) throws UsuarioInimigoException {
+        if (usuario.ehInimigo(outroUsuario.getId()) || outroUsuario.ehInimigo(usuario.getId())) {
+            throw new UsuarioInimigoException(outroUsuario.getNome() + " é seu inimigo.");
+        }
+    }
 
     public void criarComunidade(String sessao, String nome, String descricao) throws ComunidadeComEsseNomeJaExisteException, UsuarioNaoCadastradoException {
         if (nome == null || nome.trim().isEmpty()) {
@@ -404,25 +703,35 @@ public class Systems implements Serializable {
         if (descricao == null || descricao.trim().isEmpty()) {
             throw new IllegalArgumentException("Descrição da comunidade não pode ser vazia");
         }
-        Users usuario = getUsuarioPorSessao(sessao);
-        socialManager.criarComunidade(nome, descricao, usuario.getLogin());
-        usuario.adicionarComunidade(nome);
+        String login = loginDaSessao(sessao);
+        Liberacao trava = travar(List.of(nome), List.of(login));
+        try (trava) {
+            Users usuario = getUsuario(login);
+            socialManager.criarComunidade(nome, descricao, usuario.getLogin());
+            alterar(usuario).adicionarComunidade(nome);
+            registrar(Operacao.CRIAR_COMUNIDADE, login, nome, descricao);
+        }
     }
 
     public String getDescricaoComunidade(String nome) throws ComunidadeNaoExisteException {
-        return socialManager.getDescricaoComunidade(nome);
+        Liberacao trava = travar(Collections.singletonList(nome), List.of());
+        try (trava) {
+            return socialManager.getDescricaoComunidade(nome);
+        }
     }
 
     public String getDonoComunidade(String nome) throws ComunidadeNaoExisteException {
-        return socialManager.getDonoComunidade(nome);
+        Liberacao trava = travar(Collections.singletonList(nome), List.of());
+        try (trava) {
+            return socialManager.getDonoComunidade(nome);
+        }
     }
 
     public String getMembrosComunidade(String nome) throws ComunidadeNaoExisteException {
-        Set<String> membros = socialManager.getMembrosComunidade(nome);
-        if (membros.isEmpty()) {
-            return "{}";
+        Liberacao trava = travar(Collections.singletonList(nome), List.of());
+        try (trava) {
+            return socialManager.getComunidade(nome).getMembrosFormatado();
         }
-        return "{" + String.join(",", membros) + "}";
     }
 
     public String getMembrosComunidadeFormatado(String nome) throws ComunidadeNaoExisteException {
@@ -430,88 +739,703 @@ public class Systems implements Serializable {
     }
 
     public void adicionarMembroComunidade(String sessao, String nomeComunidade) throws ComunidadeNaoExisteException, UsuarioNaoCadastradoException, UsuarioJaFazParteDaComunidadeException {
-        Users usuario = getUsuarioPorSessao(sessao);
-        Comunidade comunidade = socialManager.getComunidade(nomeComunidade);
-        comunidade.adicionarMembro(usuario.getLogin());
-        usuario.adicionarComunidade(nomeComunidade);
+        String login = loginDaSessao(sessao);
+        Liberacao trava = travar(Collections.singletonList(nomeComunidade), List.of(login));
+        try (trava) {
+            Users usuario = getUsuario(login);
+            Comunidade comunidade = socialManager.alterarComunidade(nomeComunidade);
+            comunidade.adicionarMembro(usuario.getId());
+            alterar(usuario).adicionarComunidade(nomeComunidade, comunidade.getUltimaChave());
+            registrar(Operacao.ADICIONAR_COMUNIDADE, login, nomeComunidade);
+        }
     }
 
     public String getComunidades(String login) throws UsuarioNaoCadastradoException {
-        Users usuario = getUsuario(login);
-        Set<String> comunidades = usuario.getComunidades();
-        if (comunidades.isEmpty()) {
+        Liberacao trava = travar(login);
+        try (trava) {
+            return getUsuario(login).getComunidadesFormatado();
+        }
+    }
+
+    public int getNumeroDeAmigos(String login) throws UsuarioNaoCadastradoException {
+        Liberacao trava = travar(login);
+        try (trava) {
+            return getUsuario(login).getNumeroDeAmigos();
+        }
+    }
+
+    public int getNumeroDeFas(String login) throws UsuarioNaoCadastradoException {
+        Liberacao trava = travar(login);
+        try (trava) {
+            return getUsuario(login).getNumeroDeFas();
+        }
+    }
+
+    public int getNumeroDeComunidades(String login) throws UsuarioNaoCadastradoException {
+        Liberacao trava = travar(login);
+        try (trava) {
+            return getUsuario(login).getNumeroDeComunidades();
+        }
+    }
+
+    public int getNumeroDeMembros(String nome) throws ComunidadeNaoExisteException {
+        Liberacao trava = travar(Collections.singletonList(nome), List.of());
+        try (trava) {
+            return socialManager.getComunidade(nome).getNumeroDeMembros();
+        }
+    }
+
+    /**
+     * Retorna um trecho dos amigos de um usuário, na ordem em que as amizades foram feitas.
+     * A próxima página começa em {@link Pagina#getProximo()}.
+     * @param login Login do usuário
+     * @param inicio Posição do primeiro amigo da página
+     * @param limite Número máximo de amigos na página
+     * @return Página de logins
+     * @throws UsuarioNaoCadastradoException Se o usuário não existe
+     */
+    public Pagina getAmigos(String login, int inicio, int limite) throws UsuarioNaoCadastradoException {
+        String[] destino = novaPagina(inicio, limite);
+        Liberacao trava = travar(login);
+        try (trava) {
+            Users usuario = getUsuario(login);
+            return new Pagina(destino, usuario.copiarAmigos(inicio, destino), inicio, usuario.getNumeroDeAmigos());
+        }
+    }
+
+    /**
+     * Retorna um trecho dos fãs de um usuário, na ordem em que foram adicionados.
+     * @param login Login do usuário
+     * @param inicio Posição do primeiro fã da página
+     * @param limite Número máximo de fãs na página
+     * @return Página de logins
+     * @throws UsuarioNaoCadastradoException Se o usuário não existe
+     */
+    public Pagina getFas(String login, int inicio, int limite) throws UsuarioNaoCadastradoException {
+        String[] destino = novaPagina(inicio, limite);
+        Liberacao trava = travar(login);
+        try (trava) {
+            Users usuario = getUsuario(login);
+            return new Pagina(destino, usuario.copiarFas(inicio, destino), inicio, usuario.getNumeroDeFas());
+        }
+    }
+
+    /**
+     * Retorna um trecho das comunidades de um usuário, na ordem em que ele entrou.
+     * @param login Login do usuário
+     * @param inicio Posição da primeira comunidade da página
+     * @param limite Número máximo de comunidades na página
+     * @return Página de nomes de comunidades
+     * @throws UsuarioNaoCadastradoException Se o usuário não existe
+     */
+    public Pagina getComunidades(String login, int inicio, int limite) throws UsuarioNaoCadastradoException {
+        String[] destino = novaPagina(inicio, limite);
+        Liberacao trava = travar(login);
+        try (trava) {
+            Users usuario = getUsuario(login);
+            return new Pagina(destino, usuario.copiarComunidades(inicio, destino), inicio, usuario.getNumeroDeComunidades());
+        }
+    }
+
+    /**
+     * Retorna um trecho dos membros de uma comunidade, na ordem em que entraram.
+     * @param nome Nome da comunidade
+     * @param inicio Posição do primeiro membro da página
+     * @param limite Número máximo de membros na página
+     * @return Página de logins
+     * @throws ComunidadeNaoExisteException Se a comunidade não existe
+     */
+    public Pagina getMembrosComunidade(String nome, int inicio, int limite) throws ComunidadeNaoExisteException {
+        String[] destino = novaPagina(inicio, limite);
+        Liberacao trava = travar(Collections.singletonList(nome), List.of());
+        try (trava) {
+            Comunidade comunidade = socialManager.getComunidade(nome);
+            return new Pagina(destino, comunidade.copiarMembros(inicio, destino), inicio, comunidade.getNumeroDeMembros());
+        }
+    }
+
+    private static String[] novaPagina(int inicio, int limite) {
+        if (inicio < 0) {
+            throw new IllegalArgumentException("Início da página não pode ser negativo");
+        }
+        if (limite <= 0) {
+            throw new IllegalArgumentException("Limite da página deve ser positivo");
+        }
+        return new String[Math.min(limite, LIMITE_PAGINA)];
+    }
+
+    /**
+     * Percorre os amigos de um usuário em lotes, cada um lido com as travas do usuário, sem
+     * copiar a lista inteira.
+     * @param login Login do usuário
+     * @return Iterador dos logins dos amigos
+     * @throws UsuarioNaoCadastradoException Se o usuário não existe
+     */
+    public Iterator<String> percorrerAmigos(String login) throws UsuarioNaoCadastradoException {
+        getNumeroDeAmigos(login);
+        return new IteradorPaginado((inicio, destino) -> {
+            Liberacao trava = travar(login);
+            try (trava) {
+                Users usuario = usuarios.get(login);
+                return usuario == null ? 0 : usuario.copiarAmigos(inicio, destino);
+            }
+        });
+    }
+
+    /**
+     * Percorre os fãs de um usuário em lotes, sem copiar a lista inteira.
+     * @param login Login do usuário
+     * @return Iterador dos logins dos fãs
+     * @throws UsuarioNaoCadastradoException Se o usuário não existe
+     */
+    public Iterator<String> percorrerFas(String login) throws UsuarioNaoCadastradoException {
+        getNumeroDeFas(login);
+        return new IteradorPaginado((inicio, destino) -> {
+            Liberacao trava = travar(login);
+            try (trava) {
+                Users usuario = usuarios.get(login);
+                return usuario == null ? 0 : usuario.copiarFas(inicio, destino);
+            }
+        });
+    }
+
+    /**
+     * Percorre as comunidades de um usuário em lotes.
+     * @param login Login do usuário
+     * @return Iterador dos nomes das comunidades
+     * @throws UsuarioNaoCadastradoException Se o usuário não existe
+     */
+    public Iterator<String> percorrerComunidades(String login) throws UsuarioNaoCadastradoException {
+        getNumeroDeComunidades(login);
+        return new IteradorPaginado((inicio, destino) -> {
+            Liberacao trava = travar(login);
+            try (trava) {
+                Users usuario = usuarios.get(login);
+                return usuario == null ? 0 : usuario.copiarComunidades(inicio, destino);
+            }
+        });
+    }
+
+    /**
+     * Percorre os membros de uma comunidade em lotes, cada um lido com a trava da comunidade,
+     * sem copiar a lista inteira.
+     * @param nome Nome da comunidade
+     * @return Iterador dos logins dos membros
+     * @throws ComunidadeNaoExisteException Se a comunidade não existe
+     */
+    public Iterator<String> percorrerMembros(String nome) throws ComunidadeNaoExisteException {
+        getNumeroDeMembros(nome);
+        return new IteradorPaginado((inicio, destino) -> {
+            Liberacao trava = travar(Collections.singletonList(nome), List.of());
+            try (trava) {
+                Comunidade comunidade = comunidadeOuNull(nome);
+                return comunidade == null ? 0 : comunidade.copiarMembros(inicio, destino);
+            }
+        });
+    }
+
+    /**
+     * Retorna os amigos que dois usuários têm em comum. A interseção percorre a lista menor e
+     * consulta a maior, então o custo não depende do número de amigos do mais popular.
+     * @param login Login do primeiro usuário
+     * @param outro Login do segundo usuário
+     * @return Lista formatada no formato {amigo1,amigo2}, na ordem da lista de amigos menor
+     * @throws UsuarioNaoCadastradoException Se algum dos usuários não existe
+     */
+    public String getAmigosEmComum(String login, String outro) throws UsuarioNaoCadastradoException {
+        Liberacao trava = travar(login, outro);
+        try (trava) {
+            return registroLogins.formatar(getUsuario(login).getAmigosEmComum(getUsuario(outro)));
+        }
+    }
+
+    /**
+     * Sugere amizades ("pessoas que você talvez conheça"): os amigos dos amigos de um usuário,
+     * do que tem mais amigos em comum com ele para o que tem menos, e entre empates na ordem em que
+     * aparecem percorrendo os amigos. Ficam de fora o próprio usuário, os seus amigos, quem o
+     * convidou, quem ele convidou e os inimigos nos dois sentidos.
+     *
+     * Cada amigo é lido com a sua própria trava, e as contagens vão para uma
+     * {@link ContagemInteiros}; a partir de {@value #AMIGOS_POR_TAREFA} amigos, a contagem é
+     * dividida em tarefas no pool de fork-join. As escolhas são feitas com um heap limitado à
+     * quantidade pedida, e só elas são conferidas no registro do candidato; um candidato recusado
+     * nessa conferência é trocado pelo seguinte. Cada nova escolha exclui ao menos um candidato a
+     * mais, e os candidatos são os da contagem, então há no máximo uma escolha por candidato.
+     * @param login Login do usuário
+     * @param quantidade Número máximo de sugestões, até {@value #LIMITE_PAGINA}
+     * @return Lista formatada no formato {login1,login2}
+     * @throws UsuarioNaoCadastradoException Se o usuário não existe
+     * @throws IllegalArgumentException Se a quantidade não for positiva
+     */
+    public String getSugestoesDeAmizade(String login, int quantidade) throws UsuarioNaoCadastradoException {
+        if (quantidade <= 0) {
+            throw new IllegalArgumentException("Quantidade de sugestões deve ser positiva");
+        }
+        int limite = Math.min(quantidade, LIMITE_PAGINA);
+        ConjuntoInteiros amigos;
+        Liberacao travaAmigos = travar(login);
+        try (travaAmigos) {
+            amigos = getUsuario(login).copiarIdsDosAmigos();
+        }
+        ContagemInteiros contagem = contarAmigosDosAmigos(amigos);
+        ConjuntoInteiros recusados = new ConjuntoInteiros();
+        // cada volta que não retorna recusa um candidato novo; a última tem contagem.size() recusados
+        for (int escolha = 0; escolha <= contagem.size(); escolha++) {
+            int[] candidatos;
+            int id;
+            Liberacao trava = travar(login);
+            try (trava) {
+                Users usuario = getUsuario(login);
+                id = usuario.getId();
+                candidatos = contagem.maiores(limite, candidato -> candidato != id
+                        && !usuario.ehAmigo(candidato) && !usuario.temConvitePendente(candidato)
+                        && !usuario.ehInimigo(candidato) && !recusados.contains(candidato));
+            }
+            ConjuntoInteiros sugestoes = new ConjuntoInteiros();
+            for (int candidato : candidatos) {
+                if (podeSerSugerido(registroLogins.login(candidato), id)) {
+                    sugestoes.add(candidato);
+                } else {
+                    recusados.add(candidato);
+                }
+            }
+            if (sugestoes.size() == candidatos.length) {
+                return registroLogins.formatar(sugestoes);
+            }
+        }
+        throw new IllegalStateException("Candidatos recusados mais de uma vez");
+    }
+
+    /**
+     * Confere no registro do candidato o que o usuário não guarda: um convite que ele enviou ao
+     * candidato e uma inimizade do candidato com ele.
+     */
+    private boolean podeSerSugerido(String candidato, int usuario) {
+        Liberacao trava = travar(candidato);
+        try (trava) {
+            Users registro = getUsuario(candidato);
+            return !registro.temConvitePendente(usuario) && !registro.ehInimigo(usuario);
+        } catch (UsuarioNaoCadastradoException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Conta quantas vezes cada usuário aparece entre os amigos dos amigos informados.
+     */
+    private ContagemInteiros contarAmigosDosAmigos(ConjuntoInteiros amigos) {
+        if (amigos.size() < AMIGOS_POR_TAREFA * 2) {
+            return contarAmigosDosAmigos(amigos, 0, amigos.size());
+        }
+        List<Callable<ContagemInteiros>> tarefas = new ArrayList<>();
+        for (int inicio = 0; inicio < amigos.size(); inicio += AMIGOS_POR_TAREFA) {
+            int de = inicio;
+            int ate = Math.min(amigos.size(), inicio + AMIGOS_POR_TAREFA);
+            tarefas.add(() -> contarAmigosDosAmigos(amigos, de, ate));
+        }
+        try {
+            // as parciais são somadas na ordem das tarefas, o que mantém os empates estáveis
+            ContagemInteiros total = new ContagemInteiros();
+            for (ContagemInteiros parcial : Paralelo.executar(tarefas)) {
+                total.somar(parcial);
+            }
+            return total;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ContagemInteiros contarAmigosDosAmigos(ConjuntoInteiros amigos, int inicio, int fim) {
+        ContagemInteiros contagem = new ContagemInteiros();
+        for (int i = inicio; i < fim; i++) {
+            String amigo = registroLogins.login(amigos.get(i));
+            Liberacao trava = travar(amigo);
+            try (trava) {
+                getUsuario(amigo).paraCadaAmigo(contagem::incrementar);
+            } catch (UsuarioNaoCadastradoException e) {
+                // removido depois que a lista de amigos foi copiada
+            }
+        }
+        return contagem;
+    }
+
+    /**
+     * Retorna o menor caminho de amizades entre dois usuários, com uma busca em largura feita
+     * dos dois lados ({@link BuscaBidirecional}). Cada usuário visitado é lido com a sua própria
+     * trava, e a busca para ao visitar {@value #LIMITE_VISITADOS_CAMINHO} usuários.
+     * @param login Login do usuário de origem
+     * @param destino Login do usuário de destino
+     * @param profundidadeMaxima Número máximo de amizades no caminho
+     * @return Logins do caminho no formato {origem,amigo,destino}, ou {} se não houver caminho
+     *         dentro dos limites
+     * @throws UsuarioNaoCadastradoException Se algum dos usuários não existe
+     * @throws IllegalArgumentException Se a profundidade máxima não for positiva
+     */
+    public String getCaminhoDeAmizade(String login, String destino, int profundidadeMaxima) throws UsuarioNaoCadastradoException {
+        if (profundidadeMaxima <= 0) {
+            throw new IllegalArgumentException("Profundidade máxima deve ser positiva");
+        }
+        int origem;
+        int alvo;
+        Liberacao trava = travar(login, destino);
+        try (trava) {
+            origem = getUsuario(login).getId();
+            alvo = getUsuario(destino).getId();
+        }
+        int[] caminho = new BuscaBidirecional(this::paraCadaAmigo, LIMITE_VISITADOS_CAMINHO)
+                .buscar(origem, alvo, profundidadeMaxima);
+        if (caminho == null) {
             return "{}";
         }
-        return "{" + String.join(",", comunidades) + "}";
+        ConjuntoInteiros logins = new ConjuntoInteiros();
+        for (int usuario : caminho) {
+            logins.add(usuario);
+        }
+        return registroLogins.formatar(logins);
     }
 
-    public void enviarMensagem(String idSessao, String nomeComunidade, String mensagem) throws ComunidadeNaoExisteException, UsuarioNaoCadastradoException {
-        Users remetente = getUsuarioPorSessao(idSessao);
-        Comunidade comunidade = socialManager.getComunidade(nomeComunidade);
-        
+    private void paraCadaAmigo(int usuario, IntConsumer visitante) {
+        String login = registroLogins.login(usuario);
+        Liberacao trava = travar(login);
+        try (trava) {
+            getUsuario(login).paraCadaAmigo(visitante);
+        } catch (UsuarioNaoCadastradoException e) {
+            // removido durante a busca: fica sem amigos
+        }
+    }
 
-        for (String loginMembro : comunidade.getMembros()) {
-            Users membro = getUsuario(loginMembro);
-            membro.receberMensagem(mensagem);
+    /**
+     * Envia uma mensagem a uma comunidade. A mensagem é anexada uma única vez ao histórico da
+     * comunidade, e os membros a recebem pelos seus cursores, em {@link #lerMensagem(String)}.
+     * @param idSessao ID da sessão do remetente
+     * @param nomeComunidade Nome da comunidade
+     * @param mensagem Texto da mensagem
+     * @throws ComunidadeNaoExisteException Se a comunidade não existe
+     * @throws UsuarioNaoCadastradoException Se a sessão não existir
+     */
+    public void enviarMensagem(String idSessao, String nomeComunidade, String mensagem) throws ComunidadeNaoExisteException, UsuarioNaoCadastradoException {
+        String login = getUsuarioPorSessao(idSessao).getLogin();
+        Liberacao trava = travar(Collections.singletonList(nomeComunidade), List.of());
+        try (trava) {
+            Comunidade comunidade = socialManager.alterarComunidade(nomeComunidade);
+            // a chave é a sequência da própria operação, atribuída com a comunidade travada,
+            // então as chaves do histórico crescem na ordem em que as mensagens são anexadas; se o
+            // registro falhar, a mensagem não é publicada
+            long chave = registrarComSequencia(Operacao.ENVIAR_MENSAGEM, login, nomeComunidade, mensagem);
+            comunidade.publicar(chave, mensagem);
         }
     }
 
+    /**
+     * Lê a próxima mensagem de um usuário: primeiro as da fila de mensagens antigas e depois,
+     * entre as comunidades do usuário, a de menor chave depois do cursor de cada uma, que é a
+     * mais antiga na ordem de entrega.
+     * @param idSessao ID da sessão do usuário
+     * @return Texto da mensagem
+     * @throws UsuarioNaoCadastradoException Se a sessão não existir
+     * @throws MensagemNaoEncontradaException Se não houver mensagens
+     */
     public String lerMensagem(String idSessao) throws UsuarioNaoCadastradoException, MensagemNaoEncontradaException {
-        Users usuario = getUsuarioPorSessao(idSessao);
-        return usuario.lerMensagem();
+        String login = loginDaSessao(idSessao);
+        while (true) {
+            Set<String> comunidades;
+            Liberacao trava = travar(login);
+            try (trava) {
+                comunidades = getUsuario(login).getComunidades();
+            }
+            // como em enviarMensagem, as comunidades são travadas antes do usuário; se ele
+            // entrou em outra comunidade nesse intervalo, a leitura é refeita
+            Liberacao travaComunidades = travar(comunidades, List.of(login));
+            try (travaComunidades) {
+                Users usuario = getUsuario(login);
+                if (!usuario.getComunidades().equals(comunidades)) {
+                    continue;
+                }
+                if (usuario.temMensagens()) {
+                    String mensagem = alterar(usuario).lerMensagem();
+                    registrar(Operacao.LER_MENSAGEM, login);
+                    return mensagem;
+                }
+                Comunidade origem = null;
+                int posicao = 0;
+                for (String nome : comunidades) {
+                    Comunidade comunidade = comunidadeOuNull(nome);
+                    if (comunidade == null) {
+                        continue;
+                    }
+                    int proxima = comunidade.proximaMensagem(usuario.getCursor(nome));
+                    if (proxima < comunidade.getQuantidadeMensagens()
+                            && (origem == null || comunidade.getChave(proxima) < origem.getChave(posicao))) {
+                        origem = comunidade;
+                        posicao = proxima;
+                    }
+                }
+                if (origem == null) {
+                    throw new MensagemNaoEncontradaException();
+                }
+                alterar(usuario).setCursor(origem.getNome(), origem.getChave(posicao));
+                registrar(Operacao.LER_MENSAGEM, login);
+                return origem.getMensagem(posicao);
+            }
+        }
+    }
+
+    private Comunidade comunidadeOuNull(String nome) {
+        try {
+            return socialManager.getComunidade(nome);
+        } catch (ComunidadeNaoExisteException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Descarta as mensagens ainda não lidas de um usuário: a fila antiga e, em cada comunidade,
+     * tudo até a última mensagem do histórico.
+     */
+    private void descartarMensagens(Users usuario) {
+        Users alterado = null;
+        if (usuario.temMensagens()) {
+            alterado = alterar(usuario);
+            alterado.limparMensagens();
+        }
+        for (String nome : usuario.getComunidades()) {
+            Comunidade comunidade = comunidadeOuNull(nome);
+            if (comunidade != null && comunidade.getUltimaChave() > usuario.getCursor(nome)) {
+                if (alterado == null) {
+                    alterado = alterar(usuario);
+                }
+                alterado.setCursor(nome, comunidade.getUltimaChave());
+            }
+        }
     }
 
     /**
      * Remove um usuário e todas as suas informações do sistema.
+     * Só os usuários que referenciam o removido são alterados: os que o têm em algum
+     * relacionamento, os que receberam recados dele e os membros das suas comunidades, que
+     * perdem as mensagens recebidas. Antes dos índices reversos, a remoção descartava os recados
+     * e as mensagens de todos os usuários, já que os recados não guardam o remetente; agora os
+     * demais usuários ficam intactos. Os recados de quem recebeu algum do removido continuam
+     * descartados por inteiro, pelo mesmo motivo. Quando os índices estão incompletos, a remoção
+     * os reconstrói com {@link #reconstruirIndicesReversos()}, que descarta os recados e as
+     * mensagens de todos, como antes. Como o conjunto alterado não é conhecido antes da operação,
+     * ela roda sem nenhuma outra em paralelo.
      * @param idSessao ID da sessão do usuário a ser removido
      * @throws UsuarioNaoCadastradoException Se o usuário não existe
      */
     public void removerUsuario(String idSessao) throws UsuarioNaoCadastradoException {
+        Liberacao trava = travarTudo();
+        try (trava) {
+            removerUsuarioSozinho(idSessao);
+        }
+    }
+
+    private void removerUsuarioSozinho(String idSessao) throws UsuarioNaoCadastradoException {
         Users usuario = getUsuarioPorSessao(idSessao);
         String login = usuario.getLogin();
+        int id = usuario.getId();
 
+        if (!indicesReversosCompletos) {
+            reconstruirIndicesReversos();
+            usuario = getUsuario(login);
+        }
 
-        Set<String> comunidadesDoUsuario = new LinkedHashSet<>(usuario.getComunidades());
-        for (String comunidade : comunidadesDoUsuario) {
+        ConjuntoInteiros membros = new ConjuntoInteiros();
+        for (String comunidade : usuario.getComunidades()) {
             try {
-                Comunidade com = socialManager.getComunidade(comunidade);
-                com.removerMembro(login);
-                
+                Comunidade com = socialManager.alterarComunidade(comunidade);
+                com.removerMembro(id);
+                com.paraCadaMembro(membros::add);
 
-                if (com.getDono().equals(login)) {
+                if (com.getIdDono() == id) {
                     socialManager.removerComunidade(comunidade);
-                    for (Users outroUsuario : usuarios.values()) {
-                        outroUsuario.removerComunidade(comunidade);
-                    }
+                    com.paraCadaMembro(membro -> {
+                        Users outroUsuario = usuarios.get(registroLogins.login(membro));
+                        if (outroUsuario != null) {
+                            alterar(outroUsuario).removerComunidade(comunidade);
+                        }
+                    });
                 }
             } catch (ComunidadeNaoExisteException e) {
 
             }
         }
-
-
-        for (Users outroUsuario : usuarios.values()) {
-            if (outroUsuario.ehAmigo(login)) {
-                outroUsuario.removerAmigo(login);
-            }
-            if (outroUsuario.ehFa(login)) {
-                outroUsuario.removerFa(login);
+        membros.paraCada(membro -> {
+            Users outroUsuario = usuarios.get(registroLogins.login(membro));
+            if (outroUsuario != null) {
+                descartarMensagens(outroUsuario);
             }
-            if (outroUsuario.ehPaquera(login)) {
-                outroUsuario.removerPaquera(login);
+        });
+
+        usuario.paraCadaRelacionado(outro -> {
+            Users outroUsuario = usuarios.get(registroLogins.login(outro));
+            if (outroUsuario != null && outroUsuario.referencia(id)) {
+                alterar(outroUsuario).removerReferencias(id);
             }
-            if (outroUsuario.ehInimigo(login)) {
-                outroUsuario.removerInimigo(login);
+        });
+        usuario.paraCadaDestinatario(destinatario -> {
+            Users outroUsuario = usuarios.get(registroLogins.login(destinatario));
+            if (outroUsuario != null && outroUsuario.temRecados()) {
+                alterar(outroUsuario).limparRecados();
             }
+        });
+
+
+        sessoes.encerrar(idSessao);
 
-            outroUsuario.limparMensagens();
+
+        usuarios.remove(login);
+        registrar(Operacao.REMOVER_USUARIO, login);
+    }
+
+    /**
+     * Reconstrói os índices reversos de todos os usuários, a partir das paqueras e dos inimigos
+     * de cada um. Os recados não guardam o remetente, então os de todos os usuários são
+     * descartados, como faziam as remoções antes dos índices. O próximo checkpoint grava um
+     * snapshot completo, para que os índices não precisem ser reconstruídos de novo.
+     */
+    private void reconstruirIndicesReversos() {
+        for (Users outroUsuario : usuarios.values()) {
+            descartarMensagens(outroUsuario);
+            outroUsuario = alterar(outroUsuario);
+            outroUsuario.limparIndicesReversos();
             outroUsuario.limparRecados();
         }
+        for (Users outroUsuario : usuarios.values()) {
+            int outro = outroUsuario.getId();
+            outroUsuario.paraCadaPaqueraEInimigo(
+                    paquera -> {
+                        Users usuarioPaquera = usuarios.get(registroLogins.login(paquera));
+                        if (usuarioPaquera != null) {
+                            alterar(usuarioPaquera).adicionarPaqueradoPor(outro);
+                        }
+                    },
+                    inimigo -> {
+                        Users usuarioInimigo = usuarios.get(registroLogins.login(inimigo));
+                        if (usuarioInimigo != null) {
+                            alterar(usuarioInimigo).adicionarInimigoDe(outro);
+                        }
+                    });
+        }
+        indicesReversosCompletos = true;
+        snapshotCompletoPendente = true;
+    }
+
+    /**
+     * Adiciona um usuário já construído, lido de um snapshot em formato antigo.
+     * @param usuario Usuário restaurado
+     */
+    public void restaurarUsuario(Users usuario) {
+        usuarios.put(usuario.getLogin(), usuario);
+        indicesReversosCompletos = false;
+    }
 
+    /**
+     * Adiciona uma comunidade já construída, lida de um snapshot em formato antigo.
+     * @param comunidade Comunidade restaurada
+     */
+    public void restaurarComunidade(Comunidade comunidade) {
+        socialManager.restaurarComunidade(comunidade);
+    }
+
+    /**
+     * Grava o estado completo do sistema num novo snapshot.
+     * Usuários e comunidades que nunca foram acessados desde a carga são copiados
+     * diretamente do snapshot de origem, sem serem decodificados.
+     * @param escritor Escritor do snapshot
+     */
+    public void gravar(EscritorSnapshot escritor) throws IOException {
+        usuarios.gravar(escritor.getUsuarios());
+        gravarComunidades(escritor);
+    }
 
-        sessoes.remove(idSessao);
+    /**
+     * Grava os usuários de uma partição de logins num arquivo de partição de um novo snapshot.
+     * Partições diferentes podem ser gravadas em paralelo, desde que o sistema não seja alterado
+     * enquanto isso.
+     * @param destino Seção de usuários do arquivo da partição
+     * @param particao Partição a ser gravada
+     * @param particoes Número total de partições
+     */
+    public void gravarUsuarios(EscritorSnapshot.Secao destino, int particao, int particoes) throws IOException {
+        usuarios.gravar(destino, particao, particoes);
+    }
 
+    /**
+     * Grava as comunidades no arquivo principal de um novo snapshot.
+     * @param escritor Escritor do snapshot
+     */
+    public void gravarComunidades(EscritorSnapshot escritor) throws IOException {
+        socialManager.gravar(escritor.getComunidades());
+    }
 
-        usuarios.remove(login);
+    /**
+     * Grava num segmento incremental apenas o que mudou desde o último checkpoint: os usuários
+     * e comunidades alterados ou removidos.
+     * @param escritor Escritor do segmento
+     */
+    public void gravarAlteracoes(EscritorSnapshot escritor) throws IOException {
+        usuarios.gravarAlteracoes(escritor.getUsuarios());
+        socialManager.gravarAlteracoes(escritor.getComunidades());
+    }
+
+    /**
+     * Indica se houve alguma alteração desde o último checkpoint.
+     * @return true se houver algo a gravar
+     */
+    public boolean temAlteracoes() {
+        return snapshotCompletoPendente || usuarios.temAlteracoes()
+                || socialManager.temAlteracoes();
+    }
+
+    /**
+     * Indica se o próximo checkpoint precisa gravar o snapshot completo, porque não há no disco
+     * um snapshot base no formato atual sobre o qual os segmentos incrementais possam ser aplicados.
+     * @return true se o próximo checkpoint deve ser completo
+     */
+    public boolean precisaSnapshotCompleto() {
+        return snapshotCompletoPendente;
+    }
+
+    /**
+     * Captura em O(1) uma versão imutável do sistema, que pode ser lida e gravada por outra thread
+     * enquanto este continua recebendo operações. A versão leva as alterações registradas até
+     * agora, que deixam de estar pendentes aqui: se o checkpoint dela falhar, chame
+     * {@link #forcarSnapshotCompleto()}.
+     *
+     * A captura espera as operações em andamento e, no mesmo instante, rotaciona o journal, se
+     * houver um: o arquivo rotacionado tem exatamente as operações incluídas na versão.
+     * @return Versão capturada do sistema, que não deve ser alterada
+     */
+    public Systems capturarVersao() {
+        Liberacao trava = travarTudo();
+        try (trava) {
+            Systems versao = new Systems(usuarios.capturar(), socialManager.capturar(), sequenciaJournal,
+                    registroLogins);
+            versao.snapshotCompletoPendente = snapshotCompletoPendente;
+            versao.indicesReversosCompletos = indicesReversosCompletos;
+            snapshotCompletoPendente = false;
+            if (journal != null) {
+                journal.rotacionar();
+            }
+            return versao;
+        }
+    }
+
+    /**
+     * Faz o próximo checkpoint gravar o snapshot completo, porque as alterações de uma versão
+     * capturada não chegaram ao disco.
+     */
+    public void forcarSnapshotCompleto() {
+        snapshotCompletoPendente = true;
+    }
+
+    /**
+     * Esquece as alterações registradas, depois que elas foram gravadas num checkpoint.
+     */
+    public void concluirCheckpoint() {
+        usuarios.concluirCheckpoint();
+        socialManager.concluirCheckpoint();
+        snapshotCompletoPendente = false;
     }
 }
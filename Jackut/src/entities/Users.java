@@ -3,60 +3,126 @@ package entities;
 import entities.factory.RelationshipFactoryProvider;
 import entities.relationship.AbstractRelationship;
 import exceptionsJackut.*;
-import java.io.Serializable;
+import utils.ConjuntoInteiros;
+import utils.EntradaBinaria;
+import utils.SaidaBinaria;
+
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Map;
+import java.util.function.IntConsumer;
 
 /**
  * Classe que representa um usuário do sistema Jackut.
  * Armazena informações do perfil, amigos, convites pendentes e recados.
- * Implementa Serializable para permitir persistência dos dados.
+ * Os outros usuários são referidos pelos ids do {@link RegistroLogins} do sistema, guardado
+ * pelo usuário; os logins só aparecem nos métodos que devolvem listas para fora do sistema.
+ *
+ * A maioria dos usuários não tem paqueras, convites nem recados, então as coleções só são
+ * alocadas quando recebem o primeiro elemento: até lá os campos apontam para coleções vazias
+ * compartilhadas ({@link ConjuntoInteiros#VAZIO}, {@link Collections#emptyMap()} e
+ * {@link Collections#emptySet()}), as filas de recados e mensagens são null e os relacionamentos
+ * só são criados pela fábrica quando usados. As filas voltam a ser null quando esvaziam.
+ *
+ * Além das próprias relações, o usuário guarda índices reversos: quem o tem como paquera, quem
+ * o tem como inimigo e a quem ele enviou recados. Com eles e com os amigos, fãs e ídolos, que já
+ * são recíprocos, a remoção de uma conta encontra todos os usuários que a referenciam sem
+ * percorrer o sistema. Os índices podem conter ids de usuários que já não existem.
+ *
+ * As mensagens de comunidades ficam no histórico de cada {@link Comunidade}; o usuário guarda,
+ * para cada comunidade de que participa, um cursor com a chave da última mensagem já lida. A
+ * fila de mensagens só guarda as entregues antes do histórico, lidas de snapshots antigos.
  *
  */
-public class Users implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private String login;
+public class Users {
+    private static final String[] TIPOS = {"amigo", "fa", "inimigo"};
+    private static final int AMIGO = 0;
+    private static final int FA = 1;
+    private static final int INIMIGO = 2;
+
+    private final RegistroLogins registroLogins;
+    private final int id;
     private String senha;
     private String nome;
     private Map<String, String> atributos;
-    private Map<String, AbstractRelationship> relationships;
-    private Set<String> convitesPendentes;
-    private Set<String> comunidades;
+    /** Relacionamentos por tipo, na ordem de {@link #TIPOS}; null enquanto não há nenhum. */
+    private AbstractRelationship[] relationships;
+    private ConjuntoInteiros convitesPendentes;
+    /** Comunidades do usuário, em ordem de entrada, com o cursor de leitura de cada uma. */
+    private Map<String, Long> comunidades;
+    /** Lista formatada das comunidades, descartada quando elas mudam; null se ainda não foi montada. */
+    private String comunidadesFormatado;
     private Queue<String> recados;
     private Queue<String> mensagens;
-    private Set<String> paqueras;
-    private Set<String> idolos;
+    private ConjuntoInteiros paqueras;
+    private ConjuntoInteiros idolos;
+    private ConjuntoInteiros paqueradoPor;
+    private ConjuntoInteiros inimigoDe;
+    private ConjuntoInteiros destinatarios;
 
     /**
      * Construtor da classe Users.
-     * Inicializa os atributos básicos do usuário e as estruturas de dados necessárias.
+     * Inicializa os atributos básicos do usuário; as coleções começam vazias e compartilhadas.
      * @param login Login único do usuário
      * @param senha Senha do usuário
      * @param nome Nome do usuário
+     * @param registroLogins Registro do sistema, em que valem os ids guardados pelo usuário
      */
-    public Users(String login, String senha, String nome) {
-        this.login = login;
+    public Users(String login, String senha, String nome, RegistroLogins registroLogins) {
+        this.registroLogins = registroLogins;
+        this.id = registroLogins.id(login);
         this.senha = senha;
         this.nome = nome;
-        this.atributos = new HashMap<>();
-        this.relationships = new HashMap<>();
-        this.convitesPendentes = new LinkedHashSet<>();
-        this.comunidades = new LinkedHashSet<>();
-        this.recados = new LinkedList<>();
-        this.mensagens = new LinkedList<>();
-        this.paqueras = new LinkedHashSet<>();
-        this.idolos = new LinkedHashSet<>();
-        initializeRelationships();
+        this.atributos = Collections.emptyMap();
+        this.convitesPendentes = ConjuntoInteiros.VAZIO;
+        this.comunidades = Collections.emptyMap();
+        this.paqueras = ConjuntoInteiros.VAZIO;
+        this.idolos = ConjuntoInteiros.VAZIO;
+        this.paqueradoPor = ConjuntoInteiros.VAZIO;
+        this.inimigoDe = ConjuntoInteiros.VAZIO;
+        this.destinatarios = ConjuntoInteiros.VAZIO;
     }
 
-    private void initializeRelationships() {
-        relationships.put("amigo", RelationshipFactoryProvider.createRelationship("amigo"));
-        relationships.put("fa", RelationshipFactoryProvider.createRelationship("fa"));
-        relationships.put("inimigo", RelationshipFactoryProvider.createRelationship("inimigo"));
+    private AbstractRelationship relacionamento(int tipo) {
+        return relationships == null ? null : relationships[tipo];
+    }
+
+    /**
+     * Retorna o relacionamento de um tipo, criando-o se ainda não existir.
+     */
+    private AbstractRelationship relacionamentoParaAlterar(int tipo) {
+        if (relationships == null) {
+            relationships = new AbstractRelationship[TIPOS.length];
+        }
+        if (relationships[tipo] == null) {
+            relationships[tipo] = RelationshipFactoryProvider.createRelationship(TIPOS[tipo]);
+        }
+        return relationships[tipo];
+    }
+
+    private boolean temRelacionamento(int tipo, int usuario) {
+        AbstractRelationship relacionamento = relacionamento(tipo);
+        return relacionamento != null && relacionamento.temRelacionamento(usuario);
+    }
+
+    private void removerRelacionamento(int tipo, int usuario) {
+        AbstractRelationship relacionamento = relacionamento(tipo);
+        if (relacionamento != null) {
+            relacionamento.removerRelacionamento(usuario);
+        }
+    }
+
+    /**
+     * Troca um conjunto vazio compartilhado por um próprio, antes de adicionar elementos.
+     */
+    private static ConjuntoInteiros paraAlterar(ConjuntoInteiros conjunto) {
+        return conjunto == ConjuntoInteiros.VAZIO ? new ConjuntoInteiros() : conjunto;
     }
 
     /**
@@ -72,7 +138,15 @@ public class Users implements Serializable {
      * @return Login do usuário
      */
     public String getLogin() {
-        return login;
+        return registroLogins.login(id);
+    }
+
+    /**
+     * Retorna o id do usuário no {@link RegistroLogins}.
+     * @return Id do usuário
+     */
+    public int getId() {
+        return id;
     }
 
     /**
@@ -89,6 +163,9 @@ public class Users implements Serializable {
      * @param valor Valor do atributo
      */
     public void setAtributo(String atributo, String valor) {
+        if (atributos.isEmpty()) {
+            atributos = new HashMap<>(4);
+        }
         atributos.put(atributo, valor);
     }
 
@@ -100,7 +177,7 @@ public class Users implements Serializable {
     public String getAtributo(String atributo) {
         switch (atributo) {
             case "login":
-                return login;
+                return getLogin();
             case "senha":
                 return senha;
             case "nome":
@@ -112,21 +189,22 @@ public class Users implements Serializable {
 
     /**
      * Adiciona um convite de amizade pendente.
-     * @param login Login do usuário que enviou o convite
+     * @param usuario Id do usuário que enviou o convite
      */
-    public void adicionarConvite(String login) {
-        convitesPendentes.add(login);
+    public void adicionarConvite(int usuario) {
+        convitesPendentes = paraAlterar(convitesPendentes);
+        convitesPendentes.add(usuario);
     }
 
     /**
      * Aceita um convite de amizade.
      * Remove o convite pendente e adiciona o usuário à lista de amigos.
-     * @param login Login do usuário que enviou o convite
+     * @param usuario Id do usuário que enviou o convite
      */
-    public void aceitarConvite(String login) {
-        convitesPendentes.remove(login);
+    public void aceitarConvite(int usuario) {
+        convitesPendentes.remove(usuario);
         try {
-            relationships.get("amigo").adicionarRelacionamento(login);
+            relacionamentoParaAlterar(AMIGO).adicionarRelacionamento(usuario);
         } catch (UsuarioJaAdicionadoException | UsuarioJaAdicionadoComoIdoloException | UsuarioJaAdicionadoComoInimigoException e) {
         }
     }
@@ -134,28 +212,28 @@ public class Users implements Serializable {
     /**
      * Rejeita um convite de amizade.
      * Remove o convite pendente sem adicionar à lista de amigos.
-     * @param login Login do usuário que enviou o convite
+     * @param usuario Id do usuário que enviou o convite
      */
-    public void rejeitarConvite(String login) {
-        convitesPendentes.remove(login);
+    public void rejeitarConvite(int usuario) {
+        convitesPendentes.remove(usuario);
     }
 
     /**
      * Verifica se existe um convite pendente de um usuário.
-     * @param login Login do usuário a verificar
+     * @param usuario Id do usuário a verificar
      * @return true se existe convite pendente, false caso contrário
      */
-    public boolean temConvitePendente(String login) {
-        return convitesPendentes.contains(login);
+    public boolean temConvitePendente(int usuario) {
+        return convitesPendentes.contains(usuario);
     }
 
     /**
      * Verifica se um usuário é amigo.
-     * @param login Login do usuário a verificar
+     * @param usuario Id do usuário a verificar
      * @return true se é amigo, false caso contrário
      */
-    public boolean ehAmigo(String login) {
-        return relationships.get("amigo").temRelacionamento(login);
+    public boolean ehAmigo(int usuario) {
+        return temRelacionamento(AMIGO, usuario);
     }
 
     /**
@@ -163,7 +241,8 @@ public class Users implements Serializable {
      * @return Conjunto de logins dos amigos
      */
     public Set<String> getAmigos() {
-        return relationships.get("amigo").getRelacionamentos();
+        AbstractRelationship amigos = relacionamento(AMIGO);
+        return amigos == null ? new LinkedHashSet<>() : amigos.getRelacionamentos(registroLogins);
     }
 
     /**
@@ -172,17 +251,58 @@ public class Users implements Serializable {
      * @return String formatada com a lista de amigos
      */
     public String getAmigosFormatado() {
-        Set<String> amigos = getAmigos();
-        if (amigos.isEmpty()) {
-            return "{}";
+        AbstractRelationship amigos = relacionamento(AMIGO);
+        return amigos == null ? "{}" : amigos.getRelacionamentosFormatado(registroLogins);
+    }
+
+    public int getNumeroDeAmigos() {
+        AbstractRelationship amigos = relacionamento(AMIGO);
+        return amigos == null ? 0 : amigos.getQuantidade();
+    }
+
+    /**
+     * Copia os logins de um trecho dos amigos, na ordem em que as amizades foram feitas.
+     * @param inicio Posição do primeiro amigo copiado
+     * @param destino Vetor que recebe os logins
+     * @return Número de logins copiados
+     */
+    public int copiarAmigos(int inicio, String[] destino) {
+        AbstractRelationship amigos = relacionamento(AMIGO);
+        return amigos == null ? 0 : amigos.copiarLogins(inicio, destino, registroLogins);
+    }
+
+    /**
+     * Visita os ids dos amigos, na ordem em que as amizades foram feitas.
+     * @param visitante Ação chamada para cada amigo
+     */
+    public void paraCadaAmigo(IntConsumer visitante) {
+        AbstractRelationship amigos = relacionamento(AMIGO);
+        if (amigos != null) {
+            amigos.paraCada(visitante);
         }
-        StringBuilder sb = new StringBuilder("{");
-        for (String amigo : amigos) {
-            sb.append(amigo).append(",");
+    }
+
+    /**
+     * Retorna uma cópia dos ids dos amigos, para ser percorrida depois de liberadas as travas.
+     * @return Ids dos amigos
+     */
+    public ConjuntoInteiros copiarIdsDosAmigos() {
+        AbstractRelationship amigos = relacionamento(AMIGO);
+        return amigos == null ? ConjuntoInteiros.VAZIO : amigos.copiarIds();
+    }
+
+    /**
+     * Retorna os amigos deste usuário que também são amigos de outro.
+     * @param outro Outro usuário
+     * @return Ids dos amigos em comum
+     */
+    public ConjuntoInteiros getAmigosEmComum(Users outro) {
+        AbstractRelationship amigos = relacionamento(AMIGO);
+        AbstractRelationship amigosDoOutro = outro.relacionamento(AMIGO);
+        if (amigos == null || amigosDoOutro == null) {
+            return ConjuntoInteiros.VAZIO;
         }
-        sb.setLength(sb.length() - 1);
-        sb.append("}");
-        return sb.toString();
+        return amigos.intersecao(amigosDoOutro);
     }
 
     /**
@@ -190,6 +310,9 @@ public class Users implements Serializable {
      * @param recado Texto do recado a ser adicionado
      */
     public void receberRecado(String recado) {
+        if (recados == null) {
+            recados = new LinkedList<>();
+        }
         recados.add(recado);
     }
 
@@ -202,7 +325,11 @@ public class Users implements Serializable {
         if (!temRecados()) {
             throw new RecadoNaoEncontradoException();
         }
-        return recados.poll();
+        String recado = recados.poll();
+        if (recados.isEmpty()) {
+            recados = null;
+        }
+        return recado;
     }
 
     /**
@@ -210,18 +337,93 @@ public class Users implements Serializable {
      * @return true se existem recados, false caso contrário
      */
     public boolean temRecados() {
-        return !recados.isEmpty();
+        return recados != null;
     }
 
     public void adicionarComunidade(String nomeComunidade) {
-        comunidades.add(nomeComunidade);
+        adicionarComunidade(nomeComunidade, 0);
+    }
+
+    /**
+     * Adiciona uma comunidade, com as mensagens até uma chave já consideradas lidas.
+     * @param nomeComunidade Nome da comunidade
+     * @param cursor Chave da última mensagem do histórico que o usuário não deve receber
+     */
+    public void adicionarComunidade(String nomeComunidade, long cursor) {
+        if (comunidades.isEmpty()) {
+            comunidades = new LinkedHashMap<>(4);
+        }
+        comunidades.put(nomeComunidade, cursor);
+        comunidadesFormatado = null;
     }
 
     public Set<String> getComunidades() {
-        return new LinkedHashSet<>(comunidades);
+        return new LinkedHashSet<>(comunidades.keySet());
+    }
+
+    /**
+     * Retorna as comunidades formatadas como string, na ordem em que o usuário entrou.
+     * Formato: {comunidade1,comunidade2}
+     * @return String formatada, a mesma instância enquanto as comunidades não mudarem
+     */
+    public String getComunidadesFormatado() {
+        if (comunidades.isEmpty()) {
+            return "{}";
+        }
+        if (comunidadesFormatado == null) {
+            comunidadesFormatado = "{" + String.join(",", comunidades.keySet()) + "}";
+        }
+        return comunidadesFormatado;
+    }
+
+    public int getNumeroDeComunidades() {
+        return comunidades.size();
+    }
+
+    /**
+     * Copia os nomes de um trecho das comunidades, na ordem em que o usuário entrou. As
+     * comunidades anteriores ao início são percorridas, já que um usuário participa de poucas.
+     * @param inicio Posição da primeira comunidade copiada
+     * @param destino Vetor que recebe os nomes
+     * @return Número de nomes copiados
+     */
+    public int copiarComunidades(int inicio, String[] destino) {
+        int posicao = 0;
+        int quantidade = 0;
+        for (String comunidade : comunidades.keySet()) {
+            if (quantidade == destino.length) {
+                break;
+            }
+            if (posicao++ >= inicio) {
+                destino[quantidade++] = comunidade;
+            }
+        }
+        return quantidade;
+    }
+
+    /**
+     * Retorna o cursor de leitura de uma comunidade.
+     * @param nomeComunidade Nome da comunidade
+     * @return Chave da última mensagem lida, ou 0 se o usuário não participa da comunidade
+     */
+    public long getCursor(String nomeComunidade) {
+        Long cursor = comunidades.get(nomeComunidade);
+        return cursor == null ? 0 : cursor;
+    }
+
+    /**
+     * Marca como lidas as mensagens de uma comunidade até uma chave.
+     * @param nomeComunidade Nome da comunidade, da qual o usuário deve participar
+     * @param chave Chave da última mensagem lida
+     */
+    public void setCursor(String nomeComunidade, long chave) {
+        comunidades.replace(nomeComunidade, chave);
     }
 
     public void receberMensagem(String mensagem) {
+        if (mensagens == null) {
+            mensagens = new LinkedList<>();
+        }
         mensagens.add(mensagem);
     }
 
@@ -229,102 +431,273 @@ public class Users implements Serializable {
         if (!temMensagens()) {
             throw new MensagemNaoEncontradaException();
         }
-        return mensagens.poll();
+        String mensagem = mensagens.poll();
+        if (mensagens.isEmpty()) {
+            mensagens = null;
+        }
+        return mensagem;
     }
 
     public boolean temMensagens() {
-        return !mensagens.isEmpty();
+        return mensagens != null;
     }
 
-    public void adicionarIdolo(String idolo) throws UsuarioJaAdicionadoComoIdoloException, UsuarioNaoPodeSerFaDeSiMesmoException {
-        if (login.equals(idolo)) {
+    public void adicionarIdolo(int idolo) throws UsuarioJaAdicionadoComoIdoloException, UsuarioNaoPodeSerFaDeSiMesmoException {
+        if (id == idolo) {
             throw new UsuarioNaoPodeSerFaDeSiMesmoException();
         }
         if (idolos.contains(idolo)) {
             throw new UsuarioJaAdicionadoComoIdoloException();
         }
+        idolos = paraAlterar(idolos);
         idolos.add(idolo);
     }
 
-    public void adicionarFa(String fa) {
+    public void adicionarFa(int fa) {
         try {
-            relationships.get("fa").adicionarRelacionamento(fa);
+            relacionamentoParaAlterar(FA).adicionarRelacionamento(fa);
         } catch (UsuarioJaAdicionadoException | UsuarioJaAdicionadoComoIdoloException | UsuarioJaAdicionadoComoInimigoException e) {
         }
     }
 
-    public boolean ehFa(String idolo) {
+    public boolean ehFa(int idolo) {
         return idolos.contains(idolo);
     }
 
+    public int getNumeroDeFas() {
+        AbstractRelationship fas = relacionamento(FA);
+        return fas == null ? 0 : fas.getQuantidade();
+    }
+
+    /**
+     * Copia os logins de um trecho dos fãs, na ordem em que foram adicionados.
+     * @param inicio Posição do primeiro fã copiado
+     * @param destino Vetor que recebe os logins
+     * @return Número de logins copiados
+     */
+    public int copiarFas(int inicio, String[] destino) {
+        AbstractRelationship fas = relacionamento(FA);
+        return fas == null ? 0 : fas.copiarLogins(inicio, destino, registroLogins);
+    }
+
     public Set<String> getFas() {
-        return relationships.get("fa").getRelacionamentos();
+        AbstractRelationship fas = relacionamento(FA);
+        return fas == null ? new LinkedHashSet<>() : fas.getRelacionamentos(registroLogins);
     }
 
-    public void adicionarPaquera(String paquera) throws UsuarioJaAdicionadoComoPaqueraException, UsuarioNaoPodeSerPaqueraDeSiMesmoException {
-        if (login.equals(paquera)) {
+    /**
+     * Retorna a lista de fãs formatada como string.
+     * Formato: {fa1,fa2}
+     * @return String formatada com a lista de fãs
+     */
+    public String getFasFormatado() {
+        AbstractRelationship fas = relacionamento(FA);
+        return fas == null ? "{}" : fas.getRelacionamentosFormatado(registroLogins);
+    }
+
+    public void adicionarPaquera(int paquera) throws UsuarioJaAdicionadoComoPaqueraException, UsuarioNaoPodeSerPaqueraDeSiMesmoException {
+        if (id == paquera) {
             throw new UsuarioNaoPodeSerPaqueraDeSiMesmoException();
         }
         if (paqueras.contains(paquera)) {
             throw new UsuarioJaAdicionadoComoPaqueraException();
         }
+        paqueras = paraAlterar(paqueras);
         paqueras.add(paquera);
     }
 
-    public boolean ehPaquera(String paquera) {
+    public boolean ehPaquera(int paquera) {
         return paqueras.contains(paquera);
     }
 
     public Set<String> getPaqueras() {
-        return new LinkedHashSet<>(paqueras);
+        return registroLogins.logins(paqueras);
+    }
+
+    /**
+     * Retorna a lista de paqueras formatada como string.
+     * Formato: {paquera1,paquera2}
+     * @return String formatada com a lista de paqueras
+     */
+    public String getPaquerasFormatado() {
+        return registroLogins.formatar(paqueras);
     }
 
 
-    public void adicionarInimigo(String inimigo) throws UsuarioJaAdicionadoComoInimigoException, UsuarioNaoPodeSerInimigoDeSiMesmoException {
-        if (login.equals(inimigo)) {
+    public void adicionarInimigo(int inimigo) throws UsuarioJaAdicionadoComoInimigoException, UsuarioNaoPodeSerInimigoDeSiMesmoException {
+        if (id == inimigo) {
             throw new UsuarioNaoPodeSerInimigoDeSiMesmoException();
         }
         try {
-            relationships.get("inimigo").adicionarRelacionamento(inimigo);
+            relacionamentoParaAlterar(INIMIGO).adicionarRelacionamento(inimigo);
         } catch (UsuarioJaAdicionadoException | UsuarioJaAdicionadoComoIdoloException e) {
 
         }
     }
 
-    public boolean ehInimigo(String inimigo) {
-        return relationships.get("inimigo").temRelacionamento(inimigo);
+    public boolean ehInimigo(int inimigo) {
+        return temRelacionamento(INIMIGO, inimigo);
+    }
+
+    /**
+     * Registra que outro usuário adicionou este como paquera.
+     * @param usuario Id de quem adicionou a paquera
+     */
+    public void adicionarPaqueradoPor(int usuario) {
+        paqueradoPor = paraAlterar(paqueradoPor);
+        paqueradoPor.add(usuario);
+    }
+
+    /**
+     * Registra que outro usuário adicionou este como inimigo.
+     * @param usuario Id de quem adicionou o inimigo
+     */
+    public void adicionarInimigoDe(int usuario) {
+        inimigoDe = paraAlterar(inimigoDe);
+        inimigoDe.add(usuario);
+    }
+
+    /**
+     * Verifica se este usuário já enviou recados a outro, ou se os dois trocaram o recado
+     * automático de paqueras.
+     * @param usuario Id do destinatário
+     * @return true se o destinatário já está registrado
+     */
+    public boolean ehDestinatario(int usuario) {
+        return destinatarios.contains(usuario);
+    }
+
+    /**
+     * Registra um usuário que recebeu recados relacionados a este.
+     * @param usuario Id do destinatário
+     */
+    public void adicionarDestinatario(int usuario) {
+        destinatarios = paraAlterar(destinatarios);
+        destinatarios.add(usuario);
+    }
+
+    /**
+     * Visita os usuários que receberam recados relacionados a este.
+     * @param visitante Ação chamada com o id de cada destinatário
+     */
+    public void paraCadaDestinatario(IntConsumer visitante) {
+        destinatarios.paraCada(visitante);
+    }
+
+    /**
+     * Visita os usuários que podem guardar uma referência a este em algum relacionamento:
+     * amigos, fãs, ídolos, quem o tem como paquera ou inimigo e as suas próprias paqueras e
+     * inimigos, cujos índices reversos apontam para ele. Um mesmo id pode ser visitado mais de uma vez.
+     * @param visitante Ação chamada com o id de cada usuário
+     */
+    public void paraCadaRelacionado(IntConsumer visitante) {
+        if (relationships != null) {
+            for (AbstractRelationship relacionamento : relationships) {
+                if (relacionamento != null) {
+                    relacionamento.paraCada(visitante);
+                }
+            }
+        }
+        idolos.paraCada(visitante);
+        paqueras.paraCada(visitante);
+        paqueradoPor.paraCada(visitante);
+        inimigoDe.paraCada(visitante);
+    }
+
+    /**
+     * Remove um usuário de todos os relacionamentos e índices reversos deste.
+     * @param usuario Id do usuário removido
+     * @return true se alguma referência foi removida
+     */
+    public boolean removerReferencias(int usuario) {
+        boolean removeu = false;
+        if (relationships != null) {
+            for (AbstractRelationship relacionamento : relationships) {
+                if (relacionamento != null && relacionamento.temRelacionamento(usuario)) {
+                    relacionamento.removerRelacionamento(usuario);
+                    removeu = true;
+                }
+            }
+        }
+        removeu |= idolos.remove(usuario);
+        removeu |= paqueras.remove(usuario);
+        removeu |= paqueradoPor.remove(usuario);
+        removeu |= inimigoDe.remove(usuario);
+        removeu |= destinatarios.remove(usuario);
+        return removeu;
+    }
+
+    /**
+     * Verifica se o usuário guarda uma referência a outro em algum relacionamento ou índice reverso.
+     * @param usuario Id do outro usuário
+     * @return true se há alguma referência
+     */
+    public boolean referencia(int usuario) {
+        if (relationships != null) {
+            for (AbstractRelationship relacionamento : relationships) {
+                if (relacionamento != null && relacionamento.temRelacionamento(usuario)) {
+                    return true;
+                }
+            }
+        }
+        return idolos.contains(usuario) || paqueras.contains(usuario) || paqueradoPor.contains(usuario)
+                || inimigoDe.contains(usuario) || destinatarios.contains(usuario);
+    }
+
+    /**
+     * Descarta os índices reversos, que serão reconstruídos a partir dos relacionamentos.
+     * Como os recados não guardam o remetente, os destinatários também são descartados, e
+     * quem reconstrói os índices deve limpar os recados de todos os usuários.
+     */
+    public void limparIndicesReversos() {
+        paqueradoPor = ConjuntoInteiros.VAZIO;
+        inimigoDe = ConjuntoInteiros.VAZIO;
+        destinatarios = ConjuntoInteiros.VAZIO;
+    }
+
+    /**
+     * Visita as paqueras e os inimigos deste usuário, para reconstruir os índices reversos deles.
+     * @param paquera Ação chamada com o id de cada paquera
+     * @param inimigo Ação chamada com o id de cada inimigo
+     */
+    public void paraCadaPaqueraEInimigo(IntConsumer paquera, IntConsumer inimigo) {
+        paqueras.paraCada(paquera);
+        AbstractRelationship inimigos = relacionamento(INIMIGO);
+        if (inimigos != null) {
+            inimigos.paraCada(inimigo);
+        }
     }
 
     /**
      * Remove um amigo da lista de amigos.
-     * @param amigo Login do amigo a ser removido
+     * @param amigo Id do amigo a ser removido
      */
-    public void removerAmigo(String amigo) {
-        relationships.get("amigo").removerRelacionamento(amigo);
+    public void removerAmigo(int amigo) {
+        removerRelacionamento(AMIGO, amigo);
     }
 
     /**
      * Remove um fã da lista de fãs.
-     * @param fa Login do fã a ser removido
+     * @param fa Id do fã a ser removido
      */
-    public void removerFa(String fa) {
-        relationships.get("fa").removerRelacionamento(fa);
+    public void removerFa(int fa) {
+        removerRelacionamento(FA, fa);
     }
 
     /**
      * Remove uma paquera da lista de paqueras.
-     * @param paquera Login da paquera a ser removida
+     * @param paquera Id da paquera a ser removida
      */
-    public void removerPaquera(String paquera) {
+    public void removerPaquera(int paquera) {
         paqueras.remove(paquera);
     }
 
     /**
      * Remove um inimigo da lista de inimigos.
-     * @param inimigo Login do inimigo a ser removido
+     * @param inimigo Id do inimigo a ser removido
      */
-    public void removerInimigo(String inimigo) {
-        relationships.get("inimigo").removerRelacionamento(inimigo);
+    public void removerInimigo(int inimigo) {
+        removerRelacionamento(INIMIGO, inimigo);
     }
 
     /**
@@ -333,21 +706,161 @@ public class Users implements Serializable {
      */
     public void removerComunidade(String nomeComunidade) {
         comunidades.remove(nomeComunidade);
+        comunidadesFormatado = null;
 
-        mensagens.clear();
+        mensagens = null;
     }
 
     /**
-     * Limpa a fila de mensagens do usuário.
+     * Limpa a fila de mensagens entregues antes dos históricos de comunidade. Os cursores
+     * não são alterados.
      */
     public void limparMensagens() {
-        mensagens.clear();
+        mensagens = null;
     }
 
     /**
      * Limpa a fila de recados do usuário.
      */
     public void limparRecados() {
-        recados.clear();
+        recados = null;
+    }
+
+    /**
+     * Cria uma cópia profunda do usuário, que pode ser alterada sem afetar o original.
+     * Usada para não alterar um usuário compartilhado com uma versão capturada do sistema.
+     * @return Cópia do usuário
+     */
+    public Users copiar() {
+        Users copia = new Users(getLogin(), senha, nome, registroLogins);
+        if (!atributos.isEmpty()) {
+            copia.atributos = new HashMap<>(atributos);
+        }
+        if (relationships != null) {
+            copia.relationships = new AbstractRelationship[TIPOS.length];
+            for (int tipo = 0; tipo < TIPOS.length; tipo++) {
+                if (relationships[tipo] != null) {
+                    copia.relationships[tipo] = relationships[tipo].copiar();
+                }
+            }
+        }
+        copia.convitesPendentes = copiarConjunto(convitesPendentes);
+        if (!comunidades.isEmpty()) {
+            copia.comunidades = new LinkedHashMap<>(comunidades);
+            copia.comunidadesFormatado = comunidadesFormatado;
+        }
+        copia.recados = recados == null ? null : new LinkedList<>(recados);
+        copia.mensagens = mensagens == null ? null : new LinkedList<>(mensagens);
+        copia.paqueras = copiarConjunto(paqueras);
+        copia.idolos = copiarConjunto(idolos);
+        copia.paqueradoPor = copiarConjunto(paqueradoPor);
+        copia.inimigoDe = copiarConjunto(inimigoDe);
+        copia.destinatarios = copiarConjunto(destinatarios);
+        return copia;
+    }
+
+    private static ConjuntoInteiros copiarConjunto(ConjuntoInteiros conjunto) {
+        return conjunto.isEmpty() ? ConjuntoInteiros.VAZIO : conjunto.copiar();
+    }
+
+    /**
+     * Grava o estado do usuário no formato binário de snapshot. O login é gravado primeiro,
+     * pois é a chave do registro, e os índices reversos por último, para que registros de
+     * versões anteriores, que terminam antes deles, continuem legíveis.
+     * @param saida Saída binária do snapshot
+     */
+    public void gravar(SaidaBinaria saida) throws IOException {
+        saida.escreverLogin(getLogin());
+        saida.escreverTexto(senha);
+        saida.escreverTexto(nome);
+        saida.escreverVarint(atributos.size());
+        for (Map.Entry<String, String> atributo : atributos.entrySet()) {
+            saida.escreverTexto(atributo.getKey());
+            saida.escreverTexto(atributo.getValue());
+        }
+        for (int tipo = 0; tipo < TIPOS.length; tipo++) {
+            AbstractRelationship relacionamento = relacionamento(tipo);
+            if (relacionamento == null) {
+                saida.escreverVarint(0);
+            } else {
+                relacionamento.gravar(saida, registroLogins);
+            }
+        }
+        registroLogins.gravar(saida, convitesPendentes);
+        saida.escreverLogins(comunidades.keySet());
+        saida.escreverTextos(recados == null ? Collections.emptyList() : recados);
+        saida.escreverTextos(mensagens == null ? Collections.emptyList() : mensagens);
+        registroLogins.gravar(saida, paqueras);
+        registroLogins.gravar(saida, idolos);
+        registroLogins.gravar(saida, paqueradoPor);
+        registroLogins.gravar(saida, inimigoDe);
+        registroLogins.gravar(saida, destinatarios);
+        for (long cursor : comunidades.values()) {
+            saida.escreverVarint(cursor);
+        }
+    }
+
+    /**
+     * Reconstrói um usuário gravado por {@link #gravar(SaidaBinaria)}. A entrada deve conter só
+     * o registro: se ele terminar antes dos índices reversos ou dos cursores das comunidades,
+     * gravado por uma versão anterior, os índices ficam vazios e os cursores ficam em 0.
+     * @param entrada Entrada binária do registro
+     * @param registroLogins Registro do sistema em que o usuário é lido
+     * @return Usuário lido
+     */
+    public static Users ler(EntradaBinaria entrada, RegistroLogins registroLogins) throws IOException {
+        Users usuario = lerSemIndices(entrada, registroLogins);
+        if (entrada.temMais()) {
+            usuario.paqueradoPor = registroLogins.ler(entrada);
+            usuario.inimigoDe = registroLogins.ler(entrada);
+            usuario.destinatarios = registroLogins.ler(entrada);
+        }
+        if (entrada.temMais()) {
+            for (Map.Entry<String, Long> comunidade : usuario.comunidades.entrySet()) {
+                comunidade.setValue(entrada.lerVarint());
+            }
+        }
+        return usuario;
+    }
+
+    /**
+     * Reconstrói um usuário gravado antes dos índices reversos, num fluxo em que outros dados
+     * vêm logo depois do registro.
+     * @param entrada Entrada binária do snapshot
+     * @param registroLogins Registro do sistema em que o usuário é lido
+     * @return Usuário lido, com os índices reversos vazios
+     */
+    public static Users lerSemIndices(EntradaBinaria entrada, RegistroLogins registroLogins) throws IOException {
+        Users usuario = new Users(entrada.lerLogin(), entrada.lerTexto(), entrada.lerTexto(), registroLogins);
+        int atributos = entrada.lerQuantidade();
+        for (int i = 0; i < atributos; i++) {
+            usuario.setAtributo(entrada.lerTexto(), entrada.lerTexto());
+        }
+        for (int tipo = 0; tipo < TIPOS.length; tipo++) {
+            AbstractRelationship relacionamento = RelationshipFactoryProvider.createRelationship(TIPOS[tipo]);
+            relacionamento.ler(entrada, registroLogins);
+            if (!relacionamento.estaVazio()) {
+                if (usuario.relationships == null) {
+                    usuario.relationships = new AbstractRelationship[TIPOS.length];
+                }
+                usuario.relationships[tipo] = relacionamento;
+            }
+        }
+        usuario.convitesPendentes = registroLogins.ler(entrada);
+        int comunidades = entrada.lerQuantidade();
+        for (int i = 0; i < comunidades; i++) {
+            usuario.adicionarComunidade(entrada.lerLogin());
+        }
+        int recados = entrada.lerQuantidade();
+        for (int i = 0; i < recados; i++) {
+            usuario.receberRecado(entrada.lerTexto());
+        }
+        int mensagens = entrada.lerQuantidade();
+        for (int i = 0; i < mensagens; i++) {
+            usuario.receberMensagem(entrada.lerTexto());
+        }
+        usuario.paqueras = registroLogins.ler(entrada);
+        usuario.idolos = registroLogins.ler(entrada);
+        return usuario;
     }
 }
@@ -1,39 +1,137 @@
 package entities.relationship;
 
-import java.io.Serializable;
-import java.util.LinkedHashSet;
+import java.io.IOException;
 import java.util.Set;
+import java.util.function.IntConsumer;
+import entities.RegistroLogins;
+import entities.factory.RelationshipFactoryProvider;
 import exceptionsJackut.UsuarioJaAdicionadoException;
 import exceptionsJackut.UsuarioJaAdicionadoComoIdoloException;
 import exceptionsJackut.UsuarioJaAdicionadoComoInimigoException;
+import utils.ConjuntoInteiros;
+import utils.EntradaBinaria;
+import utils.SaidaBinaria;
 
-public abstract class AbstractRelationship implements Serializable {
-    private static final long serialVersionUID = 1L;
-    protected Set<String> relationships;
+/**
+ * Relacionamento de um usuário com outros, guardados pelos ids do {@link RegistroLogins}
+ * num {@link ConjuntoInteiros}, na ordem em que foram adicionados. O relacionamento não guarda
+ * o registro: quem traduz ids para logins recebe o registro do usuário dono do relacionamento.
+ */
+public abstract class AbstractRelationship {
+    protected ConjuntoInteiros relationships;
 
     public AbstractRelationship() {
-        this.relationships = new LinkedHashSet<>();
+        this.relationships = ConjuntoInteiros.VAZIO;
     }
 
     public abstract String getTipo();
 
-    protected void adicionarRelacionamentoBase(String login) {
-        relationships.add(login);
+    protected void adicionarRelacionamentoBase(int usuario) {
+        if (relationships == ConjuntoInteiros.VAZIO) {
+            relationships = new ConjuntoInteiros();
+        }
+        relationships.add(usuario);
     }
 
-    public abstract void adicionarRelacionamento(String login) throws UsuarioJaAdicionadoException, 
-                                                                    UsuarioJaAdicionadoComoIdoloException, 
+    public abstract void adicionarRelacionamento(int usuario) throws UsuarioJaAdicionadoException,
+                                                                    UsuarioJaAdicionadoComoIdoloException,
                                                                     UsuarioJaAdicionadoComoInimigoException;
 
-    public void removerRelacionamento(String login) {
-        relationships.remove(login);
+    public void removerRelacionamento(int usuario) {
+        relationships.remove(usuario);
     }
 
-    public boolean temRelacionamento(String login) {
-        return relationships.contains(login);
+    public boolean temRelacionamento(int usuario) {
+        return relationships.contains(usuario);
     }
 
-    public Set<String> getRelacionamentos() {
-        return new LinkedHashSet<>(relationships);
+    public boolean estaVazio() {
+        return relationships.isEmpty();
     }
-} 
\ No newline at end of file
+
+    public int getQuantidade() {
+        return relationships.size();
+    }
+
+    /**
+     * Copia os logins de um trecho dos relacionamentos, na ordem em que foram adicionados.
+     * @param inicio Posição do primeiro relacionamento copiado
+     * @param destino Vetor que recebe os logins
+     * @param registroLogins Registro dos ids do relacionamento
+     * @return Número de logins copiados
+     */
+    public int copiarLogins(int inicio, String[] destino, RegistroLogins registroLogins) {
+        return registroLogins.logins(relationships, inicio, destino);
+    }
+
+    /**
+     * Retorna os logins do relacionamento, na ordem em que foram adicionados.
+     * @param registroLogins Registro dos ids do relacionamento
+     * @return Cópia dos logins
+     */
+    public Set<String> getRelacionamentos(RegistroLogins registroLogins) {
+        return registroLogins.logins(relationships);
+    }
+
+    /**
+     * Formata os logins do relacionamento como {@code {login1,login2}}, sem cópias intermediárias.
+     * @param registroLogins Registro dos ids do relacionamento
+     * @return Lista formatada
+     */
+    public String getRelacionamentosFormatado(RegistroLogins registroLogins) {
+        return registroLogins.formatar(relationships);
+    }
+
+    /**
+     * Visita os ids do relacionamento na ordem em que foram adicionados, sem alocar.
+     * @param visitante Ação chamada para cada id
+     */
+    public void paraCada(IntConsumer visitante) {
+        relationships.paraCada(visitante);
+    }
+
+    /**
+     * Retorna os ids que estão neste relacionamento e em outro.
+     * @param outro Outro relacionamento
+     * @return Ids em comum, na ordem do relacionamento menor
+     */
+    public ConjuntoInteiros intersecao(AbstractRelationship outro) {
+        return relationships.intersecao(outro.relationships);
+    }
+
+    /**
+     * Retorna uma cópia dos ids do relacionamento, que pode ser lida sem as travas do usuário.
+     * @return Cópia dos ids
+     */
+    public ConjuntoInteiros copiarIds() {
+        return relationships.isEmpty() ? ConjuntoInteiros.VAZIO : relationships.copiar();
+    }
+
+    /**
+     * Cria uma cópia independente do relacionamento, do mesmo tipo e com os mesmos usuários.
+     * @return Cópia do relacionamento
+     */
+    public AbstractRelationship copiar() {
+        AbstractRelationship copia = RelationshipFactoryProvider.createRelationship(getTipo());
+        copia.relationships = relationships.isEmpty() ? ConjuntoInteiros.VAZIO : relationships.copiar();
+        return copia;
+    }
+
+    /**
+     * Grava os logins do relacionamento no formato binário de snapshot.
+     * @param saida Saída binária do snapshot
+     * @param registroLogins Registro dos ids do relacionamento
+     */
+    public void gravar(SaidaBinaria saida, RegistroLogins registroLogins) throws IOException {
+        registroLogins.gravar(saida, relationships);
+    }
+
+    /**
+     * Substitui os usuários do relacionamento pelos lidos do snapshot binário.
+     * @param entrada Entrada binária do snapshot
+     * @param registroLogins Registro em que os logins lidos recebem ids
+     */
+    public void ler(EntradaBinaria entrada, RegistroLogins registroLogins) throws IOException {
+        relationships = registroLogins.ler(entrada);
+    }
+}
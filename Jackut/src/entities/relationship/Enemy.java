@@ -3,18 +3,16 @@ package entities.relationship;
 import exceptionsJackut.UsuarioJaAdicionadoComoInimigoException;
 
 public class Enemy extends AbstractRelationship {
-    private static final long serialVersionUID = 1L;
-
     @Override
     public String getTipo() {
         return "inimigo";
     }
 
     @Override
-    public void adicionarRelacionamento(String login) throws UsuarioJaAdicionadoComoInimigoException {
-        if (temRelacionamento(login)) {
+    public void adicionarRelacionamento(int usuario) throws UsuarioJaAdicionadoComoInimigoException {
+        if (temRelacionamento(usuario)) {
             throw new UsuarioJaAdicionadoComoInimigoException();
         }
-        adicionarRelacionamentoBase(login);
+        adicionarRelacionamentoBase(usuario);
     }
 } 
\ No newline at end of file
@@ -3,18 +3,16 @@ package entities.relationship;
 import exceptionsJackut.UsuarioJaAdicionadoComoIdoloException;
 
 public class Fan extends AbstractRelationship {
-    private static final long serialVersionUID = 1L;
-
     @Override
     public String getTipo() {
         return "fa";
     }
 
     @Override
-    public void adicionarRelacionamento(String login) throws UsuarioJaAdicionadoComoIdoloException {
-        if (temRelacionamento(login)) {
+    public void adicionarRelacionamento(int usuario) throws UsuarioJaAdicionadoComoIdoloException {
+        if (temRelacionamento(usuario)) {
             throw new UsuarioJaAdicionadoComoIdoloException();
         }
-        adicionarRelacionamentoBase(login);
+        adicionarRelacionamentoBase(usuario);
     }
 } 
\ No newline at end of file
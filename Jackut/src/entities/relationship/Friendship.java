@@ -3,18 +3,16 @@ package entities.relationship;
 import exceptionsJackut.UsuarioJaAdicionadoException;
 
 public class Friendship extends AbstractRelationship {
-    private static final long serialVersionUID = 1L;
-
     @Override
     public String getTipo() {
         return "amigo";
     }
 
     @Override
-    public void adicionarRelacionamento(String login) throws UsuarioJaAdicionadoException {
-        if (temRelacionamento(login)) {
+    public void adicionarRelacionamento(int usuario) throws UsuarioJaAdicionadoException {
+        if (temRelacionamento(usuario)) {
             throw new UsuarioJaAdicionadoException();
         }
-        adicionarRelacionamentoBase(login);
+        adicionarRelacionamentoBase(usuario);
     }
 } 
\ No newline at end of file
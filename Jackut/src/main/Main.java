@@ -1,9 +1,18 @@
 package main;
 
 import easyaccept.EasyAccept;
+import entities.Facade;
+import util.VariablesImpl;
 
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        // cada fase de reinício roda sobre uma Facade nova, aberta sobre o diretório que a fase anterior encerrou;
+        // EasyAccept.main termina a JVM ao final, então as fases rodam antes da suíte principal
+        for (int fase = 1; fase <= 9; fase++) {
+            new EasyAccept().runAcceptanceTest(new Facade(), "Jackut/tests/reinicio_" + fase + ".txt",
+                    new VariablesImpl());
+        }
+
         String[] tests = {
 
                 "entities.Facade",
@@ -23,6 +32,10 @@ public class Main {
                 "Jackut/tests/us7_2.txt",
                 "Jackut/tests/us8_1.txt",
                 "Jackut/tests/us8_2.txt",
+                "Jackut/tests/us10_1.txt",
+                "Jackut/tests/us11_1.txt",
+                "Jackut/tests/us12_1.txt",
+                "Jackut/tests/us9_3.txt",
                 "Jackut/tests/us9_1.txt",
                 "Jackut/tests/us9_2.txt"
         };
@@ -0,0 +1,113 @@
+package server;
+
+import entities.Facade;
+import utils.ArmazenamentoEmMemoria;
+import utils.Durabilidade;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+
+/**
+ * Medição, no endereço local, do custo de uma consulta {@code ehAmigo} pelo protocolo binário,
+ * esperando cada resposta e em sequência com uma janela de requisições, e pelo gateway HTTP,
+ * para comparação. O sistema fica em memória, então o que se mede é o transporte.
+ *
+ * Uso: {@code java server.BenchmarkBinario [chamadas] [janela]}.
+ */
+public class BenchmarkBinario {
+    private static final int USUARIOS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int chamadas = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int janela = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+
+        Facade facade = new Facade(new ArmazenamentoEmMemoria(), Durabilidade.apenasNoEncerramento(), false);
+        for (int i = 0; i < USUARIOS; i++) {
+            facade.criarUsuario("u" + i, "s", "Usuário " + i);
+        }
+        for (int i = 0; i < USUARIOS; i++) {
+            String id = facade.abrirSessao("u" + i, "s");
+            facade.adicionarAmigo(id, "u" + (i + 1) % USUARIOS);
+            facade.adicionarAmigo(facade.abrirSessao("u" + (i + 1) % USUARIOS, "s"), "u" + i);
+        }
+
+        ServidorBinario binario = new ServidorBinario(facade, 0, 1, 64 * 1024);
+        ServidorHttp http = new ServidorHttp(facade, 0, 1024, 64 * 1024);
+        binario.iniciar();
+        http.iniciar();
+        try (ClienteBinario cliente = new ClienteBinario("localhost", binario.getPorta())) {
+            // aquecimento
+            medirSequencial(cliente, chamadas / 10);
+            medirJanela(cliente, chamadas / 10, janela);
+
+            long[] latencias = medirSequencial(cliente, chamadas);
+            Arrays.sort(latencias);
+            System.out.printf("binário, uma por vez:  %,d chamadas, média %.1f µs, p50 %.1f µs, p99 %.1f µs%n",
+                    chamadas, media(latencias) / 1000.0, latencias[chamadas / 2] / 1000.0,
+                    latencias[(int) (chamadas * 0.99)] / 1000.0);
+
+            long inicio = System.nanoTime();
+            medirJanela(cliente, chamadas, janela);
+            double segundos = (System.nanoTime() - inicio) / 1e9;
+            System.out.printf("binário, janela de %d: %,d chamadas, %,.0f chamadas/s%n",
+                    janela, chamadas, chamadas / segundos);
+        }
+
+        HttpClient clienteHttp = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        int chamadasHttp = Math.max(1, Math.min(chamadas / 10, 2000));
+        long[] latencias = new long[chamadasHttp];
+        for (int i = 0; i < chamadasHttp; i++) {
+            int u = i % USUARIOS;
+            HttpRequest requisicao = HttpRequest.newBuilder(URI.create("http://localhost:" + http.getPorta()
+                    + "/jackut/ehAmigo?login=u" + u + "&amigo=u" + (u + 1) % USUARIOS)).build();
+            long antes = System.nanoTime();
+            clienteHttp.send(requisicao, HttpResponse.BodyHandlers.ofString());
+            latencias[i] = System.nanoTime() - antes;
+        }
+        Arrays.sort(latencias);
+        System.out.printf("HTTP, uma por vez:     %,d chamadas, média %.1f µs, p50 %.1f µs, p99 %.1f µs%n",
+                chamadasHttp, media(latencias) / 1000.0, latencias[chamadasHttp / 2] / 1000.0,
+                latencias[(int) (chamadasHttp * 0.99)] / 1000.0);
+
+        binario.parar();
+        http.parar(0);
+        facade.encerrarSistema();
+    }
+
+    private static long[] medirSequencial(ClienteBinario cliente, int chamadas) throws Exception {
+        long[] latencias = new long[chamadas];
+        for (int i = 0; i < chamadas; i++) {
+            int u = i % USUARIOS;
+            long antes = System.nanoTime();
+            if (!Boolean.TRUE.equals(cliente.chamar("ehAmigo", "u" + u, "u" + (u + 1) % USUARIOS))) {
+                throw new IllegalStateException("Resposta inesperada para u" + u);
+            }
+            latencias[i] = System.nanoTime() - antes;
+        }
+        return latencias;
+    }
+
+    private static void medirJanela(ClienteBinario cliente, int chamadas, int janela) throws Exception {
+        for (int i = 0; i < chamadas; i++) {
+            int u = i % USUARIOS;
+            cliente.enviar("ehAmigo", "u" + u, "u" + (u + 1) % USUARIOS);
+            if (cliente.getPendentes() >= janela) {
+                cliente.receber().getResultado();
+            }
+        }
+        while (cliente.getPendentes() > 0) {
+            cliente.receber().getResultado();
+        }
+    }
+
+    private static double media(long[] valores) {
+        long soma = 0;
+        for (long valor : valores) {
+            soma += valor;
+        }
+        return (double) soma / valores.length;
+    }
+}
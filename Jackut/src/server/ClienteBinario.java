@@ -0,0 +1,241 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Cliente do protocolo binário do Jackut ({@link ServidorBinario}).
+ *
+ * {@link #chamar(String, String...)} envia uma requisição e espera a resposta. Para não esperar
+ * uma ida e volta por chamada, as requisições podem ser enviadas em sequência com
+ * {@link #enviar(String, String...)} e as respostas lidas depois com {@link #receber()}, na
+ * mesma ordem; as requisições acumuladas só saem quando uma resposta é pedida ou quando
+ * {@link #descarregar()} é chamado.
+ *
+ * As operações têm o nome do método da {@link entities.Facade} e recebem os argumentos na mesma
+ * ordem. Um cliente é uma conexão e não deve ser usado por várias threads ao mesmo tempo.
+ * Quem envia em sequência deve ler as respostas a cada tantas requisições (uma janela): o
+ * servidor para de ler de quem não lê as respostas, e um envio sem fim acabaria bloqueado.
+ */
+public class ClienteBinario implements AutoCloseable {
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+
+    /**
+     * Resposta de uma requisição.
+     */
+    public static final class Resposta {
+        private final int id;
+        private final Object resultado;
+        private final String erro;
+
+        private Resposta(int id, Object resultado, String erro) {
+            this.id = id;
+            this.resultado = resultado;
+            this.erro = erro;
+        }
+
+        /**
+         * Retorna o id da requisição respondida, o mesmo devolvido por {@link #enviar(String, String...)}.
+         * @return Id da requisição
+         */
+        public int getId() {
+            return id;
+        }
+
+        public boolean ehErro() {
+            return erro != null;
+        }
+
+        /**
+         * Retorna o resultado da operação.
+         * @return Texto, booleano ou null, como a Facade retornou
+         * @throws Exception Com a mensagem do erro, se a operação falhou
+         */
+        public Object getResultado() throws Exception {
+            if (erro != null) {
+                throw new Exception(erro);
+            }
+            return resultado;
+        }
+    }
+
+    private final SocketChannel canal;
+    private ByteBuffer saida = ByteBuffer.allocateDirect(TAMANHO_BUFFER);
+    private ByteBuffer entrada = ByteBuffer.allocateDirect(TAMANHO_BUFFER);
+    private byte[] temporario = new byte[1024];
+    private int proximoId;
+    private int pendentes;
+
+    /**
+     * Construtor da classe ClienteBinario. Abre a conexão com o servidor.
+     * @param host Endereço do servidor
+     * @param porta Porta do servidor
+     */
+    public ClienteBinario(String host, int porta) throws IOException {
+        canal = SocketChannel.open(new InetSocketAddress(host, porta));
+        canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        entrada.flip();
+    }
+
+    /**
+     * Executa uma operação e espera o resultado. Respostas de requisições enviadas antes e
+     * ainda não lidas são descartadas.
+     * @param operacao Nome da operação
+     * @param argumentos Argumentos da operação
+     * @return Texto, booleano ou null, como a Facade retornou
+     * @throws Exception Com a mensagem do erro, se a operação falhou
+     */
+    public Object chamar(String operacao, String... argumentos) throws Exception {
+        int id = enviar(operacao, argumentos);
+        Resposta resposta;
+        do {
+            resposta = receber();
+        } while (resposta.getId() != id);
+        return resposta.getResultado();
+    }
+
+    /**
+     * Acumula uma requisição para envio, sem esperar a resposta.
+     * @param operacao Nome da operação
+     * @param argumentos Argumentos da operação
+     * @return Id da requisição, que volta na sua resposta
+     * @throws IllegalArgumentException Se a operação não existir
+     */
+    public int enviar(String operacao, String... argumentos) throws IOException {
+        RotasFacade.Rota rota = RotasFacade.buscar(operacao);
+        if (rota == null) {
+            throw new IllegalArgumentException("Operação não encontrada: " + operacao);
+        }
+        if (argumentos.length != rota.getQuantidadeParametros()) {
+            throw new IllegalArgumentException("Número de argumentos inválido para " + operacao + ".");
+        }
+        byte[][] textos = new byte[argumentos.length][];
+        int corpo = ProtocoloBinario.MINIMO_REQUISICAO;
+        for (int i = 0; i < argumentos.length; i++) {
+            textos[i] = ProtocoloBinario.codificar(argumentos[i]);
+            corpo += ProtocoloBinario.tamanho(textos[i]);
+        }
+
+        int id = proximoId++;
+        reservar(ProtocoloBinario.CABECALHO + corpo);
+        saida.putInt(corpo).putInt(id).put((byte) rota.getCodigo()).put((byte) textos.length);
+        for (byte[] texto : textos) {
+            ProtocoloBinario.escreverTexto(saida, texto);
+        }
+        pendentes++;
+        return id;
+    }
+
+    /**
+     * Envia as requisições acumuladas.
+     */
+    public void descarregar() throws IOException {
+        saida.flip();
+        while (saida.hasRemaining()) {
+            canal.write(saida);
+        }
+        saida.clear();
+    }
+
+    /**
+     * Lê a próxima resposta, enviando antes as requisições acumuladas.
+     * @return Resposta da requisição mais antiga ainda não respondida
+     * @throws IllegalStateException Se não houver requisição esperando resposta
+     */
+    public Resposta receber() throws IOException {
+        if (pendentes == 0) {
+            throw new IllegalStateException("Nenhuma requisição esperando resposta.");
+        }
+        if (saida.position() > 0) {
+            descarregar();
+        }
+        garantir(ProtocoloBinario.CABECALHO);
+        int tamanho = entrada.getInt();
+        if (tamanho < 5) {
+            throw new IOException("Resposta com tamanho inválido: " + tamanho);
+        }
+        garantir(tamanho);
+        int fim = entrada.position() + tamanho;
+        int limite = entrada.limit();
+        entrada.limit(fim);
+        try {
+            int id = entrada.getInt();
+            byte tipo = entrada.get();
+            pendentes--;
+            switch (tipo) {
+                case ProtocoloBinario.NULO:
+                    return new Resposta(id, null, null);
+                case ProtocoloBinario.FALSO:
+                    return new Resposta(id, false, null);
+                case ProtocoloBinario.VERDADEIRO:
+                    return new Resposta(id, true, null);
+                case ProtocoloBinario.TEXTO:
+                    return new Resposta(id, ProtocoloBinario.lerTexto(entrada, temporario(entrada.remaining())), null);
+                case ProtocoloBinario.ERRO:
+                    return new Resposta(id, null, String.valueOf(ProtocoloBinario.lerTexto(entrada, temporario(entrada.remaining()))));
+                default:
+                    throw new IOException("Tipo de resposta desconhecido: " + tipo);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            entrada.limit(limite).position(fim);
+        }
+    }
+
+    /**
+     * Retorna quantas requisições enviadas ainda não tiveram a resposta lida.
+     * @return Número de requisições pendentes
+     */
+    public int getPendentes() {
+        return pendentes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+
+    private void reservar(int bytes) throws IOException {
+        if (saida.remaining() >= bytes) {
+            return;
+        }
+        descarregar();
+        if (saida.capacity() < bytes) {
+            saida = ByteBuffer.allocateDirect(bytes);
+        }
+    }
+
+    /**
+     * Lê do socket até a entrada ter os bytes pedidos a partir da posição atual.
+     */
+    private void garantir(int bytes) throws IOException {
+        if (entrada.remaining() >= bytes) {
+            return;
+        }
+        if (entrada.capacity() < bytes) {
+            ByteBuffer maior = ByteBuffer.allocateDirect(Math.max(bytes, entrada.capacity() * 2));
+            maior.put(entrada);
+            entrada = maior;
+        } else {
+            entrada.compact();
+        }
+        while (entrada.position() < bytes) {
+            if (canal.read(entrada) < 0) {
+                throw new EOFException("Conexão fechada pelo servidor.");
+            }
+        }
+        entrada.flip();
+    }
+
+    private byte[] temporario(int tamanho) {
+        if (temporario.length < tamanho) {
+            temporario = new byte[Math.max(tamanho, temporario.length * 2)];
+        }
+        return temporario;
+    }
+}
@@ -0,0 +1,212 @@
+package server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Leitura e escrita do JSON usado pelo gateway HTTP. Só objetos planos são aceitos nas
+ * requisições: cada campo é um texto, número, booleano ou null, e todos são entregues como texto.
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Lê um objeto JSON plano.
+     * @param texto Texto do objeto
+     * @return Campos do objeto, na ordem em que aparecem; campos null não são incluídos
+     * @throws IllegalArgumentException Se o texto não for um objeto plano válido
+     */
+    static Map<String, String> lerObjeto(String texto) {
+        Leitor leitor = new Leitor(texto);
+        Map<String, String> campos = new LinkedHashMap<>();
+        leitor.esperar('{');
+        if (!leitor.consumir('}')) {
+            do {
+                String nome = leitor.lerTexto();
+                leitor.esperar(':');
+                String valor = leitor.lerValor();
+                if (valor != null) {
+                    campos.put(nome, valor);
+                }
+            } while (leitor.consumir(','));
+            leitor.esperar('}');
+        }
+        leitor.esperarFim();
+        return campos;
+    }
+
+    /**
+     * Escreve um objeto JSON com um único campo.
+     * @param nome Nome do campo
+     * @param valor Texto, número, booleano ou null
+     * @return Objeto JSON
+     */
+    static String objeto(String nome, Object valor) {
+        StringBuilder saida = new StringBuilder("{");
+        escreverTexto(saida, nome);
+        saida.append(':');
+        if (valor == null) {
+            saida.append("null");
+        } else if (valor instanceof Boolean || valor instanceof Number) {
+            saida.append(valor);
+        } else {
+            escreverTexto(saida, valor.toString());
+        }
+        return saida.append('}').toString();
+    }
+
+    private static void escreverTexto(StringBuilder saida, String texto) {
+        saida.append('"');
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            switch (c) {
+                case '"':
+                    saida.append("\\\"");
+                    break;
+                case '\\':
+                    saida.append("\\\\");
+                    break;
+                case '\n':
+                    saida.append("\\n");
+                    break;
+                case '\r':
+                    saida.append("\\r");
+                    break;
+                case '\t':
+                    saida.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        saida.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        saida.append(c);
+                    }
+            }
+        }
+        saida.append('"');
+    }
+
+    /**
+     * Cursor sobre o texto de um objeto JSON.
+     */
+    private static final class Leitor {
+        private final String texto;
+        private int posicao;
+
+        Leitor(String texto) {
+            this.texto = texto;
+        }
+
+        void esperar(char esperado) {
+            if (!consumir(esperado)) {
+                throw erro("'" + esperado + "' esperado");
+            }
+        }
+
+        boolean consumir(char esperado) {
+            pularEspacos();
+            if (posicao < texto.length() && texto.charAt(posicao) == esperado) {
+                posicao++;
+                return true;
+            }
+            return false;
+        }
+
+        void esperarFim() {
+            pularEspacos();
+            if (posicao != texto.length()) {
+                throw erro("conteúdo após o objeto");
+            }
+        }
+
+        String lerValor() {
+            pularEspacos();
+            if (posicao >= texto.length()) {
+                throw erro("valor esperado");
+            }
+            char c = texto.charAt(posicao);
+            if (c == '"') {
+                return lerTexto();
+            }
+            int inicio = posicao;
+            while (posicao < texto.length() && "{}[],: \t\r\n\"".indexOf(texto.charAt(posicao)) < 0) {
+                posicao++;
+            }
+            String literal = texto.substring(inicio, posicao);
+            if (literal.equals("null")) {
+                return null;
+            }
+            if (literal.equals("true") || literal.equals("false") || literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")) {
+                return literal;
+            }
+            throw erro("valor inválido");
+        }
+
+        String lerTexto() {
+            esperar('"');
+            StringBuilder valor = new StringBuilder();
+            while (posicao < texto.length()) {
+                char c = texto.charAt(posicao++);
+                if (c == '"') {
+                    return valor.toString();
+                }
+                if (c != '\\') {
+                    valor.append(c);
+                    continue;
+                }
+                if (posicao >= texto.length()) {
+                    break;
+                }
+                char escape = texto.charAt(posicao++);
+                switch (escape) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        valor.append(escape);
+                        break;
+                    case 'b':
+                        valor.append('\b');
+                        break;
+                    case 'f':
+                        valor.append('\f');
+                        break;
+                    case 'n':
+                        valor.append('\n');
+                        break;
+                    case 'r':
+                        valor.append('\r');
+                        break;
+                    case 't':
+                        valor.append('\t');
+                        break;
+                    case 'u':
+                        if (posicao + 4 > texto.length()) {
+                            throw erro("escape unicode incompleto");
+                        }
+                        try {
+                            valor.append((char) Integer.parseInt(texto.substring(posicao, posicao + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw erro("escape unicode inválido");
+                        }
+                        posicao += 4;
+                        break;
+                    default:
+                        throw erro("escape inválido");
+                }
+            }
+            throw erro("texto não terminado");
+        }
+
+        private void pularEspacos() {
+            while (posicao < texto.length() && Character.isWhitespace(texto.charAt(posicao))) {
+                posicao++;
+            }
+        }
+
+        private IllegalArgumentException erro(String motivo) {
+            return new IllegalArgumentException("JSON inválido na posição " + posicao + ": " + motivo);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package server;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formato das mensagens do protocolo binário do Jackut. Todos os inteiros são big-endian e
+ * todos os textos são UTF-8 precedidos do seu tamanho em bytes, com tamanho -1 para null.
+ *
+ * Requisição: {@code [tamanho:int][id:int][operacao:byte][argumentos:byte][texto]*}, onde a
+ * operação é o código da rota em {@link RotasFacade} e os textos seguem a ordem dos seus
+ * parâmetros. Resposta: {@code [tamanho:int][id:int][tipo:byte][texto]?}, com o mesmo id da
+ * requisição. O tamanho conta os bytes que vêm depois dele.
+ *
+ * O id é escolhido pelo cliente e só serve para ele casar cada resposta com a sua requisição, o
+ * que permite enviar várias requisições seguidas pela mesma conexão sem esperar as respostas.
+ * O servidor responde às requisições de uma conexão na ordem em que as recebe.
+ */
+final class ProtocoloBinario {
+    /** Bytes do campo de tamanho. */
+    static final int CABECALHO = 4;
+    /** Bytes mínimos de uma requisição depois do tamanho: id, operação e número de argumentos. */
+    static final int MINIMO_REQUISICAO = 6;
+
+    /** Operação sem resultado. */
+    static final byte NULO = 0;
+    /** Resultado em texto. */
+    static final byte TEXTO = 1;
+    static final byte FALSO = 2;
+    static final byte VERDADEIRO = 3;
+    /** Erro da operação, com a mensagem em texto. */
+    static final byte ERRO = 4;
+
+    private ProtocoloBinario() {
+    }
+
+    /**
+     * Retorna quantos bytes um texto ocupa na mensagem, incluindo o seu tamanho.
+     * @param texto Texto já convertido para UTF-8, ou null
+     * @return Bytes ocupados
+     */
+    static int tamanho(byte[] texto) {
+        return 4 + (texto == null ? 0 : texto.length);
+    }
+
+    /**
+     * Converte um texto para UTF-8.
+     * @param texto Texto, ou null
+     * @return Bytes do texto, ou null
+     */
+    static byte[] codificar(String texto) {
+        return texto == null ? null : texto.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static void escreverTexto(ByteBuffer destino, byte[] texto) {
+        if (texto == null) {
+            destino.putInt(-1);
+        } else {
+            destino.putInt(texto.length);
+            destino.put(texto);
+        }
+    }
+
+    /**
+     * Lê um texto da posição atual do buffer, sem passar do seu limite.
+     * @param origem Buffer posicionado no tamanho do texto
+     * @param temporario Área de cópia reaproveitada entre leituras, ou null
+     * @return Texto lido, ou null
+     * @throws IllegalArgumentException Se o texto passar do limite do buffer
+     */
+    static String lerTexto(ByteBuffer origem, byte[] temporario) {
+        try {
+            int tamanho = origem.getInt();
+            if (tamanho == -1) {
+                return null;
+            }
+            if (tamanho < 0 || tamanho > origem.remaining()) {
+                throw new IllegalArgumentException("Texto com tamanho inválido.");
+            }
+            if (origem.hasArray()) {
+                String texto = new String(origem.array(), origem.arrayOffset() + origem.position(), tamanho, StandardCharsets.UTF_8);
+                origem.position(origem.position() + tamanho);
+                return texto;
+            }
+            byte[] bytes = temporario != null && temporario.length >= tamanho ? temporario : new byte[tamanho];
+            origem.get(bytes, 0, tamanho);
+            return new String(bytes, 0, tamanho, StandardCharsets.UTF_8);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Mensagem incompleta.");
+        }
+    }
+}
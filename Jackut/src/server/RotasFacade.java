@@ -0,0 +1,196 @@
+package server;
+
+import entities.Facade;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tabela das operações da {@link Facade} expostas pelos servidores. Cada rota tem o nome da
+ * operação, usado pelo gateway HTTP, o código da operação no protocolo binário e os nomes dos
+ * seus parâmetros, que são os campos esperados numa requisição HTTP e a ordem dos argumentos
+ * numa mensagem binária. Os códigos fazem parte do protocolo e não devem ser reutilizados.
+ */
+final class RotasFacade {
+
+    /**
+     * Chamada de uma operação da Facade com os argumentos já na ordem dos parâmetros.
+     */
+    interface Chamada {
+        Object executar(Facade facade, String[] argumentos) throws Exception;
+    }
+
+    /**
+     * Operação exposta: parâmetros esperados e a chamada correspondente.
+     */
+    static final class Rota {
+        private final int codigo;
+        private final String nome;
+        private final List<String> parametros;
+        private final Chamada chamada;
+
+        private Rota(int codigo, String nome, List<String> parametros, Chamada chamada) {
+            this.codigo = codigo;
+            this.nome = nome;
+            this.parametros = parametros;
+            this.chamada = chamada;
+        }
+
+        int getCodigo() {
+            return codigo;
+        }
+
+        String getNome() {
+            return nome;
+        }
+
+        int getQuantidadeParametros() {
+            return parametros.size();
+        }
+
+        /**
+         * Executa a operação com os argumentos na ordem dos parâmetros.
+         * @param facade Facade do sistema
+         * @param argumentos Argumentos da operação
+         * @return Resultado da operação, ou null se ela não tiver resultado
+         */
+        Object executar(Facade facade, String[] argumentos) throws Exception {
+            if (argumentos.length != parametros.size()) {
+                throw new IllegalArgumentException("Número de argumentos inválido para " + nome + ".");
+            }
+            return chamada.executar(facade, argumentos);
+        }
+
+        /**
+         * Executa a operação com os campos de uma requisição. Campos ausentes chegam como null,
+         * e a Facade responde a eles como responderia a valores inválidos.
+         * @param facade Facade do sistema
+         * @param campos Campos da requisição
+         * @return Resultado da operação, ou null se ela não tiver resultado
+         */
+        Object executar(Facade facade, Map<String, String> campos) throws Exception {
+            String[] argumentos = new String[parametros.size()];
+            for (int i = 0; i < argumentos.length; i++) {
+                argumentos[i] = campos.get(parametros.get(i));
+            }
+            return chamada.executar(facade, argumentos);
+        }
+    }
+
+    private static final Map<String, Rota> ROTAS = new HashMap<>();
+    private static final Rota[] POR_CODIGO = new Rota[256];
+
+    static {
+        rota(1, "criarUsuario", List.of("login", "senha", "nome"), (f, a) -> {
+            f.criarUsuario(a[0], a[1], a[2]);
+            return null;
+        });
+        rota(2, "abrirSessao", List.of("login", "senha"), (f, a) -> f.abrirSessao(a[0], a[1]));
+        rota(3, "getAtributoUsuario", List.of("login", "atributo"), (f, a) -> f.getAtributoUsuario(a[0], a[1]));
+        rota(4, "editarPerfil", List.of("id", "atributo", "valor"), (f, a) -> {
+            f.editarPerfil(a[0], a[1], a[2]);
+            return null;
+        });
+        rota(5, "adicionarAmigo", List.of("id", "amigo"), (f, a) -> {
+            f.adicionarAmigo(a[0], a[1]);
+            return null;
+        });
+        rota(6, "ehAmigo", List.of("login", "amigo"), (f, a) -> f.ehAmigo(a[0], a[1]));
+        rota(7, "getAmigos", List.of("login"), (f, a) -> f.getAmigos(a[0]));
+        rota(8, "enviarRecado", List.of("id", "destinatario", "recado"), (f, a) -> {
+            f.enviarRecado(a[0], a[1], a[2]);
+            return null;
+        });
+        rota(9, "lerRecado", List.of("id"), (f, a) -> f.lerRecado(a[0]));
+        rota(10, "adicionarIdolo", List.of("id", "idolo"), (f, a) -> {
+            f.adicionarIdolo(a[0], a[1]);
+            return null;
+        });
+        rota(11, "ehFa", List.of("login", "idolo"), (f, a) -> f.ehFa(a[0], a[1]));
+        rota(12, "getFas", List.of("login"), (f, a) -> f.getFas(a[0]));
+        rota(13, "adicionarPaquera", List.of("id", "paquera"), (f, a) -> {
+            f.adicionarPaquera(a[0], a[1]);
+            return null;
+        });
+        rota(14, "ehPaquera", List.of("id", "paquera"), (f, a) -> f.ehPaquera(a[0], a[1]));
+        rota(15, "getPaqueras", List.of("id"), (f, a) -> f.getPaqueras(a[0]));
+        rota(16, "adicionarInimigo", List.of("id", "inimigo"), (f, a) -> {
+            f.adicionarInimigo(a[0], a[1]);
+            return null;
+        });
+        rota(17, "removerUsuario", List.of("id"), (f, a) -> {
+            f.removerUsuario(a[0]);
+            return null;
+        });
+        rota(18, "criarComunidade", List.of("id", "nome", "descricao"), (f, a) -> {
+            f.criarComunidade(a[0], a[1], a[2]);
+            return null;
+        });
+        rota(19, "getDescricaoComunidade", List.of("nome"), (f, a) -> f.getDescricaoComunidade(a[0]));
+        rota(20, "getDonoComunidade", List.of("nome"), (f, a) -> f.getDonoComunidade(a[0]));
+        rota(21, "getMembrosComunidade", List.of("nome"), (f, a) -> f.getMembrosComunidade(a[0]));
+        rota(22, "adicionarComunidade", List.of("id", "nome"), (f, a) -> {
+            f.adicionarComunidade(a[0], a[1]);
+            return null;
+        });
+        rota(23, "getComunidades", List.of("login"), (f, a) -> f.getComunidades(a[0]));
+        rota(24, "enviarMensagem", List.of("id", "comunidade", "mensagem"), (f, a) -> {
+            f.enviarMensagem(a[0], a[1], a[2]);
+            return null;
+        });
+        rota(25, "lerMensagem", List.of("id"), (f, a) -> f.lerMensagem(a[0]));
+        rota(26, "getNumeroDeAmigos", List.of("login"), (f, a) -> f.getNumeroDeAmigos(a[0]));
+        rota(27, "getNumeroDeFas", List.of("login"), (f, a) -> f.getNumeroDeFas(a[0]));
+        rota(28, "getNumeroDeComunidades", List.of("login"), (f, a) -> f.getNumeroDeComunidades(a[0]));
+        rota(29, "getNumeroDeMembros", List.of("nome"), (f, a) -> f.getNumeroDeMembros(a[0]));
+        rota(30, "getAmigosPaginados", List.of("login", "inicio", "limite"),
+                (f, a) -> f.getAmigosPaginados(a[0], inteiro(a[1]), inteiro(a[2])));
+        rota(31, "getFasPaginados", List.of("login", "inicio", "limite"),
+                (f, a) -> f.getFasPaginados(a[0], inteiro(a[1]), inteiro(a[2])));
+        rota(32, "getComunidadesPaginadas", List.of("login", "inicio", "limite"),
+                (f, a) -> f.getComunidadesPaginadas(a[0], inteiro(a[1]), inteiro(a[2])));
+        rota(33, "getMembrosComunidadePaginados", List.of("nome", "inicio", "limite"),
+                (f, a) -> f.getMembrosComunidadePaginados(a[0], inteiro(a[1]), inteiro(a[2])));
+        rota(34, "getAmigosEmComum", List.of("login", "outro"), (f, a) -> f.getAmigosEmComum(a[0], a[1]));
+        rota(35, "getSugestoesDeAmizade", List.of("login", "quantidade"),
+                (f, a) -> f.getSugestoesDeAmizade(a[0], inteiro(a[1])));
+        rota(36, "getCaminhoDeAmizade", List.of("login", "destino", "profundidade"),
+                (f, a) -> f.getCaminhoDeAmizade(a[0], a[1], inteiro(a[2])));
+    }
+
+    private RotasFacade() {
+    }
+
+    private static int inteiro(String texto) {
+        try {
+            return Integer.parseInt(texto);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Número inválido: " + texto);
+        }
+    }
+
+    private static void rota(int codigo, String nome, List<String> parametros, Chamada chamada) {
+        Rota rota = new Rota(codigo, nome, parametros, chamada);
+        ROTAS.put(nome, rota);
+        POR_CODIGO[codigo] = rota;
+    }
+
+    /**
+     * Retorna a rota de uma operação.
+     * @param nome Nome da operação, igual ao do método da Facade
+     * @return Rota da operação, ou null se ela não for exposta
+     */
+    static Rota buscar(String nome) {
+        return ROTAS.get(nome);
+    }
+
+    /**
+     * Retorna a rota de uma operação pelo seu código no protocolo binário.
+     * @param codigo Código da operação
+     * @return Rota da operação, ou null se o código não for usado
+     */
+    static Rota buscar(int codigo) {
+        return codigo >= 0 && codigo < POR_CODIGO.length ? POR_CODIGO[codigo] : null;
+    }
+}
@@ -0,0 +1,424 @@
+package server;
+
+import entities.Facade;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Servidor do protocolo binário do Jackut ({@link ProtocoloBinario}), para clientes que fazem
+ * muitas chamadas pequenas, como {@code ehAmigo}, e não querem pagar o custo do HTTP em cada uma.
+ *
+ * As conexões são distribuídas entre alguns laços de eventos, cada um com o seu seletor e a sua
+ * thread. Um laço lê tudo o que chegou numa conexão, executa em sequência as requisições
+ * completas e envia as respostas de uma vez, de modo que requisições enviadas em rajada pela
+ * mesma conexão custam uma leitura e uma escrita no socket. Os buffers de entrada e saída são
+ * diretos e voltam para o laço quando a conexão fecha, para serem reaproveitados pela próxima.
+ *
+ * As operações são executadas na própria thread do laço, sem troca de threads. Operações que
+ * esperam o disco, como as alterações com durabilidade por operação, seguram as outras conexões
+ * do mesmo laço enquanto esperam; o número de laços pode ser aumentado para compensar. Se um
+ * cliente não lê as respostas, o laço para de ler as requisições dele até a saída esvaziar.
+ *
+ * O servidor só escuta no endereço local. Porta, número de laços e tamanho máximo de uma
+ * requisição podem ser definidos pelas propriedades {@value #PROPRIEDADE_PORTA},
+ * {@value #PROPRIEDADE_LACOS} e {@value #PROPRIEDADE_TAMANHO_MAXIMO}.
+ */
+public class ServidorBinario {
+    public static final String PROPRIEDADE_PORTA = "jackut.binario.porta";
+    public static final String PROPRIEDADE_LACOS = "jackut.binario.lacos";
+    public static final String PROPRIEDADE_TAMANHO_MAXIMO = "jackut.binario.tamanhoMaximo";
+    private static final int PORTA_PADRAO = 9090;
+    private static final int TAMANHO_MAXIMO_PADRAO = 64 * 1024;
+    private static final int TAMANHO_SAIDA = 64 * 1024;
+    /** Bytes pendentes na saída a partir dos quais o laço para de atender a conexão. */
+    private static final int LIMITE_PENDENTE = 256 * 1024;
+    private static final int BUFFERS_GUARDADOS = 64;
+
+    private final Facade facade;
+    private final ServerSocketChannel aceitador;
+    private final Laco[] lacos;
+    private final int tamanhoMaximo;
+    private Thread aceitacao;
+    private volatile boolean ativo;
+
+    /**
+     * Construtor da classe ServidorBinario. O servidor só começa a atender depois de {@link #iniciar()}.
+     * @param facade Facade cujas operações são expostas
+     * @param porta Porta local, ou 0 para uma porta livre qualquer
+     * @param lacos Número de laços de eventos
+     * @param tamanhoMaximo Tamanho máximo, em bytes, de uma requisição
+     */
+    public ServidorBinario(Facade facade, int porta, int lacos, int tamanhoMaximo) throws IOException {
+        this.facade = facade;
+        this.tamanhoMaximo = Math.max(tamanhoMaximo, ProtocoloBinario.MINIMO_REQUISICAO);
+        this.aceitador = ServerSocketChannel.open();
+        aceitador.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), porta));
+        this.lacos = new Laco[Math.max(1, lacos)];
+        for (int i = 0; i < this.lacos.length; i++) {
+            this.lacos[i] = new Laco(Selector.open());
+        }
+    }
+
+    /**
+     * Inicia os laços de eventos e a aceitação de conexões.
+     */
+    public synchronized void iniciar() {
+        if (ativo) {
+            return;
+        }
+        ativo = true;
+        for (int i = 0; i < lacos.length; i++) {
+            lacos[i].thread = new Thread(lacos[i], "jackut-binario-" + i);
+            lacos[i].thread.start();
+        }
+        aceitacao = new Thread(this::aceitar, "jackut-binario-aceitacao");
+        aceitacao.start();
+    }
+
+    /**
+     * Para de aceitar conexões e fecha as abertas, esperando os laços terminarem a requisição
+     * que estiverem executando.
+     */
+    public synchronized void parar() {
+        if (!ativo) {
+            return;
+        }
+        ativo = false;
+        try {
+            aceitador.close();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar o servidor binário: " + e.getMessage());
+        }
+        for (Laco laco : lacos) {
+            laco.seletor.wakeup();
+        }
+        try {
+            aceitacao.join();
+            for (Laco laco : lacos) {
+                laco.thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Retorna a porta em que o servidor escuta.
+     * @return Porta local
+     */
+    public int getPorta() {
+        try {
+            return ((InetSocketAddress) aceitador.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Aceita as conexões e as entrega aos laços, alternadamente.
+     */
+    private void aceitar() {
+        int proximo = 0;
+        while (ativo) {
+            try {
+                SocketChannel canal = aceitador.accept();
+                canal.configureBlocking(false);
+                canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Laco laco = lacos[proximo];
+                proximo = (proximo + 1) % lacos.length;
+                laco.novas.add(canal);
+                laco.seletor.wakeup();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (ativo) {
+                    System.err.println("Erro ao aceitar conexão: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Estado de uma conexão. A entrada fica sempre pronta para receber bytes do socket; a saída
+     * guarda, a partir do início, as respostas que ainda não foram enviadas.
+     */
+    private static final class Conexao {
+        final SocketChannel canal;
+        SelectionKey chave;
+        ByteBuffer entrada;
+        ByteBuffer saida;
+
+        Conexao(SocketChannel canal, ByteBuffer entrada, ByteBuffer saida) {
+            this.canal = canal;
+            this.entrada = entrada;
+            this.saida = saida;
+        }
+    }
+
+    /**
+     * Laço de eventos: atende as conexões registradas no seu seletor.
+     */
+    private final class Laco implements Runnable {
+        final Selector seletor;
+        final Queue<SocketChannel> novas = new ConcurrentLinkedQueue<>();
+        private final ArrayDeque<ByteBuffer> entradasLivres = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> saidasLivres = new ArrayDeque<>();
+        private byte[] temporario = new byte[1024];
+        Thread thread;
+
+        Laco(Selector seletor) {
+            this.seletor = seletor;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (ativo) {
+                    seletor.select();
+                    registrarNovas();
+                    Iterator<SelectionKey> prontas = seletor.selectedKeys().iterator();
+                    while (prontas.hasNext()) {
+                        SelectionKey chave = prontas.next();
+                        prontas.remove();
+                        Conexao conexao = (Conexao) chave.attachment();
+                        try {
+                            if (chave.isReadable() && conexao.canal.read(conexao.entrada) < 0) {
+                                fechar(conexao);
+                                continue;
+                            }
+                            processar(conexao);
+                        } catch (IOException | RuntimeException e) {
+                            fechar(conexao);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Erro no laço do servidor binário: " + e.getMessage());
+            } finally {
+                for (SelectionKey chave : seletor.keys()) {
+                    fechar((Conexao) chave.attachment());
+                }
+                SocketChannel canal;
+                while ((canal = novas.poll()) != null) {
+                    fecharCanal(canal);
+                }
+                try {
+                    seletor.close();
+                } catch (IOException e) {
+                    System.err.println("Erro ao fechar o seletor: " + e.getMessage());
+                }
+            }
+        }
+
+        private void registrarNovas() {
+            SocketChannel canal;
+            while ((canal = novas.poll()) != null) {
+                Conexao conexao = new Conexao(canal, obter(entradasLivres, ProtocoloBinario.CABECALHO + tamanhoMaximo),
+                        obter(saidasLivres, TAMANHO_SAIDA));
+                try {
+                    conexao.chave = canal.register(seletor, SelectionKey.OP_READ, conexao);
+                } catch (IOException e) {
+                    fechar(conexao);
+                }
+            }
+        }
+
+        /**
+         * Atende as requisições completas que estão na entrada e envia as respostas, até a
+         * entrada acabar ou a saída acumular mais do que o cliente está lendo.
+         */
+        private void processar(Conexao conexao) throws IOException {
+            ByteBuffer entrada = conexao.entrada;
+            entrada.flip();
+            try {
+                while (true) {
+                    while (conexao.saida.position() < LIMITE_PENDENTE && temRequisicao(entrada)) {
+                        int fim = entrada.position() + ProtocoloBinario.CABECALHO + entrada.getInt(entrada.position());
+                        int limite = entrada.limit();
+                        entrada.position(entrada.position() + ProtocoloBinario.CABECALHO).limit(fim);
+                        atender(conexao, entrada);
+                        entrada.limit(limite).position(fim);
+                    }
+                    enviar(conexao);
+                    if (conexao.saida.position() >= LIMITE_PENDENTE || !temRequisicao(entrada)) {
+                        break;
+                    }
+                }
+            } finally {
+                entrada.compact();
+            }
+
+            int interesse;
+            if (conexao.saida.position() >= LIMITE_PENDENTE) {
+                interesse = SelectionKey.OP_WRITE;
+            } else if (conexao.saida.position() > 0) {
+                interesse = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+            } else {
+                interesse = SelectionKey.OP_READ;
+            }
+            if (conexao.chave.interestOps() != interesse) {
+                conexao.chave.interestOps(interesse);
+            }
+        }
+
+        private boolean temRequisicao(ByteBuffer entrada) throws IOException {
+            if (entrada.remaining() < ProtocoloBinario.CABECALHO) {
+                return false;
+            }
+            int tamanho = entrada.getInt(entrada.position());
+            if (tamanho < ProtocoloBinario.MINIMO_REQUISICAO || tamanho > tamanhoMaximo) {
+                throw new IOException("Requisição com tamanho inválido: " + tamanho);
+            }
+            return entrada.remaining() >= ProtocoloBinario.CABECALHO + tamanho;
+        }
+
+        /**
+         * Executa uma requisição e escreve a resposta na saída da conexão.
+         * @param requisicao Buffer limitado à requisição, posicionado depois do tamanho
+         */
+        private void atender(Conexao conexao, ByteBuffer requisicao) throws IOException {
+            int id = requisicao.getInt();
+            RotasFacade.Rota rota = RotasFacade.buscar(requisicao.get() & 0xFF);
+            int quantidade = requisicao.get() & 0xFF;
+            byte tipo;
+            byte[] texto = null;
+            try {
+                if (rota == null) {
+                    throw new IllegalArgumentException("Operação não encontrada.");
+                }
+                String[] argumentos = new String[quantidade];
+                for (int i = 0; i < quantidade; i++) {
+                    argumentos[i] = ProtocoloBinario.lerTexto(requisicao, temporario(requisicao.remaining()));
+                }
+                if (requisicao.hasRemaining()) {
+                    throw new IllegalArgumentException("Requisição com bytes a mais.");
+                }
+                Object resultado = rota.executar(facade, argumentos);
+                if (resultado == null) {
+                    tipo = ProtocoloBinario.NULO;
+                } else if (resultado instanceof Boolean) {
+                    tipo = (Boolean) resultado ? ProtocoloBinario.VERDADEIRO : ProtocoloBinario.FALSO;
+                } else {
+                    tipo = ProtocoloBinario.TEXTO;
+                    texto = resultado.toString().getBytes(StandardCharsets.UTF_8);
+                }
+            } catch (Exception e) {
+                tipo = ProtocoloBinario.ERRO;
+                texto = ProtocoloBinario.codificar(String.valueOf(e.getMessage()));
+            }
+
+            int corpo = 5 + (texto == null ? 0 : ProtocoloBinario.tamanho(texto));
+            ByteBuffer saida = reservar(conexao, ProtocoloBinario.CABECALHO + corpo);
+            saida.putInt(corpo).putInt(id).put(tipo);
+            if (texto != null) {
+                ProtocoloBinario.escreverTexto(saida, texto);
+            }
+        }
+
+        private byte[] temporario(int tamanho) {
+            if (temporario.length < tamanho) {
+                temporario = new byte[Math.max(tamanho, temporario.length * 2)];
+            }
+            return temporario;
+        }
+
+        /**
+         * Garante espaço na saída da conexão, enviando o que já está nela e, se ainda faltar,
+         * trocando-a por uma maior.
+         */
+        private ByteBuffer reservar(Conexao conexao, int bytes) throws IOException {
+            if (conexao.saida.remaining() < bytes) {
+                enviar(conexao);
+            }
+            if (conexao.saida.remaining() < bytes) {
+                ByteBuffer maior = ByteBuffer.allocateDirect(Math.max(conexao.saida.capacity() * 2, conexao.saida.position() + bytes));
+                conexao.saida.flip();
+                maior.put(conexao.saida);
+                devolver(saidasLivres, conexao.saida, TAMANHO_SAIDA);
+                conexao.saida = maior;
+            }
+            return conexao.saida;
+        }
+
+        /**
+         * Escreve no socket o quanto ele aceitar da saída da conexão. Uma saída que cresceu
+         * volta ao tamanho normal quando esvazia.
+         */
+        private void enviar(Conexao conexao) throws IOException {
+            ByteBuffer saida = conexao.saida;
+            if (saida.position() == 0) {
+                return;
+            }
+            saida.flip();
+            conexao.canal.write(saida);
+            saida.compact();
+            if (saida.position() == 0 && saida.capacity() > TAMANHO_SAIDA) {
+                conexao.saida = obter(saidasLivres, TAMANHO_SAIDA);
+            }
+        }
+
+        private void fechar(Conexao conexao) {
+            if (conexao.chave != null) {
+                conexao.chave.cancel();
+            }
+            fecharCanal(conexao.canal);
+            devolver(entradasLivres, conexao.entrada, ProtocoloBinario.CABECALHO + tamanhoMaximo);
+            devolver(saidasLivres, conexao.saida, TAMANHO_SAIDA);
+            conexao.entrada = null;
+            conexao.saida = null;
+        }
+
+        private ByteBuffer obter(ArrayDeque<ByteBuffer> livres, int capacidade) {
+            ByteBuffer buffer = livres.poll();
+            return buffer != null ? buffer : ByteBuffer.allocateDirect(capacidade);
+        }
+
+        private void devolver(ArrayDeque<ByteBuffer> livres, ByteBuffer buffer, int capacidade) {
+            if (buffer != null && buffer.capacity() == capacidade && livres.size() < BUFFERS_GUARDADOS) {
+                buffer.clear();
+                livres.push(buffer);
+            }
+        }
+    }
+
+    private static void fecharCanal(SocketChannel canal) {
+        try {
+            canal.close();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar conexão: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Inicia o servidor binário sobre o sistema configurado pelas propriedades da {@link Facade}
+     * e o mantém em execução até o processo ser encerrado, quando o sistema é salvo.
+     * @param args Não utilizado
+     */
+    public static void main(String[] args) throws IOException {
+        Facade facade = new Facade();
+        ServidorBinario servidor = new ServidorBinario(facade,
+                Integer.getInteger(PROPRIEDADE_PORTA, PORTA_PADRAO),
+                Integer.getInteger(PROPRIEDADE_LACOS, Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger(PROPRIEDADE_TAMANHO_MAXIMO, TAMANHO_MAXIMO_PADRAO));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servidor.parar();
+            facade.encerrarSistema();
+        }, "jackut-encerramento"));
+        servidor.iniciar();
+        System.out.println("Jackut escutando o protocolo binário na porta " + servidor.getPorta());
+    }
+}
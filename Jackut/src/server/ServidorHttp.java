@@ -0,0 +1,222 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import entities.Facade;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Gateway HTTP/JSON das operações da {@link Facade}, sobre o servidor HTTP do próprio JDK.
+ * Cada requisição é atendida por uma thread virtual, e as conexões são mantidas abertas entre
+ * requisições (keep-alive), já que toda resposta tem o tamanho definido. Threads virtuais existem
+ * a partir do JDK 21; num JDK anterior, as requisições são atendidas por um pool de até
+ * {@value #THREADS_PLATAFORMA} threads comuns, e as que excedem o pool esperam a sua vez.
+ *
+ * Cada operação fica em {@code /jackut/<operacao>}, com o nome do método da Facade, e recebe os
+ * parâmetros pelos nomes usados nos testes de aceitação: num objeto JSON no corpo de um POST ou
+ * na query string de um GET. Exemplo: {@code POST /jackut/abrirSessao} com
+ * {@code {"login":"jpsauve","senha":"sauvejp"}}. As respostas são {@code {"resultado":...}} com
+ * status 200 ou {@code {"erro":"mensagem"}} com status 400 (erro da operação), 404 (operação
+ * desconhecida), 405, 413 (requisição grande demais) ou 503 (limite de concorrência atingido).
+ *
+ * O servidor só escuta no endereço local. Porta, limite de requisições simultâneas e tamanho
+ * máximo do corpo podem ser definidos pelas propriedades {@value #PROPRIEDADE_PORTA},
+ * {@value #PROPRIEDADE_CONCORRENCIA} e {@value #PROPRIEDADE_TAMANHO_MAXIMO}.
+ */
+public class ServidorHttp {
+    public static final String PROPRIEDADE_PORTA = "jackut.http.porta";
+    public static final String PROPRIEDADE_CONCORRENCIA = "jackut.http.concorrencia";
+    public static final String PROPRIEDADE_TAMANHO_MAXIMO = "jackut.http.tamanhoMaximo";
+    private static final String PROPRIEDADE_SEM_ATRASO = "sun.net.httpserver.nodelay";
+    private static final String PREFIXO = "/jackut/";
+    private static final int PORTA_PADRAO = 8080;
+    private static final int CONCORRENCIA_PADRAO = 1024;
+    private static final int TAMANHO_MAXIMO_PADRAO = 64 * 1024;
+    private static final int THREADS_PLATAFORMA = 256;
+    private static final String TIPO_JSON = "application/json; charset=utf-8";
+
+    private final Facade facade;
+    private final HttpServer servidor;
+    private final ExecutorService threads;
+    private final Semaphore vagas;
+    private final int tamanhoMaximo;
+
+    /**
+     * Construtor da classe ServidorHttp. O servidor só começa a atender depois de {@link #iniciar()}.
+     * @param facade Facade cujas operações são expostas
+     * @param porta Porta local, ou 0 para uma porta livre qualquer
+     * @param concorrencia Número máximo de requisições atendidas ao mesmo tempo
+     * @param tamanhoMaximo Tamanho máximo, em bytes, do corpo de uma requisição
+     */
+    public ServidorHttp(Facade facade, int porta, int concorrencia, int tamanhoMaximo) throws IOException {
+        this.facade = facade;
+        this.vagas = new Semaphore(concorrencia);
+        this.tamanhoMaximo = tamanhoMaximo;
+        this.threads = novoExecutor(concorrencia);
+        // sem isso o servidor do JDK deixa o algoritmo de Nagle ligado e cada resposta pequena
+        // espera o ACK atrasado do cliente; só tem efeito antes do primeiro servidor do processo
+        if (System.getProperty(PROPRIEDADE_SEM_ATRASO) == null) {
+            System.setProperty(PROPRIEDADE_SEM_ATRASO, "true");
+        }
+        this.servidor = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), porta), 0);
+        servidor.createContext(PREFIXO, this::atender);
+        servidor.setExecutor(threads);
+    }
+
+    /**
+     * Cria o executor das requisições: uma thread virtual por requisição, se o JDK tiver threads
+     * virtuais, ou um pool limitado de threads comuns. O método é procurado em tempo de execução
+     * para que o projeto continue compilando no JDK 17.
+     */
+    private static ExecutorService novoExecutor(int concorrencia) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.min(concorrencia, THREADS_PLATAFORMA));
+        }
+    }
+
+    /**
+     * Inicia o atendimento das requisições.
+     */
+    public void iniciar() {
+        servidor.start();
+    }
+
+    /**
+     * Para de aceitar requisições, esperando até o prazo informado pelas que estão em andamento.
+     * @param prazoSegundos Prazo, em segundos, para as requisições em andamento terminarem
+     */
+    public void parar(int prazoSegundos) {
+        servidor.stop(prazoSegundos);
+        threads.shutdown();
+    }
+
+    /**
+     * Retorna a porta em que o servidor escuta.
+     * @return Porta local
+     */
+    public int getPorta() {
+        return servidor.getAddress().getPort();
+    }
+
+    private void atender(HttpExchange troca) throws IOException {
+        try {
+            if (!vagas.tryAcquire()) {
+                responder(troca, 503, Json.objeto("erro", "Servidor ocupado."));
+                return;
+            }
+            try {
+                processar(troca);
+            } finally {
+                vagas.release();
+            }
+        } finally {
+            troca.close();
+        }
+    }
+
+    private void processar(HttpExchange troca) throws IOException {
+        String metodo = troca.getRequestMethod();
+        if (!metodo.equals("GET") && !metodo.equals("POST")) {
+            troca.getResponseHeaders().set("Allow", "GET, POST");
+            responder(troca, 405, Json.objeto("erro", "Método não suportado."));
+            return;
+        }
+        RotasFacade.Rota rota = RotasFacade.buscar(troca.getRequestURI().getPath().substring(PREFIXO.length()));
+        if (rota == null) {
+            responder(troca, 404, Json.objeto("erro", "Operação não encontrada."));
+            return;
+        }
+
+        Map<String, String> campos;
+        try {
+            campos = lerQuery(troca.getRequestURI().getRawQuery());
+            if (metodo.equals("POST")) {
+                byte[] corpo = lerCorpo(troca.getRequestBody());
+                if (corpo == null) {
+                    responder(troca, 413, Json.objeto("erro", "Requisição grande demais."));
+                    return;
+                }
+                if (corpo.length > 0) {
+                    campos.putAll(Json.lerObjeto(new String(corpo, StandardCharsets.UTF_8)));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            responder(troca, 400, Json.objeto("erro", e.getMessage()));
+            return;
+        }
+
+        try {
+            responder(troca, 200, Json.objeto("resultado", rota.executar(facade, campos)));
+        } catch (Exception e) {
+            responder(troca, 400, Json.objeto("erro", e.getMessage()));
+        }
+    }
+
+    /**
+     * Lê o corpo da requisição até o tamanho máximo.
+     * @return Corpo lido, ou null se ele passar do tamanho máximo
+     */
+    private byte[] lerCorpo(InputStream entrada) throws IOException {
+        byte[] corpo = entrada.readNBytes(tamanhoMaximo + 1);
+        if (corpo.length > tamanhoMaximo) {
+            return null;
+        }
+        return corpo;
+    }
+
+    private static Map<String, String> lerQuery(String query) {
+        Map<String, String> campos = new LinkedHashMap<>();
+        if (query == null || query.isEmpty()) {
+            return campos;
+        }
+        for (String par : query.split("&")) {
+            int igual = par.indexOf('=');
+            String nome = igual < 0 ? par : par.substring(0, igual);
+            String valor = igual < 0 ? "" : par.substring(igual + 1);
+            campos.put(URLDecoder.decode(nome, StandardCharsets.UTF_8), URLDecoder.decode(valor, StandardCharsets.UTF_8));
+        }
+        return campos;
+    }
+
+    private static void responder(HttpExchange troca, int status, String json) throws IOException {
+        byte[] corpo = json.getBytes(StandardCharsets.UTF_8);
+        troca.getResponseHeaders().set("Content-Type", TIPO_JSON);
+        troca.sendResponseHeaders(status, corpo.length);
+        try (OutputStream saida = troca.getResponseBody()) {
+            saida.write(corpo);
+        }
+    }
+
+    /**
+     * Inicia o gateway sobre o sistema configurado pelas propriedades da {@link Facade} e o
+     * mantém em execução até o processo ser encerrado, quando o sistema é salvo.
+     * @param args Não utilizado
+     */
+    public static void main(String[] args) throws IOException {
+        Facade facade = new Facade();
+        ServidorHttp servidor = new ServidorHttp(facade,
+                Integer.getInteger(PROPRIEDADE_PORTA, PORTA_PADRAO),
+                Integer.getInteger(PROPRIEDADE_CONCORRENCIA, CONCORRENCIA_PADRAO),
+                Integer.getInteger(PROPRIEDADE_TAMANHO_MAXIMO, TAMANHO_MAXIMO_PADRAO));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servidor.parar(1);
+            facade.encerrarSistema();
+        }, "jackut-encerramento"));
+        servidor.iniciar();
+        System.out.println("Jackut escutando em http://localhost:" + servidor.getPorta() + PREFIXO);
+    }
+}
@@ -0,0 +1,94 @@
+package utils;
+
+import entities.Systems;
+
+import java.io.File;
+
+/**
+ * Armazenamento do estado de um sistema: snapshot, checkpoints incrementais e journal de operações.
+ * Cada {@link entities.Facade} tem o seu, de modo que vários sistemas independentes podem rodar no
+ * mesmo processo sem que um grave por cima do estado do outro.
+ *
+ * Pode ser escolhido pela propriedade de sistema {@code jackut.armazenamento}, com os valores
+ * {@code disco[:<diretorio>]}, que usa o diretório {@code data} se nenhum for informado, ou
+ * {@code memoria[:<nome>]}, que usa um armazenamento em memória compartilhado pelo nome.
+ */
+public interface Armazenamento {
+    String PROPRIEDADE = "jackut.armazenamento";
+    String DIRETORIO_PADRAO = "data";
+
+    /**
+     * Carrega o último estado gravado.
+     * @return Sistema carregado, ou um sistema vazio se não houver estado gravado
+     * @throws java.io.UncheckedIOException Se houver estado gravado que não possa ser lido
+     */
+    Systems carregarSistema();
+
+    /**
+     * Abre o journal de operações do sistema e reaplica sobre ele as operações posteriores ao
+     * estado carregado por {@link #carregarSistema()}.
+     * @param sistema Sistema carregado
+     * @param durabilidade Política de gravação dos registros
+     * @return Journal pronto para registrar novas operações
+     */
+    Journal abrirJournal(Systems sistema, Durabilidade durabilidade);
+
+    /**
+     * Grava o estado completo do sistema.
+     * @param sistema Sistema a ser gravado
+     * @throws java.io.UncheckedIOException Se o estado não puder ser gravado; o estado gravado
+     *         antes continua valendo
+     */
+    void salvarSistema(Systems sistema);
+
+    /**
+     * Grava um checkpoint com o que mudou desde o anterior, ou o estado completo quando necessário.
+     * @param sistema Sistema a ser gravado, normalmente uma versão capturada por
+     *                {@link Systems#capturarVersao()}
+     * @throws java.io.UncheckedIOException Se o checkpoint não puder ser gravado; o estado gravado
+     *         antes continua valendo
+     */
+    void salvarAlteracoes(Systems sistema);
+
+    /**
+     * Descarta o estado gravado.
+     */
+    void limparDados();
+
+    /**
+     * Termina o uso do armazenamento: espera as gravações em segundo plano e libera o que ele
+     * reservou, como a trava do diretório. Depois disso outro sistema pode abrir o mesmo estado.
+     * @throws java.io.UncheckedIOException Se o que foi reservado não puder ser liberado
+     */
+    void fechar();
+
+    /**
+     * Retorna o armazenamento configurado pela propriedade {@value #PROPRIEDADE},
+     * ou o disco no diretório {@value #DIRETORIO_PADRAO} se ela não estiver definida.
+     * @return Armazenamento configurado
+     */
+    static Armazenamento padrao() {
+        String configuracao = System.getProperty(PROPRIEDADE);
+        if (configuracao == null || configuracao.trim().isEmpty()) {
+            return new ArmazenamentoEmDisco(new File(DIRETORIO_PADRAO));
+        }
+        return deConfiguracao(configuracao.trim());
+    }
+
+    /**
+     * Interpreta um armazenamento no formato {@code tipo[:parametro]}.
+     * @param configuracao Texto da configuração
+     * @return Armazenamento correspondente
+     */
+    static Armazenamento deConfiguracao(String configuracao) {
+        String[] partes = configuracao.split(":", 2);
+        switch (partes[0].toLowerCase()) {
+            case "disco":
+                return new ArmazenamentoEmDisco(new File(partes.length > 1 ? partes[1] : DIRETORIO_PADRAO));
+            case "memoria":
+                return ArmazenamentoEmMemoria.compartilhado(partes.length > 1 ? partes[1] : DIRETORIO_PADRAO);
+            default:
+                throw new IllegalArgumentException("Armazenamento não suportado: " + configuracao);
+        }
+    }
+}
@@ -0,0 +1,509 @@
+package utils;
+
+import entities.Systems;
+import utils.legado.LeitorLegado;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Armazenamento do sistema num diretório do disco: o snapshot base {@code sistema.dat}, os arquivos
+ * das suas partições em {@code particoes/}, os segmentos incrementais em {@code segmentos/} e o
+ * journal de operações. Cada instância cuida apenas do seu diretório, de modo que vários sistemas
+ * podem conviver no mesmo processo desde que usem diretórios diferentes.
+ *
+ * O diretório fica travado, pelo arquivo {@value #NOME_TRAVA}, do primeiro uso até
+ * {@link #fechar()}: uma segunda instância, no mesmo processo ou em outro, não consegue abri-lo
+ * enquanto a primeira não for fechada, e fechar espera a compactação em andamento terminar. Assim
+ * os arquivos de partição que uma instância está gravando nunca são apagados por outra.
+ */
+public class ArmazenamentoEmDisco implements Armazenamento {
+    public static final String PROPRIEDADE_PARTICOES = "jackut.particoes";
+    private static final String NOME_SISTEMA = "sistema.dat";
+    private static final String NOME_JOURNAL = "journal.log";
+    private static final String NOME_TRAVA = "jackut.trava";
+    private static final int LIMITE_SEGMENTOS = 8;
+
+    private final File raiz;
+    private final File diretorioSegmentos;
+    private final File diretorioParticoes;
+    private final Compressao compressao;
+    private final int particoes;
+    private final Object trava = new Object();
+    private long proximoSegmento = 1;
+    private long geracaoBase;
+    private long proximaGeracao = 1;
+    /** Thread da compactação em andamento, ou null se não houver nenhuma. */
+    private Thread compactacao;
+    private FileChannel canalTrava;
+    private FileLock travaDiretorio;
+
+    /**
+     * Construtor com a compressão e o número de partições configurados pelas propriedades
+     * {@value Compressao#PROPRIEDADE} e {@value #PROPRIEDADE_PARTICOES}.
+     * @param raiz Diretório dos arquivos do sistema, criado quando necessário
+     */
+    public ArmazenamentoEmDisco(File raiz) {
+        this(raiz, Compressao.padrao(), Integer.getInteger(PROPRIEDADE_PARTICOES,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Construtor da classe ArmazenamentoEmDisco.
+     * @param raiz Diretório dos arquivos do sistema, criado quando necessário
+     * @param compressao Compressão dos snapshots gravados
+     * @param particoes Número de partições de usuários do snapshot base, limitado entre 1 e 256
+     */
+    public ArmazenamentoEmDisco(File raiz, Compressao compressao, int particoes) {
+        this.raiz = raiz;
+        this.diretorioSegmentos = new File(raiz, "segmentos");
+        this.diretorioParticoes = new File(raiz, "particoes");
+        this.compressao = compressao;
+        this.particoes = Math.max(1, Math.min(256, particoes));
+    }
+
+    public File getRaiz() {
+        return raiz;
+    }
+
+    private File arquivoSistema() {
+        return new File(raiz, NOME_SISTEMA);
+    }
+
+    /**
+     * Grava um snapshot base completo do sistema, substituindo o anterior e todos os segmentos.
+     * Os usuários são divididos em partições, gravadas em paralelo; o número de partições vem da
+     * propriedade {@code jackut.particoes} e, por padrão, é o número de processadores.
+     * @param sistema Sistema a ser gravado
+     * @throws UncheckedIOException Se o snapshot não puder ser gravado; o base anterior continua
+     *         valendo, e os arquivos do novo são apagados
+     */
+    @Override
+    public void salvarSistema(Systems sistema) {
+        synchronized (trava) {
+            travarDiretorio();
+            long geracao = proximaGeracao++;
+            long anterior = geracaoBase;
+            try {
+                criarDiretorio(diretorioSegmentos);
+                long ultimoSegmento = proximoSegmento - 1;
+                File temporario = new File(raiz, NOME_SISTEMA + ".tmp");
+                gravarBase(sistema, temporario, ultimoSegmento, geracao);
+                Files.move(temporario.toPath(), arquivoSistema().toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                geracaoBase = geracao;
+                apagarSegmentos(ultimoSegmento);
+                apagarGeracao(anterior);
+                sistema.concluirCheckpoint();
+            } catch (IOException e) {
+                descartarGeracaoNaoGravada(geracao);
+                throw new UncheckedIOException("Erro ao salvar o sistema em " + raiz + ": " + e.getMessage(), e);
+            } catch (UncheckedIOException e) {
+                descartarGeracaoNaoGravada(geracao);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Apaga as partições de um base cuja gravação falhou, se ele não chegou a substituir o atual.
+     */
+    private void descartarGeracaoNaoGravada(long geracao) {
+        if (geracaoBase != geracao) {
+            apagarGeracao(geracao);
+        }
+    }
+
+    /**
+     * Grava os arquivos de partição de um snapshot base com os seus nomes definitivos e o arquivo
+     * principal no destino informado. As partições só passam a valer quando o arquivo principal,
+     * que as referencia pela geração, substitui o atual.
+     */
+    private void gravarBase(Systems sistema, File principal, long ultimoSegmento, long geracao)
+            throws IOException {
+        criarDiretorio(diretorioParticoes);
+        List<OutputStream> saidas = new ArrayList<>();
+        try (OutputStream saidaPrincipal = compressao.envolver(new FileOutputStream(principal))) {
+            for (int i = 0; i < particoes; i++) {
+                saidas.add(compressao.envolver(new FileOutputStream(arquivoParticao(geracao, i))));
+            }
+            SnapshotBinario.gravar(sistema, saidaPrincipal, saidas, ultimoSegmento, geracao);
+        } finally {
+            for (OutputStream particao : saidas) {
+                particao.close();
+            }
+        }
+    }
+
+    /**
+     * Grava um checkpoint do sistema. Normalmente só os usuários e comunidades alterados
+     * desde o checkpoint anterior são gravados, num novo segmento; o snapshot completo só é gravado
+     * quando não há um snapshot base no formato atual. Quando os segmentos se acumulam, eles são
+     * incorporados ao snapshot base em segundo plano.
+     * @param sistema Sistema a ser gravado, normalmente uma versão capturada por
+     *                {@link Systems#capturarVersao()}
+     * @throws UncheckedIOException Se o checkpoint não puder ser gravado; o segmento incompleto
+     *         é apagado, e o estado gravado antes continua valendo
+     */
+    @Override
+    public void salvarAlteracoes(Systems sistema) {
+        if (sistema.precisaSnapshotCompleto()) {
+            salvarSistema(sistema);
+            return;
+        }
+        if (!sistema.temAlteracoes()) {
+            return;
+        }
+        long segmento;
+        synchronized (trava) {
+            travarDiretorio();
+            segmento = proximoSegmento++;
+        }
+        File arquivo = arquivoSegmento(segmento);
+        File temporario = new File(arquivo.getPath() + ".tmp");
+        try {
+            criarDiretorio(diretorioSegmentos);
+            try (OutputStream saida = compressao.envolver(new FileOutputStream(temporario))) {
+                SnapshotBinario.gravarSegmento(sistema, saida, segmento);
+            }
+            Files.move(temporario.toPath(), arquivo.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            sistema.concluirCheckpoint();
+        } catch (IOException e) {
+            temporario.delete();
+            throw new UncheckedIOException("Erro ao salvar o checkpoint em " + raiz + ": " + e.getMessage(), e);
+        } catch (UncheckedIOException e) {
+            temporario.delete();
+            throw e;
+        }
+        if (listarSegmentos().length >= LIMITE_SEGMENTOS) {
+            iniciarCompactacao();
+        }
+    }
+
+    /**
+     * Carrega o último snapshot do sistema e os segmentos gravados depois dele.
+     * Os arquivos são mapeados em memória e os usuários e comunidades são lidos sob demanda, de modo
+     * que o tempo de carga não depende do tamanho da rede. Arquivos comprimidos são reconhecidos
+     * pelo cabeçalho e descomprimidos para a memória. Snapshots em formatos antigos são
+     * lidos por completo e passam para o formato atual no próximo salvamento.
+     *
+     * Só um diretório sem {@code sistema.dat} e sem segmentos começa vazio. Se o snapshot, uma
+     * partição ou um segmento existir mas não puder ser lido, a carga falha: começar vazio faria o
+     * journal ser reaplicado sobre uma rede vazia e o próximo checkpoint gravar por cima dos dados.
+     * @return Sistema carregado, ou um sistema vazio se não houver snapshot
+     * @throws UncheckedIOException Se o estado gravado não puder ser lido
+     */
+    @Override
+    public Systems carregarSistema() {
+        synchronized (trava) {
+            travarDiretorio();
+            long[] segmentos = listarSegmentos();
+            proximoSegmento = segmentos.length == 0 ? 1 : segmentos[segmentos.length - 1] + 1;
+            try {
+                File arquivo = arquivoSistema();
+                if (!arquivo.exists()) {
+                    if (segmentos.length > 0) {
+                        throw new IOException("Há segmentos em " + diretorioSegmentos + " mas não há " + arquivo);
+                    }
+                    return new Systems();
+                }
+
+                ByteBuffer conteudo = Compressao.ler(arquivo);
+                if (SnapshotBinario.ehSerializacaoJava(conteudo)) {
+                    return LeitorLegado.ler(arquivo);
+                }
+                if (!SnapshotBinario.ehMapeavel(conteudo)) {
+                    return SnapshotBinario.abrir(conteudo);
+                }
+                SnapshotMapeado base = abrirBase(conteudo);
+                proximoSegmento = Math.max(proximoSegmento, base.getSegmento() + 1);
+                geracaoBase = base.getGeracao();
+                proximaGeracao = Math.max(proximaGeracao, geracaoBase + 1);
+                if (compactacao == null) {
+                    apagarParticoesAbandonadas(geracaoBase);
+                }
+                return new Systems(abrirCamadas(base, segmentos));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Erro ao carregar o sistema de " + raiz + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Abre um snapshot base, mapeando os arquivos das suas partições, se houver.
+     */
+    private SnapshotMapeado abrirBase(ByteBuffer conteudo) throws IOException {
+        SnapshotMapeado base = new SnapshotMapeado(conteudo);
+        if (base.getParticoes() > 0) {
+            List<SnapshotMapeado> particoes = new ArrayList<>();
+            for (int i = 0; i < base.getParticoes(); i++) {
+                particoes.add(SnapshotMapeado.abrir(arquivoParticao(base.getGeracao(), i)));
+            }
+            base.anexarParticoes(particoes);
+        }
+        return base;
+    }
+
+    /**
+     * Mapeia os segmentos posteriores ao snapshot base e monta as camadas do sistema, do segmento
+     * mais novo para o base. Segmentos já incluídos no base, que sobram quando uma compactação é
+     * interrompida, são apagados.
+     */
+    private List<SnapshotMapeado> abrirCamadas(SnapshotMapeado base, long[] segmentos) throws IOException {
+        List<SnapshotMapeado> camadas = new ArrayList<>();
+        camadas.add(base);
+        for (long segmento : segmentos) {
+            File arquivo = arquivoSegmento(segmento);
+            if (segmento <= base.getSegmento()) {
+                arquivo.delete();
+            } else {
+                camadas.add(0, SnapshotMapeado.abrir(arquivo));
+            }
+        }
+        return camadas;
+    }
+
+    /**
+     * Incorpora os segmentos existentes ao snapshot base numa thread separada, se nenhuma
+     * compactação estiver em andamento.
+     */
+    private void iniciarCompactacao() {
+        synchronized (trava) {
+            if (compactacao != null) {
+                return;
+            }
+            compactacao = new Thread(() -> {
+                try {
+                    compactarSegmentos();
+                } catch (IOException | UncheckedIOException e) {
+                    // os segmentos continuam valendo, e o próximo checkpoint tenta compactá-los de novo
+                    System.err.println("Erro ao compactar os segmentos: " + e.getMessage());
+                } finally {
+                    synchronized (trava) {
+                        compactacao = null;
+                    }
+                }
+            }, "jackut-compactacao");
+            compactacao.setDaemon(true);
+            compactacao.start();
+        }
+    }
+
+    /**
+     * Grava um novo snapshot base com o base atual e os segmentos existentes, lidos dos arquivos
+     * e não do sistema em uso: registros não alterados são copiados sem decodificação. O novo base
+     * só substitui o atual se nenhum snapshot completo tiver sido gravado durante a compactação.
+     */
+    private void compactarSegmentos() throws IOException {
+        long geracaoAtual;
+        long geracao;
+        List<SnapshotMapeado> camadas;
+        synchronized (trava) {
+            geracaoAtual = geracaoBase;
+            geracao = proximaGeracao++;
+            File arquivo = arquivoSistema();
+            ByteBuffer conteudo = Compressao.ler(arquivo);
+            if (!SnapshotBinario.ehMapeavel(conteudo)) {
+                return;
+            }
+            camadas = abrirCamadas(abrirBase(conteudo), listarSegmentos());
+        }
+        if (camadas.size() == 1) {
+            return;
+        }
+        long ultimoSegmento = camadas.get(0).getSegmento();
+        File temporario = new File(raiz, NOME_SISTEMA + ".compactacao");
+        try {
+            gravarBase(new Systems(camadas), temporario, ultimoSegmento, geracao);
+        } catch (IOException | UncheckedIOException e) {
+            temporario.delete();
+            apagarGeracao(geracao);
+            throw e;
+        }
+        synchronized (trava) {
+            if (geracaoAtual != geracaoBase) {
+                temporario.delete();
+                apagarGeracao(geracao);
+                return;
+            }
+            Files.move(temporario.toPath(), arquivoSistema().toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            geracaoBase = geracao;
+            apagarSegmentos(ultimoSegmento);
+            apagarGeracao(geracaoAtual);
+        }
+    }
+
+    /**
+     * Lista os números dos segmentos gravados, em ordem crescente.
+     */
+    private long[] listarSegmentos() {
+        String[] nomes = diretorioSegmentos.list((dir, nome) -> nome.matches("\\d+\\.seg"));
+        if (nomes == null) {
+            return new long[0];
+        }
+        long[] segmentos = new long[nomes.length];
+        for (int i = 0; i < nomes.length; i++) {
+            segmentos[i] = Long.parseLong(nomes[i].substring(0, nomes[i].length() - 4));
+        }
+        Arrays.sort(segmentos);
+        return segmentos;
+    }
+
+    /**
+     * Apaga, do mais antigo para o mais novo, os segmentos já incluídos no snapshot base.
+     * A ordem garante que, se a remoção for interrompida, os que sobrarem sejam os mais novos.
+     */
+    private void apagarSegmentos(long ultimoSegmento) {
+        for (long segmento : listarSegmentos()) {
+            if (segmento <= ultimoSegmento) {
+                arquivoSegmento(segmento).delete();
+            }
+        }
+    }
+
+    /**
+     * Apaga os arquivos de partição de uma geração que esta instância carregou ou gravou e que
+     * deixou de ser referenciada: o base substituído, ou um base novo que não chegou a valer.
+     */
+    private void apagarGeracao(long geracao) {
+        String prefixo = String.format("%019d-", geracao);
+        apagarParticoes(nome -> nome.startsWith(prefixo));
+    }
+
+    /**
+     * Apaga, na carga, as partições de gerações que o base não referencia, deixadas por uma
+     * gravação interrompida. Como o diretório está travado por esta instância, quem as gravou
+     * já terminou.
+     */
+    private void apagarParticoesAbandonadas(long geracaoMantida) {
+        String prefixo = String.format("%019d-", geracaoMantida);
+        apagarParticoes(nome -> !nome.startsWith(prefixo));
+    }
+
+    private void apagarParticoes(Predicate<String> filtro) {
+        File[] arquivos = diretorioParticoes.listFiles((dir, nome) -> filtro.test(nome));
+        if (arquivos != null) {
+            for (File arquivo : arquivos) {
+                arquivo.delete();
+            }
+        }
+    }
+
+    private File arquivoParticao(long geracao, int particao) {
+        return new File(diretorioParticoes, String.format("%019d-%03d.dat", geracao, particao));
+    }
+
+    private File arquivoSegmento(long segmento) {
+        return new File(diretorioSegmentos, String.format("%019d.seg", segmento));
+    }
+
+    private void criarDiretorio(File diretorio) {
+        if (!diretorio.exists()) {
+            diretorio.mkdirs();
+        }
+    }
+
+    /**
+     * Abre o journal de operações do sistema e reaplica sobre ele os registros
+     * posteriores ao snapshot carregado por {@link #carregarSistema()}.
+     * @param sistema Sistema carregado do snapshot
+     * @param durabilidade Política de gravação dos registros no disco
+     * @return Journal pronto para registrar novas operações
+     */
+    @Override
+    public Journal abrirJournal(Systems sistema, Durabilidade durabilidade) {
+        Journal journal = new Journal(new File(raiz, NOME_JOURNAL), sistema, durabilidade);
+        journal.reaplicar();
+        return journal;
+    }
+
+    /**
+     * Trava o diretório para esta instância, se ainda não estiver travado.
+     * @throws IllegalStateException Se outra instância, deste ou de outro processo, estiver usando o diretório
+     */
+    private void travarDiretorio() {
+        if (travaDiretorio != null) {
+            return;
+        }
+        criarDiretorio(raiz);
+        try {
+            FileChannel canal = FileChannel.open(new File(raiz, NOME_TRAVA).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock adquirida;
+            try {
+                adquirida = canal.tryLock();
+            } catch (OverlappingFileLockException e) {
+                adquirida = null;
+            }
+            if (adquirida == null) {
+                canal.close();
+                throw new IllegalStateException("O diretório " + raiz + " já está em uso por outro sistema.");
+            }
+            canalTrava = canal;
+            travaDiretorio = adquirida;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Espera a compactação em andamento terminar e libera a trava do diretório, que pode então ser
+     * aberto por outra instância.
+     * @throws UncheckedIOException Se a trava não puder ser liberada
+     */
+    @Override
+    public void fechar() {
+        Thread emAndamento;
+        synchronized (trava) {
+            emAndamento = compactacao;
+        }
+        if (emAndamento != null) {
+            try {
+                emAndamento.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (trava) {
+            if (travaDiretorio == null) {
+                return;
+            }
+            try {
+                travaDiretorio.release();
+                canalTrava.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Erro ao liberar o diretório " + raiz + ": " + e.getMessage(), e);
+            } finally {
+                travaDiretorio = null;
+                canalTrava = null;
+            }
+        }
+    }
+
+    @Override
+    public void limparDados() {
+        synchronized (trava) {
+            travarDiretorio();
+            File arquivo = arquivoSistema();
+            if (arquivo.exists()) {
+                arquivo.delete();
+            }
+        }
+    }
+}
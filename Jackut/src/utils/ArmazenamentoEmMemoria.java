@@ -0,0 +1,67 @@
+package utils;
+
+import entities.Systems;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Armazenamento sem nenhuma entrada e saída, para testes e medições.
+ * Um checkpoint guarda a versão capturada do sistema, que é a que um novo carregamento do mesmo
+ * armazenamento devolve; o journal apenas numera as operações. Nada sobrevive ao processo.
+ *
+ * Armazenamentos obtidos por {@link #compartilhado(String)} com o mesmo nome são o mesmo, para que
+ * Facades criadas separadamente, como as dos scripts de aceitação, vejam o mesmo sistema.
+ */
+public class ArmazenamentoEmMemoria implements Armazenamento {
+    private static final Map<String, ArmazenamentoEmMemoria> COMPARTILHADOS = new ConcurrentHashMap<>();
+
+    private Systems ultimaVersao;
+
+    /**
+     * Retorna o armazenamento em memória com o nome informado, criando-o no primeiro uso.
+     * @param nome Nome do armazenamento
+     * @return Armazenamento compartilhado por todos que usarem o mesmo nome
+     */
+    public static ArmazenamentoEmMemoria compartilhado(String nome) {
+        return COMPARTILHADOS.computeIfAbsent(nome, n -> new ArmazenamentoEmMemoria());
+    }
+
+    @Override
+    public synchronized Systems carregarSistema() {
+        return ultimaVersao == null ? new Systems() : ultimaVersao.capturarVersao();
+    }
+
+    @Override
+    public Journal abrirJournal(Systems sistema, Durabilidade durabilidade) {
+        return new Journal(sistema);
+    }
+
+    @Override
+    public void salvarSistema(Systems sistema) {
+        guardar(sistema);
+    }
+
+    @Override
+    public void salvarAlteracoes(Systems sistema) {
+        guardar(sistema);
+    }
+
+    /**
+     * Guarda uma captura do sistema, para que operações posteriores sobre ele não alterem o que
+     * foi guardado. Capturar uma versão já capturada custa O(1) como qualquer captura.
+     */
+    private synchronized void guardar(Systems sistema) {
+        ultimaVersao = sistema.capturarVersao();
+        ultimaVersao.concluirCheckpoint();
+    }
+
+    @Override
+    public synchronized void limparDados() {
+        ultimaVersao = null;
+    }
+
+    @Override
+    public void fechar() {
+    }
+}
@@ -0,0 +1,361 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Arquivo de registros com chave, com índice de hash gravado no próprio arquivo.
+ * Ler ou gravar um registro custa um número constante de acessos ao disco: a sondagem do
+ * índice e a leitura ou escrita do bloco do registro. Nada é mantido em memória entre as
+ * operações, de modo que abrir o arquivo só lê o cabeçalho.
+ *
+ * Os registros ficam em blocos de capacidade potência de dois. Um registro que ainda cabe
+ * no seu bloco é atualizado no lugar; senão ganha um bloco maior e o antigo vai para a lista
+ * de blocos livres da sua classe, de onde é reaproveitado pela próxima alocação do mesmo tamanho.
+ *
+ * Layout do arquivo:
+ * <pre>
+ * cabeçalho: [magic "JKRS"][versao:int][posicaoIndice:long][quantidade:int][reservado:int]([livre:long])*32
+ * bloco: [classe:int][tamanhoChave:int][tamanhoValor:int][chave UTF-8][valor], livre se tamanhoChave = -1
+ * bloco do índice: [capacidade:int] seguido de capacidade slots [hash:int][posicaoBloco:long]
+ * </pre>
+ * As chaves são comparadas sem diferenciar maiúsculas e minúsculas.
+ */
+public class ArquivoRegistros implements Closeable {
+    private static final byte[] MAGIC = {'J', 'K', 'R', 'S'};
+    private static final int VERSAO = 1;
+    private static final int CLASSES = 32;
+    private static final int CLASSE_MINIMA = 6;
+    private static final int CAPACIDADE_INICIAL_INDICE = 64;
+    private static final int TAMANHO_CABECALHO = 4 + 4 + 8 + 4 + 4 + 8 * CLASSES;
+    private static final int TAMANHO_CABECALHO_BLOCO = 4 + 4 + 4;
+    private static final int TAMANHO_SLOT = 4 + 8;
+    private static final int SLOTS_POR_LEITURA = 16;
+
+    private final FileChannel canal;
+    private long posicaoIndice;
+    private int capacidadeIndice;
+    private int quantidade;
+
+    /**
+     * Abre um arquivo de registros, criando-o vazio se não existir.
+     * @param arquivo Arquivo de registros
+     * @throws IOException Se o arquivo existir e não for um arquivo de registros
+     */
+    public ArquivoRegistros(File arquivo) throws IOException {
+        this.canal = FileChannel.open(arquivo.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (canal.size() == 0) {
+                inicializar();
+            } else {
+                lerCabecalho(arquivo);
+            }
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    private void inicializar() throws IOException {
+        ByteBuffer cabecalho = ByteBuffer.allocate(TAMANHO_CABECALHO);
+        cabecalho.put(MAGIC).putInt(VERSAO);
+        escrever(cabecalho.rewind(), 0);
+        capacidadeIndice = CAPACIDADE_INICIAL_INDICE;
+        posicaoIndice = alocar(TAMANHO_CABECALHO_BLOCO + 4 + capacidadeIndice * TAMANHO_SLOT);
+        escreverIndiceVazio(posicaoIndice, capacidadeIndice);
+        escrever(ByteBuffer.allocate(8).putLong(0, posicaoIndice), 8);
+    }
+
+    private void lerCabecalho(File arquivo) throws IOException {
+        ByteBuffer cabecalho = ler(0, 20);
+        for (byte b : MAGIC) {
+            if (cabecalho.get() != b) {
+                throw new IOException("Arquivo não é um arquivo de registros: " + arquivo);
+            }
+        }
+        int versao = cabecalho.getInt();
+        if (versao != VERSAO) {
+            throw new IOException("Versão de arquivo de registros não suportada: " + versao);
+        }
+        posicaoIndice = cabecalho.getLong();
+        quantidade = cabecalho.getInt();
+        capacidadeIndice = ler(posicaoIndice + TAMANHO_CABECALHO_BLOCO, 4).getInt();
+        if (Integer.bitCount(capacidadeIndice) != 1) {
+            throw new IOException("Índice inválido no arquivo de registros: " + arquivo);
+        }
+    }
+
+    /**
+     * Retorna o número de registros do arquivo.
+     * @return Quantidade de registros
+     */
+    public int getQuantidade() {
+        return quantidade;
+    }
+
+    /**
+     * Lê o valor de um registro.
+     * @param chave Chave do registro
+     * @return Valor gravado, ou null se não houver registro com a chave
+     */
+    public byte[] ler(String chave) throws IOException {
+        long slot = buscarSlot(chave);
+        if (slot < 0) {
+            return null;
+        }
+        long bloco = ler(slot + 4, 8).getLong();
+        ByteBuffer cabecalho = ler(bloco, TAMANHO_CABECALHO_BLOCO);
+        cabecalho.getInt();
+        int tamanhoChave = cabecalho.getInt();
+        int tamanhoValor = cabecalho.getInt();
+        return ler(bloco + TAMANHO_CABECALHO_BLOCO + tamanhoChave, tamanhoValor).array();
+    }
+
+    /**
+     * Grava o valor de um registro, substituindo o anterior com a mesma chave.
+     * @param chave Chave do registro
+     * @param valor Valor a ser gravado
+     */
+    public void gravar(String chave, byte[] valor) throws IOException {
+        byte[] bytesChave = chave.getBytes(StandardCharsets.UTF_8);
+        int necessario = TAMANHO_CABECALHO_BLOCO + bytesChave.length + valor.length;
+        long slot = buscarSlot(chave);
+        if (slot >= 0) {
+            long bloco = ler(slot + 4, 8).getLong();
+            int classe = ler(bloco, 4).getInt();
+            if (necessario <= 1 << classe) {
+                escreverRegistro(bloco, classe, bytesChave, valor);
+                return;
+            }
+            long novo = alocar(necessario);
+            escreverRegistro(novo, classeDe(necessario), bytesChave, valor);
+            escrever(ByteBuffer.allocate(8).putLong(0, novo), slot + 4);
+            liberar(bloco, classe);
+            return;
+        }
+        if ((quantidade + 1) * 2 > capacidadeIndice) {
+            crescerIndice();
+        }
+        long bloco = alocar(necessario);
+        escreverRegistro(bloco, classeDe(necessario), bytesChave, valor);
+        int hash = hash(chave);
+        long vazio = slotLivre(hash);
+        escrever(ByteBuffer.allocate(TAMANHO_SLOT).putInt(0, hash).putLong(4, bloco), vazio);
+        atualizarQuantidade(quantidade + 1);
+    }
+
+    /**
+     * Remove um registro e libera o seu bloco para reaproveitamento.
+     * @param chave Chave do registro
+     * @return true se havia registro com a chave
+     */
+    public boolean remover(String chave) throws IOException {
+        long slot = buscarSlot(chave);
+        if (slot < 0) {
+            return false;
+        }
+        long bloco = ler(slot + 4, 8).getLong();
+        liberar(bloco, ler(bloco, 4).getInt());
+        removerSlot(indiceDoSlot(slot));
+        atualizarQuantidade(quantidade - 1);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+
+    /**
+     * Sonda o índice a partir do slot inicial da chave, lendo vários slots por acesso.
+     * @return Posição do slot da chave no arquivo, ou -1 se a chave não existir
+     */
+    private long buscarSlot(String chave) throws IOException {
+        int hash = hash(chave);
+        int mascara = capacidadeIndice - 1;
+        int i = slot(hash, capacidadeIndice);
+        for (int lidos = 0; lidos < capacidadeIndice; ) {
+            int quantos = Math.min(SLOTS_POR_LEITURA, capacidadeIndice - i);
+            ByteBuffer slots = ler(posicaoSlot(i), quantos * TAMANHO_SLOT);
+            for (int j = 0; j < quantos; j++, lidos++) {
+                int hashSlot = slots.getInt();
+                long bloco = slots.getLong();
+                if (bloco == 0) {
+                    return -1;
+                }
+                if (hashSlot == hash && chave.equalsIgnoreCase(lerChave(bloco))) {
+                    return posicaoSlot(i + j);
+                }
+            }
+            i = (i + quantos) & mascara;
+        }
+        return -1;
+    }
+
+    private long slotLivre(int hash) throws IOException {
+        for (int i = slot(hash, capacidadeIndice); ; i = (i + 1) & (capacidadeIndice - 1)) {
+            if (ler(posicaoSlot(i) + 4, 8).getLong() == 0) {
+                return posicaoSlot(i);
+            }
+        }
+    }
+
+    /**
+     * Remove um slot do índice deslocando para trás os slots seguintes da mesma sequência
+     * de sondagem, para que nenhuma busca pare antes da hora.
+     */
+    private void removerSlot(int vazio) throws IOException {
+        int mascara = capacidadeIndice - 1;
+        for (int i = (vazio + 1) & mascara; ; i = (i + 1) & mascara) {
+            ByteBuffer slot = ler(posicaoSlot(i), TAMANHO_SLOT);
+            int hash = slot.getInt();
+            long bloco = slot.getLong();
+            if (bloco == 0) {
+                break;
+            }
+            int inicial = slot(hash, capacidadeIndice);
+            if (((i - inicial) & mascara) >= ((i - vazio) & mascara)) {
+                escrever(ByteBuffer.allocate(TAMANHO_SLOT).putInt(0, hash).putLong(4, bloco), posicaoSlot(vazio));
+                vazio = i;
+            }
+        }
+        escrever(ByteBuffer.allocate(TAMANHO_SLOT), posicaoSlot(vazio));
+    }
+
+    /**
+     * Dobra a capacidade do índice, mantendo o fator de carga em no máximo 50%.
+     * Só os hashes e posições são copiados: os registros não precisam ser lidos.
+     */
+    private void crescerIndice() throws IOException {
+        ByteBuffer antigo = ler(posicaoSlot(0), capacidadeIndice * TAMANHO_SLOT);
+        int capacidade = capacidadeIndice * 2;
+        ByteBuffer novo = ByteBuffer.allocate(4 + capacidade * TAMANHO_SLOT);
+        novo.putInt(0, capacidade);
+        for (int i = 0; i < capacidadeIndice; i++) {
+            int hash = antigo.getInt();
+            long bloco = antigo.getLong();
+            if (bloco == 0) {
+                continue;
+            }
+            int j = slot(hash, capacidade);
+            while (novo.getLong(4 + j * TAMANHO_SLOT + 4) != 0) {
+                j = (j + 1) & (capacidade - 1);
+            }
+            novo.putInt(4 + j * TAMANHO_SLOT, hash).putLong(4 + j * TAMANHO_SLOT + 4, bloco);
+        }
+        int necessario = TAMANHO_CABECALHO_BLOCO + novo.capacity();
+        long bloco = alocar(necessario);
+        escrever(ByteBuffer.allocate(TAMANHO_CABECALHO_BLOCO).putInt(0, classeDe(necessario)), bloco);
+        escrever(novo, bloco + TAMANHO_CABECALHO_BLOCO);
+        long anterior = posicaoIndice;
+        int classeAnterior = ler(anterior, 4).getInt();
+        escrever(ByteBuffer.allocate(8).putLong(0, bloco), 8);
+        posicaoIndice = bloco;
+        capacidadeIndice = capacidade;
+        liberar(anterior, classeAnterior);
+    }
+
+    private void escreverIndiceVazio(long bloco, int capacidade) throws IOException {
+        ByteBuffer indice = ByteBuffer.allocate(TAMANHO_CABECALHO_BLOCO + 4 + capacidade * TAMANHO_SLOT);
+        indice.putInt(0, classeDe(indice.capacity())).putInt(TAMANHO_CABECALHO_BLOCO, capacidade);
+        escrever(indice, bloco);
+    }
+
+    private void escreverRegistro(long bloco, int classe, byte[] chave, byte[] valor) throws IOException {
+        ByteBuffer registro = ByteBuffer.allocate(TAMANHO_CABECALHO_BLOCO + chave.length + valor.length);
+        registro.putInt(classe).putInt(chave.length).putInt(valor.length).put(chave).put(valor);
+        escrever(registro.flip(), bloco);
+    }
+
+    private String lerChave(long bloco) throws IOException {
+        ByteBuffer cabecalho = ler(bloco + 4, 4);
+        int tamanho = cabecalho.getInt();
+        if (tamanho < 0) {
+            throw new IOException("Índice aponta para um bloco livre na posição " + bloco);
+        }
+        ByteBuffer chave = ler(bloco + TAMANHO_CABECALHO_BLOCO, tamanho);
+        return StandardCharsets.UTF_8.decode(chave).toString();
+    }
+
+    /**
+     * Aloca um bloco com pelo menos o tamanho informado, reaproveitando um bloco livre da
+     * mesma classe ou estendendo o arquivo.
+     * @return Posição do bloco
+     */
+    private long alocar(int tamanho) throws IOException {
+        int classe = classeDe(tamanho);
+        long posicaoLivre = posicaoLivre(classe);
+        long bloco = ler(posicaoLivre, 8).getLong();
+        if (bloco == 0) {
+            bloco = canal.size();
+            escrever(ByteBuffer.allocate(4).putInt(0, classe), bloco);
+            // estende o arquivo até o fim do bloco para que a próxima alocação comece depois dele
+            escrever(ByteBuffer.allocate(1), bloco + (1L << classe) - 1);
+            return bloco;
+        }
+        long proximo = ler(bloco + TAMANHO_CABECALHO_BLOCO, 8).getLong();
+        escrever(ByteBuffer.allocate(8).putLong(0, proximo), posicaoLivre);
+        return bloco;
+    }
+
+    private void liberar(long bloco, int classe) throws IOException {
+        long posicaoLivre = posicaoLivre(classe);
+        long proximo = ler(posicaoLivre, 8).getLong();
+        ByteBuffer livre = ByteBuffer.allocate(TAMANHO_CABECALHO_BLOCO + 8);
+        livre.putInt(classe).putInt(-1).putInt(0).putLong(proximo);
+        escrever(livre.flip(), bloco);
+        escrever(ByteBuffer.allocate(8).putLong(0, bloco), posicaoLivre);
+    }
+
+    private void atualizarQuantidade(int quantidade) throws IOException {
+        this.quantidade = quantidade;
+        escrever(ByteBuffer.allocate(4).putInt(0, quantidade), 16);
+    }
+
+    private static int classeDe(int tamanho) {
+        return Math.max(CLASSE_MINIMA, 32 - Integer.numberOfLeadingZeros(tamanho - 1));
+    }
+
+    private static long posicaoLivre(int classe) {
+        return 24 + 8L * classe;
+    }
+
+    private long posicaoSlot(int i) {
+        return posicaoIndice + TAMANHO_CABECALHO_BLOCO + 4 + (long) i * TAMANHO_SLOT;
+    }
+
+    private int indiceDoSlot(long posicao) {
+        return (int) ((posicao - posicaoIndice - TAMANHO_CABECALHO_BLOCO - 4) / TAMANHO_SLOT);
+    }
+
+    private static int hash(String chave) {
+        return chave.toLowerCase(Locale.ROOT).hashCode();
+    }
+
+    private static int slot(int hash, int capacidade) {
+        return SnapshotMapeado.slot(hash, capacidade);
+    }
+
+    private ByteBuffer ler(long posicao, int tamanho) throws IOException {
+        ByteBuffer destino = ByteBuffer.allocate(tamanho);
+        while (destino.hasRemaining()) {
+            if (canal.read(destino, posicao + destino.position()) < 0) {
+                throw new IOException("Arquivo de registros truncado na posição " + posicao);
+            }
+        }
+        return destino.flip();
+    }
+
+    private void escrever(ByteBuffer origem, long posicao) throws IOException {
+        while (origem.hasRemaining()) {
+            canal.write(origem, posicao + origem.position());
+        }
+    }
+}
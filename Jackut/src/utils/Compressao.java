@@ -0,0 +1,213 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Compressão opcional dos arquivos de snapshot (base, partições e segmentos).
+ * Um arquivo comprimido tem o cabeçalho [magic "JKCZ"][versao:byte][nivel:byte], o fluxo
+ * deflate e o trailer [tamanhoOriginal:long][crc32:int] do conteúdo original. A leitura
+ * reconhece o cabeçalho sozinha, de modo que arquivos comprimidos e não comprimidos podem
+ * conviver no mesmo diretório.
+ *
+ * Arquivos não comprimidos continuam mapeados em memória e lidos sob demanda; os comprimidos
+ * são descomprimidos por inteiro para a memória ao serem abertos.
+ *
+ * Pode ser escolhida pela propriedade de sistema {@code jackut.compressao}, com os valores
+ * {@code nenhuma}, {@code rapida} ou {@code alta}.
+ */
+public enum Compressao {
+    /** Arquivos gravados sem compressão. */
+    NENHUMA(Deflater.NO_COMPRESSION),
+    /** Compressão mais rápida, com razão menor. */
+    RAPIDA(Deflater.BEST_SPEED),
+    /** Compressão com a maior razão, mais lenta. */
+    ALTA(Deflater.BEST_COMPRESSION);
+
+    public static final String PROPRIEDADE = "jackut.compressao";
+    private static final byte[] MAGIC = {'J', 'K', 'C', 'Z'};
+    private static final int VERSAO = 1;
+    private static final int TAMANHO_CABECALHO = 4 + 1 + 1;
+    private static final int TAMANHO_TRAILER = 8 + 4;
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+    private static final EstatisticasCompressao ESTATISTICAS = new EstatisticasCompressao();
+
+    private final int nivel;
+
+    Compressao(int nivel) {
+        this.nivel = nivel;
+    }
+
+    /**
+     * Retorna a compressão configurada pela propriedade {@value #PROPRIEDADE},
+     * ou {@link #NENHUMA} se ela não estiver definida.
+     * @return Compressão configurada
+     */
+    public static Compressao padrao() {
+        String configuracao = System.getProperty(PROPRIEDADE);
+        if (configuracao == null || configuracao.trim().isEmpty()) {
+            return NENHUMA;
+        }
+        return deConfiguracao(configuracao.trim());
+    }
+
+    /**
+     * Interpreta o nome de uma compressão.
+     * @param configuracao {@code nenhuma}, {@code rapida} ou {@code alta}
+     * @return Compressão correspondente
+     */
+    public static Compressao deConfiguracao(String configuracao) {
+        switch (configuracao.toLowerCase()) {
+            case "nenhuma":
+                return NENHUMA;
+            case "rapida":
+                return RAPIDA;
+            case "alta":
+                return ALTA;
+            default:
+                throw new IllegalArgumentException("Compressão não suportada: " + configuracao);
+        }
+    }
+
+    /**
+     * Retorna as medidas acumuladas de compressão e descompressão do processo.
+     * @return Estatísticas de compressão
+     */
+    public static EstatisticasCompressao getEstatisticas() {
+        return ESTATISTICAS;
+    }
+
+    /**
+     * Envolve um fluxo de saída para que o que for gravado nele seja comprimido.
+     * O cabeçalho é gravado imediatamente e o trailer quando o fluxo retornado é fechado.
+     * @param destino Fluxo de destino, fechado junto com o fluxo retornado
+     * @return Fluxo que comprime, ou o próprio destino se a compressão for {@link #NENHUMA}
+     */
+    public OutputStream envolver(OutputStream destino) throws IOException {
+        if (this == NENHUMA) {
+            return destino;
+        }
+        return new SaidaComprimida(destino, nivel);
+    }
+
+    /**
+     * Lê o conteúdo de um arquivo de snapshot, comprimido ou não.
+     * @param arquivo Arquivo a ser lido
+     * @return Conteúdo mapeado em memória ou, se o arquivo for comprimido, descomprimido num buffer
+     * @throws IOException Se o arquivo comprimido estiver truncado ou não passar na verificação do CRC
+     */
+    public static ByteBuffer ler(File arquivo) throws IOException {
+        ByteBuffer conteudo = SnapshotMapeado.mapear(arquivo);
+        if (!ehComprimido(conteudo)) {
+            return conteudo;
+        }
+        long inicio = System.nanoTime();
+        if (conteudo.get(4) != VERSAO || conteudo.limit() < TAMANHO_CABECALHO + TAMANHO_TRAILER) {
+            throw new IOException("Arquivo comprimido inválido: " + arquivo);
+        }
+        int trailer = conteudo.limit() - TAMANHO_TRAILER;
+        long tamanhoOriginal = conteudo.getLong(trailer);
+        int crcEsperado = conteudo.getInt(trailer + 8);
+        if (tamanhoOriginal < 0 || tamanhoOriginal > Integer.MAX_VALUE) {
+            throw new IOException("Tamanho inválido no arquivo comprimido: " + arquivo);
+        }
+
+        ByteBuffer original = ByteBuffer.allocate((int) tamanhoOriginal);
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(conteudo.duplicate().position(TAMANHO_CABECALHO).limit(trailer));
+            while (original.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(original) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Arquivo comprimido corrompido: " + arquivo, e);
+        } finally {
+            inflater.end();
+        }
+        original.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(original.duplicate());
+        if (original.limit() != tamanhoOriginal || (int) crc.getValue() != crcEsperado) {
+            throw new IOException("Falha na verificação do arquivo comprimido: " + arquivo);
+        }
+        ESTATISTICAS.registrarLeitura(tamanhoOriginal, conteudo.limit(), System.nanoTime() - inicio);
+        return original;
+    }
+
+    private static boolean ehComprimido(ByteBuffer conteudo) {
+        if (conteudo.limit() < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (conteudo.get(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fluxo que comprime o que recebe, calculando o CRC e o tamanho do conteúdo original.
+     */
+    private static class SaidaComprimida extends DeflaterOutputStream {
+        private final CRC32 crc = new CRC32();
+        private final OutputStream destino;
+        private long nanos;
+        private long tamanhoOriginal;
+        private long tamanhoComprimido = TAMANHO_CABECALHO + TAMANHO_TRAILER;
+        private boolean fechado;
+
+        SaidaComprimida(OutputStream destino, int nivel) throws IOException {
+            super(destino, new Deflater(nivel, true), TAMANHO_BUFFER);
+            this.destino = destino;
+            destino.write(MAGIC);
+            destino.write(VERSAO);
+            destino.write(nivel);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int inicio, int tamanho) throws IOException {
+            long antes = System.nanoTime();
+            super.write(bytes, inicio, tamanho);
+            crc.update(bytes, inicio, tamanho);
+            nanos += System.nanoTime() - antes;
+            tamanhoOriginal += tamanho;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fechado) {
+                return;
+            }
+            fechado = true;
+            try {
+                long antes = System.nanoTime();
+                finish();
+                nanos += System.nanoTime() - antes;
+                tamanhoComprimido += def.getBytesWritten();
+                ByteBuffer trailer = ByteBuffer.allocate(TAMANHO_TRAILER);
+                trailer.putLong(tamanhoOriginal).putInt((int) crc.getValue());
+                destino.write(trailer.array());
+                ESTATISTICAS.registrarGravacao(tamanhoOriginal, tamanhoComprimido, nanos);
+            } finally {
+                def.end();
+                destino.close();
+            }
+        }
+    }
+}
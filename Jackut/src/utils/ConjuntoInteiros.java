@@ -0,0 +1,332 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Conjunto de inteiros não negativos que mantém a ordem de inserção, sem caixas de Integer.
+ * Os valores ficam em ordem num vetor compacto, que é o que se percorre, e uma tabela de
+ * endereçamento aberto com sondagem linear responde se um valor está no conjunto. Cada elemento
+ * custa cerca de 12 bytes, contra mais de 50 de um {@link java.util.LinkedHashSet}.
+ *
+ * A representação acompanha o tamanho, já que a maioria dos conjuntos é vazia ou pequena: um
+ * conjunto vazio não aloca vetores, e até {@value #LIMITE_PEQUENO} elementos a consulta percorre
+ * o próprio vetor, sem tabela; a tabela só é criada quando o conjunto passa desse tamanho.
+ * {@link #VAZIO} é uma instância compartilhada e imutável, para campos que ainda não receberam
+ * nenhum elemento. Acima de {@value #LIMITE_SEGMENTADO} elementos, como nos fãs de um usuário
+ * famoso, o conjunto passa para a representação segmentada de {@link ConjuntoSegmentado}: adicionar
+ * fica em tempo constante, sem realocar o vetor nem a tabela, e a cópia compartilha os segmentos
+ * em vez de duplicar todos os elementos.
+ *
+ * Percorrer por {@link #get(int)} ou {@link #paraCada(IntConsumer)} e consultar com
+ * {@link #contains(int)} não alocam nada. Remover custa O(n), pelo deslocamento do vetor, o que
+ * serve aos relacionamentos, em que remoções são raras perto de consultas.
+ *
+ * O conjunto pode guardar um texto derivado do seu conteúdo, como a lista formatada, para que
+ * leituras repetidas não o reconstruam; o texto é descartado a cada alteração e acompanha as cópias.
+ */
+public final class ConjuntoInteiros {
+    private static final int LIVRE = -1;
+    private static final int REMOVIDO = -2;
+    private static final int[] SEM_ELEMENTOS = new int[0];
+    private static final int LIMITE_PEQUENO = 8;
+    private static final int LIMITE_SEGMENTADO = ConjuntoSegmentado.TAMANHO_SEGMENTO;
+
+    /** Conjunto vazio compartilhado, que não aceita elementos. */
+    public static final ConjuntoInteiros VAZIO = new ConjuntoInteiros();
+
+    private int[] elementos;
+    private int tamanho;
+    /** Tabela de consulta, ou null enquanto o conjunto é pequeno. */
+    private int[] tabela;
+    /** Posições da tabela que não estão livres: elementos e marcas de remoção. */
+    private int ocupadas;
+    /** Texto derivado do conteúdo atual, ou null se ainda não foi calculado. */
+    private String formatado;
+    /** Representação dos conjuntos grandes; quando existe, vetor e tabela ficam vazios. */
+    private ConjuntoSegmentado segmentado;
+
+    public ConjuntoInteiros() {
+        this.elementos = SEM_ELEMENTOS;
+    }
+
+    /**
+     * Adiciona um valor ao fim da ordem, se ele ainda não estiver no conjunto.
+     * @param valor Valor não negativo
+     * @return true se o valor foi adicionado
+     */
+    public boolean add(int valor) {
+        if (valor < 0) {
+            throw new IllegalArgumentException("Valor negativo: " + valor);
+        }
+        if (this == VAZIO) {
+            throw new UnsupportedOperationException("O conjunto vazio compartilhado não aceita elementos");
+        }
+        if (contains(valor)) {
+            return false;
+        }
+        formatado = null;
+        if (segmentado == null && tamanho == LIMITE_SEGMENTADO) {
+            segmentado = ConjuntoSegmentado.de(elementos, tamanho);
+            elementos = SEM_ELEMENTOS;
+            tabela = null;
+            ocupadas = 0;
+        }
+        if (segmentado != null) {
+            segmentado.add(valor);
+            tamanho++;
+            return true;
+        }
+        if (tabela == null && tamanho < LIMITE_PEQUENO) {
+            anexar(valor);
+            return true;
+        }
+        if (tabela == null || (ocupadas + 1) * 2 > tabela.length) {
+            redimensionar((tamanho + 1) * 2);
+        }
+        int mascara = tabela.length - 1;
+        int posicao = espalhar(valor) & mascara;
+        while (tabela[posicao] >= 0) {
+            posicao = (posicao + 1) & mascara;
+        }
+        if (tabela[posicao] == LIVRE) {
+            ocupadas++;
+        }
+        tabela[posicao] = valor;
+        anexar(valor);
+        return true;
+    }
+
+    private void anexar(int valor) {
+        if (tamanho == elementos.length) {
+            elementos = Arrays.copyOf(elementos, Math.max(2, tamanho + (tamanho >> 1)));
+        }
+        elementos[tamanho++] = valor;
+    }
+
+    /**
+     * Remove um valor, mantendo a ordem dos demais.
+     * @param valor Valor a ser removido
+     * @return true se o valor estava no conjunto
+     */
+    public boolean remove(int valor) {
+        if (segmentado != null) {
+            if (!segmentado.remove(valor)) {
+                return false;
+            }
+            formatado = null;
+            tamanho--;
+            return true;
+        }
+        if (tabela != null) {
+            int posicao = posicao(valor);
+            if (posicao < 0) {
+                return false;
+            }
+            tabela[posicao] = REMOVIDO;
+        }
+        int indice = indice(valor);
+        if (indice < 0) {
+            return false;
+        }
+        formatado = null;
+        System.arraycopy(elementos, indice + 1, elementos, indice, tamanho - indice - 1);
+        tamanho--;
+        return true;
+    }
+
+    public boolean contains(int valor) {
+        if (segmentado != null) {
+            return segmentado.contains(valor);
+        }
+        if (tabela == null) {
+            return indice(valor) >= 0;
+        }
+        return posicao(valor) >= 0;
+    }
+
+    public int size() {
+        return tamanho;
+    }
+
+    public boolean isEmpty() {
+        return tamanho == 0;
+    }
+
+    /**
+     * Retorna o valor numa posição da ordem de inserção.
+     * @param indice Posição, de 0 a {@link #size()} - 1
+     * @return Valor na posição
+     */
+    public int get(int indice) {
+        if (indice >= tamanho) {
+            throw new IndexOutOfBoundsException(indice);
+        }
+        return segmentado != null ? segmentado.get(indice) : elementos[indice];
+    }
+
+    /**
+     * Visita os valores na ordem de inserção.
+     * @param visitante Ação chamada para cada valor
+     */
+    public void paraCada(IntConsumer visitante) {
+        if (segmentado != null) {
+            segmentado.paraCada(visitante);
+            return;
+        }
+        for (int i = 0; i < tamanho; i++) {
+            visitante.accept(elementos[i]);
+        }
+    }
+
+    public void clear() {
+        elementos = SEM_ELEMENTOS;
+        tamanho = 0;
+        tabela = null;
+        ocupadas = 0;
+        formatado = null;
+        segmentado = null;
+    }
+
+    /**
+     * Retorna o texto guardado por {@link #setFormatado(String)}, se o conjunto não mudou desde então.
+     * @return Texto derivado do conteúdo atual, ou null
+     */
+    public String getFormatado() {
+        return formatado;
+    }
+
+    /**
+     * Guarda um texto derivado do conteúdo atual. O conjunto vazio compartilhado não guarda nada.
+     * @param formatado Texto a ser guardado
+     */
+    public void setFormatado(String formatado) {
+        if (this != VAZIO) {
+            this.formatado = formatado;
+        }
+    }
+
+    /**
+     * Adiciona todos os valores de outro conjunto, na ordem dele.
+     * @param outro Conjunto de origem
+     */
+    public void addAll(ConjuntoInteiros outro) {
+        for (int i = 0; i < outro.tamanho; i++) {
+            add(outro.get(i));
+        }
+    }
+
+    /**
+     * Retorna os valores que estão nos dois conjuntos. Percorre o menor e consulta o maior, então
+     * custa O(min(n, m)); o resultado segue a ordem do menor, ou deste se os tamanhos forem iguais.
+     * @param outro Outro conjunto
+     * @return Conjunto novo com a interseção, ou {@link #VAZIO} se ela for vazia
+     */
+    public ConjuntoInteiros intersecao(ConjuntoInteiros outro) {
+        ConjuntoInteiros menor = outro.tamanho < tamanho ? outro : this;
+        ConjuntoInteiros maior = menor == this ? outro : this;
+        ConjuntoInteiros resultado = VAZIO;
+        for (int i = 0; i < menor.tamanho; i++) {
+            int valor = menor.get(i);
+            if (maior.contains(valor)) {
+                if (resultado == VAZIO) {
+                    resultado = new ConjuntoInteiros();
+                }
+                resultado.add(valor);
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Cria uma cópia independente, com a mesma ordem e o espaço justo para os elementos.
+     * A cópia do conjunto vazio compartilhado é um conjunto vazio comum, que aceita elementos.
+     * Um conjunto segmentado compartilha os segmentos com a cópia, que só os duplica ao alterá-los.
+     * @return Cópia do conjunto
+     */
+    public ConjuntoInteiros copiar() {
+        ConjuntoInteiros copia = new ConjuntoInteiros();
+        if (segmentado != null) {
+            copia.segmentado = segmentado.copiar();
+            copia.tamanho = tamanho;
+            copia.formatado = formatado;
+            return copia;
+        }
+        copia.elementos = tamanho == 0 ? SEM_ELEMENTOS : Arrays.copyOf(elementos, tamanho);
+        copia.tamanho = tamanho;
+        copia.formatado = formatado;
+        if (tabela != null && ocupadas == tamanho) {
+            copia.tabela = tabela.clone();
+            copia.ocupadas = tamanho;
+        } else if (tamanho > LIMITE_PEQUENO) {
+            copia.redimensionar(tamanho * 2);
+        }
+        return copia;
+    }
+
+    /**
+     * Procura um valor percorrendo o vetor de elementos.
+     * @return Índice do valor na ordem, ou -1 se ele não estiver no conjunto
+     */
+    private int indice(int valor) {
+        for (int i = 0; i < tamanho; i++) {
+            if (elementos[i] == valor) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Procura um valor na tabela de consulta; só vale quando ela existe.
+     * @return Posição do valor na tabela, ou -1 se ele não estiver no conjunto
+     */
+    private int posicao(int valor) {
+        if (valor < 0) {
+            return -1;
+        }
+        int mascara = tabela.length - 1;
+        int posicao = espalhar(valor) & mascara;
+        while (true) {
+            int atual = tabela[posicao];
+            if (atual == valor) {
+                return posicao;
+            }
+            if (atual == LIVRE) {
+                return -1;
+            }
+            posicao = (posicao + 1) & mascara;
+        }
+    }
+
+    /**
+     * Reconstrói a tabela a partir do vetor de elementos, descartando as marcas de remoção.
+     * @param minimo Número mínimo de posições da nova tabela
+     */
+    private void redimensionar(int minimo) {
+        tabela = novaTabela(minimo);
+        int mascara = tabela.length - 1;
+        for (int i = 0; i < tamanho; i++) {
+            int posicao = espalhar(elementos[i]) & mascara;
+            while (tabela[posicao] != LIVRE) {
+                posicao = (posicao + 1) & mascara;
+            }
+            tabela[posicao] = elementos[i];
+        }
+        ocupadas = tamanho;
+    }
+
+    private static int[] novaTabela(int minimo) {
+        int[] tabela = new int[Math.max(4, Integer.highestOneBit(Math.max(1, minimo - 1)) << 1)];
+        Arrays.fill(tabela, LIVRE);
+        return tabela;
+    }
+
+    /**
+     * Espalha os bits do valor, já que ids consecutivos cairiam em posições consecutivas.
+     */
+    private static int espalhar(int valor) {
+        int h = valor * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
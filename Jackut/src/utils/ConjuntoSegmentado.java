@@ -0,0 +1,281 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Representação de um {@link ConjuntoInteiros} grande, como os fãs de um usuário famoso.
+ *
+ * Os valores ficam em ordem em segmentos de {@value #TAMANHO_SEGMENTO} posições, e a consulta é
+ * feita por páginas de 2^15 valores, que só são criadas quando algum valor cai nelas. A página
+ * acompanha a densidade: com poucos valores, guarda os seus deslocamentos em ordem num vetor de
+ * short, consultado por busca binária, e passa a um mapa de bits de 4KB quando o vetor chegaria a
+ * esse tamanho, voltando ao vetor se esvaziar até a metade. Assim ids espalhados custam cerca de
+ * 2 bytes cada, e não uma página inteira por id, e ids próximos custam 1 bit por valor da página.
+ * Nada é realocado por inteiro quando o conjunto cresce: adicionar escreve no último segmento e
+ * altera uma só página.
+ *
+ * Segmentos e páginas são compartilhados entre um conjunto e as suas cópias. Cada um guarda o
+ * dono de cada segmento e página, e só escreve no que é seu; o resto é copiado antes da primeira
+ * escrita. Copiar o conjunto custa então um vetor de referências por segmento, em vez de todos os
+ * elementos, e adicionar depois de uma cópia copia só o último segmento.
+ *
+ * Remover mantém a ordem, deslocando os elementos seguintes: custa O(n), como no vetor compacto.
+ */
+final class ConjuntoSegmentado {
+    private static final int BITS_SEGMENTO = 12;
+    static final int TAMANHO_SEGMENTO = 1 << BITS_SEGMENTO;
+    private static final int MASCARA_SEGMENTO = TAMANHO_SEGMENTO - 1;
+    /** Cada página cobre 2^15 valores; como mapa de bits, em 512 longs. */
+    private static final int BITS_PAGINA = 15;
+    private static final int MASCARA_PAGINA = (1 << BITS_PAGINA) - 1;
+    /** Valores a partir dos quais a página esparsa, de 2 bytes por valor, vira mapa de bits. */
+    private static final int LIMITE_ESPARSA = (1 << (BITS_PAGINA - 3)) / 2;
+
+    private int[][] segmentos;
+    private Object[] donosSegmentos;
+    /** Cada página é null, um short[] ordenado de deslocamentos ou um long[] de bits. */
+    private Object[] paginas;
+    /** Número de valores de cada página; nunca compartilhado entre cópias. */
+    private int[] quantidades;
+    private Object[] donosPaginas;
+    private int tamanho;
+    /** Marca do que este conjunto pode alterar sem copiar; trocada a cada cópia. */
+    private Object dono = new Object();
+
+    private ConjuntoSegmentado() {
+    }
+
+    /**
+     * Cria a representação segmentada com os valores de um vetor, na mesma ordem.
+     * @param elementos Valores distintos e não negativos
+     * @param quantidade Número de valores usados do vetor
+     * @return Conjunto segmentado
+     */
+    static ConjuntoSegmentado de(int[] elementos, int quantidade) {
+        ConjuntoSegmentado conjunto = new ConjuntoSegmentado();
+        conjunto.segmentos = new int[Math.max(4, (quantidade >>> BITS_SEGMENTO) * 2)][];
+        conjunto.donosSegmentos = new Object[conjunto.segmentos.length];
+        conjunto.paginas = new Object[0];
+        conjunto.quantidades = new int[0];
+        conjunto.donosPaginas = new Object[0];
+        for (int i = 0; i < quantidade; i++) {
+            conjunto.add(elementos[i]);
+        }
+        return conjunto;
+    }
+
+    boolean add(int valor) {
+        if (contains(valor)) {
+            return false;
+        }
+        adicionarNaPagina(valor);
+        int segmento = tamanho >>> BITS_SEGMENTO;
+        if (segmento == segmentos.length) {
+            segmentos = Arrays.copyOf(segmentos, segmentos.length * 2);
+            donosSegmentos = Arrays.copyOf(donosSegmentos, segmentos.length);
+        }
+        if (segmentos[segmento] == null) {
+            segmentos[segmento] = new int[TAMANHO_SEGMENTO];
+            donosSegmentos[segmento] = dono;
+        }
+        segmentoParaAlterar(segmento)[tamanho & MASCARA_SEGMENTO] = valor;
+        tamanho++;
+        return true;
+    }
+
+    boolean remove(int valor) {
+        if (!contains(valor)) {
+            return false;
+        }
+        removerDaPagina(valor);
+        int indice = indice(valor);
+        int ultimo = (tamanho - 1) >>> BITS_SEGMENTO;
+        int posicao = indice & MASCARA_SEGMENTO;
+        for (int segmento = indice >>> BITS_SEGMENTO; segmento <= ultimo; segmento++) {
+            int[] atual = segmentoParaAlterar(segmento);
+            int fim = segmento == ultimo ? ((tamanho - 1) & MASCARA_SEGMENTO) + 1 : TAMANHO_SEGMENTO;
+            System.arraycopy(atual, posicao + 1, atual, posicao, fim - posicao - 1);
+            if (segmento < ultimo) {
+                atual[MASCARA_SEGMENTO] = segmentos[segmento + 1][0];
+            }
+            posicao = 0;
+        }
+        tamanho--;
+        if ((tamanho & MASCARA_SEGMENTO) == 0) {
+            segmentos[ultimo] = null;
+            donosSegmentos[ultimo] = null;
+        }
+        return true;
+    }
+
+    boolean contains(int valor) {
+        int pagina = valor >>> BITS_PAGINA;
+        if (valor < 0 || pagina >= paginas.length) {
+            return false;
+        }
+        Object conteudo = paginas[pagina];
+        if (conteudo instanceof long[]) {
+            return (((long[]) conteudo)[(valor & MASCARA_PAGINA) >>> 6] & (1L << valor)) != 0;
+        }
+        return conteudo != null
+                && Arrays.binarySearch((short[]) conteudo, 0, quantidades[pagina], (short) (valor & MASCARA_PAGINA)) >= 0;
+    }
+
+    int size() {
+        return tamanho;
+    }
+
+    int get(int indice) {
+        return segmentos[indice >>> BITS_SEGMENTO][indice & MASCARA_SEGMENTO];
+    }
+
+    /**
+     * Visita os valores na ordem, um segmento por vez.
+     * @param visitante Ação chamada para cada valor
+     */
+    void paraCada(IntConsumer visitante) {
+        for (int inicio = 0; inicio < tamanho; inicio += TAMANHO_SEGMENTO) {
+            int[] segmento = segmentos[inicio >>> BITS_SEGMENTO];
+            int fim = Math.min(TAMANHO_SEGMENTO, tamanho - inicio);
+            for (int i = 0; i < fim; i++) {
+                visitante.accept(segmento[i]);
+            }
+        }
+    }
+
+    /**
+     * Cria uma cópia que compartilha os segmentos e as páginas com este conjunto. Daí em diante
+     * nenhum dos dois é dono do que já existia, e cada um copia o que for alterar.
+     * @return Cópia do conjunto
+     */
+    ConjuntoSegmentado copiar() {
+        ConjuntoSegmentado copia = new ConjuntoSegmentado();
+        copia.segmentos = segmentos.clone();
+        copia.donosSegmentos = new Object[segmentos.length];
+        copia.paginas = paginas.clone();
+        copia.quantidades = quantidades.clone();
+        copia.donosPaginas = new Object[paginas.length];
+        copia.tamanho = tamanho;
+        dono = new Object();
+        return copia;
+    }
+
+    private int[] segmentoParaAlterar(int segmento) {
+        if (donosSegmentos[segmento] != dono) {
+            segmentos[segmento] = segmentos[segmento].clone();
+            donosSegmentos[segmento] = dono;
+        }
+        return segmentos[segmento];
+    }
+
+    /**
+     * Põe na sua página um valor que não está no conjunto, criando, copiando ou adensando a
+     * página se preciso.
+     */
+    private void adicionarNaPagina(int valor) {
+        int pagina = valor >>> BITS_PAGINA;
+        int posicao = valor & MASCARA_PAGINA;
+        if (pagina >= paginas.length) {
+            int tamanhoNovo = Math.max(pagina + 1, paginas.length * 2);
+            paginas = Arrays.copyOf(paginas, tamanhoNovo);
+            quantidades = Arrays.copyOf(quantidades, tamanhoNovo);
+            donosPaginas = Arrays.copyOf(donosPaginas, tamanhoNovo);
+        }
+        Object conteudo = paginaParaAlterar(pagina);
+        int quantidade = quantidades[pagina];
+        if (conteudo instanceof long[]) {
+            ((long[]) conteudo)[posicao >>> 6] |= 1L << posicao;
+        } else if (quantidade == LIMITE_ESPARSA) {
+            long[] bits = new long[1 << (BITS_PAGINA - 6)];
+            short[] esparsa = (short[]) conteudo;
+            for (int i = 0; i < quantidade; i++) {
+                bits[esparsa[i] >>> 6] |= 1L << esparsa[i];
+            }
+            bits[posicao >>> 6] |= 1L << posicao;
+            paginas[pagina] = bits;
+        } else {
+            short[] esparsa = conteudo == null ? new short[4] : (short[]) conteudo;
+            int indice = -Arrays.binarySearch(esparsa, 0, quantidade, (short) posicao) - 1;
+            if (quantidade == esparsa.length) {
+                esparsa = Arrays.copyOf(esparsa, quantidade * 2);
+            }
+            System.arraycopy(esparsa, indice, esparsa, indice + 1, quantidade - indice);
+            esparsa[indice] = (short) posicao;
+            paginas[pagina] = esparsa;
+        }
+        quantidades[pagina] = quantidade + 1;
+        donosPaginas[pagina] = dono;
+    }
+
+    /**
+     * Tira da sua página um valor que está no conjunto, descartando a página que esvazia e
+     * voltando ao vetor esparso o mapa de bits que fica com metade do limite.
+     */
+    private void removerDaPagina(int valor) {
+        int pagina = valor >>> BITS_PAGINA;
+        int posicao = valor & MASCARA_PAGINA;
+        int quantidade = quantidades[pagina] - 1;
+        quantidades[pagina] = quantidade;
+        if (quantidade == 0) {
+            paginas[pagina] = null;
+            donosPaginas[pagina] = null;
+            return;
+        }
+        Object conteudo = paginaParaAlterar(pagina);
+        if (conteudo instanceof long[]) {
+            long[] bits = (long[]) conteudo;
+            bits[posicao >>> 6] &= ~(1L << posicao);
+            if (quantidade == LIMITE_ESPARSA / 2) {
+                paginas[pagina] = esparsa(bits, quantidade);
+            }
+        } else {
+            short[] esparsa = (short[]) conteudo;
+            int indice = Arrays.binarySearch(esparsa, 0, quantidade + 1, (short) posicao);
+            System.arraycopy(esparsa, indice + 1, esparsa, indice, quantidade - indice);
+        }
+    }
+
+    /**
+     * Retorna a página para ser alterada, copiando-a antes se ela for compartilhada com uma cópia.
+     * @return Conteúdo da página, ou null se ela ainda não existe
+     */
+    private Object paginaParaAlterar(int pagina) {
+        Object conteudo = paginas[pagina];
+        if (conteudo != null && donosPaginas[pagina] != dono) {
+            conteudo = conteudo instanceof long[] ? ((long[]) conteudo).clone() : ((short[]) conteudo).clone();
+            paginas[pagina] = conteudo;
+            donosPaginas[pagina] = dono;
+        }
+        return conteudo;
+    }
+
+    /**
+     * Lista em ordem os deslocamentos ligados num mapa de bits.
+     */
+    private static short[] esparsa(long[] bits, int quantidade) {
+        short[] esparsa = new short[quantidade * 2];
+        int tamanho = 0;
+        for (int palavra = 0; palavra < bits.length; palavra++) {
+            long restantes = bits[palavra];
+            while (restantes != 0) {
+                esparsa[tamanho++] = (short) ((palavra << 6) + Long.numberOfTrailingZeros(restantes));
+                restantes &= restantes - 1;
+            }
+        }
+        return esparsa;
+    }
+
+    private int indice(int valor) {
+        for (int inicio = 0; inicio < tamanho; inicio += TAMANHO_SEGMENTO) {
+            int[] segmento = segmentos[inicio >>> BITS_SEGMENTO];
+            int fim = Math.min(TAMANHO_SEGMENTO, tamanho - inicio);
+            for (int i = 0; i < fim; i++) {
+                if (segmento[i] == valor) {
+                    return inicio + i;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,164 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Contagem de ocorrências de inteiros não negativos, sem caixas de Integer, que lembra a ordem
+ * em que cada valor apareceu pela primeira vez. Usada para contar amigos em comum: cada valor é
+ * um id, e a contagem é o número de vezes que ele foi visto.
+ *
+ * Os valores e as contagens ficam em vetores paralelos, na ordem de chegada, e uma tabela de
+ * endereçamento aberto guarda a posição de cada valor.
+ */
+public final class ContagemInteiros {
+    private int[] valores = new int[16];
+    private int[] contagens = new int[16];
+    private int tamanho;
+    /** Posição + 1 de cada valor nos vetores; 0 marca uma posição livre. */
+    private int[] tabela = new int[32];
+
+    /**
+     * Soma uma ocorrência a um valor.
+     * @param valor Valor não negativo
+     */
+    public void incrementar(int valor) {
+        somar(valor, 1);
+    }
+
+    /**
+     * Soma ocorrências a um valor, que passa a ser contado se ainda não era.
+     * @param valor Valor não negativo
+     * @param quantidade Ocorrências a somar
+     */
+    public void somar(int valor, int quantidade) {
+        int mascara = tabela.length - 1;
+        int posicao = espalhar(valor) & mascara;
+        while (tabela[posicao] != 0) {
+            int indice = tabela[posicao] - 1;
+            if (valores[indice] == valor) {
+                contagens[indice] += quantidade;
+                return;
+            }
+            posicao = (posicao + 1) & mascara;
+        }
+        if (tamanho == valores.length) {
+            valores = Arrays.copyOf(valores, tamanho * 2);
+            contagens = Arrays.copyOf(contagens, tamanho * 2);
+        }
+        valores[tamanho] = valor;
+        contagens[tamanho] = quantidade;
+        tabela[posicao] = ++tamanho;
+        if (tamanho * 2 > tabela.length) {
+            redimensionar();
+        }
+    }
+
+    /**
+     * Soma todas as contagens de outra contagem, na ordem dela.
+     * @param outra Contagem de origem
+     */
+    public void somar(ContagemInteiros outra) {
+        for (int i = 0; i < outra.tamanho; i++) {
+            somar(outra.valores[i], outra.contagens[i]);
+        }
+    }
+
+    public int size() {
+        return tamanho;
+    }
+
+    /**
+     * Retorna os valores com as maiores contagens, usando um heap limitado ao número pedido.
+     * Entre contagens iguais vem antes o valor contado primeiro.
+     * @param quantidade Número máximo de valores
+     * @param aceitar Filtro dos valores que podem ser escolhidos
+     * @return Valores escolhidos, da maior contagem para a menor
+     */
+    public int[] maiores(int quantidade, IntPredicate aceitar) {
+        // heap de posições com a pior escolhida na raiz
+        int[] heap = new int[Math.min(quantidade, tamanho)];
+        int escolhidas = 0;
+        for (int i = 0; i < tamanho && heap.length > 0; i++) {
+            if (!aceitar.test(valores[i])) {
+                continue;
+            }
+            if (escolhidas < heap.length) {
+                heap[escolhidas] = i;
+                subir(heap, escolhidas++);
+            } else if (contagens[i] > contagens[heap[0]]) {
+                // com contagem igual, a posição já escolhida é mais antiga e fica
+                heap[0] = i;
+                descer(heap, escolhidas);
+            }
+        }
+        int[] resultado = new int[escolhidas];
+        for (int i = escolhidas - 1; i >= 0; i--) {
+            resultado[i] = valores[heap[0]];
+            heap[0] = heap[i];
+            descer(heap, i);
+        }
+        return resultado;
+    }
+
+    /**
+     * Diz se a posição a é uma escolha pior que a posição b: menos ocorrências ou, com o mesmo
+     * número, contada depois.
+     */
+    private boolean pior(int a, int b) {
+        return contagens[a] != contagens[b] ? contagens[a] < contagens[b] : a > b;
+    }
+
+    private void subir(int[] heap, int posicao) {
+        while (posicao > 0) {
+            int pai = (posicao - 1) / 2;
+            if (!pior(heap[posicao], heap[pai])) {
+                return;
+            }
+            trocar(heap, posicao, pai);
+            posicao = pai;
+        }
+    }
+
+    private void descer(int[] heap, int tamanhoHeap) {
+        int posicao = 0;
+        while (true) {
+            int menor = posicao;
+            int esquerda = posicao * 2 + 1;
+            if (esquerda < tamanhoHeap && pior(heap[esquerda], heap[menor])) {
+                menor = esquerda;
+            }
+            if (esquerda + 1 < tamanhoHeap && pior(heap[esquerda + 1], heap[menor])) {
+                menor = esquerda + 1;
+            }
+            if (menor == posicao) {
+                return;
+            }
+            trocar(heap, posicao, menor);
+            posicao = menor;
+        }
+    }
+
+    private static void trocar(int[] heap, int a, int b) {
+        int temporario = heap[a];
+        heap[a] = heap[b];
+        heap[b] = temporario;
+    }
+
+    private void redimensionar() {
+        tabela = new int[tabela.length * 2];
+        int mascara = tabela.length - 1;
+        for (int i = 0; i < tamanho; i++) {
+            int posicao = espalhar(valores[i]) & mascara;
+            while (tabela[posicao] != 0) {
+                posicao = (posicao + 1) & mascara;
+            }
+            tabela[posicao] = i + 1;
+        }
+    }
+
+    private static int espalhar(int valor) {
+        int h = valor * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
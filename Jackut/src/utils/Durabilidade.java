@@ -0,0 +1,120 @@
+package utils;
+
+/**
+ * Política de durabilidade do journal de operações.
+ * Define quando os registros pendentes são forçados para o disco e, portanto,
+ * qual a janela máxima de operações que pode ser perdida numa queda do sistema.
+ *
+ * Pode ser escolhida pela propriedade de sistema {@code jackut.durabilidade}, com os valores
+ * {@code operacao}, {@code intervalo:<ms>}, {@code operacoes:<n>} ou {@code encerramento}.
+ *
+ * Em qualquer política, uma falha de escrita ou de sincronização para o journal. As operações
+ * seguintes são recusadas com {@link java.io.UncheckedIOException} antes de alterar o sistema, e
+ * a primeira recusa inicia um checkpoint, que grava o estado da memória num snapshot e passa o
+ * journal para um arquivo novo, que volta a aceitar registros. Uma operação que já estava em
+ * andamento quando a falha aconteceu recebe a mesma exceção, mas a sua alteração pode ter ficado
+ * na memória, já que o journal é escrito depois de aplicá-la; ela chega ao disco pelo checkpoint.
+ */
+public class Durabilidade {
+    public static final String PROPRIEDADE = "jackut.durabilidade";
+
+    /**
+     * Momento em que os registros do journal são forçados para o disco.
+     */
+    public enum Modo {
+        /** Cada operação só retorna depois de gravada no disco. */
+        POR_OPERACAO,
+        /** Os registros pendentes são gravados a cada intervalo de milissegundos. */
+        INTERVALO,
+        /** Os registros pendentes são gravados a cada lote de operações. */
+        OPERACOES,
+        /** Os registros só são gravados no disco no encerramento do sistema. */
+        ENCERRAMENTO
+    }
+
+    private final Modo modo;
+    private final long parametro;
+
+    private Durabilidade(Modo modo, long parametro) {
+        this.modo = modo;
+        this.parametro = parametro;
+    }
+
+    public static Durabilidade porOperacao() {
+        return new Durabilidade(Modo.POR_OPERACAO, 0);
+    }
+
+    public static Durabilidade aCadaIntervalo(long milissegundos) {
+        if (milissegundos <= 0) {
+            throw new IllegalArgumentException("Intervalo de durabilidade deve ser positivo");
+        }
+        return new Durabilidade(Modo.INTERVALO, milissegundos);
+    }
+
+    public static Durabilidade aCadaOperacoes(int operacoes) {
+        if (operacoes <= 0) {
+            throw new IllegalArgumentException("Lote de durabilidade deve ser positivo");
+        }
+        return new Durabilidade(Modo.OPERACOES, operacoes);
+    }
+
+    public static Durabilidade apenasNoEncerramento() {
+        return new Durabilidade(Modo.ENCERRAMENTO, 0);
+    }
+
+    /**
+     * Retorna a política configurada pela propriedade {@value #PROPRIEDADE},
+     * ou {@link #porOperacao()} se ela não estiver definida.
+     * @return Política de durabilidade configurada
+     */
+    public static Durabilidade padrao() {
+        String configuracao = System.getProperty(PROPRIEDADE);
+        if (configuracao == null || configuracao.trim().isEmpty()) {
+            return porOperacao();
+        }
+        return deConfiguracao(configuracao.trim());
+    }
+
+    /**
+     * Interpreta uma política no formato {@code modo[:parametro]}.
+     * @param configuracao Texto da configuração
+     * @return Política de durabilidade correspondente
+     */
+    public static Durabilidade deConfiguracao(String configuracao) {
+        String[] partes = configuracao.split(":", 2);
+        try {
+            switch (partes[0].toLowerCase()) {
+                case "operacao":
+                    return porOperacao();
+                case "intervalo":
+                    return aCadaIntervalo(Long.parseLong(partes[1]));
+                case "operacoes":
+                    return aCadaOperacoes(Integer.parseInt(partes[1]));
+                case "encerramento":
+                    return apenasNoEncerramento();
+                default:
+                    break;
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Parâmetro de durabilidade inválido: " + configuracao);
+        }
+        throw new IllegalArgumentException("Modo de durabilidade não suportado: " + configuracao);
+    }
+
+    public Modo getModo() {
+        return modo;
+    }
+
+    /**
+     * Retorna o intervalo em milissegundos ou o tamanho do lote, conforme o modo.
+     * @return Parâmetro da política
+     */
+    public long getParametro() {
+        return parametro;
+    }
+
+    @Override
+    public String toString() {
+        return parametro > 0 ? modo + ":" + parametro : modo.toString();
+    }
+}
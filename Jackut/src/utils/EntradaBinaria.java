@@ -0,0 +1,144 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Entrada do formato binário de snapshot do Jackut, espelhando {@link SaidaBinaria}.
+ * Lê diretamente de um {@link ByteBuffer}, que pode ser um arquivo inteiro em memória
+ * ou um arquivo mapeado.
+ */
+public class EntradaBinaria {
+    private final ByteBuffer origem;
+    private final List<String> tabela = new ArrayList<>();
+
+    /**
+     * Construtor da classe EntradaBinaria.
+     * @param origem Bytes codificados, lidos a partir da posição atual
+     */
+    public EntradaBinaria(ByteBuffer origem) {
+        this.origem = origem;
+    }
+
+    /**
+     * Verifica se ainda há bytes a serem lidos.
+     * @return true se a entrada não terminou
+     */
+    public boolean temMais() {
+        return origem.hasRemaining();
+    }
+
+    public int lerByte() throws IOException {
+        if (!origem.hasRemaining()) {
+            throw new IOException("Snapshot truncado");
+        }
+        return origem.get() & 0xFF;
+    }
+
+    public void lerBytes(byte[] destino) throws IOException {
+        if (origem.remaining() < destino.length) {
+            throw new IOException("Snapshot truncado");
+        }
+        origem.get(destino);
+    }
+
+    public int lerInt() throws IOException {
+        int valor = 0;
+        for (int i = 0; i < 4; i++) {
+            valor = (valor << 8) | lerByte();
+        }
+        return valor;
+    }
+
+    public long lerLong() throws IOException {
+        long valor = 0;
+        for (int i = 0; i < 8; i++) {
+            valor = (valor << 8) | lerByte();
+        }
+        return valor;
+    }
+
+    /**
+     * Lê um inteiro gravado por {@link SaidaBinaria#escreverVarint(long)}.
+     * @return Valor lido
+     */
+    public long lerVarint() throws IOException {
+        long valor = 0;
+        for (int deslocamento = 0; deslocamento < 64; deslocamento += 7) {
+            int b = lerByte();
+            valor |= (long) (b & 0x7F) << deslocamento;
+            if ((b & 0x80) == 0) {
+                return valor;
+            }
+        }
+        throw new IOException("Varint inválido no snapshot");
+    }
+
+    /**
+     * Lê uma quantidade gravada como varint, validando que ela cabe num int.
+     * @return Quantidade lida
+     */
+    public int lerQuantidade() throws IOException {
+        long quantidade = lerVarint();
+        if (quantidade > Integer.MAX_VALUE) {
+            throw new IOException("Quantidade inválida no snapshot: " + quantidade);
+        }
+        return (int) quantidade;
+    }
+
+    public String lerTexto() throws IOException {
+        int tamanho = lerQuantidade();
+        if (tamanho == 0) {
+            return null;
+        }
+        tamanho--;
+        if (origem.remaining() < tamanho) {
+            throw new IOException("Snapshot truncado");
+        }
+        if (origem.hasArray()) {
+            String texto = new String(origem.array(), origem.arrayOffset() + origem.position(), tamanho,
+                    StandardCharsets.UTF_8);
+            origem.position(origem.position() + tamanho);
+            return texto;
+        }
+        byte[] bytes = new byte[tamanho];
+        origem.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lê um login gravado por {@link SaidaBinaria#escreverLogin(String)}.
+     * Todas as ocorrências de um mesmo login retornam a mesma instância de String.
+     * @return Login lido
+     */
+    public String lerLogin() throws IOException {
+        int indice = lerQuantidade();
+        if (indice == 0) {
+            String login = lerTexto();
+            tabela.add(login);
+            return login;
+        }
+        if (indice > tabela.size()) {
+            throw new IOException("Referência inválida à tabela de logins: " + indice);
+        }
+        return tabela.get(indice - 1);
+    }
+
+    public void lerLogins(Collection<String> destino) throws IOException {
+        int quantidade = lerQuantidade();
+        for (int i = 0; i < quantidade; i++) {
+            destino.add(lerLogin());
+        }
+    }
+
+    public void lerTextos(Collection<String> destino) throws IOException {
+        int quantidade = lerQuantidade();
+        for (int i = 0; i < quantidade; i++) {
+            destino.add(lerTexto());
+        }
+    }
+}
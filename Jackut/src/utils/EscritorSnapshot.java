@@ -0,0 +1,165 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Grava um snapshot binário no layout descrito em {@link SnapshotMapeado}.
+ * Os registros são gravados em sequência à medida que chegam; os índices de hash e o
+ * trailer são gravados por {@link #concluir()}, quando todas as posições já são conhecidas.
+ */
+public class EscritorSnapshot {
+    private final SaidaBinaria saida;
+    private final BufferRegistro corpo = new BufferRegistro();
+    private final SaidaBinaria saidaCorpo = new SaidaBinaria(corpo, 8192);
+    private final Secao usuarios = new Secao();
+    private final Secao comunidades = new Secao();
+
+    /**
+     * Construtor da classe EscritorSnapshot. Grava o cabeçalho do snapshot.
+     * @param destino Fluxo de destino
+     * @param sequenciaJournal Sequência da última operação do journal incluída no snapshot
+     * @param segmento Número do segmento gravado ou, num snapshot base, do último segmento incluído nele
+     */
+    public EscritorSnapshot(OutputStream destino, long sequenciaJournal, long segmento) throws IOException {
+        this(destino, sequenciaJournal, segmento, 0, 0);
+    }
+
+    /**
+     * Construtor do arquivo principal de um snapshot base com os usuários em partições.
+     * @param destino Fluxo de destino
+     * @param sequenciaJournal Sequência da última operação do journal incluída no snapshot
+     * @param segmento Número do último segmento incluído no snapshot
+     * @param particoes Número de arquivos de partição dos usuários
+     * @param geracao Geração que identifica os arquivos de partição
+     */
+    public EscritorSnapshot(OutputStream destino, long sequenciaJournal, long segmento, int particoes,
+                            long geracao) throws IOException {
+        this.saida = new SaidaBinaria(destino);
+        saida.escreverBytes(SnapshotBinario.MAGIC);
+        saida.escreverByte(SnapshotBinario.VERSAO);
+        saida.escreverLong(sequenciaJournal);
+        saida.escreverLong(segmento);
+        saida.escreverInt(particoes);
+        saida.escreverLong(geracao);
+    }
+
+    public Secao getUsuarios() {
+        return usuarios;
+    }
+
+    public Secao getComunidades() {
+        return comunidades;
+    }
+
+    /**
+     * Grava os índices e o trailer e descarrega o que estiver pendente.
+     * As sessões não são persistidas: a posição delas no trailer é sempre zero.
+     */
+    public void concluir() throws IOException {
+        long indiceUsuarios = usuarios.gravarIndice();
+        long indiceComunidades = comunidades.gravarIndice();
+        saida.escreverLong(indiceUsuarios);
+        saida.escreverLong(indiceComunidades);
+        saida.escreverLong(0);
+        saida.escreverBytes(SnapshotBinario.MAGIC);
+        saida.descarregar();
+    }
+
+    /**
+     * Registros de uma seção (usuários ou comunidades) em gravação.
+     */
+    public class Secao {
+        private int[] hashes = new int[64];
+        private long[] posicoes = new long[64];
+        private int quantidade;
+
+        private Secao() {
+        }
+
+        /**
+         * Codifica e grava um registro.
+         * @param chave Chave do registro, que deve ser a primeira coisa gravada pelo gravador
+         * @param valor Objeto a ser gravado
+         * @param gravador Codificador do objeto
+         */
+        public <V> void gravar(String chave, V valor, MapaSobDemanda.Gravador<V> gravador) throws IOException {
+            corpo.reset();
+            saidaCorpo.reiniciarTabela();
+            gravador.gravar(valor, saidaCorpo);
+            saidaCorpo.descarregar();
+            adicionar(chave, saida.getPosicao());
+            saida.escreverInt(corpo.size());
+            saida.escreverBytes(corpo.bytes(), 0, corpo.size());
+        }
+
+        /**
+         * Grava a remoção de uma chave, que esconde os registros dela nos snapshots anteriores.
+         * @param chave Chave removida
+         */
+        public void remover(String chave) throws IOException {
+            corpo.reset();
+            saidaCorpo.reiniciarTabela();
+            saidaCorpo.escreverLogin(chave);
+            saidaCorpo.descarregar();
+            adicionar(chave, saida.getPosicao());
+            saida.escreverInt(corpo.size() | SnapshotMapeado.MARCA_REMOCAO);
+            saida.escreverBytes(corpo.bytes(), 0, corpo.size());
+        }
+
+        /**
+         * Copia um registro de outro snapshot sem decodificá-lo.
+         * @param chave Chave do registro
+         * @param origem Registros do snapshot de origem
+         * @param posicao Posição do registro na origem
+         */
+        public void copiar(String chave, FonteRegistros origem, long posicao) throws IOException {
+            adicionar(chave, saida.getPosicao());
+            origem.copiar(posicao, saida);
+        }
+
+        private void adicionar(String chave, long posicao) {
+            if (quantidade == hashes.length) {
+                hashes = Arrays.copyOf(hashes, quantidade * 2);
+                posicoes = Arrays.copyOf(posicoes, quantidade * 2);
+            }
+            hashes[quantidade] = chave.hashCode();
+            posicoes[quantidade] = posicao;
+            quantidade++;
+        }
+
+        private long gravarIndice() throws IOException {
+            // fator de carga de no máximo 50% para manter as sondagens lineares curtas
+            int capacidade = Integer.highestOneBit(Math.max(1, quantidade) * 2 - 1) << 1;
+            int[] slotsHash = new int[capacidade];
+            long[] slotsPosicao = new long[capacidade];
+            for (int i = 0; i < quantidade; i++) {
+                int slot = SnapshotMapeado.slot(hashes[i], capacidade);
+                while (slotsPosicao[slot] != 0) {
+                    slot = (slot + 1) & (capacidade - 1);
+                }
+                slotsHash[slot] = hashes[i];
+                slotsPosicao[slot] = posicoes[i];
+            }
+            long posicaoIndice = saida.getPosicao();
+            saida.escreverInt(capacidade);
+            saida.escreverInt(quantidade);
+            for (int i = 0; i < capacidade; i++) {
+                saida.escreverInt(slotsHash[i]);
+                saida.escreverLong(slotsPosicao[i]);
+            }
+            return posicaoIndice;
+        }
+    }
+
+    /**
+     * Buffer reutilizado para codificar um registro antes de conhecer o seu tamanho.
+     */
+    private static class BufferRegistro extends ByteArrayOutputStream {
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package utils;
+
+/**
+ * Medidas acumuladas da compressão dos arquivos de snapshot: bytes antes e depois da
+ * compressão e o tempo gasto comprimindo e descomprimindo, de onde saem a razão de
+ * compressão e a vazão.
+ */
+public class EstatisticasCompressao {
+    private long arquivosGravados;
+    private long bytesOriginaisGravados;
+    private long bytesComprimidosGravados;
+    private long nanosGravacao;
+    private long arquivosLidos;
+    private long bytesOriginaisLidos;
+    private long bytesComprimidosLidos;
+    private long nanosLeitura;
+
+    synchronized void registrarGravacao(long original, long comprimido, long nanos) {
+        arquivosGravados++;
+        bytesOriginaisGravados += original;
+        bytesComprimidosGravados += comprimido;
+        nanosGravacao += nanos;
+    }
+
+    synchronized void registrarLeitura(long original, long comprimido, long nanos) {
+        arquivosLidos++;
+        bytesOriginaisLidos += original;
+        bytesComprimidosLidos += comprimido;
+        nanosLeitura += nanos;
+    }
+
+    /**
+     * Retorna a razão entre o tamanho original e o comprimido dos arquivos gravados.
+     * @return Razão de compressão, ou 1 se nada tiver sido comprimido
+     */
+    public synchronized double getRazaoCompressao() {
+        return bytesComprimidosGravados == 0 ? 1 : (double) bytesOriginaisGravados / bytesComprimidosGravados;
+    }
+
+    /**
+     * Retorna a vazão da compressão, medida sobre os bytes originais.
+     * @return Megabytes por segundo comprimidos
+     */
+    public synchronized double getVazaoCompressao() {
+        return megabytesPorSegundo(bytesOriginaisGravados, nanosGravacao);
+    }
+
+    /**
+     * Retorna a vazão da descompressão, medida sobre os bytes originais.
+     * @return Megabytes por segundo descomprimidos
+     */
+    public synchronized double getVazaoDescompressao() {
+        return megabytesPorSegundo(bytesOriginaisLidos, nanosLeitura);
+    }
+
+    public synchronized long getArquivosGravados() {
+        return arquivosGravados;
+    }
+
+    public synchronized long getArquivosLidos() {
+        return arquivosLidos;
+    }
+
+    public synchronized long getBytesOriginaisGravados() {
+        return bytesOriginaisGravados;
+    }
+
+    public synchronized long getBytesComprimidosGravados() {
+        return bytesComprimidosGravados;
+    }
+
+    public synchronized long getBytesComprimidosLidos() {
+        return bytesComprimidosLidos;
+    }
+
+    private static double megabytesPorSegundo(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("gravados %d arquivos, %d -> %d bytes (razão %.2f, %.1f MB/s); "
+                        + "lidos %d arquivos (%.1f MB/s)",
+                arquivosGravados, bytesOriginaisGravados, bytesComprimidosGravados, getRazaoCompressao(),
+                getVazaoCompressao(), arquivosLidos, getVazaoDescompressao());
+    }
+}
@@ -0,0 +1,259 @@
+package utils;
+
+import exceptionsJackut.JackutException;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fila de comandos com um único executor, no estilo do disruptor. Os comandos são publicados por
+ * várias threads num anel de posições alocadas uma só vez e aplicados, em ordem, por uma única
+ * thread, de modo que quem altera o estado nunca disputa travas com outro escritor.
+ *
+ * O executor aplica de uma vez todos os comandos publicados em sequência (um lote) e só então
+ * chama a ação de fim de lote, que grava no disco o que o lote registrou; depois disso cada
+ * publicador é acordado com o resultado do seu comando. Quanto maior a disputa, maiores os lotes
+ * e mais gravações são economizadas.
+ *
+ * Cada posição do anel tem uma sequência que diz o seu estado: igual à posição absoluta quando
+ * está livre para ela e igual à posição mais um quando o comando foi publicado. A posição só
+ * volta a ficar livre depois que o publicador lê o resultado, e um publicador que dá a volta no
+ * anel espera por isso.
+ *
+ * A thread executora começa em {@link #iniciar()} e termina em {@link #fechar()}, que espera os
+ * comandos já publicados serem aplicados.
+ *
+ * A fila é usada quando a propriedade {@value #PROPRIEDADE} vale {@code fila}.
+ */
+public final class FilaComandos {
+    public static final String PROPRIEDADE = "jackut.execucao";
+    private static final int CAPACIDADE_PADRAO = 1024;
+    private static final int ESPERA_ATIVA = 200;
+    private static final long ESPERA_ENCERRAMENTO_NS = 10_000_000;
+    /** Comando publicado por {@link #fechar()}: o executor termina depois do lote que o contém. */
+    private static final Comando<Void> ENCERRAR = () -> null;
+
+    /**
+     * Comando aplicado pelo executor da fila.
+     */
+    public interface Comando<T> {
+        T executar() throws JackutException;
+    }
+
+    /**
+     * Posição do anel.
+     */
+    private static final class Posicao {
+        volatile long sequencia;
+        volatile boolean concluido;
+        Comando<?> comando;
+        Object resultado;
+        Throwable erro;
+        Thread publicador;
+    }
+
+    private final Posicao[] anel;
+    private final int mascara;
+    private final Runnable fimDeLote;
+    private final AtomicLong proximaPublicacao = new AtomicLong();
+    private final Thread executor;
+    private volatile boolean executorDormindo;
+    private volatile boolean fechada;
+
+    /**
+     * Indica se a execução por fila foi escolhida pela propriedade {@value #PROPRIEDADE}.
+     * @return true se as alterações devem passar pela fila
+     */
+    public static boolean configurada() {
+        return "fila".equalsIgnoreCase(System.getProperty(PROPRIEDADE, "").trim());
+    }
+
+    /**
+     * Construtor da classe FilaComandos, com a capacidade padrão.
+     * @param fimDeLote Ação chamada pelo executor depois de aplicar cada lote
+     */
+    public FilaComandos(Runnable fimDeLote) {
+        this(CAPACIDADE_PADRAO, fimDeLote);
+    }
+
+    /**
+     * Construtor da classe FilaComandos. A thread executora só começa em {@link #iniciar()}.
+     * @param capacidade Número de posições do anel, arredondado para a potência de 2 seguinte
+     * @param fimDeLote Ação chamada pelo executor depois de aplicar cada lote
+     */
+    public FilaComandos(int capacidade, Runnable fimDeLote) {
+        int tamanho = Integer.highestOneBit(Math.max(2, capacidade) - 1) << 1;
+        this.anel = new Posicao[tamanho];
+        for (int i = 0; i < tamanho; i++) {
+            anel[i] = new Posicao();
+            anel[i].sequencia = i;
+        }
+        this.mascara = tamanho - 1;
+        this.fimDeLote = fimDeLote;
+        this.executor = new Thread(this::executar, "jackut-executor");
+        this.executor.setDaemon(true);
+    }
+
+    /**
+     * Inicia a thread executora. Deve ser chamado uma vez, antes de publicar comandos.
+     */
+    public void iniciar() {
+        executor.start();
+    }
+
+    /**
+     * Aplica os comandos já publicados e encerra a thread executora, esperando que ela termine.
+     * Depois disso a fila não aceita mais comandos. Chamadas repetidas não fazem nada.
+     */
+    public void fechar() {
+        synchronized (this) {
+            if (fechada) {
+                return;
+            }
+            fechada = true;
+        }
+        if (!executor.isAlive()) {
+            return;
+        }
+        try {
+            publicar(ENCERRAR);
+            executor.join();
+        } catch (JackutException e) {
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Publica um comando e espera o executor aplicá-lo.
+     * Exceções lançadas pelo comando são relançadas aqui, na thread que o publicou.
+     * @param comando Comando a ser aplicado
+     * @return Resultado do comando
+     * @throws IllegalStateException Se a fila já foi fechada
+     */
+    public <T> T executar(Comando<T> comando) throws JackutException {
+        if (Thread.currentThread() == executor) {
+            return comando.executar();
+        }
+        if (fechada) {
+            throw new IllegalStateException("Fila de comandos encerrada");
+        }
+        return publicar(comando);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T publicar(Comando<T> comando) throws JackutException {
+        long sequencia = proximaPublicacao.getAndIncrement();
+        Posicao posicao = anel[(int) sequencia & mascara];
+        for (int tentativas = 0; posicao.sequencia != sequencia; tentativas++) {
+            esperar(tentativas);
+        }
+        posicao.comando = comando;
+        posicao.publicador = Thread.currentThread();
+        posicao.concluido = false;
+        posicao.sequencia = sequencia + 1;
+        if (executorDormindo) {
+            LockSupport.unpark(executor);
+        }
+
+        for (int tentativas = 0; !posicao.concluido; tentativas++) {
+            if (tentativas < ESPERA_ATIVA) {
+                Thread.onSpinWait();
+            } else if (!executor.isAlive()) {
+                // publicado depois do comando de encerramento, por quem não viu a fila fechada
+                if (!posicao.concluido) {
+                    throw new IllegalStateException("Fila de comandos encerrada");
+                }
+            } else {
+                LockSupport.parkNanos(this, ESPERA_ENCERRAMENTO_NS);
+            }
+        }
+        Object resultado = posicao.resultado;
+        Throwable erro = posicao.erro;
+        posicao.comando = null;
+        posicao.resultado = null;
+        posicao.erro = null;
+        posicao.publicador = null;
+        posicao.sequencia = sequencia + anel.length;
+
+        if (erro instanceof JackutException) {
+            throw (JackutException) erro;
+        }
+        if (erro instanceof RuntimeException) {
+            throw (RuntimeException) erro;
+        }
+        if (erro instanceof Error) {
+            throw (Error) erro;
+        }
+        return (T) resultado;
+    }
+
+    /**
+     * Laço da thread executora: aplica cada lote de comandos publicados em sequência, chama a
+     * ação de fim de lote e acorda os publicadores. Termina depois do lote com {@link #ENCERRAR}.
+     */
+    private void executar() {
+        long proxima = 0;
+        boolean encerrar = false;
+        while (!encerrar) {
+            long fim = proxima;
+            while (fim - proxima < anel.length && anel[(int) fim & mascara].sequencia == fim + 1) {
+                Posicao posicao = anel[(int) fim & mascara];
+                encerrar |= posicao.comando == ENCERRAR;
+                try {
+                    posicao.resultado = posicao.comando.executar();
+                } catch (Throwable e) {
+                    posicao.erro = e;
+                }
+                fim++;
+            }
+            if (fim == proxima) {
+                aguardarPublicacao(proxima);
+                continue;
+            }
+            try {
+                fimDeLote.run();
+            } catch (RuntimeException e) {
+                // os comandos do lote foram aplicados, mas não chegaram ao disco
+                for (long i = proxima; i < fim; i++) {
+                    Posicao posicao = anel[(int) i & mascara];
+                    if (posicao.erro == null) {
+                        posicao.erro = e;
+                    }
+                }
+            }
+            for (long i = proxima; i < fim; i++) {
+                Posicao posicao = anel[(int) i & mascara];
+                Thread publicador = posicao.publicador;
+                posicao.concluido = true;
+                LockSupport.unpark(publicador);
+            }
+            proxima = fim;
+        }
+    }
+
+    private void aguardarPublicacao(long sequencia) {
+        Posicao posicao = anel[(int) sequencia & mascara];
+        for (int tentativas = 0; tentativas < ESPERA_ATIVA; tentativas++) {
+            if (posicao.sequencia == sequencia + 1) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+        executorDormindo = true;
+        // a publicação pode ter acontecido antes de o executor se declarar dormindo
+        if (posicao.sequencia != sequencia + 1) {
+            LockSupport.park(this);
+        }
+        executorDormindo = false;
+    }
+
+    private static void esperar(int tentativas) {
+        if (tentativas < ESPERA_ATIVA) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(1000);
+        }
+    }
+}
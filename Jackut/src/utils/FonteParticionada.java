@@ -0,0 +1,88 @@
+package utils;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Fonte de registros dividida em partições, uma por arquivo, escolhidas pela chave com
+ * {@link FonteRegistros#particao(String, int)}. Cada busca consulta só a partição da chave.
+ * A partição é guardada nos bits altos das posições retornadas.
+ */
+public class FonteParticionada implements FonteRegistros {
+    private final FonteRegistros[] particoes;
+
+    /**
+     * Construtor da classe FonteParticionada.
+     * @param particoes Fontes de cada partição, na ordem das partições
+     */
+    public FonteParticionada(List<? extends FonteRegistros> particoes) {
+        this.particoes = particoes.toArray(new FonteRegistros[0]);
+    }
+
+    @Override
+    public int getQuantidade() {
+        int quantidade = 0;
+        for (FonteRegistros particao : particoes) {
+            quantidade += particao.getQuantidade();
+        }
+        return quantidade;
+    }
+
+    @Override
+    public long buscar(String chave) throws IOException {
+        int particao = FonteRegistros.particao(chave, particoes.length);
+        long posicao = particoes[particao].buscar(chave);
+        return posicao < 0 ? -1 : codificar(particao, posicao);
+    }
+
+    @Override
+    public boolean ehRemocao(long posicao) throws IOException {
+        return particao(posicao).ehRemocao(local(posicao));
+    }
+
+    @Override
+    public EntradaBinaria abrir(long posicao) throws IOException {
+        return particao(posicao).abrir(local(posicao));
+    }
+
+    @Override
+    public void copiar(long posicao, SaidaBinaria saida) throws IOException {
+        particao(posicao).copiar(local(posicao), saida);
+    }
+
+    @Override
+    public void paraCada(Visitante visitante) throws IOException {
+        for (int i = 0; i < particoes.length; i++) {
+            paraCadaNaParticao(i, visitante);
+        }
+    }
+
+    @Override
+    public void paraCada(int particao, int particoes, Visitante visitante) throws IOException {
+        if (particoes == this.particoes.length) {
+            paraCadaNaParticao(particao, visitante);
+        } else {
+            FonteRegistros.super.paraCada(particao, particoes, visitante);
+        }
+    }
+
+    private void paraCadaNaParticao(int particao, Visitante visitante) throws IOException {
+        particoes[particao].paraCada((chave, posicao) -> visitante.visitar(chave, codificar(particao, posicao)));
+    }
+
+    private static long codificar(int particao, long posicao) {
+        return ((long) particao << 32) | posicao;
+    }
+
+    private FonteRegistros particao(long posicao) throws IOException {
+        int particao = (int) (posicao >>> 32);
+        if (particao >= particoes.length) {
+            throw new IOException("Partição inválida no snapshot: " + particao);
+        }
+        return particoes[particao];
+    }
+
+    private static long local(long posicao) {
+        return posicao & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,84 @@
+package utils;
+
+import java.io.IOException;
+
+/**
+ * Conjunto somente leitura de registros com chave (usuários ou comunidades) de um snapshot.
+ * As posições retornadas por {@link #buscar(String)} só têm significado para a própria fonte.
+ */
+public interface FonteRegistros {
+
+    /**
+     * Visitante das entradas de uma fonte.
+     */
+    interface Visitante {
+        void visitar(String chave, long posicao) throws IOException;
+    }
+
+    /**
+     * Retorna o número de registros da fonte, incluindo as remoções.
+     * @return Quantidade de registros
+     */
+    int getQuantidade();
+
+    /**
+     * Localiza um registro pela chave.
+     * @param chave Login ou nome da comunidade
+     * @return Posição do registro, que pode ser uma remoção, ou -1 se a fonte não tiver a chave
+     */
+    long buscar(String chave) throws IOException;
+
+    /**
+     * Indica se o registro na posição informada é uma remoção da chave.
+     * @param posicao Posição retornada por {@link #buscar(String)}
+     * @return true se for uma remoção
+     */
+    boolean ehRemocao(long posicao) throws IOException;
+
+    /**
+     * Abre o corpo de um registro para decodificação.
+     * @param posicao Posição retornada por {@link #buscar(String)}
+     * @return Entrada posicionada no início do corpo
+     */
+    EntradaBinaria abrir(long posicao) throws IOException;
+
+    /**
+     * Copia um registro, sem decodificá-lo, para outra saída.
+     * @param posicao Posição do registro
+     * @param saida Saída de destino
+     */
+    void copiar(long posicao, SaidaBinaria saida) throws IOException;
+
+    /**
+     * Percorre todos os registros da fonte, incluindo as remoções.
+     * @param visitante Função chamada com a chave e a posição de cada registro
+     */
+    void paraCada(Visitante visitante) throws IOException;
+
+    /**
+     * Percorre os registros de uma das partições da fonte.
+     * @param particao Partição a ser percorrida
+     * @param particoes Número total de partições
+     * @param visitante Função chamada com a chave e a posição de cada registro da partição
+     * @see #particao(String, int)
+     */
+    default void paraCada(int particao, int particoes, Visitante visitante) throws IOException {
+        paraCada((chave, posicao) -> {
+            if (particao(chave, particoes) == particao) {
+                visitante.visitar(chave, posicao);
+            }
+        });
+    }
+
+    /**
+     * Partição de uma chave. Usa os bits altos do hash, para não coincidir com os bits baixos
+     * que escolhem o slot nos índices de cada partição.
+     * @param chave Login ou nome da comunidade
+     * @param particoes Número total de partições
+     * @return Partição da chave, entre 0 e particoes - 1
+     */
+    static int particao(String chave, int particoes) {
+        long espalhado = (chave.hashCode() * 0x9E3779B9L) & 0xFFFFFFFFL;
+        return (int) ((espalhado * particoes) >>> 32);
+    }
+}
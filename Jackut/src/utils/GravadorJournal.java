@@ -0,0 +1,282 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estágio assíncrono de gravação do journal (group commit).
+ * Os registros são enfileirados pelas threads que executam as operações e gravados por uma
+ * única thread em segundo plano, que junta todos os registros pendentes numa só escrita e
+ * força o disco de acordo com a {@link Durabilidade} configurada.
+ *
+ * A fila é limitada: quando ela enche, quem registra fica bloqueado até a gravação avançar,
+ * em vez de acumular operações na memória sem limite.
+ *
+ * Uma falha de escrita ou de sincronização encerra o gravador: o arquivo é truncado de volta ao
+ * fim do último registro sincronizado, para não deixar registros parciais, nenhum ticket
+ * posterior é dado como gravado e {@link #confirmar(long)}, {@link #sincronizar()} e novos
+ * registros passam a lançar {@link UncheckedIOException} com a causa. O journal volta a aceitar
+ * registros num gravador novo, depois que um checkpoint o rotaciona.
+ */
+class GravadorJournal implements Runnable {
+    private static final int CAPACIDADE_FILA = 8192;
+    private static final long ESPERA_OCIOSA_MS = 1000;
+    private static final byte[] SINCRONIZAR = new byte[0];
+    private static final byte[] FECHAR = new byte[0];
+
+    private final FileChannel canal;
+    private final Durabilidade durabilidade;
+    private final BlockingQueue<byte[]> fila = new ArrayBlockingQueue<>(CAPACIDADE_FILA);
+    private final Thread thread;
+    private final Object monitor = new Object();
+    private long enfileirados;
+    private long sincronizados;
+    private boolean fechado;
+    /** Falha que encerrou a gravação, ou null. */
+    private volatile IOException falha;
+
+    GravadorJournal(File arquivo, Durabilidade durabilidade) throws IOException {
+        this.canal = FileChannel.open(arquivo.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.durabilidade = durabilidade;
+        this.thread = new Thread(this, "jackut-journal");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Na política {@link Durabilidade.Modo#POR_OPERACAO}, bloqueia até que o registro do ticket
+     * informado esteja no disco; nas demais retorna imediatamente. Separado de
+     * {@link #enfileirar(byte[])} para que a espera aconteça fora da ordenação dos registros,
+     * deixando várias threads aguardarem a mesma sincronização.
+     * @param ticket Ticket devolvido ao enfileirar o registro
+     * @throws UncheckedIOException Se a gravação falhou antes de o registro chegar ao disco
+     */
+    void confirmar(long ticket) {
+        if (durabilidade.getModo() == Durabilidade.Modo.POR_OPERACAO) {
+            aguardar(ticket);
+        }
+    }
+
+    /**
+     * Bloqueia até que todos os registros enfileirados até agora estejam gravados no disco.
+     */
+    void sincronizar() {
+        aguardar(enfileirar(SINCRONIZAR));
+    }
+
+    /**
+     * Grava os registros pendentes e encerra a thread de gravação. Depois de uma falha, apenas
+     * fecha o arquivo, e a falha é lançada em seguida.
+     * @throws UncheckedIOException Se a gravação falhou, antes ou durante o encerramento, ou se o
+     *         arquivo não puder ser fechado
+     */
+    void fechar() {
+        UncheckedIOException erro = null;
+        if (falha == null) {
+            try {
+                aguardar(enfileirar(FECHAR));
+            } catch (UncheckedIOException e) {
+                erro = e;
+            }
+        } else {
+            erro = new UncheckedIOException("Falha ao gravar o journal", falha);
+        }
+        try {
+            thread.join();
+            canal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (erro == null) {
+                erro = new UncheckedIOException("Erro ao fechar o journal", e);
+            } else {
+                erro.addSuppressed(e);
+            }
+        }
+        if (erro != null) {
+            throw erro;
+        }
+    }
+
+    /**
+     * Enfileira um registro para gravação, na ordem das chamadas.
+     * @param registro Registro já codificado
+     * @return Ticket do registro, para {@link #confirmar(long)}
+     */
+    long enfileirar(byte[] registro) {
+        synchronized (monitor) {
+            verificarFalha();
+            if (fechado) {
+                throw new IllegalStateException("Journal fechado");
+            }
+            try {
+                // a fila limitada aplica back-pressure em quem registra
+                while (!fila.offer(registro, ESPERA_OCIOSA_MS, TimeUnit.MILLISECONDS)) {
+                    verificarFalha();
+                    if (!thread.isAlive()) {
+                        throw new IllegalStateException("Thread de gravação do journal encerrada");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrompido ao registrar no journal");
+            }
+            if (registro == FECHAR) {
+                fechado = true;
+            }
+            return ++enfileirados;
+        }
+    }
+
+    /**
+     * Bloqueia até que o ticket esteja sincronizado.
+     * @throws UncheckedIOException Se a gravação falhou antes disso
+     * @throws IllegalStateException Se a espera for interrompida ou a gravação tiver parado
+     */
+    private void aguardar(long ticket) {
+        synchronized (monitor) {
+            while (sincronizados < ticket) {
+                verificarFalha();
+                if (!thread.isAlive()) {
+                    throw new IllegalStateException("Thread de gravação do journal encerrada");
+                }
+                try {
+                    monitor.wait(ESPERA_OCIOSA_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrompido esperando a gravação do journal");
+                }
+            }
+        }
+    }
+
+    /**
+     * Verifica se a gravação continua ativa.
+     * @throws UncheckedIOException Se a gravação parou por uma falha
+     */
+    void verificarFalha() {
+        IOException causa = falha;
+        if (causa != null) {
+            throw new UncheckedIOException("Falha ao gravar o journal", causa);
+        }
+    }
+
+    @Override
+    public void run() {
+        List<byte[]> lote = new ArrayList<>();
+        long processados = 0;
+        long pendentes = 0;
+        long ultimaSincronizacao = System.currentTimeMillis();
+        long tamanhoSincronizado;
+        try {
+            tamanhoSincronizado = canal.size();
+        } catch (IOException e) {
+            encerrarComFalha(e, -1);
+            return;
+        }
+        boolean ativo = true;
+        while (ativo) {
+            try {
+                byte[] primeiro = fila.poll(espera(pendentes, ultimaSincronizacao), TimeUnit.MILLISECONDS);
+                lote.clear();
+                if (primeiro != null) {
+                    lote.add(primeiro);
+                    fila.drainTo(lote);
+                }
+
+                boolean pedido = false;
+                List<ByteBuffer> buffers = new ArrayList<>(lote.size());
+                for (byte[] registro : lote) {
+                    if (registro == SINCRONIZAR || registro == FECHAR) {
+                        pedido = true;
+                        ativo &= registro != FECHAR;
+                    } else if (registro.length > 0) {
+                        buffers.add(ByteBuffer.wrap(registro));
+                        pendentes++;
+                    }
+                }
+                ByteBuffer[] escrita = buffers.toArray(new ByteBuffer[0]);
+                while (escrita.length > 0 && escrita[escrita.length - 1].hasRemaining()) {
+                    canal.write(escrita);
+                }
+                processados += lote.size();
+
+                long agora = System.currentTimeMillis();
+                if (pedido || deveSincronizar(pendentes, agora - ultimaSincronizacao)) {
+                    if (pendentes > 0) {
+                        canal.force(false);
+                        tamanhoSincronizado = canal.size();
+                    }
+                    pendentes = 0;
+                    ultimaSincronizacao = agora;
+                    synchronized (monitor) {
+                        sincronizados = processados;
+                        monitor.notifyAll();
+                    }
+                }
+            } catch (InterruptedException e) {
+                ativo = false;
+            } catch (IOException e) {
+                encerrarComFalha(e, tamanhoSincronizado);
+                return;
+            }
+        }
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * Registra a falha que encerra a gravação e descarta do arquivo o que foi escrito depois da
+     * última sincronização, que ninguém recebeu como gravado.
+     * @param tamanhoSincronizado Tamanho do arquivo na última sincronização, ou -1 se desconhecido
+     */
+    private void encerrarComFalha(IOException e, long tamanhoSincronizado) {
+        System.err.println("Erro ao gravar o journal: " + e.getMessage());
+        if (tamanhoSincronizado >= 0) {
+            try {
+                canal.truncate(tamanhoSincronizado);
+            } catch (IOException truncamento) {
+                e.addSuppressed(truncamento);
+            }
+        }
+        synchronized (monitor) {
+            falha = e;
+            monitor.notifyAll();
+        }
+    }
+
+    private boolean deveSincronizar(long pendentes, long decorrido) {
+        if (pendentes == 0) {
+            return false;
+        }
+        switch (durabilidade.getModo()) {
+            case POR_OPERACAO:
+                return true;
+            case INTERVALO:
+                return decorrido >= durabilidade.getParametro();
+            case OPERACOES:
+                return pendentes >= durabilidade.getParametro();
+            default:
+                return false;
+        }
+    }
+
+    private long espera(long pendentes, long ultimaSincronizacao) {
+        if (durabilidade.getModo() == Durabilidade.Modo.INTERVALO && pendentes > 0) {
+            long restante = durabilidade.getParametro() - (System.currentTimeMillis() - ultimaSincronizacao);
+            return Math.max(1, restante);
+        }
+        return ESPERA_OCIOSA_MS;
+    }
+}
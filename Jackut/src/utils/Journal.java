@@ -0,0 +1,511 @@
+package utils;
+
+import entities.Systems;
+import exceptionsJackut.JackutException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Journal de operações (write-ahead log) do sistema Jackut.
+ * Cada operação que altera o estado é anexada ao final do arquivo como um comando compacto,
+ * de modo que o custo de persistência por operação é proporcional ao tamanho da alteração.
+ * Na recuperação, os comandos posteriores ao último snapshot são reaplicados sobre ele.
+ *
+ * Formato de cada registro: [tamanho:int][crc32:int][sequencia:long][operacao:byte][argc:byte]
+ * seguido de argc strings UTF-8 prefixadas pelo tamanho. Um registro incompleto ou com crc
+ * inválido no final do arquivo (escrita interrompida) é descartado na recuperação.
+ *
+ * A gravação é feita em segundo plano por um {@link GravadorJournal}, que agrupa os registros
+ * pendentes e força o disco conforme a {@link Durabilidade} configurada.
+ *
+ * No início de um checkpoint o arquivo é rotacionado: ele é renomeado com a sequência do seu
+ * último registro e as operações seguintes vão para um arquivo novo. O arquivo rotacionado só é
+ * apagado quando o checkpoint que o inclui termina de ser gravado; até lá a recuperação o
+ * reaplica antes do arquivo atual.
+ *
+ * Pode receber registros de várias threads: a sequência é atribuída e o registro é enfileirado
+ * de forma atômica, e a espera pelo disco, quando a durabilidade a exige, fica pendente para a
+ * thread até {@link #confirmar()}. Quem registra com travas adquiridas pode assim esperar depois
+ * de liberá-las, e as threads que aguardam juntas são confirmadas pela mesma sincronização.
+ */
+public class Journal {
+    private static final int CABECALHO_REGISTRO = 8;
+    private static final String PREFIXO_ROTACIONADO = "journal-";
+    private static final String SUFIXO_ROTACIONADO = ".log";
+
+    /**
+     * Operações registradas no journal.
+     * Os códigos fazem parte do formato em disco e não devem ser reutilizados.
+     */
+    public enum Operacao {
+        CRIAR_USUARIO(1),
+        EDITAR_PERFIL(2),
+        ADICIONAR_AMIGO(3),
+        ADICIONAR_IDOLO(4),
+        ADICIONAR_PAQUERA(5),
+        ADICIONAR_INIMIGO(6),
+        ENVIAR_RECADO(7),
+        LER_RECADO(8),
+        CRIAR_COMUNIDADE(9),
+        ADICIONAR_COMUNIDADE(10),
+        ENVIAR_MENSAGEM(11),
+        LER_MENSAGEM(12),
+        REMOVER_USUARIO(13);
+
+        private final int codigo;
+
+        Operacao(int codigo) {
+            this.codigo = codigo;
+        }
+
+        public int getCodigo() {
+            return codigo;
+        }
+
+        public static Operacao porCodigo(int codigo) {
+            for (Operacao operacao : values()) {
+                if (operacao.codigo == codigo) {
+                    return operacao;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final File arquivo;
+    private final Systems sistema;
+    private final Durabilidade durabilidade;
+    private GravadorJournal gravador;
+    private long ultimaSequencia;
+    private volatile int registros;
+    private volatile boolean confirmacaoEmLote;
+    private GravadorJournal gravadorDoLote;
+    private long ticketDoLote;
+    /** Último registro de cada thread que ainda não foi confirmado por {@link #confirmar()}. */
+    private final ThreadLocal<Pendente> pendentes = ThreadLocal.withInitial(Pendente::new);
+
+    /**
+     * Registro que espera a confirmação do disco: o gravador que o recebeu e o seu ticket.
+     */
+    private static final class Pendente {
+        GravadorJournal destino;
+        long ticket;
+    }
+
+    /**
+     * Construtor da classe Journal.
+     * @param arquivo Arquivo de journal
+     * @param sistema Sistema cujas operações são registradas
+     * @param durabilidade Política de gravação dos registros no disco
+     */
+    public Journal(File arquivo, Systems sistema, Durabilidade durabilidade) {
+        this.arquivo = arquivo;
+        this.sistema = sistema;
+        this.durabilidade = durabilidade;
+        this.ultimaSequencia = sistema.getSequenciaJournal();
+    }
+
+    /**
+     * Construtor de um journal sem arquivo, que apenas numera as operações registradas.
+     * Usado quando o sistema não é persistido, como no {@link ArmazenamentoEmMemoria}.
+     * @param sistema Sistema cujas operações são registradas
+     */
+    public Journal(Systems sistema) {
+        this(null, sistema, Durabilidade.apenasNoEncerramento());
+    }
+
+    /**
+     * Anexa uma operação ao journal, sem esperar o disco: a espera fica pendente para a thread
+     * até {@link #confirmar()}, ou até {@link #confirmarLote()} na confirmação em lote.
+     * O login informado é sempre o do usuário que executou a operação, e não o id da sessão,
+     * para que o journal não dependa das sessões abertas.
+     * @param operacao Operação executada
+     * @param argumentos Argumentos da operação
+     * @return Sequência atribuída à operação
+     * @throws UncheckedIOException Se o registro não pôde ser aceito, como quando o journal parou
+     *         por uma falha de gravação; nesse caso nenhuma sequência é atribuída
+     */
+    public long registrar(Operacao operacao, String... argumentos) {
+        GravadorJournal destino;
+        long ticket;
+        long sequencia;
+        synchronized (this) {
+            sequencia = ultimaSequencia + 1;
+            if (arquivo == null) {
+                ultimaSequencia = sequencia;
+                registros++;
+                sistema.setSequenciaJournal(sequencia);
+                return sequencia;
+            }
+            try {
+                byte[] registro = codificar(sequencia, operacao, argumentos);
+                destino = abrir();
+                ticket = destino.enfileirar(registro);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Falha ao registrar operação no journal", e);
+            }
+            // a sequência só passa a ser usada depois que o registro foi aceito pelo gravador
+            ultimaSequencia = sequencia;
+            registros++;
+            sistema.setSequenciaJournal(sequencia);
+            if (confirmacaoEmLote) {
+                gravadorDoLote = destino;
+                ticketDoLote = ticket;
+                return sequencia;
+            }
+        }
+        Pendente pendente = pendentes.get();
+        pendente.destino = destino;
+        pendente.ticket = ticket;
+        return sequencia;
+    }
+
+    /**
+     * Verifica se o journal aceita novos registros, abrindo o arquivo se ainda não estiver aberto.
+     * Chamado antes de uma operação alterar o sistema, para que ela seja recusada sem deixar
+     * nada para trás quando o journal já não pode registrá-la.
+     * @throws UncheckedIOException Se o arquivo não puder ser aberto ou se a gravação tiver parado
+     *         por uma falha, até que {@link #rotacionar()} passe o journal para um arquivo novo
+     */
+    public synchronized void verificarGravacao() {
+        if (arquivo == null) {
+            return;
+        }
+        try {
+            abrir().verificarFalha();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Falha ao abrir o journal", e);
+        }
+    }
+
+    /**
+     * Espera, se a durabilidade exigir, que o último registro feito pela thread esteja no disco.
+     * Como os registros são gravados em ordem, os anteriores dela também estão. Deve ser chamado
+     * depois de liberar as travas sob as quais as operações foram registradas.
+     * @throws java.io.UncheckedIOException Se o registro não chegou a ser gravado
+     */
+    public void confirmar() {
+        if (arquivo == null) {
+            return;
+        }
+        Pendente pendente = pendentes.get();
+        GravadorJournal destino = pendente.destino;
+        if (destino != null) {
+            pendente.destino = null;
+            destino.confirmar(pendente.ticket);
+        }
+    }
+
+    /**
+     * Faz {@link #registrar} deixar a espera pelo disco para {@link #confirmarLote()}, para que
+     * quem aplica várias operações em sequência espere uma só vez por todas elas.
+     * @param emLote true para adiar a confirmação dos registros
+     */
+    public void setConfirmacaoEmLote(boolean emLote) {
+        this.confirmacaoEmLote = emLote;
+    }
+
+    /**
+     * Espera, se a durabilidade exigir, que os registros feitos desde o último lote estejam no disco.
+     * @throws java.io.UncheckedIOException Se algum deles não chegou a ser gravado
+     * @see #setConfirmacaoEmLote(boolean)
+     */
+    public void confirmarLote() {
+        GravadorJournal destino;
+        long ticket;
+        synchronized (this) {
+            destino = gravadorDoLote;
+            ticket = ticketDoLote;
+            gravadorDoLote = null;
+        }
+        if (destino != null) {
+            destino.confirmar(ticket);
+        }
+    }
+
+    /**
+     * Reaplica sobre o sistema as operações do journal posteriores ao snapshot carregado, primeiro
+     * as dos arquivos rotacionados e depois as do arquivo atual.
+     * Um final de arquivo corrompido é truncado para que novos registros não fiquem atrás dele.
+     * @return Número de operações reaplicadas
+     */
+    public int reaplicar() {
+        if (arquivo == null) {
+            return 0;
+        }
+        int reaplicadas = 0;
+        Map<String, String> sessoes = new HashMap<>();
+        try {
+            for (File rotacionado : listarRotacionados()) {
+                reaplicadas += reaplicar(rotacionado, sessoes);
+            }
+            reaplicadas += reaplicar(arquivo, sessoes);
+        } finally {
+            for (String idSessao : sessoes.values()) {
+                sistema.encerrarSessao(idSessao);
+            }
+        }
+        return reaplicadas;
+    }
+
+    private int reaplicar(File arquivo, Map<String, String> sessoes) {
+        if (!arquivo.exists()) {
+            return 0;
+        }
+        int reaplicadas = 0;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(arquivo.toPath()));
+            long ultimoValido = 0;
+            while (buffer.remaining() >= CABECALHO_REGISTRO) {
+                int tamanho = buffer.getInt();
+                int crc = buffer.getInt();
+                if (tamanho <= 0 || tamanho > buffer.remaining()) {
+                    break;
+                }
+                byte[] corpo = new byte[tamanho];
+                buffer.get(corpo);
+                CRC32 crc32 = new CRC32();
+                crc32.update(corpo);
+                if ((int) crc32.getValue() != crc) {
+                    break;
+                }
+                ultimoValido = buffer.position();
+                registros++;
+
+                ByteBuffer registro = ByteBuffer.wrap(corpo);
+                long sequencia = registro.getLong();
+                Operacao operacao = Operacao.porCodigo(registro.get());
+                String[] argumentos = new String[registro.get()];
+                for (int i = 0; i < argumentos.length; i++) {
+                    byte[] texto = new byte[registro.getInt()];
+                    registro.get(texto);
+                    argumentos[i] = new String(texto, StandardCharsets.UTF_8);
+                }
+                if (sequencia <= sistema.getSequenciaJournal() || operacao == null) {
+                    continue;
+                }
+                aplicar(operacao, argumentos, sessoes);
+                sistema.setSequenciaJournal(sequencia);
+                reaplicadas++;
+            }
+            ultimaSequencia = Math.max(ultimaSequencia, sistema.getSequenciaJournal());
+            if (ultimoValido < arquivo.length()) {
+                try (RandomAccessFile raf = new RandomAccessFile(arquivo, "rw")) {
+                    raf.setLength(ultimoValido);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao reaplicar o journal " + arquivo + ": " + e.getMessage(), e);
+        }
+        return reaplicadas;
+    }
+
+    private void aplicar(Operacao operacao, String[] args, Map<String, String> sessoes) {
+        try {
+            switch (operacao) {
+                case CRIAR_USUARIO:
+                    sistema.criarUsuario(args[0], args[1], args[2]);
+                    break;
+                case EDITAR_PERFIL:
+                    sistema.editarPerfil(sessao(args[0], sessoes), args[1], args[2]);
+                    break;
+                case ADICIONAR_AMIGO:
+                    sistema.adicionarAmigo(sessao(args[0], sessoes), args[1]);
+                    break;
+                case ADICIONAR_IDOLO:
+                    sistema.adicionarIdolo(sessao(args[0], sessoes), args[1]);
+                    break;
+                case ADICIONAR_PAQUERA:
+                    sistema.adicionarPaquera(sessao(args[0], sessoes), args[1]);
+                    break;
+                case ADICIONAR_INIMIGO:
+                    sistema.adicionarInimigo(sessao(args[0], sessoes), args[1]);
+                    break;
+                case ENVIAR_RECADO:
+                    sistema.enviarRecado(sessao(args[0], sessoes), args[1], args[2]);
+                    break;
+                case LER_RECADO:
+                    sistema.lerRecado(sessao(args[0], sessoes));
+                    break;
+                case CRIAR_COMUNIDADE:
+                    sistema.criarComunidade(sessao(args[0], sessoes), args[1], args[2]);
+                    break;
+                case ADICIONAR_COMUNIDADE:
+                    sistema.adicionarMembroComunidade(sessao(args[0], sessoes), args[1]);
+                    break;
+                case ENVIAR_MENSAGEM:
+                    sistema.enviarMensagem(sessao(args[0], sessoes), args[1], args[2]);
+                    break;
+                case LER_MENSAGEM:
+                    sistema.lerMensagem(sessao(args[0], sessoes));
+                    break;
+                case REMOVER_USUARIO:
+                    sistema.removerUsuario(sessao(args[0], sessoes));
+                    sessoes.remove(args[0]);
+                    break;
+            }
+        } catch (JackutException e) {
+            System.err.println("Erro ao reaplicar " + operacao + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Abre (ou reutiliza) uma sessão interna para reaplicar as operações de um usuário.
+     */
+    private String sessao(String login, Map<String, String> sessoes) throws JackutException {
+        String idSessao = sessoes.get(login);
+        if (idSessao == null) {
+            idSessao = sistema.abrirSessao(login, sistema.getUsuario(login).getSenha());
+            sessoes.put(login, idSessao);
+        }
+        return idSessao;
+    }
+
+    private static byte[] codificar(long sequencia, Operacao operacao, String[] argumentos) throws IOException {
+        ByteArrayOutputStream corpo = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(corpo);
+        out.writeLong(sequencia);
+        out.writeByte(operacao.getCodigo());
+        out.writeByte(argumentos.length);
+        for (String argumento : argumentos) {
+            byte[] texto = argumento == null ? new byte[0] : argumento.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(texto.length);
+            out.write(texto);
+        }
+        byte[] bytes = corpo.toByteArray();
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes);
+
+        ByteBuffer registro = ByteBuffer.allocate(CABECALHO_REGISTRO + bytes.length);
+        registro.putInt(bytes.length);
+        registro.putInt((int) crc32.getValue());
+        registro.put(bytes);
+        return registro.array();
+    }
+
+    private GravadorJournal abrir() throws IOException {
+        if (gravador == null) {
+            File diretorio = arquivo.getAbsoluteFile().getParentFile();
+            if (diretorio != null && !diretorio.exists()) {
+                diretorio.mkdirs();
+            }
+            gravador = new GravadorJournal(arquivo, durabilidade);
+        }
+        return gravador;
+    }
+
+    /**
+     * Bloqueia até que todas as operações registradas estejam gravadas no disco,
+     * independentemente da política de durabilidade.
+     */
+    public synchronized void sincronizar() {
+        if (gravador != null) {
+            gravador.sincronizar();
+        }
+    }
+
+    /**
+     * Retorna o número de registros presentes no journal desde o último truncamento.
+     * @return Número de registros
+     */
+    public int getRegistros() {
+        return registros;
+    }
+
+    /**
+     * Grava os registros pendentes e põe o arquivo atual de lado, renomeado com a sequência do seu
+     * último registro; os próximos registros vão para um arquivo novo. Deve ser chamado logo
+     * depois de capturar a versão do sistema que o checkpoint vai gravar.
+     */
+    public synchronized void rotacionar() {
+        try {
+            fechar();
+        } catch (UncheckedIOException e) {
+            // o que o gravador não chegou a gravar está na versão capturada, que o checkpoint grava
+        }
+        registros = 0;
+        if (arquivo == null || !arquivo.exists() || arquivo.length() == 0) {
+            return;
+        }
+        try {
+            Files.move(arquivo.toPath(), arquivoRotacionado(ultimaSequencia).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // os registros ficam no arquivo atual, antes dos novos; a reaplicação ignora os que o
+            // checkpoint já incluiu, pela sequência, então só o espaço deles deixa de ser liberado
+            System.err.println("Erro ao rotacionar o journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Apaga os arquivos rotacionados cujos registros já estão num checkpoint gravado.
+     * Pode ser chamado pela thread do checkpoint enquanto novas operações são registradas.
+     * @param sequencia Sequência do journal refletida no checkpoint
+     */
+    public void descartarRotacionados(long sequencia) {
+        if (arquivo == null) {
+            return;
+        }
+        for (File rotacionado : listarRotacionados()) {
+            if (sequenciaRotacionado(rotacionado) <= sequencia) {
+                rotacionado.delete();
+            }
+        }
+    }
+
+    private File arquivoRotacionado(long sequencia) {
+        return new File(arquivo.getAbsoluteFile().getParentFile(),
+                String.format("%s%019d%s", PREFIXO_ROTACIONADO, sequencia, SUFIXO_ROTACIONADO));
+    }
+
+    private static long sequenciaRotacionado(File rotacionado) {
+        String nome = rotacionado.getName();
+        return Long.parseLong(nome.substring(PREFIXO_ROTACIONADO.length(), nome.length() - SUFIXO_ROTACIONADO.length()));
+    }
+
+    /**
+     * Lista os arquivos rotacionados, do mais antigo para o mais novo.
+     */
+    private List<File> listarRotacionados() {
+        File[] arquivos = arquivo.getAbsoluteFile().getParentFile()
+                .listFiles((dir, nome) -> nome.matches(PREFIXO_ROTACIONADO + "\\d+\\" + SUFIXO_ROTACIONADO));
+        if (arquivos == null) {
+            return List.of();
+        }
+        List<File> rotacionados = new ArrayList<>(Arrays.asList(arquivos));
+        rotacionados.sort(Comparator.comparingLong(Journal::sequenciaRotacionado));
+        return rotacionados;
+    }
+
+    /**
+     * Grava as operações pendentes e fecha o arquivo do journal.
+     * Ele é reaberto automaticamente no próximo registro, num gravador novo.
+     * @throws UncheckedIOException Se a gravação tiver falhado ou o arquivo não puder ser fechado
+     */
+    public synchronized void fechar() {
+        if (gravador == null) {
+            return;
+        }
+        try {
+            gravador.fechar();
+        } finally {
+            gravador = null;
+        }
+    }
+}
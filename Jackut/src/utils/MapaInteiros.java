@@ -0,0 +1,97 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Mapa de inteiros não negativos para inteiros não negativos, sem caixas de Integer, numa tabela
+ * de endereçamento aberto com sondagem linear. Chaves e valores ficam lado a lado no mesmo vetor,
+ * e nada é alocado por entrada. Não há remoção: o mapa serve a buscas que só acumulam entradas,
+ * como o pai de cada usuário visitado numa busca em largura.
+ */
+public final class MapaInteiros {
+    /** Valor retornado por {@link #get(int)} para uma chave que não está no mapa. */
+    public static final int AUSENTE = -1;
+
+    /** Pares chave, valor; a chave {@link #AUSENTE} marca uma posição livre. */
+    private int[] tabela;
+    private int tamanho;
+
+    public MapaInteiros() {
+        tabela = novaTabela(16);
+    }
+
+    /**
+     * Associa um valor a uma chave, se ela ainda não estiver no mapa.
+     * @param chave Chave não negativa
+     * @param valor Valor não negativo
+     * @return true se a chave foi adicionada, false se ela já estava no mapa
+     */
+    public boolean putSeAusente(int chave, int valor) {
+        int posicao = posicao(chave);
+        if (tabela[posicao] == chave) {
+            return false;
+        }
+        tabela[posicao] = chave;
+        tabela[posicao + 1] = valor;
+        if (++tamanho * 4 > tabela.length) {
+            redimensionar();
+        }
+        return true;
+    }
+
+    /**
+     * Retorna o valor de uma chave.
+     * @param chave Chave procurada
+     * @return Valor da chave, ou {@link #AUSENTE} se ela não estiver no mapa
+     */
+    public int get(int chave) {
+        if (chave < 0) {
+            return AUSENTE;
+        }
+        int posicao = posicao(chave);
+        return tabela[posicao] == chave ? tabela[posicao + 1] : AUSENTE;
+    }
+
+    public boolean contains(int chave) {
+        return chave >= 0 && tabela[posicao(chave)] == chave;
+    }
+
+    public int size() {
+        return tamanho;
+    }
+
+    /**
+     * Retorna a posição da chave na tabela, ou a posição livre em que ela entraria.
+     */
+    private int posicao(int chave) {
+        int mascara = tabela.length - 2;
+        int posicao = (espalhar(chave) << 1) & mascara;
+        while (tabela[posicao] != AUSENTE && tabela[posicao] != chave) {
+            posicao = (posicao + 2) & mascara;
+        }
+        return posicao;
+    }
+
+    private void redimensionar() {
+        int[] anterior = tabela;
+        tabela = novaTabela(anterior.length * 2);
+        for (int i = 0; i < anterior.length; i += 2) {
+            if (anterior[i] != AUSENTE) {
+                int posicao = posicao(anterior[i]);
+                tabela[posicao] = anterior[i];
+                tabela[posicao + 1] = anterior[i + 1];
+            }
+        }
+    }
+
+    private static int[] novaTabela(int posicoes) {
+        int[] tabela = new int[posicoes];
+        Arrays.fill(tabela, AUSENTE);
+        return tabela;
+    }
+
+    private static int espalhar(int valor) {
+        int h = valor * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,343 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Mapa imutável e persistente (hash array mapped trie). Cada alteração devolve um novo mapa que
+ * compartilha com o anterior tudo o que não mudou, copiando apenas o caminho da raiz até a chave
+ * alterada, de modo que guardar uma versão do mapa custa O(1) e nenhuma versão muda depois de criada.
+ *
+ * Cada nó indexa cinco bits do hash da chave: um bitmap diz quais posições estão ocupadas e um
+ * arranjo compacto guarda, em pares, a chave e o valor de cada posição, ou um nó filho quando a
+ * chave do par é null. Chaves com o hash inteiro igual ficam num nó de colisão.
+ *
+ * @param <K> Tipo das chaves
+ * @param <V> Tipo dos valores
+ */
+public final class MapaPersistente<K, V> {
+    private static final int BITS = 5;
+    private static final int MASCARA = (1 << BITS) - 1;
+    private static final MapaPersistente<?, ?> VAZIO = new MapaPersistente<>(null, 0);
+
+    private final No raiz;
+    private final int tamanho;
+
+    private MapaPersistente(No raiz, int tamanho) {
+        this.raiz = raiz;
+        this.tamanho = tamanho;
+    }
+
+    /**
+     * Retorna o mapa vazio.
+     * @return Mapa sem nenhuma chave
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> MapaPersistente<K, V> vazio() {
+        return (MapaPersistente<K, V>) VAZIO;
+    }
+
+    /**
+     * Retorna o valor associado a uma chave.
+     * @param chave Chave procurada
+     * @return Valor da chave, ou null se ela não estiver no mapa ou for null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K chave) {
+        if (raiz == null || chave == null) {
+            return null;
+        }
+        return (V) raiz.buscar(chave, espalhar(chave.hashCode()), 0);
+    }
+
+    public boolean containsKey(K chave) {
+        return get(chave) != null;
+    }
+
+    /**
+     * Retorna um mapa igual a este, mas com a chave associada ao valor informado.
+     * @param chave Chave
+     * @param valor Valor, que não pode ser null
+     * @return Novo mapa, ou este mesmo se a chave já estava associada a esse valor
+     */
+    public MapaPersistente<K, V> com(K chave, V valor) {
+        boolean[] adicionada = new boolean[1];
+        int hash = espalhar(chave.hashCode());
+        No novaRaiz = raiz == null
+                ? No.VAZIO.associar(chave, valor, hash, 0, adicionada)
+                : raiz.associar(chave, valor, hash, 0, adicionada);
+        if (novaRaiz == raiz) {
+            return this;
+        }
+        return new MapaPersistente<>(novaRaiz, adicionada[0] ? tamanho + 1 : tamanho);
+    }
+
+    /**
+     * Retorna um mapa igual a este, mas sem a chave informada.
+     * @param chave Chave a ser retirada
+     * @return Novo mapa, ou este mesmo se a chave não estava no mapa
+     */
+    public MapaPersistente<K, V> sem(K chave) {
+        if (raiz == null) {
+            return this;
+        }
+        No novaRaiz = raiz.retirar(chave, espalhar(chave.hashCode()), 0);
+        if (novaRaiz == raiz) {
+            return this;
+        }
+        return novaRaiz == null ? vazio() : new MapaPersistente<>(novaRaiz, tamanho - 1);
+    }
+
+    public int size() {
+        return tamanho;
+    }
+
+    public boolean isEmpty() {
+        return tamanho == 0;
+    }
+
+    /**
+     * Percorre todas as associações do mapa, em ordem arbitrária.
+     * @param visitante Recebe cada chave e o seu valor
+     */
+    @SuppressWarnings("unchecked")
+    public void paraCada(BiConsumer<? super K, ? super V> visitante) {
+        if (raiz != null) {
+            raiz.percorrer((BiConsumer<Object, Object>) visitante);
+        }
+    }
+
+    /**
+     * Copia as associações para um mapa comum.
+     * @return Novo HashMap com o conteúdo deste mapa
+     */
+    public Map<K, V> comoMapa() {
+        Map<K, V> copia = new HashMap<>();
+        paraCada(copia::put);
+        return copia;
+    }
+
+    /**
+     * Cria um mapa com as associações de um mapa comum.
+     * @param origem Mapa de origem
+     * @return Mapa persistente equivalente
+     */
+    public static <K, V> MapaPersistente<K, V> de(Map<K, V> origem) {
+        MapaPersistente<K, V> mapa = vazio();
+        for (Map.Entry<K, V> entrada : origem.entrySet()) {
+            mapa = mapa.com(entrada.getKey(), entrada.getValue());
+        }
+        return mapa;
+    }
+
+    private static int espalhar(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Nó da trie. Os nós nunca são alterados: cada operação devolve um nó novo, ou o próprio nó
+     * quando nada muda.
+     */
+    private abstract static class No {
+        static final No VAZIO = new NoBitmap(0, new Object[0]);
+
+        abstract Object buscar(Object chave, int hash, int deslocamento);
+
+        abstract No associar(Object chave, Object valor, int hash, int deslocamento, boolean[] adicionada);
+
+        /** Retorna o nó sem a chave, ou null se ele ficar vazio. */
+        abstract No retirar(Object chave, int hash, int deslocamento);
+
+        abstract void percorrer(BiConsumer<Object, Object> visitante);
+    }
+
+    private static final class NoBitmap extends No {
+        private final int bitmap;
+        private final Object[] pares;
+
+        NoBitmap(int bitmap, Object[] pares) {
+            this.bitmap = bitmap;
+            this.pares = pares;
+        }
+
+        private int indice(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object buscar(Object chave, int hash, int deslocamento) {
+            int bit = 1 << ((hash >>> deslocamento) & MASCARA);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int i = 2 * indice(bit);
+            Object chaveNoPar = pares[i];
+            if (chaveNoPar == null) {
+                return ((No) pares[i + 1]).buscar(chave, hash, deslocamento + BITS);
+            }
+            return chave.equals(chaveNoPar) ? pares[i + 1] : null;
+        }
+
+        @Override
+        No associar(Object chave, Object valor, int hash, int deslocamento, boolean[] adicionada) {
+            int bit = 1 << ((hash >>> deslocamento) & MASCARA);
+            int i = 2 * indice(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] novos = new Object[pares.length + 2];
+                System.arraycopy(pares, 0, novos, 0, i);
+                novos[i] = chave;
+                novos[i + 1] = valor;
+                System.arraycopy(pares, i, novos, i + 2, pares.length - i);
+                adicionada[0] = true;
+                return new NoBitmap(bitmap | bit, novos);
+            }
+            Object chaveNoPar = pares[i];
+            Object valorNoPar = pares[i + 1];
+            if (chaveNoPar == null) {
+                No filho = (No) valorNoPar;
+                No novoFilho = filho.associar(chave, valor, hash, deslocamento + BITS, adicionada);
+                return novoFilho == filho ? this : substituir(i, null, novoFilho);
+            }
+            if (chave.equals(chaveNoPar)) {
+                return valorNoPar == valor ? this : substituir(i, chaveNoPar, valor);
+            }
+            adicionada[0] = true;
+            No filho = criarFilho(chaveNoPar, valorNoPar, chave, valor, hash, deslocamento + BITS);
+            return substituir(i, null, filho);
+        }
+
+        @Override
+        No retirar(Object chave, int hash, int deslocamento) {
+            int bit = 1 << ((hash >>> deslocamento) & MASCARA);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int i = 2 * indice(bit);
+            Object chaveNoPar = pares[i];
+            if (chaveNoPar == null) {
+                No filho = (No) pares[i + 1];
+                No novoFilho = filho.retirar(chave, hash, deslocamento + BITS);
+                if (novoFilho == filho) {
+                    return this;
+                }
+                if (novoFilho != null) {
+                    return substituir(i, null, novoFilho);
+                }
+            } else if (!chave.equals(chaveNoPar)) {
+                return this;
+            }
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] novos = new Object[pares.length - 2];
+            System.arraycopy(pares, 0, novos, 0, i);
+            System.arraycopy(pares, i + 2, novos, i, pares.length - i - 2);
+            return new NoBitmap(bitmap ^ bit, novos);
+        }
+
+        @Override
+        void percorrer(BiConsumer<Object, Object> visitante) {
+            for (int i = 0; i < pares.length; i += 2) {
+                if (pares[i] == null) {
+                    ((No) pares[i + 1]).percorrer(visitante);
+                } else {
+                    visitante.accept(pares[i], pares[i + 1]);
+                }
+            }
+        }
+
+        private NoBitmap substituir(int i, Object chave, Object valor) {
+            Object[] novos = pares.clone();
+            novos[i] = chave;
+            novos[i + 1] = valor;
+            return new NoBitmap(bitmap, novos);
+        }
+
+        private static No criarFilho(Object chave1, Object valor1, Object chave2, Object valor2,
+                                     int hash2, int deslocamento) {
+            int hash1 = espalhar(chave1.hashCode());
+            if (hash1 == hash2) {
+                return new NoColisao(hash1, new Object[]{chave1, valor1, chave2, valor2});
+            }
+            boolean[] ignorada = new boolean[1];
+            return VAZIO.associar(chave1, valor1, hash1, deslocamento, ignorada)
+                    .associar(chave2, valor2, hash2, deslocamento, ignorada);
+        }
+    }
+
+    /**
+     * Nó com chaves diferentes de hash igual, comparadas uma a uma.
+     */
+    private static final class NoColisao extends No {
+        private final int hash;
+        private final Object[] pares;
+
+        NoColisao(int hash, Object[] pares) {
+            this.hash = hash;
+            this.pares = pares;
+        }
+
+        private int posicao(Object chave) {
+            for (int i = 0; i < pares.length; i += 2) {
+                if (chave.equals(pares[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object buscar(Object chave, int hash, int deslocamento) {
+            int i = posicao(chave);
+            return i < 0 ? null : pares[i + 1];
+        }
+
+        @Override
+        No associar(Object chave, Object valor, int hash, int deslocamento, boolean[] adicionada) {
+            if (hash != this.hash) {
+                // a chave nova desce por outro ramo: este nó passa a ser filho de um nó de bitmap
+                int bit = 1 << ((this.hash >>> deslocamento) & MASCARA);
+                return new NoBitmap(bit, new Object[]{null, this})
+                        .associar(chave, valor, hash, deslocamento, adicionada);
+            }
+            int i = posicao(chave);
+            if (i >= 0) {
+                if (pares[i + 1] == valor) {
+                    return this;
+                }
+                Object[] novos = pares.clone();
+                novos[i + 1] = valor;
+                return new NoColisao(hash, novos);
+            }
+            Object[] novos = Arrays.copyOf(pares, pares.length + 2);
+            novos[pares.length] = chave;
+            novos[pares.length + 1] = valor;
+            adicionada[0] = true;
+            return new NoColisao(hash, novos);
+        }
+
+        @Override
+        No retirar(Object chave, int hash, int deslocamento) {
+            int i = posicao(chave);
+            if (i < 0) {
+                return this;
+            }
+            if (pares.length == 2) {
+                return null;
+            }
+            Object[] novos = new Object[pares.length - 2];
+            System.arraycopy(pares, 0, novos, 0, i);
+            System.arraycopy(pares, i + 2, novos, i, pares.length - i - 2);
+            return new NoColisao(hash, novos);
+        }
+
+        @Override
+        void percorrer(BiConsumer<Object, Object> visitante) {
+            for (int i = 0; i < pares.length; i += 2) {
+                visitante.accept(pares[i], pares[i + 1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Mapa de objetos por chave que materializa os valores de um snapshot mapeado sob demanda.
+ * Um valor só é decodificado do snapshot no primeiro acesso à sua chave; a partir daí passa
+ * a viver no mapa de materializados, onde recebe as alterações. Chaves removidas depois da
+ * carga ficam registradas para que o snapshot não volte a ser consultado para elas.
+ *
+ * A origem pode ter várias camadas, do segmento mais novo para o snapshot base: uma chave é
+ * procurada nelas em ordem e a primeira que a contiver decide o valor, ou a sua remoção.
+ *
+ * Os materializados ficam num {@link MapaPersistente}, e os valores são copiados na escrita:
+ * {@link #capturar()} devolve em O(1) uma versão imutável do mapa, que pode ser lida e gravada
+ * por outra thread enquanto este continua recebendo alterações. Depois de uma captura, o primeiro
+ * {@link #paraAlterar(String)} de cada chave troca o valor compartilhado por uma cópia própria,
+ * e só ela é alterada.
+ *
+ * O mapa também registra as chaves alteradas desde o último checkpoint, para que um segmento
+ * incremental grave apenas elas. {@link #paraAlterar(String)}, {@link #put} e {@link #remove}
+ * já o fazem; a captura leva consigo as chaves registradas até ela.
+ *
+ * Leituras e alterações de chaves diferentes podem ser feitas por várias threads ao mesmo tempo;
+ * alterações da mesma chave e a captura devem ser serializadas por quem usa o mapa.
+ *
+ * @param <V> Tipo dos valores
+ */
+public class MapaSobDemanda<V> {
+
+    /**
+     * Decodificador de um registro do snapshot.
+     */
+    public interface Leitor<V> {
+        V ler(EntradaBinaria entrada) throws IOException;
+    }
+
+    /**
+     * Codificador de um registro do snapshot. A chave deve ser a primeira coisa gravada.
+     */
+    public interface Gravador<V> {
+        void gravar(V valor, SaidaBinaria saida) throws IOException;
+    }
+
+    /**
+     * Cópia profunda de um valor, que pode ser alterada sem afetar o original.
+     */
+    public interface Copiador<V> {
+        V copiar(V valor);
+    }
+
+    /** Marca, entre os materializados, uma chave removida que ainda existe na origem. */
+    private static final Object REMOVIDO = new Object();
+
+    private final AtomicReference<MapaPersistente<String, Object>> materializados =
+            new AtomicReference<>(MapaPersistente.vazio());
+    private final Set<String> proprios = ConcurrentHashMap.newKeySet();
+    private Set<String> alterados = ConcurrentHashMap.newKeySet();
+    private final Leitor<V> leitor;
+    private final Gravador<V> gravador;
+    private final Copiador<V> copiador;
+    private volatile List<FonteRegistros> origens = List.of();
+    private volatile long capturas;
+
+    /**
+     * Construtor da classe MapaSobDemanda, inicialmente vazio e sem snapshot de origem.
+     * @param leitor Decodificador dos registros
+     * @param gravador Codificador dos registros
+     * @param copiador Cópia dos valores compartilhados com uma versão capturada
+     */
+    public MapaSobDemanda(Leitor<V> leitor, Gravador<V> gravador, Copiador<V> copiador) {
+        this.leitor = leitor;
+        this.gravador = gravador;
+        this.copiador = copiador;
+    }
+
+    /**
+     * Descarta o conteúdo atual e passa a materializar os valores a partir das seções informadas.
+     * @param origens Seções de origem, da mais nova para a mais antiga
+     */
+    public void setOrigens(List<FonteRegistros> origens) {
+        clear();
+        alterados.clear();
+        this.origens = List.copyOf(origens);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(String chave) {
+        MapaPersistente<String, Object> atual = materializados.get();
+        Object valor = atual.get(chave);
+        if (valor != null || chave == null || origens.isEmpty()) {
+            return valor == REMOVIDO ? null : (V) valor;
+        }
+        long capturasAntes = capturas;
+        V lido = lerDaOrigem(chave);
+        if (lido == null) {
+            return null;
+        }
+        // outra thread pode ter materializado ou alterado a chave: vale o que estiver no mapa
+        while (true) {
+            Object existente = atual.get(chave);
+            if (existente != null) {
+                return existente == REMOVIDO ? null : (V) existente;
+            }
+            if (materializados.compareAndSet(atual, atual.com(chave, lido))) {
+                marcarProprio(chave, capturasAntes);
+                return lido;
+            }
+            atual = materializados.get();
+        }
+    }
+
+    public boolean containsKey(String chave) {
+        return get(chave) != null;
+    }
+
+    public void put(String chave, V valor) {
+        atualizar(chave, valor);
+        proprios.add(chave);
+        alterados.add(chave);
+    }
+
+    public void remove(String chave) {
+        atualizar(chave, origens.isEmpty() ? null : REMOVIDO);
+        proprios.remove(chave);
+        alterados.add(chave);
+    }
+
+    /**
+     * Retorna o valor de uma chave pronto para ser alterado e registra a chave como alterada.
+     * Se o valor atual for compartilhado com alguma versão capturada, ele é substituído por uma
+     * cópia, e é a cópia que é retornada: quem altera deve sempre usar o valor retornado.
+     * @param chave Chave a ser alterada
+     * @return Valor próprio desta versão, ou null se a chave não existir
+     */
+    @SuppressWarnings("unchecked")
+    public V paraAlterar(String chave) {
+        V valor = get(chave);
+        if (valor == null) {
+            return null;
+        }
+        if (!proprios.contains(chave)) {
+            valor = copiador.copiar(valor);
+            atualizar(chave, valor);
+            proprios.add(chave);
+        }
+        alterados.add(chave);
+        return valor;
+    }
+
+    /**
+     * Captura uma versão imutável do mapa em O(1). A versão compartilha os valores e a origem
+     * com este mapa e leva as chaves alteradas até agora, que deixam de estar registradas aqui.
+     * @return Versão capturada, que não deve ser alterada
+     */
+    public MapaSobDemanda<V> capturar() {
+        MapaSobDemanda<V> versao = new MapaSobDemanda<>(leitor, gravador, copiador);
+        versao.materializados.set(materializados.get());
+        versao.origens = origens;
+        versao.alterados = alterados;
+        alterados = ConcurrentHashMap.newKeySet();
+        capturas++;
+        proprios.clear();
+        return versao;
+    }
+
+    /**
+     * Remove todos os valores, inclusive os que só existem na origem.
+     * As chaves removidas não são registradas como alteradas: esvaziar o mapa exige um snapshot completo.
+     */
+    public void clear() {
+        materializados.set(MapaPersistente.vazio());
+        proprios.clear();
+        origens = List.of();
+    }
+
+    /**
+     * Retorna todos os valores, materializando os que ainda estão apenas no snapshot.
+     * Os registros são decodificados em paralelo, uma partição de chaves por tarefa.
+     * @return Lista com os valores do mapa no momento da chamada
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        if (!origens.isEmpty()) {
+            materializarTudo();
+        }
+        List<V> valores = new ArrayList<>(materializados.get().size());
+        materializados.get().paraCada((chave, valor) -> {
+            if (valor != REMOVIDO) {
+                valores.add((V) valor);
+            }
+        });
+        return valores;
+    }
+
+    private void materializarTudo() {
+        long capturasAntes = capturas;
+        MapaPersistente<String, Object> vistos = materializados.get();
+        int particoes = ForkJoinPool.getCommonPoolParallelism();
+        List<Callable<List<Map.Entry<String, V>>>> tarefas = new ArrayList<>();
+        for (int i = 0; i < particoes; i++) {
+            int particao = i;
+            tarefas.add(() -> {
+                List<Map.Entry<String, V>> lidos = new ArrayList<>();
+                paraCadaNaOrigem(vistos, particao, particoes, (origem, chave, posicao) ->
+                        lidos.add(new AbstractMap.SimpleImmutableEntry<>(chave, decodificar(origem, posicao))));
+                return lidos;
+            });
+        }
+        try {
+            for (List<Map.Entry<String, V>> lidos : Paralelo.executar(tarefas)) {
+                MapaPersistente<String, Object> atual;
+                MapaPersistente<String, Object> novo;
+                do {
+                    atual = materializados.get();
+                    novo = atual;
+                    for (Map.Entry<String, V> lido : lidos) {
+                        if (novo.get(lido.getKey()) == null) {
+                            novo = novo.com(lido.getKey(), lido.getValue());
+                        }
+                    }
+                } while (!materializados.compareAndSet(atual, novo));
+                for (Map.Entry<String, V> lido : lidos) {
+                    if (novo.get(lido.getKey()) == lido.getValue()) {
+                        marcarProprio(lido.getKey(), capturasAntes);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao ler registros do snapshot", e);
+        }
+    }
+
+    /**
+     * Retorna o número de valores já materializados em memória.
+     * @return Quantidade de valores materializados
+     */
+    public int getMaterializados() {
+        return materializados.get().size();
+    }
+
+    /**
+     * Indica se há chaves alteradas desde o último checkpoint.
+     * @return true se houver alterações
+     */
+    public boolean temAlteracoes() {
+        return !alterados.isEmpty();
+    }
+
+    /**
+     * Esquece as alterações registradas, depois que elas foram gravadas.
+     */
+    public void concluirCheckpoint() {
+        alterados.clear();
+    }
+
+    /**
+     * Grava todos os valores numa seção de um novo snapshot.
+     * @param destino Seção de destino
+     */
+    public void gravar(EscritorSnapshot.Secao destino) throws IOException {
+        gravar(destino, 0, 1);
+    }
+
+    /**
+     * Grava os valores de uma partição de chaves numa seção de um novo snapshot.
+     * Partições diferentes podem ser gravadas ao mesmo tempo, em seções de snapshots diferentes.
+     * @param destino Seção de destino
+     * @param particao Partição a ser gravada
+     * @param particoes Número total de partições
+     * @see FonteRegistros#particao(String, int)
+     */
+    @SuppressWarnings("unchecked")
+    public void gravar(EscritorSnapshot.Secao destino, int particao, int particoes) throws IOException {
+        MapaPersistente<String, Object> versao = materializados.get();
+        try {
+            versao.paraCada((chave, valor) -> {
+                if (valor != REMOVIDO
+                        && (particoes == 1 || FonteRegistros.particao(chave, particoes) == particao)) {
+                    try {
+                        destino.gravar(chave, (V) valor, gravador);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        paraCadaNaOrigem(versao, particao, particoes,
+                (origem, chave, posicao) -> destino.copiar(chave, origem, posicao));
+    }
+
+    /**
+     * Grava numa seção de um segmento incremental apenas as chaves alteradas desde o último
+     * checkpoint: o valor atual de cada uma, ou a sua remoção.
+     * @param destino Seção de destino
+     */
+    public void gravarAlteracoes(EscritorSnapshot.Secao destino) throws IOException {
+        for (String chave : alterados) {
+            V valor = get(chave);
+            if (valor != null) {
+                destino.gravar(chave, valor, gravador);
+            } else {
+                destino.remover(chave);
+            }
+        }
+    }
+
+    /**
+     * Visitante dos registros vigentes da origem.
+     */
+    private interface VisitanteOrigem {
+        void visitar(FonteRegistros origem, String chave, long posicao) throws IOException;
+    }
+
+    private V decodificar(FonteRegistros origem, long posicao) throws IOException {
+        return leitor.ler(origem.abrir(posicao));
+    }
+
+    /**
+     * Lê uma chave das camadas da origem, sem materializá-la.
+     */
+    private V lerDaOrigem(String chave) {
+        try {
+            for (FonteRegistros origem : origens) {
+                long posicao = origem.buscar(chave);
+                if (posicao < 0) {
+                    continue;
+                }
+                return origem.ehRemocao(posicao) ? null : decodificar(origem, posicao);
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao ler registro do snapshot: " + chave, e);
+        }
+    }
+
+    /**
+     * Marca como próprio um valor recém-decodificado, a menos que uma captura possa tê-lo levado
+     * enquanto ele era incluído no mapa: nesse caso ele é copiado na primeira alteração.
+     */
+    private void marcarProprio(String chave, long capturasAntes) {
+        proprios.add(chave);
+        if (capturas != capturasAntes) {
+            proprios.remove(chave);
+        }
+    }
+
+    /**
+     * Troca o valor de uma chave nos materializados; null retira a chave.
+     */
+    private void atualizar(String chave, Object valor) {
+        MapaPersistente<String, Object> atual;
+        do {
+            atual = materializados.get();
+        } while (!materializados.compareAndSet(atual, valor == null ? atual.sem(chave) : atual.com(chave, valor)));
+    }
+
+    /**
+     * Percorre uma vez cada chave vigente de uma partição da origem, no registro da camada mais
+     * nova que a contém. Chaves já materializadas ou removidas, na origem ou em memória, não são visitadas.
+     */
+    private void paraCadaNaOrigem(MapaPersistente<String, Object> vistos, int particao, int particoes,
+                                  VisitanteOrigem visitante) throws IOException {
+        List<FonteRegistros> camadas = origens;
+        if (camadas.isEmpty()) {
+            return;
+        }
+        if (camadas.size() == 1) {
+            FonteRegistros origem = camadas.get(0);
+            origem.paraCada(particao, particoes, (chave, posicao) -> {
+                if (vistos.get(chave) == null && !origem.ehRemocao(posicao)) {
+                    visitante.visitar(origem, chave, posicao);
+                }
+            });
+            return;
+        }
+        Set<String> vistas = new HashSet<>();
+        for (FonteRegistros origem : camadas) {
+            origem.paraCada(particao, particoes, (chave, posicao) -> {
+                if (vistas.add(chave) && vistos.get(chave) == null && !origem.ehRemocao(posicao)) {
+                    visitante.visitar(origem, chave, posicao);
+                }
+            });
+        }
+    }
+}
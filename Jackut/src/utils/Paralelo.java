@@ -0,0 +1,65 @@
+package utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Execução de tarefas de entrada e saída em paralelo no pool comum de fork-join,
+ * usada para gravar e decodificar as partições de um snapshot.
+ */
+public class Paralelo {
+
+    /**
+     * Executa as tarefas em paralelo e espera todas terminarem.
+     * @param tarefas Tarefas a serem executadas
+     * @return Resultados, na ordem das tarefas
+     * @throws IOException A primeira falha de entrada e saída de uma tarefa
+     */
+    public static <T> List<T> executar(List<Callable<T>> tarefas) throws IOException {
+        if (tarefas.size() == 1) {
+            return List.of(executarUma(tarefas.get(0)));
+        }
+        List<T> resultados = new ArrayList<>(tarefas.size());
+        for (Future<T> futuro : ForkJoinPool.commonPool().invokeAll(tarefas)) {
+            try {
+                resultados.add(futuro.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrompido durante tarefa paralela", e);
+            } catch (ExecutionException e) {
+                throw desembrulhar(e.getCause());
+            }
+        }
+        return resultados;
+    }
+
+    private static <T> T executarUma(Callable<T> tarefa) throws IOException {
+        try {
+            return tarefa.call();
+        } catch (Exception e) {
+            throw desembrulhar(e);
+        }
+    }
+
+    private static IOException desembrulhar(Throwable causa) {
+        if (causa instanceof IOException) {
+            return (IOException) causa;
+        }
+        if (causa instanceof UncheckedIOException) {
+            return ((UncheckedIOException) causa).getCause();
+        }
+        if (causa instanceof RuntimeException) {
+            throw (RuntimeException) causa;
+        }
+        if (causa instanceof Error) {
+            throw (Error) causa;
+        }
+        return new IOException(causa);
+    }
+}
@@ -1,78 +1,63 @@
 package utils;
 import java.io.*;
+import java.nio.ByteBuffer;
+import entities.RegistroLogins;
 import entities.Users;
-import entities.Systems;
 
+/**
+ * Utilitários de persistência que não dependem de um sistema em particular. O snapshot, os
+ * segmentos e o journal de cada sistema ficam a cargo do seu {@link Armazenamento}.
+ */
 public class Persistencia {
-    private static final String ARQUIVO_SISTEMA = "data/sistema.dat";
-
+    /**
+     * Grava um usuário num arquivo de registros, substituindo o registro anterior do mesmo login.
+     * @param usuario Usuário a ser gravado
+     * @param nomeArquivo Arquivo de registros
+     * @see ArquivoRegistros
+     */
     public static void salvarObjeto(Users usuario, String nomeArquivo) {
-        try (FileOutputStream fos = new FileOutputStream(nomeArquivo, true);
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-
-            oos.writeObject(usuario);
-
+        try (ArquivoRegistros registros = new ArquivoRegistros(new File(nomeArquivo))) {
+            ByteArrayOutputStream corpo = new ByteArrayOutputStream();
+            SaidaBinaria saida = new SaidaBinaria(corpo, 8192);
+            usuario.gravar(saida);
+            saida.descarregar();
+            registros.gravar(usuario.getLogin(), corpo.toByteArray());
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Lê um usuário, pelo login, de um arquivo gravado por {@link #salvarObjeto(Users, String)}.
+     * @param nomeArquivo Arquivo de registros
+     * @param login Login procurado, sem diferenciar maiúsculas e minúsculas
+     * @return Usuário encontrado, com um {@link RegistroLogins} próprio, fora de qualquer sistema,
+     *         ou null
+     */
     public static Users carregarObjeto(String nomeArquivo, String login) {
-        try (FileInputStream fis = new FileInputStream(nomeArquivo);
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
-
-            while (true) {
-                Users usuario = (Users) ois.readObject();
-                if (usuario.getLogin().equalsIgnoreCase(login)) {
-                    return usuario;
-                }
-            }
-
-        } catch (EOFException e) {
+        File arquivo = new File(nomeArquivo);
+        if (!arquivo.exists()) {
             System.out.println("Usuário não encontrado.");
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+            return null;
         }
-        return null;
-    }
-
-    public static void salvarSistema(Systems sistema) {
-        try {
-            File diretorio = new File("data");
-            if (!diretorio.exists()) {
-                diretorio.mkdirs();
-            }
-
-            try (FileOutputStream fos = new FileOutputStream(ARQUIVO_SISTEMA);
-                 ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-                oos.writeObject(sistema);
+        try (ArquivoRegistros registros = new ArquivoRegistros(arquivo)) {
+            byte[] corpo = registros.ler(login);
+            if (corpo != null) {
+                return Users.ler(new EntradaBinaria(ByteBuffer.wrap(corpo)), new RegistroLogins());
             }
+            System.out.println("Usuário não encontrado.");
         } catch (IOException e) {
-            System.err.println("Erro ao salvar o sistema: " + e.getMessage());
-        }
-    }
-
-    public static Systems carregarSistema() {
-        try {
-            File arquivo = new File(ARQUIVO_SISTEMA);
-            if (!arquivo.exists()) {
-                return new Systems();
-            }
-
-            try (FileInputStream fis = new FileInputStream(ARQUIVO_SISTEMA);
-                 ObjectInputStream ois = new ObjectInputStream(fis)) {
-                return (Systems) ois.readObject();
-            }
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Erro ao carregar o sistema: " + e.getMessage());
-            return new Systems();
+            e.printStackTrace();
         }
+        return null;
     }
 
-    public static void limparDados() {
-        File arquivo = new File(ARQUIVO_SISTEMA);
-        if (arquivo.exists()) {
-            arquivo.delete();
-        }
+    /**
+     * Retorna a razão de compressão e a vazão medidas nos snapshots gravados e lidos.
+     * A compressão é escolhida pela propriedade {@value Compressao#PROPRIEDADE}.
+     * @return Estatísticas de compressão do processo
+     */
+    public static EstatisticasCompressao getEstatisticasCompressao() {
+        return Compressao.getEstatisticas();
     }
 }
@@ -0,0 +1,169 @@
+package utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Saída do formato binário de snapshot do Jackut.
+ * Codifica inteiros como varints (LEB128), textos como UTF-8 prefixado pelo tamanho e
+ * logins através de uma tabela de strings: a primeira ocorrência grava o texto e as
+ * seguintes gravam apenas o índice na tabela.
+ */
+public class SaidaBinaria {
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+
+    private final OutputStream destino;
+    private final byte[] buffer;
+    private final Map<String, Integer> tabela = new HashMap<>();
+    private int usados;
+    private long posicao;
+
+    /**
+     * Construtor da classe SaidaBinaria.
+     * @param destino Fluxo onde os bytes codificados são gravados
+     */
+    public SaidaBinaria(OutputStream destino) {
+        this(destino, TAMANHO_BUFFER);
+    }
+
+    /**
+     * Construtor da classe SaidaBinaria com tamanho de buffer explícito.
+     * @param destino Fluxo onde os bytes codificados são gravados
+     * @param tamanhoBuffer Tamanho do buffer interno em bytes
+     */
+    public SaidaBinaria(OutputStream destino, int tamanhoBuffer) {
+        this.destino = destino;
+        this.buffer = new byte[tamanhoBuffer];
+    }
+
+    public void escreverByte(int valor) throws IOException {
+        if (usados == buffer.length) {
+            descarregar();
+        }
+        buffer[usados++] = (byte) valor;
+        posicao++;
+    }
+
+    public void escreverBytes(byte[] bytes) throws IOException {
+        escreverBytes(bytes, 0, bytes.length);
+    }
+
+    public void escreverBytes(byte[] bytes, int inicio, int tamanho) throws IOException {
+        if (tamanho > buffer.length - usados) {
+            descarregar();
+        }
+        if (tamanho > buffer.length) {
+            destino.write(bytes, inicio, tamanho);
+        } else {
+            System.arraycopy(bytes, inicio, buffer, usados, tamanho);
+            usados += tamanho;
+        }
+        posicao += tamanho;
+    }
+
+    public void escreverInt(int valor) throws IOException {
+        for (int deslocamento = 24; deslocamento >= 0; deslocamento -= 8) {
+            escreverByte(valor >>> deslocamento);
+        }
+    }
+
+    public void escreverLong(long valor) throws IOException {
+        for (int deslocamento = 56; deslocamento >= 0; deslocamento -= 8) {
+            escreverByte((int) (valor >>> deslocamento));
+        }
+    }
+
+    /**
+     * Grava um inteiro não negativo em formato varint (7 bits por byte).
+     * @param valor Valor a ser gravado
+     */
+    public void escreverVarint(long valor) throws IOException {
+        while ((valor & ~0x7FL) != 0) {
+            escreverByte((int) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        escreverByte((int) valor);
+    }
+
+    /**
+     * Grava um texto em UTF-8 prefixado pelo tamanho. O tamanho é gravado somado de um
+     * para que o valor zero represente {@code null}.
+     * @param texto Texto a ser gravado, possivelmente nulo
+     */
+    public void escreverTexto(String texto) throws IOException {
+        if (texto == null) {
+            escreverVarint(0);
+            return;
+        }
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        escreverVarint(bytes.length + 1L);
+        escreverBytes(bytes);
+    }
+
+    /**
+     * Grava um login pela tabela de strings.
+     * @param login Login a ser gravado
+     */
+    public void escreverLogin(String login) throws IOException {
+        Integer indice = tabela.get(login);
+        if (indice != null) {
+            escreverVarint(indice + 1L);
+            return;
+        }
+        tabela.put(login, tabela.size());
+        escreverVarint(0);
+        escreverTexto(login);
+    }
+
+    /**
+     * Esquece os logins já gravados, iniciando uma nova tabela de strings.
+     * Usado para que cada registro do snapshot possa ser decodificado isoladamente.
+     */
+    public void reiniciarTabela() {
+        tabela.clear();
+    }
+
+    /**
+     * Grava a quantidade de logins seguida de cada um deles, na ordem da coleção.
+     * @param logins Logins a serem gravados
+     */
+    public void escreverLogins(Collection<String> logins) throws IOException {
+        escreverVarint(logins.size());
+        for (String login : logins) {
+            escreverLogin(login);
+        }
+    }
+
+    /**
+     * Grava a quantidade de textos seguida de cada um deles, na ordem da coleção.
+     * @param textos Textos a serem gravados
+     */
+    public void escreverTextos(Collection<String> textos) throws IOException {
+        escreverVarint(textos.size());
+        for (String texto : textos) {
+            escreverTexto(texto);
+        }
+    }
+
+    /**
+     * Retorna o número de bytes gravados desde a criação da saída.
+     * @return Posição atual
+     */
+    public long getPosicao() {
+        return posicao;
+    }
+
+    /**
+     * Envia os bytes acumulados no buffer para o fluxo de destino.
+     */
+    public void descarregar() throws IOException {
+        if (usados > 0) {
+            destino.write(buffer, 0, usados);
+            usados = 0;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package utils;
+
+import entities.Comunidade;
+import entities.Systems;
+import entities.Users;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Codec do snapshot binário do Jackut, que substitui a serialização padrão do Java.
+ * O arquivo começa com o cabeçalho [magic "JKUT"][versao:byte].
+ *
+ * A versão atual (5) tem registros independentes e índices de hash, e é aberta sob demanda
+ * através de {@link SnapshotMapeado}, que também lê as versões 2 a 4. A versão 1, um fluxo único com tabela de strings global,
+ * ainda é lida por completo na carga. Snapshots gravados com {@link java.io.ObjectOutputStream}
+ * são reconhecidos pelo cabeçalho de serialização do Java e lidos por {@link Persistencia}.
+ */
+public class SnapshotBinario {
+    public static final int VERSAO = 5;
+    static final byte[] MAGIC = {'J', 'K', 'U', 'T'};
+    private static final int VERSAO_MAPEAVEL_MAIS_ANTIGA = 2;
+    private static final int VERSAO_FLUXO_UNICO = 1;
+    private static final int MAGIC_SERIALIZACAO_JAVA = 0xACED;
+
+    /**
+     * Grava o snapshot completo do sistema na versão atual.
+     * @param sistema Sistema a ser gravado
+     * @param destino Fluxo de destino
+     * @param segmento Número do último segmento incremental incluído no snapshot
+     */
+    public static void gravar(Systems sistema, OutputStream destino, long segmento) throws IOException {
+        EscritorSnapshot escritor = new EscritorSnapshot(destino, sistema.getSequenciaJournal(), segmento);
+        sistema.gravar(escritor);
+        escritor.concluir();
+    }
+
+    /**
+     * Grava o snapshot completo do sistema na versão atual, com os usuários divididos em
+     * partições por login. Cada partição e o arquivo principal, com as comunidades,
+     * são codificados em paralelo no pool comum de fork-join.
+     * @param sistema Sistema a ser gravado, que não pode ser alterado durante a gravação
+     * @param principal Fluxo do arquivo principal
+     * @param particoes Fluxos dos arquivos de partição, na ordem das partições
+     * @param segmento Número do último segmento incremental incluído no snapshot
+     * @param geracao Geração que identifica os arquivos de partição
+     */
+    public static void gravar(Systems sistema, OutputStream principal, List<OutputStream> particoes,
+                              long segmento, long geracao) throws IOException {
+        long sequencia = sistema.getSequenciaJournal();
+        List<Callable<Void>> tarefas = new ArrayList<>();
+        tarefas.add(() -> {
+            EscritorSnapshot escritor = new EscritorSnapshot(principal, sequencia, segmento, particoes.size(), geracao);
+            sistema.gravarComunidades(escritor);
+            escritor.concluir();
+            return null;
+        });
+        for (int i = 0; i < particoes.size(); i++) {
+            int particao = i;
+            tarefas.add(() -> {
+                EscritorSnapshot escritor = new EscritorSnapshot(particoes.get(particao), sequencia, segmento);
+                sistema.gravarUsuarios(escritor.getUsuarios(), particao, particoes.size());
+                escritor.concluir();
+                return null;
+            });
+        }
+        Paralelo.executar(tarefas);
+    }
+
+    /**
+     * Grava um segmento incremental com o que mudou no sistema desde o último checkpoint.
+     * @param sistema Sistema a ser gravado
+     * @param destino Fluxo de destino
+     * @param segmento Número do segmento
+     */
+    public static void gravarSegmento(Systems sistema, OutputStream destino, long segmento) throws IOException {
+        EscritorSnapshot escritor = new EscritorSnapshot(destino, sistema.getSequenciaJournal(), segmento);
+        sistema.gravarAlteracoes(escritor);
+        escritor.concluir();
+    }
+
+    /**
+     * Abre um snapshot binário de qualquer versão suportada.
+     * Na versão atual, os usuários e as comunidades são materializados no primeiro acesso,
+     * e o conteúdo informado deve continuar válido enquanto o sistema estiver em uso.
+     * @param conteudo Conteúdo do snapshot, normalmente um arquivo mapeado
+     * @return Sistema correspondente ao snapshot
+     * @throws IOException Se o conteúdo não for um snapshot binário válido ou de versão suportada
+     */
+    public static Systems abrir(ByteBuffer conteudo) throws IOException {
+        if (!ehSnapshotBinario(conteudo)) {
+            throw new IOException("Arquivo não é um snapshot binário do Jackut");
+        }
+        int versao = conteudo.get(conteudo.position() + MAGIC.length);
+        if (versao == VERSAO_FLUXO_UNICO) {
+            return lerFluxoUnico(new EntradaBinaria(conteudo.duplicate().position(MAGIC.length + 1)));
+        }
+        if (!ehMapeavel(conteudo)) {
+            throw new IOException("Versão de snapshot não suportada: " + versao);
+        }
+        SnapshotMapeado snapshot = new SnapshotMapeado(conteudo);
+        if (snapshot.getParticoes() > 0) {
+            throw new IOException("Snapshot particionado deve ser aberto com os arquivos das partições");
+        }
+        return new Systems(List.of(snapshot));
+    }
+
+    /**
+     * Lê um snapshot da versão 1: sequência do journal, usuários, sessões e comunidades,
+     * todos num único fluxo que compartilha a tabela de logins. As sessões são descartadas.
+     */
+    private static Systems lerFluxoUnico(EntradaBinaria entrada) throws IOException {
+        Systems sistema = new Systems();
+        sistema.setSequenciaJournal(entrada.lerVarint());
+        int usuarios = entrada.lerQuantidade();
+        for (int i = 0; i < usuarios; i++) {
+            sistema.restaurarUsuario(Users.lerSemIndices(entrada, sistema.getRegistroLogins()));
+        }
+        int sessoes = entrada.lerQuantidade();
+        for (int i = 0; i < sessoes; i++) {
+            entrada.lerTexto();
+            entrada.lerLogin();
+        }
+        int comunidades = entrada.lerQuantidade();
+        for (int i = 0; i < comunidades; i++) {
+            sistema.restaurarComunidade(Comunidade.lerSemMensagens(entrada, sistema.getRegistroLogins()));
+        }
+        return sistema;
+    }
+
+    /**
+     * Verifica se o conteúdo, a partir da posição atual, começa com o cabeçalho do snapshot binário.
+     * @param origem Conteúdo a ser verificado
+     * @return true se for um snapshot binário
+     */
+    public static boolean ehSnapshotBinario(ByteBuffer origem) {
+        if (origem.remaining() < MAGIC.length + 1) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (origem.get(origem.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Verifica se o conteúdo é um snapshot binário que pode ser aberto por {@link SnapshotMapeado}.
+     * @param origem Conteúdo a ser verificado
+     * @return true se for um snapshot binário da versão 2 ou posterior
+     */
+    public static boolean ehMapeavel(ByteBuffer origem) {
+        if (!ehSnapshotBinario(origem)) {
+            return false;
+        }
+        int versao = origem.get(origem.position() + MAGIC.length);
+        return versao >= VERSAO_MAPEAVEL_MAIS_ANTIGA && versao <= VERSAO;
+    }
+
+    /**
+     * Verifica se o conteúdo, a partir da posição atual, foi gravado pela serialização padrão do Java.
+     * @param origem Conteúdo a ser verificado
+     * @return true se for um snapshot no formato antigo
+     */
+    public static boolean ehSerializacaoJava(ByteBuffer origem) {
+        return origem.remaining() >= 2
+                && (origem.getShort(origem.position()) & 0xFFFF) == MAGIC_SERIALIZACAO_JAVA;
+    }
+}
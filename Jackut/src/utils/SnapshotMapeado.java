@@ -0,0 +1,284 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot binário (versões 2 a 5) lido através de um arquivo mapeado em memória.
+ * Abrir o snapshot custa apenas a leitura do cabeçalho e do trailer: os usuários e as
+ * comunidades são localizados por um índice de hash gravado no próprio arquivo e só são
+ * decodificados quando acessados pela primeira vez.
+ *
+ * Layout do arquivo:
+ * <pre>
+ * [magic "JKUT"][versao:byte][sequenciaJournal:long][segmento:long][particoes:int][geracao:long]
+ * registros de usuários e comunidades: [tamanho:int][corpo], cada um com sua tabela de strings
+ * sessões: [quantidade:varint]([id:texto][login:texto])*
+ * índice de usuários e índice de comunidades: [capacidade:int][quantidade:int]([hash:int][posicao:long])*
+ * trailer: [posicaoIndiceUsuarios:long][posicaoIndiceComunidades:long][posicaoSessoes:long][magic "JKUT"]
+ * </pre>
+ * O corpo de cada registro começa com a sua chave (login ou nome da comunidade).
+ *
+ * A versão 3 acrescenta o que os segmentos incrementais precisam: o número do segmento no
+ * cabeçalho (num snapshot base, o do último segmento incluído nele), registros de remoção,
+ * cujo tamanho tem o bit mais alto ligado e que só contêm a chave, e a posição de sessões
+ * igual a zero, que indica que o segmento não alterou as sessões. A versão 2 não tem o número
+ * do segmento no cabeçalho.
+ *
+ * As sessões deixaram de ser persistidas: os snapshots gravados agora têm a posição de sessões
+ * igual a zero, e as sessões de snapshots mais antigos são ignoradas na leitura.
+ *
+ * A versão 4 permite dividir os usuários de um snapshot base em partições, cada uma num arquivo
+ * com o mesmo layout. O arquivo principal guarda as comunidades, o número de
+ * partições e a geração que identifica os arquivos delas; a sua seção de usuários fica vazia.
+ * Os arquivos das partições e os segmentos têm zero partições. As versões 2 e 3 não têm esses
+ * campos no cabeçalho.
+ *
+ * A versão 5 tem o mesmo layout; os registros de usuários passam a terminar com os índices
+ * reversos de relacionamentos, que os registros das versões anteriores não têm.
+ */
+public class SnapshotMapeado {
+    static final int TAMANHO_CABECALHO = 4 + 1 + 8 + 8 + 4 + 8;
+    private static final int TAMANHO_CABECALHO_SEM_PARTICOES = 4 + 1 + 8 + 8;
+    private static final int TAMANHO_CABECALHO_SEM_SEGMENTO = 4 + 1 + 8;
+    static final int TAMANHO_TRAILER = 8 + 8 + 8 + 4;
+    static final int TAMANHO_SLOT = 4 + 8;
+    static final int MARCA_REMOCAO = 0x80000000;
+    private static final int VERSAO_SEM_REMOCOES = 2;
+    private static final int VERSAO_SEM_PARTICOES = 3;
+    private static final int VERSAO_SEM_INDICES_REVERSOS = 4;
+
+    private final ByteBuffer dados;
+    private final int versao;
+    private final long sequenciaJournal;
+    private final long segmento;
+    private final int particoes;
+    private final long geracao;
+    private final int inicioRegistros;
+    private FonteRegistros usuarios;
+    private final Secao comunidades;
+
+    /**
+     * Construtor da classe SnapshotMapeado.
+     * @param dados Conteúdo completo do snapshot, normalmente um arquivo mapeado
+     * @throws IOException Se o conteúdo não for um snapshot versão 2 ou 3 válido
+     */
+    public SnapshotMapeado(ByteBuffer dados) throws IOException {
+        this.dados = dados;
+        if (!SnapshotBinario.ehMapeavel(dados)
+                || dados.limit() < TAMANHO_CABECALHO_SEM_SEGMENTO + TAMANHO_TRAILER) {
+            throw new IOException("Arquivo não é um snapshot binário mapeável");
+        }
+        int trailer = dados.limit() - TAMANHO_TRAILER;
+        for (int i = 0; i < SnapshotBinario.MAGIC.length; i++) {
+            if (dados.get(trailer + 24 + i) != SnapshotBinario.MAGIC[i]) {
+                throw new IOException("Snapshot incompleto: trailer ausente");
+            }
+        }
+        this.sequenciaJournal = dados.getLong(5);
+        this.versao = dados.get(4);
+        this.segmento = versao == VERSAO_SEM_REMOCOES ? 0 : dados.getLong(13);
+        this.particoes = versao > VERSAO_SEM_PARTICOES ? dados.getInt(21) : 0;
+        this.geracao = versao > VERSAO_SEM_PARTICOES ? dados.getLong(25) : 0;
+        if (versao == VERSAO_SEM_REMOCOES) {
+            this.inicioRegistros = TAMANHO_CABECALHO_SEM_SEGMENTO;
+        } else if (versao == VERSAO_SEM_PARTICOES) {
+            this.inicioRegistros = TAMANHO_CABECALHO_SEM_PARTICOES;
+        } else {
+            this.inicioRegistros = TAMANHO_CABECALHO;
+        }
+        if (particoes < 0) {
+            throw new IOException("Número de partições inválido no snapshot: " + particoes);
+        }
+        this.usuarios = new Secao(posicao(dados.getLong(trailer)));
+        this.comunidades = new Secao(posicao(dados.getLong(trailer + 8)));
+    }
+
+    /**
+     * Mapeia um arquivo de snapshot em memória, descomprimindo-o se ele for comprimido.
+     * @param arquivo Arquivo do snapshot
+     * @return Snapshot mapeado
+     * @see Compressao#ler(File)
+     */
+    public static SnapshotMapeado abrir(File arquivo) throws IOException {
+        return new SnapshotMapeado(Compressao.ler(arquivo));
+    }
+
+    /**
+     * Mapeia um arquivo inteiro em memória, somente para leitura.
+     * O mapeamento continua válido depois que o canal é fechado.
+     * @param arquivo Arquivo a ser mapeado
+     * @return Conteúdo mapeado
+     */
+    public static ByteBuffer mapear(File arquivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo.toPath(), StandardOpenOption.READ)) {
+            if (canal.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot maior que 2 GB não pode ser mapeado: " + arquivo);
+            }
+            return canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+        }
+    }
+
+    private int posicao(long posicao) throws IOException {
+        if (posicao < inicioRegistros || posicao > dados.limit() - TAMANHO_TRAILER) {
+            throw new IOException("Posição inválida no snapshot: " + posicao);
+        }
+        return (int) posicao;
+    }
+
+    public long getSequenciaJournal() {
+        return sequenciaJournal;
+    }
+
+    /**
+     * Verifica se os registros de usuários deste snapshot trazem os índices reversos de
+     * relacionamentos.
+     * @return true se o snapshot é da versão 5 ou posterior
+     */
+    public boolean temIndicesReversos() {
+        return versao > VERSAO_SEM_INDICES_REVERSOS;
+    }
+
+    /**
+     * Retorna o número do segmento. Num snapshot base, é o do último segmento incluído nele.
+     * @return Número do segmento, ou zero se nenhum segmento tiver sido incluído
+     */
+    public long getSegmento() {
+        return segmento;
+    }
+
+    /**
+     * Retorna o número de arquivos de partição dos usuários deste snapshot base.
+     * @return Número de partições, ou zero se os usuários estiverem no próprio arquivo
+     */
+    public int getParticoes() {
+        return particoes;
+    }
+
+    /**
+     * Retorna a geração que identifica os arquivos de partição deste snapshot base.
+     * @return Geração das partições
+     */
+    public long getGeracao() {
+        return geracao;
+    }
+
+    /**
+     * Passa a ler os usuários dos arquivos de partição, já mapeados.
+     * @param arquivos Partições, na ordem, em número igual a {@link #getParticoes()}
+     * @throws IOException Se o número de partições não corresponder ao cabeçalho
+     */
+    public void anexarParticoes(List<SnapshotMapeado> arquivos) throws IOException {
+        if (arquivos.size() != particoes) {
+            throw new IOException("Esperadas " + particoes + " partições, encontradas " + arquivos.size());
+        }
+        List<FonteRegistros> fontes = new ArrayList<>();
+        for (SnapshotMapeado arquivo : arquivos) {
+            fontes.add(arquivo.getUsuarios());
+        }
+        usuarios = new FonteParticionada(fontes);
+    }
+
+    public FonteRegistros getUsuarios() {
+        return usuarios;
+    }
+
+    public Secao getComunidades() {
+        return comunidades;
+    }
+
+    /**
+     * Posição do slot inicial de uma chave num índice com a capacidade informada (potência de dois).
+     */
+    static int slot(int hash, int capacidade) {
+        return (hash ^ (hash >>> 16)) & (capacidade - 1);
+    }
+
+    /**
+     * Conjunto de registros com chave (usuários ou comunidades) e o seu índice de hash.
+     */
+    public class Secao implements FonteRegistros {
+        private final int inicioSlots;
+        private final int capacidade;
+        private final int quantidade;
+
+        private Secao(int posicaoIndice) throws IOException {
+            this.capacidade = dados.getInt(posicaoIndice);
+            this.quantidade = dados.getInt(posicaoIndice + 4);
+            this.inicioSlots = posicaoIndice + 8;
+            if (Integer.bitCount(capacidade) != 1 || quantidade > capacidade
+                    || inicioSlots + (long) capacidade * TAMANHO_SLOT > dados.limit()) {
+                throw new IOException("Índice inválido no snapshot");
+            }
+        }
+
+        @Override
+        public int getQuantidade() {
+            return quantidade;
+        }
+
+        @Override
+        public long buscar(String chave) throws IOException {
+            int hash = chave.hashCode();
+            for (int i = slot(hash, capacidade), tentativas = 0; tentativas < capacidade;
+                 i = (i + 1) & (capacidade - 1), tentativas++) {
+                int base = inicioSlots + i * TAMANHO_SLOT;
+                long posicao = dados.getLong(base + 4);
+                if (posicao == 0) {
+                    return -1;
+                }
+                if (dados.getInt(base) == hash && chave.equals(lerChave(posicao))) {
+                    return posicao;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public EntradaBinaria abrir(long posicao) throws IOException {
+            int tamanho = dados.getInt(posicao(posicao)) & ~MARCA_REMOCAO;
+            int inicio = (int) posicao + 4;
+            if (tamanho < 0 || inicio + tamanho > dados.limit()) {
+                throw new IOException("Registro inválido no snapshot na posição " + posicao);
+            }
+            return new EntradaBinaria(dados.duplicate().position(inicio).limit(inicio + tamanho));
+        }
+
+        @Override
+        public boolean ehRemocao(long posicao) throws IOException {
+            return (dados.getInt(posicao(posicao)) & MARCA_REMOCAO) != 0;
+        }
+
+        @Override
+        public void copiar(long posicao, SaidaBinaria saida) throws IOException {
+            int cabecalho = dados.getInt(posicao(posicao));
+            byte[] corpo = new byte[cabecalho & ~MARCA_REMOCAO];
+            dados.duplicate().position((int) posicao + 4).get(corpo);
+            saida.escreverInt(cabecalho);
+            saida.escreverBytes(corpo);
+        }
+
+        /**
+         * Percorre todos os registros da seção, incluindo as remoções, na ordem do índice.
+         * @param visitante Função chamada com a chave e a posição de cada registro
+         */
+        @Override
+        public void paraCada(Visitante visitante) throws IOException {
+            for (int i = 0; i < capacidade; i++) {
+                long posicao = dados.getLong(inicioSlots + i * TAMANHO_SLOT + 4);
+                if (posicao != 0) {
+                    visitante.visitar(lerChave(posicao), posicao);
+                }
+            }
+        }
+
+        private String lerChave(long posicao) throws IOException {
+            return abrir(posicao).lerLogin();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Conjunto fixo de travas repartidas por chave (lock striping). Cada chave corresponde sempre à
+ * mesma trava, e chaves diferentes podem compartilhar uma, de modo que o número de travas não
+ * cresce com o número de usuários.
+ *
+ * Quando uma operação precisa de várias chaves, as travas são adquiridas em ordem crescente de
+ * índice, a mesma para todas as threads, o que impede que duas operações se bloqueiem mutuamente.
+ */
+public class TravasParticionadas {
+
+    /**
+     * Travas adquiridas por {@link #travar(String...)}, liberadas ao fechar.
+     */
+    public interface Liberacao extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final ReentrantLock[] travas;
+
+    /**
+     * Construtor da classe TravasParticionadas.
+     * @param quantidade Número mínimo de travas, arredondado para a potência de 2 seguinte
+     */
+    public TravasParticionadas(int quantidade) {
+        int potencia = Integer.highestOneBit(Math.max(1, quantidade - 1)) << 1;
+        travas = new ReentrantLock[potencia];
+        for (int i = 0; i < potencia; i++) {
+            travas[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Adquire as travas das chaves informadas, em ordem crescente de índice.
+     * Chaves null são ignoradas e chaves que compartilham uma trava a adquirem uma vez só.
+     * @param chaves Chaves a serem travadas
+     * @return Liberação das travas adquiridas
+     */
+    public Liberacao travar(String... chaves) {
+        return travar(Arrays.asList(chaves));
+    }
+
+    /**
+     * Adquire as travas das chaves informadas, em ordem crescente de índice.
+     * @param chaves Chaves a serem travadas
+     * @return Liberação das travas adquiridas
+     * @see #travar(String...)
+     */
+    public Liberacao travar(Collection<String> chaves) {
+        int[] indices = new int[chaves.size()];
+        int quantidade = 0;
+        for (String chave : chaves) {
+            if (chave != null) {
+                indices[quantidade++] = indice(chave);
+            }
+        }
+        Arrays.sort(indices, 0, quantidade);
+        int distintos = 0;
+        for (int i = 0; i < quantidade; i++) {
+            if (distintos == 0 || indices[distintos - 1] != indices[i]) {
+                indices[distintos++] = indices[i];
+            }
+        }
+        int adquiridas = 0;
+        try {
+            for (; adquiridas < distintos; adquiridas++) {
+                travas[indices[adquiridas]].lock();
+            }
+        } catch (RuntimeException | Error e) {
+            liberar(indices, adquiridas);
+            throw e;
+        }
+        int total = distintos;
+        return () -> liberar(indices, total);
+    }
+
+    private void liberar(int[] indices, int quantidade) {
+        for (int i = quantidade - 1; i >= 0; i--) {
+            travas[indices[i]].unlock();
+        }
+    }
+
+    private int indice(String chave) {
+        int hash = chave.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (travas.length - 1);
+    }
+}
@@ -0,0 +1,15 @@
+package utils.legado;
+
+import java.io.Serializable;
+import java.util.Set;
+
+/**
+ * Cópia congelada dos campos de {@code entities.relationship.AbstractRelationship}
+ * no formato da serialização padrão do Java.
+ */
+// os tipos dos campos precisam ser os da classe original, ou a desserialização recusa o formato
+@SuppressWarnings("serial")
+abstract class AbstractRelationship implements Serializable {
+    private static final long serialVersionUID = 1L;
+    Set<String> relationships;
+}
@@ -0,0 +1,17 @@
+package utils.legado;
+
+import java.io.Serializable;
+import java.util.Set;
+
+/**
+ * Cópia congelada dos campos de {@code entities.Comunidade} no formato da serialização padrão do Java.
+ */
+// os tipos dos campos precisam ser os da classe original, ou a desserialização recusa o formato
+@SuppressWarnings("serial")
+class Comunidade implements Serializable {
+    private static final long serialVersionUID = 7623466513685923934L;
+    String nome;
+    String descricao;
+    String dono;
+    Set<String> membros;
+}
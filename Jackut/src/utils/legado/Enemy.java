@@ -0,0 +1,5 @@
+package utils.legado;
+
+class Enemy extends AbstractRelationship {
+    private static final long serialVersionUID = 1L;
+}
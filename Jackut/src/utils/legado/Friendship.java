@@ -0,0 +1,5 @@
+package utils.legado;
+
+class Friendship extends AbstractRelationship {
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,131 @@
+package utils.legado;
+
+import entities.RegistroLogins;
+import exceptionsJackut.JackutException;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Leitor dos snapshots gravados com a serialização padrão do Java, antes do formato binário.
+ * As classes do stream são resolvidas para cópias congeladas dos campos antigos (a serialização
+ * compara apenas o nome simples das classes), e o estado lido é reconstruído através da API
+ * pública das entidades. Assim as entidades podem mudar de representação sem perder a migração.
+ */
+public class LeitorLegado {
+    private static final Map<String, Class<?>> CLASSES = new HashMap<>();
+
+    static {
+        CLASSES.put("entities.Systems", Systems.class);
+        CLASSES.put("entities.Users", Users.class);
+        CLASSES.put("entities.SocialManager", SocialManager.class);
+        CLASSES.put("entities.Comunidade", Comunidade.class);
+        CLASSES.put("entities.relationship.AbstractRelationship", AbstractRelationship.class);
+        CLASSES.put("entities.relationship.Friendship", Friendship.class);
+        CLASSES.put("entities.relationship.Fan", Fan.class);
+        CLASSES.put("entities.relationship.Enemy", Enemy.class);
+    }
+
+    /**
+     * Lê um snapshot no formato antigo.
+     * @param arquivo Arquivo gravado com {@link java.io.ObjectOutputStream}
+     * @return Sistema reconstruído
+     */
+    public static entities.Systems ler(File arquivo) throws IOException {
+        try (InputStream entrada = new BufferedInputStream(new FileInputStream(arquivo));
+             ObjectInputStream ois = new ObjectInputStream(entrada) {
+                 @Override
+                 protected Class<?> resolveClass(ObjectStreamClass descricao) throws IOException, ClassNotFoundException {
+                     Class<?> classe = CLASSES.get(descricao.getName());
+                     return classe != null ? classe : super.resolveClass(descricao);
+                 }
+             }) {
+            return converter((Systems) ois.readObject());
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Snapshot antigo inválido: " + e.getMessage(), e);
+        }
+    }
+
+    private static entities.Systems converter(Systems antigo) {
+        entities.Systems sistema = new entities.Systems();
+        RegistroLogins registroLogins = sistema.getRegistroLogins();
+        sistema.setSequenciaJournal(antigo.sequenciaJournal);
+        for (Users usuario : vazioSeNulo(antigo.usuarios).values()) {
+            sistema.restaurarUsuario(converter(usuario, registroLogins));
+        }
+        if (antigo.socialManager != null) {
+            for (Comunidade comunidade : vazioSeNulo(antigo.socialManager.comunidades).values()) {
+                sistema.restaurarComunidade(converter(comunidade, registroLogins));
+            }
+        }
+        return sistema;
+    }
+
+    private static entities.Users converter(Users antigo, RegistroLogins registroLogins) {
+        entities.Users usuario = new entities.Users(antigo.login, antigo.senha, antigo.nome, registroLogins);
+        vazioSeNulo(antigo.atributos).forEach(usuario::setAtributo);
+        for (String amigo : relacionamentos(antigo, "amigo")) {
+            usuario.aceitarConvite(registroLogins.id(amigo));
+        }
+        for (String fa : relacionamentos(antigo, "fa")) {
+            usuario.adicionarFa(registroLogins.id(fa));
+        }
+        // os conjuntos antigos não têm repetições nem o próprio login, então as validações não falham
+        for (String inimigo : relacionamentos(antigo, "inimigo")) {
+            try {
+                usuario.adicionarInimigo(registroLogins.id(inimigo));
+            } catch (JackutException e) {
+                System.err.println("Inimigo ignorado na migração de " + antigo.login + ": " + e.getMessage());
+            }
+        }
+        for (String paquera : antigo.paqueras) {
+            try {
+                usuario.adicionarPaquera(registroLogins.id(paquera));
+            } catch (JackutException e) {
+                System.err.println("Paquera ignorada na migração de " + antigo.login + ": " + e.getMessage());
+            }
+        }
+        for (String idolo : antigo.idolos) {
+            try {
+                usuario.adicionarIdolo(registroLogins.id(idolo));
+            } catch (JackutException e) {
+                System.err.println("Ídolo ignorado na migração de " + antigo.login + ": " + e.getMessage());
+            }
+        }
+        antigo.convitesPendentes.forEach(convite -> usuario.adicionarConvite(registroLogins.id(convite)));
+        antigo.comunidades.forEach(usuario::adicionarComunidade);
+        antigo.recados.forEach(usuario::receberRecado);
+        antigo.mensagens.forEach(usuario::receberMensagem);
+        return usuario;
+    }
+
+    private static entities.Comunidade converter(Comunidade antigo, RegistroLogins registroLogins) {
+        entities.Comunidade comunidade = new entities.Comunidade(antigo.nome, antigo.descricao, antigo.dono,
+                registroLogins);
+        for (String membro : antigo.membros) {
+            try {
+                comunidade.adicionarMembro(registroLogins.id(membro));
+            } catch (JackutException e) {
+                // o dono já é adicionado pelo construtor
+            }
+        }
+        return comunidade;
+    }
+
+    private static Iterable<String> relacionamentos(Users antigo, String tipo) {
+        AbstractRelationship relacionamento = vazioSeNulo(antigo.relationships).get(tipo);
+        return relacionamento == null ? Collections.emptySet() : relacionamento.relationships;
+    }
+
+    private static <K, V> Map<K, V> vazioSeNulo(Map<K, V> mapa) {
+        return mapa == null ? Collections.emptyMap() : mapa;
+    }
+}
@@ -0,0 +1,14 @@
+package utils.legado;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Cópia congelada dos campos de {@code entities.SocialManager} no formato da serialização padrão do Java.
+ */
+// os tipos dos campos precisam ser os da classe original, ou a desserialização recusa o formato
+@SuppressWarnings("serial")
+class SocialManager implements Serializable {
+    private static final long serialVersionUID = 8356326533519506236L;
+    Map<String, Comunidade> comunidades;
+}
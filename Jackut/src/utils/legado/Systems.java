@@ -0,0 +1,18 @@
+package utils.legado;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Cópia congelada dos campos de {@code entities.Systems} no formato da serialização padrão do Java.
+ * Usada apenas para ler snapshots antigos; veja {@link LeitorLegado}.
+ */
+// os tipos dos campos precisam ser os da classe original, ou a desserialização recusa o formato
+@SuppressWarnings("serial")
+class Systems implements Serializable {
+    private static final long serialVersionUID = 1L;
+    Map<String, Users> usuarios;
+    Map<String, String> sessoes;
+    SocialManager socialManager;
+    long sequenciaJournal;
+}
@@ -0,0 +1,26 @@
+package utils.legado;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Cópia congelada dos campos de {@code entities.Users} no formato da serialização padrão do Java.
+ */
+// os tipos dos campos precisam ser os da classe original, ou a desserialização recusa o formato
+@SuppressWarnings("serial")
+class Users implements Serializable {
+    private static final long serialVersionUID = 1L;
+    String login;
+    String senha;
+    String nome;
+    Map<String, String> atributos;
+    Map<String, AbstractRelationship> relationships;
+    Set<String> convitesPendentes;
+    Set<String> comunidades;
+    Queue<String> recados;
+    Queue<String> mensagens;
+    Set<String> paqueras;
+    Set<String> idolos;
+}